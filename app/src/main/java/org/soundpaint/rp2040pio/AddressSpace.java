@@ -39,6 +39,25 @@ public abstract class AddressSpace
 
   private static AccessMethod[] ACCESS_METHODS = AccessMethod.values();
 
+  /**
+   * Receiver of values sampled while running clock cycles.
+   *
+   * @see #runCycles
+   */
+  @FunctionalInterface
+  public static interface SampleConsumer
+  {
+    /**
+     * Called for each chunk of consecutively sampled cycles.  The
+     * value of probe number p in cycle number c of the chunk is
+     * found at index (c * number of probes + p) of the samples
+     * array.  The array is owned by the caller and may be reused for
+     * subsequent chunks, hence its contents is valid only for the
+     * duration of this call.
+     */
+    void accept(final int[] samples, final int cycles) throws IOException;
+  }
+
   protected static void checkAddressAligned(final int address)
   {
     if ((address & 0x3) != 0x0) {
@@ -67,16 +86,278 @@ public abstract class AddressSpace
 
   public abstract int readAddress(final int address) throws IOException;
 
+  /**
+   * Reads all of the specified addresses and returns their values in
+   * the same order.  This default implementation just performs one
+   * call of method <code>readAddress()</code> per address.
+   * Implementations should override this method such that all
+   * addresses are read as a whole, i.e. without any clock phase
+   * being executed in between, and with as little communication
+   * overhead as possible.
+   */
+  public int[] readAddresses(final int[] addresses) throws IOException
+  {
+    if (addresses == null) {
+      throw new NullPointerException("addresses");
+    }
+    final int[] values = new int[addresses.length];
+    for (int index = 0; index < addresses.length; index++) {
+      values[index] = readAddress(addresses[index]);
+    }
+    return values;
+  }
+
   public abstract void writeAddressMasked(final int address, final int bits,
                                           final int mask, final boolean xor)
     throws IOException;
 
+  /**
+   * Applies all writes of the specified batch in the order they have
+   * been added to the batch.  This default implementation just
+   * performs one call of method <code>writeAddressMasked()</code> per
+   * entry.  Implementations should override this method such that
+   * the batch is applied as a whole, i.e. without any clock phase
+   * being executed in between, and with as little communication
+   * overhead as possible.
+   */
+  public void writeAddressesMasked(final WriteBatch batch) throws IOException
+  {
+    if (batch == null) {
+      throw new NullPointerException("batch");
+    }
+    for (int index = 0; index < batch.size(); index++) {
+      writeAddressMasked(batch.getAddress(index), batch.getBits(index),
+                         batch.getMask(index), batch.getXor(index));
+    }
+  }
+
+  /**
+   * Writes the specified instructions into consecutive locations of
+   * the specified PIO's instruction memory, starting at the specified
+   * offset and wrapping around at the end of instruction memory.  The
+   * instructions are written as a whole, i.e. no clock phase will be
+   * executed while only part of the instructions has been written.
+   * This default implementation writes the instructions as a single
+   * batch of writes.
+   */
+  public void writeInstructionMemory(final int pioNum, final int offset,
+                                     final short[] instructions)
+    throws IOException
+  {
+    Constants.checkPioNum(pioNum, "PIO index number");
+    Constants.checkSmMemAddr(offset, "offset");
+    if (instructions == null) {
+      throw new NullPointerException("instructions");
+    }
+    if (instructions.length > Constants.MEMORY_SIZE) {
+      throw new IllegalArgumentException("instructions length > " +
+                                         Constants.MEMORY_SIZE + ": " +
+                                         instructions.length);
+    }
+    final WriteBatch batch = new WriteBatch(Constants.MEMORY_SIZE);
+    for (int index = 0; index < instructions.length; index++) {
+      final int memoryAddress =
+        (offset + index) & (Constants.MEMORY_SIZE - 1);
+      batch.add(PIORegisters.getMemoryAddress(pioNum, memoryAddress),
+                instructions[index] & 0xffff, ~0x0, false);
+    }
+    writeAddressesMasked(batch);
+  }
+
   public abstract int waitAddress(final int address, final int expectedValue,
                                   final int mask,
                                   final long cyclesTimeout,
                                   final long millisTimeout)
     throws IOException;
 
+  protected static void checkRunCyclesArgs(final Probe[] probes,
+                                           final int cycles,
+                                           final int chunkCycles)
+  {
+    if (probes == null) {
+      throw new NullPointerException("probes");
+    }
+    for (final Probe probe : probes) {
+      if (probe == null) {
+        throw new NullPointerException("probe");
+      }
+    }
+    if (cycles < 0) {
+      throw new IllegalArgumentException("cycles < 0: " + cycles);
+    }
+    if (chunkCycles < 0) {
+      throw new IllegalArgumentException("chunkCycles < 0: " + chunkCycles);
+    }
+  }
+
+  /**
+   * Runs the specified number of clock cycles and evaluates the
+   * specified probes once per cycle, when phase 0 of the
+   * cycle has been completed.  The clock must be in single step
+   * mode.  If the clock is amid a cycle, that cycle is completed
+   * first without being sampled.
+   *
+   * @return The packed values of all samples, with the value of
+   * probe number p in cycle number c found at index (c *
+   * probes.length + p).
+   */
+  public int[] runCycles(final Probe[] probes, final int cycles)
+    throws IOException
+  {
+    checkRunCyclesArgs(probes, cycles, 0);
+    final int[] result = new int[cycles * probes.length];
+    runCycles(probes, cycles, 0, (samples, chunkCycles) -> {
+        System.arraycopy(samples, 0, result, 0, chunkCycles * probes.length);
+      });
+    return result;
+  }
+
+  /**
+   * Streaming variant of method runCycles().  Samples are delivered
+   * to the specified consumer in chunks of the specified number of
+   * cycles (except for the last chunk, which may be smaller), or in
+   * a single chunk, if chunkCycles is 0.  This default
+   * implementation triggers and awaits each clock phase via the
+   * emulator's clock trigger registers and reads each register that
+   * a probe depends on separately.  Implementations should override this
+   * method to sample more efficiently.
+   */
+  public void runCycles(final Probe[] probes, final int cycles,
+                        final int chunkCycles, final SampleConsumer consumer)
+    throws IOException
+  {
+    checkRunCyclesArgs(probes, cycles, chunkCycles);
+    if (consumer == null) {
+      throw new NullPointerException("consumer");
+    }
+    final int triggerPhase0Address =
+      PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.
+                                  MASTERCLK_TRIGGER_PHASE0);
+    final int triggerPhase1Address =
+      PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.
+                                  MASTERCLK_TRIGGER_PHASE1);
+    if (readAddress(triggerPhase0Address) != 0x0) {
+      // amid a cycle => complete it first
+      writeAddress(triggerPhase1Address, 0);
+      while (readAddress(triggerPhase1Address) == 0x0) {
+        Thread.yield();
+      }
+    }
+    final int chunkSize =
+      (chunkCycles > 0) && (chunkCycles < cycles) ? chunkCycles : cycles;
+    final int[] samples = new int[chunkSize * probes.length];
+    int remaining = cycles;
+    while (remaining > 0) {
+      final int chunk = Math.min(chunkSize, remaining);
+      int index = 0;
+      for (int cycle = 0; cycle < chunk; cycle++) {
+        writeAddress(triggerPhase0Address, 0);
+        while (readAddress(triggerPhase0Address) == 0x0) {
+          Thread.yield();
+        }
+        for (final Probe probe : probes) {
+          samples[index++] = probe.evaluate(this::readAddress);
+        }
+        writeAddress(triggerPhase1Address, 0);
+        while (readAddress(triggerPhase1Address) == 0x0) {
+          Thread.yield();
+        }
+      }
+      consumer.accept(samples, chunk);
+      remaining -= chunk;
+    }
+  }
+
+  /**
+   * Subscribes for the values of the specified probes being sampled
+   * in every subsequent cycle that the emulator performs, no matter
+   * who triggers the cycle, and buffered for up to the specified
+   * number of cycles until being fetched.  If the subscription is
+   * lossless, the emulator pauses while the buffer is full;
+   * otherwise, the oldest buffered cycles are discarded.  This
+   * default implementation does not support subscriptions.
+   *
+   * @return The ID of the subscription.
+   * @see SampleSubscription
+   */
+  public int subscribe(final Probe[] probes, final int capacityCycles,
+                       final boolean lossless)
+    throws IOException
+  {
+    throw new IOException("sample subscriptions not supported");
+  }
+
+  /**
+   * Fetches up to the specified number of the oldest buffered cycles
+   * of the specified subscription, waiting for at most the specified
+   * number of milliseconds (or not at all, if 0), if there is none.
+   * The value of probe number p in cycle number c is stored at index
+   * (c * number of probes + p) of the specified array.
+   *
+   * @return The number of cycles fetched.
+   */
+  public int fetchSamples(final int subscriptionId, final int[] samples,
+                          final int maxCycles, final long millisTimeout)
+    throws IOException
+  {
+    throw new IOException("sample subscriptions not supported");
+  }
+
+  public SampleSubscription.Statistics
+    getSubscriptionStatistics(final int subscriptionId)
+    throws IOException
+  {
+    throw new IOException("sample subscriptions not supported");
+  }
+
+  public void unsubscribe(final int subscriptionId) throws IOException
+  {
+    throw new IOException("sample subscriptions not supported");
+  }
+
+  /**
+   * Fetches the records of the emulator's always-on state trace for
+   * up to the specified number of most recent cycles, e.g. for
+   * inspecting the history of all state machines after a breakpoint
+   * has been hit.  This default implementation does not support
+   * state traces.
+   *
+   * @see StateTrace
+   */
+  public StateTrace.Snapshot fetchStateTrace(final long maxCycles)
+    throws IOException
+  {
+    throw new IOException("state trace not supported");
+  }
+
+  /**
+   * Starts recording an execution trace of the specified state
+   * machine, that records only those decisions of the state machine
+   * that are needed for offline reconstruction of its instruction
+   * sequence.  This default implementation does not support
+   * execution traces.
+   *
+   * @see ExecTrace
+   */
+  public void startExecTrace(final int pioNum, final int smNum)
+    throws IOException
+  {
+    throw new IOException("execution traces not supported");
+  }
+
+  /**
+   * Stops recording the execution trace of the specified state
+   * machine and returns the recording.  This default implementation
+   * does not support execution traces.
+   *
+   * @see ExecTrace
+   */
+  public ExecTrace.Recording stopExecTrace(final int pioNum, final int smNum)
+    throws IOException
+  {
+    throw new IOException("execution traces not supported");
+  }
+
   public void writeAddress(final int address, final int value)
     throws IOException
   {
@@ -0,0 +1,903 @@
+/*
+ * @(#)BatchJob.java 1.00 26/10/19
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.LineNumberReader;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import org.soundpaint.rp2040pio.monitor.Monitor;
+import org.soundpaint.rp2040pio.monitor.commands.Script;
+import org.soundpaint.rp2040pio.sdk.SDK;
+
+/**
+ * A self-contained simulation job: setup script, stimulus, stop
+ * conditions and which outputs to record.  All referenced files are
+ * read when the job is loaded, such that a job can be encoded into a
+ * single compact string and executed elsewhere, e.g. by a worker
+ * process of a job farm.
+ *
+ * A job is loaded from a properties file with the following keys
+ * (relative paths are resolved against the job file's directory):
+ *
+ * <pre>
+ * setup=PATH             monitor script that loads the programs and
+ *                        configures state machines, clock dividers,
+ *                        pins etc.
+ * tx.PIO.SM=PATH         words to feed into the TX FIFO of the
+ *                        specified state machine as fast as it
+ *                        consumes them
+ * gpio-input=PATH        lines of the form "CYCLE VALUE [MASK]" that
+ *                        set the external GPIO input levels as of
+ *                        the specified cycle
+ * cycles=COUNT           maximum number of cycles to run (mandatory)
+ * stop.rx-words=COUNT    stop after COUNT words have been received
+ *                        from all RX FIFOs in total
+ * stop.tx-drained=true   stop as soon as all TX data has been consumed
+ * stop.irq.PIO=MASK      stop when any of the PIO's IRQ flags in MASK
+ *                        is set
+ * output.gpio=PATH       write GPIO pad output levels and enables
+ *                        whenever they change
+ * output.rx=PATH         write all words received from RX FIFOs
+ * output.report=PATH     write the run's statistics
+ * </pre>
+ *
+ * Numbers may be specified in decimal, or in hexadecimal with prefix
+ * "0x".  In word and GPIO input files, "#" starts a comment.  All
+ * cycle numbers count from the start of the run, i.e. after the setup
+ * script has completed.
+ */
+public class BatchJob
+{
+  private static final int ENCODING_VERSION = 1;
+
+  public static final String GPIO_OUTPUT_HEADER = "# cycle padout padoe\n";
+  public static final String RX_OUTPUT_HEADER = "# cycle pio sm value\n";
+
+  /**
+   * Receives the results of a job while it is running.  Methods are
+   * called by the emulation thread.
+   */
+  public interface Listener
+  {
+    void rxWord(final long cycle, final int pioNum, final int smNum,
+                final int value)
+      throws IOException;
+
+    void gpioChanged(final long cycle, final int padOut, final int padOe)
+      throws IOException;
+  }
+
+  /**
+   * Statistics of a completed run.
+   */
+  public static class Result
+  {
+    private final String stopReason;
+    private final long cycles;
+    private final long nanos;
+    private final long peakHeapBytes;
+    private final long txWords;
+    private final long rxWords;
+
+    public Result(final String stopReason, final long cycles,
+                  final long nanos, final long peakHeapBytes,
+                  final long txWords, final long rxWords)
+    {
+      if (stopReason == null) {
+        throw new NullPointerException("stopReason");
+      }
+      this.stopReason = stopReason;
+      this.cycles = cycles;
+      this.nanos = nanos;
+      this.peakHeapBytes = peakHeapBytes;
+      this.txWords = txWords;
+      this.rxWords = rxWords;
+    }
+
+    public String getStopReason() { return stopReason; }
+
+    public long getCycles() { return cycles; }
+
+    public long getNanos() { return nanos; }
+
+    public long getPeakHeapBytes() { return peakHeapBytes; }
+
+    public long getTxWords() { return txWords; }
+
+    public long getRxWords() { return rxWords; }
+
+    public double getCyclesPerSecond()
+    {
+      return nanos > 0 ? cycles / (nanos * 1.0e-9) : 0.0;
+    }
+
+    public String getReport()
+    {
+      return
+        String.format("stop reason: %s%n" +
+                      "cycles: %d%n" +
+                      "seconds: %.3f%n" +
+                      "cycles per second: %.0f%n" +
+                      "peak heap MiB: %.1f%n" +
+                      "tx words: %d%n" +
+                      "rx words: %d%n",
+                      stopReason, cycles, nanos * 1.0e-9,
+                      getCyclesPerSecond(),
+                      peakHeapBytes / (1024.0 * 1024.0),
+                      txWords, rxWords);
+    }
+  }
+
+  /**
+   * Words to be written into the TX FIFO of a specific state machine.
+   */
+  private static class TxSource
+  {
+    private final int pioNum;
+    private final int smNum;
+    private final int[] words;
+
+    private TxSource(final int pioNum, final int smNum, final int[] words)
+    {
+      this.pioNum = pioNum;
+      this.smNum = smNum;
+      this.words = words;
+    }
+  }
+
+  /**
+   * A change of external GPIO input levels at a specific cycle.
+   */
+  private static class InputEvent
+  {
+    private final long cycle;
+    private final int value;
+    private final int mask;
+
+    private InputEvent(final long cycle, final int value, final int mask)
+    {
+      this.cycle = cycle;
+      this.value = value;
+      this.mask = mask;
+    }
+  }
+
+  private final String jobId;
+  private String setupId;
+  private String setup;
+  private long cycles;
+  private final List<TxSource> txSources;
+  private final List<InputEvent> inputEvents;
+  private long stopRxWords;
+  private boolean stopTxDrained;
+  private final int[] stopIrqMasks;
+  private boolean recordGpio;
+  private boolean recordRx;
+  private String outputGpio;
+  private String outputRx;
+  private String outputReport;
+
+  private BatchJob()
+  {
+    throw new UnsupportedOperationException("unsupported empty constructor");
+  }
+
+  private BatchJob(final String jobId)
+  {
+    if (jobId == null) {
+      throw new NullPointerException("jobId");
+    }
+    this.jobId = jobId;
+    setupId = null;
+    setup = null;
+    cycles = 0;
+    txSources = new ArrayList<TxSource>();
+    inputEvents = new ArrayList<InputEvent>();
+    stopRxWords = 0;
+    stopTxDrained = false;
+    stopIrqMasks = new int[Constants.PIO_NUM];
+    recordGpio = false;
+    recordRx = false;
+    outputGpio = null;
+    outputRx = null;
+    outputReport = null;
+  }
+
+  public String getJobId() { return jobId; }
+
+  public long getCycles() { return cycles; }
+
+  public void setCycles(final long cycles)
+  {
+    if (cycles <= 0) {
+      throw new IllegalArgumentException("cycles <= 0: " + cycles);
+    }
+    this.cycles = cycles;
+  }
+
+  public boolean getRecordGpio() { return recordGpio; }
+
+  public boolean getRecordRx() { return recordRx; }
+
+  /**
+   * @return Local path of the GPIO output file, or null, if not
+   * specified.  Not part of the encoded job.
+   */
+  public String getOutputGpio() { return outputGpio; }
+
+  /**
+   * @return Local path of the RX output file, or null, if not
+   * specified.  Not part of the encoded job.
+   */
+  public String getOutputRx() { return outputRx; }
+
+  /**
+   * @return Local path of the report file, or null, if not
+   * specified.  Not part of the encoded job.
+   */
+  public String getOutputReport() { return outputReport; }
+
+  private static long parseNumber(final String number,
+                                  final String context)
+    throws IOException
+  {
+    try {
+      return Long.decode(number.trim());
+    } catch (final NumberFormatException e) {
+      throw new IOException(String.format("%s: invalid number: %s",
+                                          context, number));
+    }
+  }
+
+  private static int parseWord(final String number, final String context)
+    throws IOException
+  {
+    final long value = parseNumber(number, context);
+    if ((value < Integer.MIN_VALUE) || (value > 0xffffffffL)) {
+      throw new IOException(String.format("%s: number out of 32 bit " +
+                                          "range: %s", context, number));
+    }
+    return (int)value;
+  }
+
+  private static int parsePioNum(final String pio, final String context)
+    throws IOException
+  {
+    final long pioNum = parseNumber(pio, context);
+    if ((pioNum < 0) || (pioNum >= Constants.PIO_NUM)) {
+      throw new IOException(context + ": invalid PIO number");
+    }
+    return (int)pioNum;
+  }
+
+  private static String resolve(final File jobDir, final String path)
+  {
+    final File file = new File(path);
+    if (file.isAbsolute()) return path;
+    final File resolved = new File(jobDir, path);
+    // fall back to resource path, e.g. for built-in examples
+    return resolved.exists() ? resolved.getPath() : path;
+  }
+
+  private static String resolveOutput(final File jobDir, final String path)
+  {
+    final File file = new File(path);
+    return file.isAbsolute() ? path : new File(jobDir, path).getPath();
+  }
+
+  private static String readText(final String path) throws IOException
+  {
+    try (final InputStream in = IOUtils.getStreamForResourcePath(path)) {
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   * Returns the lines of the specified file split into tokens, with
+   * comments and empty lines removed.
+   */
+  private static List<String[]> readTokens(final String path)
+    throws IOException
+  {
+    final List<String[]> lines = new ArrayList<String[]>();
+    try (final LineNumberReader in = IOUtils.getReaderForResourcePath(path)) {
+      String line;
+      while ((line = in.readLine()) != null) {
+        final int commentPos = line.indexOf('#');
+        if (commentPos >= 0) line = line.substring(0, commentPos);
+        line = line.trim();
+        if (!line.isEmpty()) {
+          lines.add(line.split("\\s+"));
+        }
+      }
+    }
+    return lines;
+  }
+
+  private static int[] readWords(final String path) throws IOException
+  {
+    final List<Integer> words = new ArrayList<Integer>();
+    for (final String[] tokens : readTokens(path)) {
+      for (final String token : tokens) {
+        words.add(parseWord(token, path));
+      }
+    }
+    return words.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  private void readInputEvents(final String path) throws IOException
+  {
+    for (final String[] tokens : readTokens(path)) {
+      if ((tokens.length < 2) || (tokens.length > 3)) {
+        throw new IOException(String.format("%s: expected \"CYCLE VALUE " +
+                                            "[MASK]\": %s", path,
+                                            String.join(" ", tokens)));
+      }
+      final long cycle = parseNumber(tokens[0], path);
+      if (cycle < 0) {
+        throw new IOException(String.format("%s: negative cycle: %s",
+                                            path, tokens[0]));
+      }
+      final int value = parseWord(tokens[1], path);
+      final int mask = tokens.length > 2 ? parseWord(tokens[2], path) : ~0;
+      inputEvents.add(new InputEvent(cycle, value, mask));
+    }
+    sortInputEvents();
+  }
+
+  private void sortInputEvents()
+  {
+    // stable sort, such that events of the same cycle keep their order
+    inputEvents.sort(Comparator.comparingLong(event -> event.cycle));
+  }
+
+  /**
+   * Loads a job from the specified properties file, including the
+   * contents of all files that it refers to.  Like all other files
+   * of a job, the properties file itself may also be a built-in
+   * resource, e.g. "/examples/uart-tx.properties".
+   */
+  public static BatchJob load(final String jobPath) throws IOException
+  {
+    if (jobPath == null) {
+      throw new NullPointerException("jobPath");
+    }
+    final Properties properties = new Properties();
+    try (final InputStream in = IOUtils.getStreamForResourcePath(jobPath)) {
+      properties.load(in);
+    }
+    final File jobFile = new File(jobPath).getAbsoluteFile();
+    final File jobDir = jobFile.getParentFile();
+    final BatchJob job = new BatchJob(jobFile.getName());
+    for (final String key : properties.stringPropertyNames()) {
+      final String value = properties.getProperty(key).trim();
+      final String context = jobPath + ": " + key;
+      final String[] parts = key.split("\\.");
+      if (key.equals("setup")) {
+        job.setupId = value;
+        job.setup = readText(resolve(jobDir, value));
+      } else if (key.equals("cycles")) {
+        job.cycles = parseNumber(value, context);
+      } else if (key.equals("gpio-input")) {
+        job.readInputEvents(resolve(jobDir, value));
+      } else if (key.equals("stop.rx-words")) {
+        job.stopRxWords = parseNumber(value, context);
+      } else if (key.equals("stop.tx-drained")) {
+        job.stopTxDrained = Boolean.parseBoolean(value);
+      } else if (key.equals("output.gpio")) {
+        job.recordGpio = true;
+        job.outputGpio = resolveOutput(jobDir, value);
+      } else if (key.equals("output.rx")) {
+        job.recordRx = true;
+        job.outputRx = resolveOutput(jobDir, value);
+      } else if (key.equals("output.report")) {
+        job.outputReport = resolveOutput(jobDir, value);
+      } else if ((parts.length == 3) && parts[0].equals("tx")) {
+        final int pioNum = parsePioNum(parts[1], context);
+        final int smNum = (int)parseNumber(parts[2], context);
+        if ((smNum < 0) || (smNum >= Constants.SM_COUNT)) {
+          throw new IOException(context + ": invalid state machine number");
+        }
+        job.txSources.add(new TxSource(pioNum, smNum,
+                                       readWords(resolve(jobDir, value))));
+      } else if ((parts.length == 3) &&
+                 parts[0].equals("stop") && parts[1].equals("irq")) {
+        job.stopIrqMasks[parsePioNum(parts[2], context)] =
+          parseWord(value, context) & 0xff;
+      } else {
+        throw new IOException(context + ": unknown key");
+      }
+    }
+    if (job.cycles <= 0) {
+      throw new IOException(jobPath + ": cycles: missing or not positive");
+    }
+    return job;
+  }
+
+  private static void writeString(final DataOutputStream out,
+                                  final String s)
+    throws IOException
+  {
+    out.writeBoolean(s != null);
+    if (s != null) {
+      final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private static String readString(final DataInputStream in)
+    throws IOException
+  {
+    if (!in.readBoolean()) return null;
+    final byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Encodes the job as deflated binary data in Base64 representation,
+   * i.e. as a single line of text.  Local output paths are not
+   * encoded, only whether outputs are to be recorded.
+   */
+  public String encode() throws IOException
+  {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (final DataOutputStream out =
+         new DataOutputStream(new DeflaterOutputStream(bytes))) {
+      out.writeInt(ENCODING_VERSION);
+      writeString(out, jobId);
+      writeString(out, setupId);
+      writeString(out, setup);
+      out.writeLong(cycles);
+      out.writeInt(txSources.size());
+      for (final TxSource txSource : txSources) {
+        out.writeByte(txSource.pioNum);
+        out.writeByte(txSource.smNum);
+        out.writeInt(txSource.words.length);
+        for (final int word : txSource.words) {
+          out.writeInt(word);
+        }
+      }
+      out.writeInt(inputEvents.size());
+      for (final InputEvent event : inputEvents) {
+        out.writeLong(event.cycle);
+        out.writeInt(event.value);
+        out.writeInt(event.mask);
+      }
+      out.writeLong(stopRxWords);
+      out.writeBoolean(stopTxDrained);
+      for (final int mask : stopIrqMasks) {
+        out.writeByte(mask);
+      }
+      out.writeBoolean(recordGpio);
+      out.writeBoolean(recordRx);
+    }
+    return Base64.getEncoder().encodeToString(bytes.toByteArray());
+  }
+
+  /**
+   * Reconstructs a job from the output of method
+   * <code>encode()</code>.
+   */
+  public static BatchJob decode(final String encoded) throws IOException
+  {
+    if (encoded == null) {
+      throw new NullPointerException("encoded");
+    }
+    final byte[] bytes;
+    try {
+      bytes = Base64.getDecoder().decode(encoded);
+    } catch (final IllegalArgumentException e) {
+      throw new IOException("invalid job encoding: " + e.getMessage());
+    }
+    try (final DataInputStream in =
+         new DataInputStream(new InflaterInputStream
+                             (new ByteArrayInputStream(bytes)))) {
+      final int version = in.readInt();
+      if (version != ENCODING_VERSION) {
+        throw new IOException("unsupported job encoding version: " +
+                              version);
+      }
+      final BatchJob job = new BatchJob(readString(in));
+      job.setupId = readString(in);
+      job.setup = readString(in);
+      job.cycles = in.readLong();
+      final int txSourceCount = in.readInt();
+      for (int index = 0; index < txSourceCount; index++) {
+        final int pioNum = in.readByte();
+        final int smNum = in.readByte();
+        if ((pioNum < 0) || (pioNum >= Constants.PIO_NUM) ||
+            (smNum < 0) || (smNum >= Constants.SM_COUNT)) {
+          throw new IOException("invalid job encoding: bad TX source");
+        }
+        final int[] words = new int[in.readInt()];
+        for (int wordIndex = 0; wordIndex < words.length; wordIndex++) {
+          words[wordIndex] = in.readInt();
+        }
+        job.txSources.add(new TxSource(pioNum, smNum, words));
+      }
+      final int inputEventCount = in.readInt();
+      for (int index = 0; index < inputEventCount; index++) {
+        final long cycle = in.readLong();
+        final int value = in.readInt();
+        final int mask = in.readInt();
+        job.inputEvents.add(new InputEvent(cycle, value, mask));
+      }
+      job.sortInputEvents();
+      job.stopRxWords = in.readLong();
+      job.stopTxDrained = in.readBoolean();
+      for (int pioNum = 0; pioNum < Constants.PIO_NUM; pioNum++) {
+        job.stopIrqMasks[pioNum] = in.readByte() & 0xff;
+      }
+      job.recordGpio = in.readBoolean();
+      job.recordRx = in.readBoolean();
+      if (job.cycles <= 0) {
+        throw new IOException("invalid job encoding: bad cycle limit");
+      }
+      return job;
+    }
+  }
+
+  private static List<MemoryPoolMXBean> getHeapPools()
+  {
+    final List<MemoryPoolMXBean> heapPools = new ArrayList<MemoryPoolMXBean>();
+    for (final MemoryPoolMXBean pool :
+           ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        heapPools.add(pool);
+      }
+    }
+    return heapPools;
+  }
+
+  private static long getPeakHeapBytes(final List<MemoryPoolMXBean> pools)
+  {
+    long bytes = 0;
+    for (final MemoryPoolMXBean pool : pools) {
+      bytes += pool.getPeakUsage().getUsed();
+    }
+    return bytes;
+  }
+
+  /**
+   * Per-cycle work on behalf of the job, run by the emulation thread
+   * right after the rising edge of each cycle: apply GPIO input,
+   * feed TX FIFOs, drain RX FIFOs, record GPIO output and check stop
+   * conditions.
+   */
+  private class Driver implements Runnable
+  {
+    private final Emulator emulator;
+    private final Listener listener;
+    private final MasterClock masterClock;
+    private final GPIO gpio;
+    private final long startCycle;
+    private final long stopCycle;
+    private final FIFO[] fifos;
+    private final FIFO[] txFifos;
+    private final int[] txIndices;
+    private final CountDownLatch stopped;
+    private int nextInputEvent;
+    private int lastPadOut;
+    private int lastPadOe;
+    private long rxWords;
+    private long txWords;
+    private String stopReason;
+    private IOException error;
+    private volatile boolean abandoned;
+
+    private Driver(final Emulator emulator, final Listener listener)
+    {
+      this.emulator = emulator;
+      this.listener = listener;
+      masterClock = emulator.getMasterClock();
+      gpio = emulator.getGPIO();
+      startCycle = masterClock.getWallClock();
+      stopCycle = startCycle + cycles;
+      fifos = new FIFO[Constants.PIO_NUM * Constants.SM_COUNT];
+      for (int pioNum = 0; pioNum < Constants.PIO_NUM; pioNum++) {
+        final PIO pio = pioNum == 0 ? emulator.getPIO0() : emulator.getPIO1();
+        for (int smNum = 0; smNum < Constants.SM_COUNT; smNum++) {
+          fifos[pioNum * Constants.SM_COUNT + smNum] =
+            pio.getSM(smNum).getFIFO();
+        }
+      }
+      txFifos = new FIFO[txSources.size()];
+      for (int index = 0; index < txFifos.length; index++) {
+        final TxSource txSource = txSources.get(index);
+        txFifos[index] =
+          fifos[txSource.pioNum * Constants.SM_COUNT + txSource.smNum];
+      }
+      txIndices = new int[txSources.size()];
+      stopped = new CountDownLatch(1);
+      nextInputEvent = 0;
+      lastPadOut = ~gpio.getGPIO_PADOUT();
+      lastPadOe = ~gpio.getGPIO_PADOE();
+      rxWords = 0;
+      txWords = 0;
+      stopReason = null;
+      error = null;
+      abandoned = false;
+    }
+
+    /**
+     * Applies all input events up to and including the specified
+     * cycle (relative to start of run).
+     */
+    private void applyInput(final long cycle)
+    {
+      while ((nextInputEvent < inputEvents.size()) &&
+             (inputEvents.get(nextInputEvent).cycle <= cycle)) {
+        final InputEvent event = inputEvents.get(nextInputEvent++);
+        gpio.setGPIO_PADIN(event.value, event.mask, false);
+      }
+    }
+
+    private void feedTx()
+    {
+      for (int index = 0; index < txFifos.length; index++) {
+        final int[] words = txSources.get(index).words;
+        final FIFO fifo = txFifos[index];
+        while ((txIndices[index] < words.length) && !fifo.fstatTxFull()) {
+          fifo.txDMAWrite(words[txIndices[index]++]);
+          txWords++;
+        }
+      }
+    }
+
+    private boolean isTxDrained()
+    {
+      for (int index = 0; index < txFifos.length; index++) {
+        if ((txIndices[index] < txSources.get(index).words.length) ||
+            !txFifos[index].fstatTxEmpty()) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void drainRx(final long cycle) throws IOException
+    {
+      for (int index = 0; index < fifos.length; index++) {
+        final FIFO fifo = fifos[index];
+        // with joined TX, the RX side has no storage of its own, and
+        // its DMA access would hand out TX words
+        if (fifo.getJoinTX()) continue;
+        for (int level = fifo.getRXLevel(); level > 0; level--) {
+          final int value = fifo.rxDMARead();
+          rxWords++;
+          if (recordRx) {
+            listener.rxWord(cycle, index / Constants.SM_COUNT,
+                            index % Constants.SM_COUNT, value);
+          }
+        }
+      }
+    }
+
+    private void recordGpio(final long cycle) throws IOException
+    {
+      if (!recordGpio) return;
+      final int padOut = gpio.getGPIO_PADOUT();
+      final int padOe = gpio.getGPIO_PADOE();
+      if ((padOut != lastPadOut) || (padOe != lastPadOe)) {
+        lastPadOut = padOut;
+        lastPadOe = padOe;
+        listener.gpioChanged(cycle, padOut, padOe);
+      }
+    }
+
+    private String checkStopConditions(final long wallClock)
+    {
+      if (wallClock + 1 >= stopCycle) {
+        return "cycle limit reached";
+      }
+      if ((stopRxWords > 0) && (rxWords >= stopRxWords)) {
+        return String.format("%d RX words received", rxWords);
+      }
+      if (stopTxDrained && !txSources.isEmpty() && isTxDrained()) {
+        return "TX data drained";
+      }
+      for (int pioNum = 0; pioNum < Constants.PIO_NUM; pioNum++) {
+        final int mask = stopIrqMasks[pioNum];
+        if (mask == 0) continue;
+        final PIO pio = pioNum == 0 ? emulator.getPIO0() : emulator.getPIO1();
+        final int flags = pio.getIRQ().getIRQ() & mask;
+        if (flags != 0) {
+          return String.format("PIO%d IRQ flags 0x%02x raised", pioNum, flags);
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Prepares the first cycle.
+     */
+    private void start() throws IOException
+    {
+      applyInput(0);
+      feedTx();
+      recordGpio(0);
+    }
+
+    @Override
+    public void run()
+    {
+      if ((stopReason != null) || abandoned) return;
+      final long wallClock = masterClock.getWallClock();
+      final long cycle = wallClock - startCycle;
+      try {
+        drainRx(cycle);
+        recordGpio(cycle);
+        // prepare the next cycle
+        applyInput(cycle + 1);
+        feedTx();
+      } catch (final IOException e) {
+        error = e;
+        stopReason = "I/O error: " + e.getMessage();
+      }
+      if (stopReason == null) {
+        stopReason = checkStopConditions(wallClock);
+      }
+      if (stopReason != null) {
+        // completes the current cycle, then waits for single steps
+        masterClock.setMode(MasterClock.Mode.SINGLE_STEP);
+        stopped.countDown();
+      }
+    }
+  }
+
+  private boolean runSetup(final SDK sdk) throws IOException
+  {
+    if (setup == null) return true;
+    try (final LineNumberReader in =
+         new LineNumberReader(new StringReader(setup))) {
+      final Script script =
+        new Script(sdk.getConsole(), Monitor.getMiniMonitor(null, sdk));
+      return script.executeScript(in, setupId, false);
+    }
+  }
+
+  /**
+   * Runs the job on an embedded emulator of its own at maximum
+   * speed.
+   *
+   * @param console Receives the console output of the emulator and
+   * the setup script.
+   * @param listener Receives the recorded outputs while the job is
+   * running.
+   * @return Statistics of the run, or null, if the setup script
+   * failed.
+   */
+  public Result execute(final PrintStream console, final Listener listener)
+    throws IOException
+  {
+    return execute(console, listener, 0);
+  }
+
+  /**
+   * Runs the job on an embedded emulator of its own at maximum
+   * speed, but gives up, if the job does not stop within the
+   * specified time.  Either way, the emulator is terminated before
+   * this method returns.
+   *
+   * @param console Receives the console output of the emulator and
+   * the setup script.
+   * @param listener Receives the recorded outputs while the job is
+   * running.
+   * @param timeout Maximum wall-clock time in milliseconds to wait
+   * for the job to stop, or 0 for no limit.
+   * @return Statistics of the run, or null, if the setup script
+   * failed.
+   * @throws IOException If the job fails or does not stop in time.
+   */
+  public Result execute(final PrintStream console, final Listener listener,
+                        final long timeout)
+    throws IOException
+  {
+    if (console == null) {
+      throw new NullPointerException("console");
+    }
+    if (listener == null) {
+      throw new NullPointerException("listener");
+    }
+    if (timeout < 0) {
+      throw new IllegalArgumentException("timeout < 0: " + timeout);
+    }
+    final Emulator emulator = new Emulator(console, 0); // no state trace
+    try {
+      final SDK sdk = new SDK(console, new LocalAddressSpace(emulator));
+      if (!runSetup(sdk)) {
+        return null;
+      }
+      final MasterClock masterClock = emulator.getMasterClock();
+      masterClock.setMode(MasterClock.Mode.SINGLE_STEP);
+      final Driver driver = new Driver(emulator, listener);
+      driver.start();
+      final List<MemoryPoolMXBean> heapPools = getHeapPools();
+      for (final MemoryPoolMXBean pool : heapPools) {
+        pool.resetPeakUsage();
+      }
+      final long startTime = System.nanoTime();
+      masterClock.addCycleSampler(driver);
+      // frequency 0 means: no throttling, i.e. run as fast as possible
+      masterClock.setMASTERCLK_FREQ(0);
+      masterClock.setMode(MasterClock.Mode.TARGET_FREQUENCY);
+      try {
+        if (timeout == 0) {
+          driver.stopped.await();
+        } else if (!driver.stopped.await(timeout, TimeUnit.MILLISECONDS)) {
+          // no longer feed or record anything, even if the emulation
+          // thread happens to complete further cycles
+          driver.abandoned = true;
+          throw new IOException(String.format("job %s timed out after %d ms",
+                                              jobId, timeout));
+        }
+      } catch (final InterruptedException e) {
+        throw new IOException("interrupted while running job " + jobId);
+      } finally {
+        masterClock.setMode(MasterClock.Mode.SINGLE_STEP);
+        masterClock.removeCycleSampler(driver);
+      }
+      final long nanos = System.nanoTime() - startTime;
+      if (driver.error != null) {
+        throw driver.error;
+      }
+      return new Result(driver.stopReason,
+                        masterClock.getWallClock() - driver.startCycle,
+                        nanos, getPeakHeapBytes(heapPools),
+                        driver.txWords, driver.rxWords);
+    } finally {
+      emulator.terminate();
+    }
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
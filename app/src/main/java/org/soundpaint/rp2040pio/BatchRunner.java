@@ -0,0 +1,279 @@
+/*
+ * @(#)BatchRunner.java 1.00 26/10/19
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs a single simulation job headless, on an embedded emulator at
+ * maximum speed, i.e. without emulation server, monitor or socket.
+ * See class BatchJob for the format of job files.
+ */
+public class BatchRunner
+{
+  private static final String APP_TITLE = "BatchRunner";
+  private static final String APP_FULL_NAME =
+    "Headless Batch Simulation Runner Version 0.1";
+
+  private static final CmdOptions.FlagOptionDeclaration optVersion =
+    CmdOptions.createFlagOption(false, 'V', "version", CmdOptions.Flag.OFF,
+                                "display version information and exit");
+  private static final CmdOptions.FlagOptionDeclaration optHelp =
+    CmdOptions.createFlagOption(false, 'h', "help", CmdOptions.Flag.OFF,
+                                "display this help text and exit");
+  private static final CmdOptions.StringOptionDeclaration optJob =
+    CmdOptions.createStringOption("PATH", false, 'j', "job", null,
+                                  "properties file that describes the job " +
+                                  "to run, e.g. " +
+                                  "/examples/uart-tx.properties");
+  private static final CmdOptions.IntegerOptionDeclaration optCycles =
+    CmdOptions.createIntegerOption("COUNT", false, 'c', "cycles", 0,
+                                   "if greater than 0, overrides the job's " +
+                                   "maximum number of cycles");
+  private static final CmdOptions.FlagOptionDeclaration optVerbose =
+    CmdOptions.createFlagOption(false, 'v', "verbose", CmdOptions.Flag.OFF,
+                                "print console output of setup script " +
+                                "also if it succeeds");
+  private static final List<CmdOptions.OptionDeclaration<?>>
+    optionDeclarations =
+    Arrays.asList(new CmdOptions.OptionDeclaration<?>[]
+                  { optVersion, optHelp, optJob, optCycles, optVerbose });
+
+  private final PrintStream console;
+  private final CmdOptions options;
+
+  private BatchRunner()
+  {
+    throw new UnsupportedOperationException("unsupported empty constructor");
+  }
+
+  public BatchRunner(final PrintStream console, final String[] argv)
+    throws IOException
+  {
+    if (console == null) {
+      throw new NullPointerException("console");
+    }
+    this.console = console;
+    options = parseArgs(argv);
+  }
+
+  private CmdOptions parseArgs(final String argv[]) throws IOException
+  {
+    final CmdOptions options;
+    try {
+      options = new CmdOptions(APP_TITLE, APP_FULL_NAME, null,
+                               optionDeclarations);
+      options.parse(argv);
+      checkValidity(options);
+    } catch (final CmdOptions.ParseException e) {
+      final String message =
+        String.format("parsing command line failed: %s", e.getMessage());
+      throw new IOException(message);
+    }
+    if (options.getValue(optVersion) == CmdOptions.Flag.ON) {
+      printAbout();
+      return null;
+    }
+    if (options.getValue(optHelp) == CmdOptions.Flag.ON) {
+      console.println(options.getFullInfo());
+      return null;
+    }
+    if (options.getValue(optJob) == null) {
+      throw new IOException("missing job file, use option \"-j\"");
+    }
+    return options;
+  }
+
+  private void checkValidity(final CmdOptions options)
+    throws CmdOptions.ParseException
+  {
+    if (options.getValue(optCycles) < 0) {
+      throw new CmdOptions.
+        ParseException("COUNT must be a non-negative value", optCycles);
+    }
+  }
+
+  private void printAbout()
+  {
+    console.printf("%s for%n%s%n%s%n",
+                   APP_FULL_NAME,
+                   Constants.getEmulatorIdAndVersionWithOs(),
+                   Constants.getCmdLineCopyrightNotice());
+  }
+
+  private static Writer openOutput(final String path, final String header)
+    throws IOException
+  {
+    if (path == null) return null;
+    final Writer out =
+      new BufferedWriter(new FileWriter(path, StandardCharsets.UTF_8),
+                         1 << 16);
+    out.write(header);
+    return out;
+  }
+
+  private static void closeOutput(final Writer out) throws IOException
+  {
+    if (out != null) {
+      out.close();
+    }
+  }
+
+  /**
+   * Writes recorded outputs to local files in the same format as the
+   * job farm does.
+   */
+  public static class FileListener implements BatchJob.Listener
+  {
+    private final Writer gpioOut;
+    private final Writer rxOut;
+
+    public FileListener(final String gpioPath, final String rxPath)
+      throws IOException
+    {
+      gpioOut = openOutput(gpioPath, BatchJob.GPIO_OUTPUT_HEADER);
+      try {
+        rxOut = openOutput(rxPath, BatchJob.RX_OUTPUT_HEADER);
+      } catch (final IOException e) {
+        closeOutput(gpioOut);
+        throw e;
+      }
+    }
+
+    @Override
+    public void rxWord(final long cycle, final int pioNum, final int smNum,
+                       final int value)
+      throws IOException
+    {
+      if (rxOut != null) {
+        rxOut.write(String.format("%d %d %d 0x%08x%n",
+                                  cycle, pioNum, smNum, value));
+      }
+    }
+
+    @Override
+    public void gpioChanged(final long cycle, final int padOut,
+                            final int padOe)
+      throws IOException
+    {
+      if (gpioOut != null) {
+        gpioOut.write(String.format("%d 0x%08x 0x%08x%n",
+                                    cycle, padOut, padOe));
+      }
+    }
+
+    public void close() throws IOException
+    {
+      try {
+        closeOutput(gpioOut);
+      } finally {
+        closeOutput(rxOut);
+      }
+    }
+  }
+
+  public static void writeReport(final String path, final String report)
+    throws IOException
+  {
+    if (path != null) {
+      try (final Writer out = new FileWriter(path, StandardCharsets.UTF_8)) {
+        out.write(report);
+      }
+    }
+  }
+
+  private int runJob(final BatchJob job) throws IOException
+  {
+    final boolean verbose = options.getValue(optVerbose) == CmdOptions.Flag.ON;
+    final ByteArrayOutputStream setupOutput = new ByteArrayOutputStream();
+    final PrintStream emulatorConsole =
+      verbose ? console :
+      new PrintStream(setupOutput, true, StandardCharsets.UTF_8);
+    final FileListener listener =
+      new FileListener(job.getOutputGpio(), job.getOutputRx());
+    final BatchJob.Result result;
+    try {
+      result = job.execute(emulatorConsole, listener);
+    } finally {
+      listener.close();
+    }
+    if (result == null) {
+      if (!verbose) {
+        console.print(setupOutput.toString(StandardCharsets.UTF_8));
+      }
+      console.printf("setup script of job %s failed%n", job.getJobId());
+      return -1;
+    }
+    final String report = result.getReport();
+    console.print(report);
+    writeReport(job.getOutputReport(), report);
+    return 0;
+  }
+
+  private int run() throws IOException
+  {
+    if (options == null) {
+      // version or help info has been displayed
+      return 0;
+    }
+    final BatchJob job = BatchJob.load(options.getValue(optJob));
+    final int cycles = options.getValue(optCycles);
+    if (cycles > 0) {
+      job.setCycles(cycles);
+    }
+    return runJob(job);
+  }
+
+  public static int main(final String argv[], final PrintStream out)
+  {
+    try {
+      return new BatchRunner(out, argv).run();
+    } catch (final IOException e) {
+      out.println(e.getMessage());
+      return -1;
+    }
+  }
+
+  public static void main(final String argv[])
+  {
+    final int exitCode = main(argv, System.out);
+    System.exit(exitCode);
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -25,6 +25,7 @@
 package org.soundpaint.rp2040pio;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.List;
@@ -51,10 +52,36 @@ public class EmulationServer
                                    Constants.
                                    REGISTER_SERVER_DEFAULT_PORT_NUMBER,
                                    "use PORT as server port number");
+  private static final CmdOptions.FlagOptionDeclaration optWorker =
+    CmdOptions.createFlagOption(false, 'w', "worker", CmdOptions.Flag.OFF,
+                                "rather than serving a single emulator's " +
+                                "registers, act as worker of a job farm " +
+                                "that runs simulation jobs on behalf of a " +
+                                "coordinator");
+  private static final CmdOptions.IntegerOptionDeclaration optSlots =
+    CmdOptions.createIntegerOption("COUNT", false, 'n', "slots",
+                                   Runtime.getRuntime().availableProcessors(),
+                                   "in worker mode, run at most COUNT jobs " +
+                                   "at the same time");
+  private static final CmdOptions.IntegerOptionDeclaration optJobTimeout =
+    CmdOptions.createIntegerOption("SECONDS", false, 'T', "job-timeout",
+                                   3600,
+                                   "in worker mode, abandon a job and " +
+                                   "terminate its emulator, if it does not " +
+                                   "stop within SECONDS seconds, or never, " +
+                                   "if 0");
+  private static final CmdOptions.IntegerOptionDeclaration optTraceCapacity =
+    CmdOptions.createIntegerOption("RECORDS", false, 't', "trace-capacity",
+                                   StateTrace.DEFAULT_CAPACITY,
+                                   "keep up to RECORDS records of 8 bytes " +
+                                   "each of recent state changes for " +
+                                   "post-mortem inspection, or no state " +
+                                   "trace at all, if 0");
   private static final List<CmdOptions.OptionDeclaration<?>>
     optionDeclarations =
     Arrays.asList(new CmdOptions.OptionDeclaration<?>[]
-                  { optVersion, optHelp, optSilent, optVerbose, optPort });
+                  { optVersion, optHelp, optSilent, optVerbose, optPort,
+                    optWorker, optSlots, optJobTimeout, optTraceCapacity });
 
   private final PrintStream console;
   private final CmdOptions options;
@@ -111,6 +138,20 @@ public class EmulationServer
       throw new CmdOptions.
         ParseException("either 'silent' or 'verbose' can be activated");
     }
+    if (options.getValue(optSlots) <= 0) {
+      throw new CmdOptions.
+        ParseException("COUNT must be a positive value", optSlots);
+    }
+    if (options.getValue(optJobTimeout) < 0) {
+      throw new CmdOptions.
+        ParseException("SECONDS must be a non-negative value",
+                       optJobTimeout);
+    }
+    if (options.getValue(optTraceCapacity) < 0) {
+      throw new CmdOptions.
+        ParseException("RECORDS must be a non-negative value",
+                       optTraceCapacity);
+    }
   }
 
   private void printAbout()
@@ -121,10 +162,33 @@ public class EmulationServer
                    Constants.getCmdLineCopyrightNotice());
   }
 
+  private void runWorker()
+  {
+    final int port = options.getValue(optPort);
+    final int slots = options.getValue(optSlots);
+    final PrintStream workerConsole =
+      options.getValue(optSilent) != CmdOptions.Flag.ON ?
+      console : new PrintStream(OutputStream.nullOutputStream());
+    try {
+      new JobWorker(workerConsole, port, slots,
+                    options.getValue(optJobTimeout));
+      workerConsole.printf("started job worker with %d slot(s) at port %d%n",
+                           slots, port);
+    } catch (final IOException e) {
+      console.println("failed starting job worker: " + e.getMessage());
+      System.exit(-1);
+    }
+  }
+
   private void run()
   {
+    if (options.getValue(optWorker) == CmdOptions.Flag.ON) {
+      runWorker();
+      return;
+    }
     try {
-      final Emulator emulator = new Emulator(console);
+      final Emulator emulator =
+        new Emulator(console, options.getValue(optTraceCapacity));
       final LocalAddressSpace memory = new LocalAddressSpace(emulator);
       final int port = options.getValue(optPort);
       final RemoteAddressSpaceServer server =
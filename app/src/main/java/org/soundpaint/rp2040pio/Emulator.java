@@ -36,6 +36,7 @@ public class Emulator
   private final GPIO gpio;
   private final PIO pio0;
   private final PIO pio1;
+  private final StateTrace stateTrace;
 
   private Emulator()
   {
@@ -43,15 +44,35 @@ public class Emulator
   }
 
   public Emulator(final PrintStream console)
+  {
+    this(console, StateTrace.DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param stateTraceCapacity Number of records of the state trace,
+   * or 0 for no state trace at all, e.g. for emulators that run
+   * scripts or jobs in batch mode, where nobody inspects the trace.
+   */
+  public Emulator(final PrintStream console, final int stateTraceCapacity)
   {
     if (console == null) {
       throw new NullPointerException("console");
     }
+    if (stateTraceCapacity < 0) {
+      throw new IllegalArgumentException("stateTraceCapacity < 0: " +
+                                         stateTraceCapacity);
+    }
     this.console = console;
     masterClock = new MasterClock(console);
     gpio = new GPIO(console, masterClock);
     pio0 = gpio.getPIO0();
     pio1 = gpio.getPIO1();
+    if (stateTraceCapacity > 0) {
+      stateTrace = new StateTrace(masterClock, gpio, stateTraceCapacity);
+      masterClock.addCycleSampler(stateTrace::sample);
+    } else {
+      stateTrace = null;
+    }
   }
 
   public PrintStream getConsole()
@@ -79,12 +100,24 @@ public class Emulator
     return pio1;
   }
 
+  /**
+   * Returns the state trace, or null, if the emulator has been
+   * created without state trace.
+   */
+  public StateTrace getStateTrace()
+  {
+    return stateTrace;
+  }
+
   public void reset()
   {
     masterClock.reset();
     gpio.reset();
     pio0.reset();
     pio1.reset();
+    if (stateTrace != null) {
+      stateTrace.reset();
+    }
   }
 
   public void terminate()
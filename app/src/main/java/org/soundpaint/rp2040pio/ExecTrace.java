@@ -0,0 +1,986 @@
+/*
+ * @(#)ExecTrace.java 1.00 26/10/19
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Lightweight execution trace of a single state machine for
+ * reconstructing the exact sequence of PCs and instructions of
+ * arbitrarily long runs at a small fraction of the storage that
+ * recording the full state in every cycle would need.
+ *
+ * Rather than recording what the SM does, the trace records only
+ * those decisions that can not be derived from the program itself:
+ * whether the SM processes a cycle at all (SM enable and clock
+ * divider), instructions forced via SMx_INSTR, outcomes of
+ * conditional JMPs, stalls (of WAIT, IRQ, PUSH, PULL and of IN / OUT
+ * with autopush / autopull), targets of OUT / MOV to PC, and words
+ * executed via OUT / MOV to EXEC.  Each kind of decision goes into
+ * its own channel of packed bits, with binary decisions run-length
+ * encoded, such that e.g. a WAIT that stalls for a million cycles
+ * costs a few dozen bits.  Changes of the SM that happen outside of
+ * program control, like writes to SMx_EXECCTRL or an SM restart,
+ * are detected and recorded as resynchronization events.  Likewise,
+ * each fetched instruction that differs from what the model
+ * expects, e.g. due to a write to the instruction memory, is
+ * recorded with its op-code.
+ *
+ * An offline reconstructor replays the program from the snapshot
+ * of instruction memory and control state that is taken when the
+ * trace starts, using the very same model of the SM's control flow
+ * that the recorder uses for deciding what to record.
+ */
+public class ExecTrace implements Constants
+{
+  public static final String EXTENSION = ".rpxt";
+
+  private static final int MAGIC = 0x52505854; // "RPXT"
+  private static final int VERSION = 1;
+
+  private static final int OP_JMP = 0x0;
+  private static final int OP_OUT = 0x3;
+  private static final int OP_MOV = 0x5;
+  private static final int OUT_DST_PC = 0x5;
+  private static final int OUT_DST_EXEC = 0x7;
+  private static final int MOV_DST_EXEC = 0x4;
+  private static final int MOV_DST_PC = 0x5;
+
+  public enum Kind
+  {
+    /**
+     * The SM did not process this cycle, e.g. since it was disabled
+     * or its clock divider did not enable it.
+     */
+    IDLE,
+    /**
+     * The SM spent this cycle on the delay of the previous
+     * instruction.
+     */
+    DELAY,
+    /**
+     * The SM executed an instruction that stalled.
+     */
+    STALL,
+    /**
+     * The SM executed an instruction that completed.
+     */
+    EXECUTE;
+  }
+
+  /**
+   * Reconstructed cycle, as passed to a CycleListener.  For the sake
+   * of replaying long traces without creating garbage, the same
+   * instance is reused for all cycles.
+   */
+  public static class Cycle
+  {
+    private long wallClock;
+    private Kind kind;
+    private int pc;
+    private int opCode;
+    private int origin;
+    private int sideSetCount;
+    private boolean sideEn;
+
+    private Cycle()
+    {
+    }
+
+    public long getWallClock() { return wallClock; }
+
+    public Kind getKind() { return kind; }
+
+    /**
+     * Address of the instruction executed in this cycle, or, for
+     * idle and delay cycles, the current value of the PC.
+     */
+    public int getPC() { return pc; }
+
+    /**
+     * Op-code of the instruction executed in this cycle, or, for
+     * idle and delay cycles, of the most recently executed one.
+     */
+    public int getOpCode() { return opCode; }
+
+    /**
+     * INSTR_ORIGIN_FORCED, INSTR_ORIGIN_EXECD or the memory address
+     * of the instruction executed in this cycle, or
+     * INSTR_ORIGIN_UNKNOWN for idle and delay cycles.
+     */
+    public int getOrigin() { return origin; }
+
+    public int getSideSetCount() { return sideSetCount; }
+
+    public boolean getSideEn() { return sideEn; }
+  }
+
+  @FunctionalInterface
+  public interface CycleListener
+  {
+    /**
+     * Returns false to stop replaying.
+     */
+    boolean accept(final Cycle cycle) throws IOException;
+  }
+
+  /**
+   * Growable buffer of packed bits that supports writing and
+   * reading raw bit fields, Elias gamma coded numbers and
+   * run-length encoded flags.
+   */
+  private static class BitChannel
+  {
+    private long[] words;
+    private long size;
+    private long position;
+    private boolean runValue;
+    private long runLength;
+    private boolean runStarted;
+
+    private BitChannel()
+    {
+      words = new long[16];
+      size = 0;
+      position = 0;
+      runValue = false;
+      runLength = 0;
+      runStarted = false;
+    }
+
+    private BitChannel(final BitChannel channel)
+    {
+      words = channel.words;
+      size = channel.size;
+      position = 0;
+      runValue = false;
+      runLength = 0;
+      runStarted = false;
+    }
+
+    private long getSize() { return size; }
+
+    private void writeBit(final boolean bit)
+    {
+      final int index = (int)(size >>> 6);
+      if (index == words.length) {
+        final long[] newWords = new long[words.length << 1];
+        System.arraycopy(words, 0, newWords, 0, words.length);
+        words = newWords;
+      }
+      if (bit) {
+        words[index] |= 0x1L << (size & 0x3f);
+      }
+      size++;
+    }
+
+    private boolean readBit() throws IOException
+    {
+      if (position >= size) {
+        throw new IOException("execution trace truncated");
+      }
+      final boolean bit =
+        ((words[(int)(position >>> 6)] >>> (position & 0x3f)) & 0x1) != 0x0;
+      position++;
+      return bit;
+    }
+
+    private void writeBits(final long value, final int count)
+    {
+      for (int bit = count - 1; bit >= 0; bit--) {
+        writeBit(((value >>> bit) & 0x1) != 0x0);
+      }
+    }
+
+    private long readBits(final int count) throws IOException
+    {
+      long value = 0;
+      for (int bit = 0; bit < count; bit++) {
+        value = (value << 1) | (readBit() ? 0x1 : 0x0);
+      }
+      return value;
+    }
+
+    private void writeGamma(final long value)
+    {
+      final int bits = 63 - Long.numberOfLeadingZeros(value);
+      writeBits(0, bits);
+      writeBits(value, bits + 1);
+    }
+
+    private long readGamma() throws IOException
+    {
+      int bits = 0;
+      while (!readBit()) {
+        if (++bits > 62) {
+          throw new IOException("execution trace corrupted");
+        }
+      }
+      return (0x1L << bits) | readBits(bits);
+    }
+
+    /**
+     * Appends a flag to this channel's run-length encoded sequence
+     * of flags.  The first flag is stored as is, followed by the
+     * gamma coded lengths of all runs of equal flags.
+     */
+    private void writeFlag(final boolean flag)
+    {
+      if (runLength == 0) {
+        writeBit(flag);
+        runValue = flag;
+        runLength = 1;
+      } else if (flag == runValue) {
+        runLength++;
+      } else {
+        writeGamma(runLength);
+        runValue = flag;
+        runLength = 1;
+      }
+    }
+
+    /**
+     * Completes the sequence of flags by writing the length of the
+     * last run.
+     */
+    private void flush()
+    {
+      if (runLength > 0) {
+        writeGamma(runLength);
+        runLength = 0;
+      }
+    }
+
+    private boolean readFlag() throws IOException
+    {
+      if (runLength == 0) {
+        runValue = runStarted ? !runValue : readBit();
+        runStarted = true;
+        runLength = readGamma();
+      }
+      runLength--;
+      return runValue;
+    }
+
+    private void write(final DataOutputStream out) throws IOException
+    {
+      out.writeLong(size);
+      final int count = (int)((size + 63) >>> 6);
+      for (int index = 0; index < count; index++) {
+        out.writeLong(words[index]);
+      }
+    }
+
+    private static BitChannel read(final DataInputStream in)
+      throws IOException
+    {
+      final long size = in.readLong();
+      if ((size < 0) || (size > ((long)Integer.MAX_VALUE - 8) << 6)) {
+        throw new IOException("invalid execution trace channel size: " +
+                              size);
+      }
+      final BitChannel channel = new BitChannel();
+      channel.words = new long[Math.max(1, (int)((size + 63) >>> 6))];
+      for (int index = 0; index < (int)((size + 63) >>> 6); index++) {
+        channel.words[index] = in.readLong();
+      }
+      channel.size = size;
+      return channel;
+    }
+  }
+
+  private static final int CHANNEL_SYNC = 0;
+  private static final int CHANNEL_PROCESSING = 1;
+  private static final int CHANNEL_FORCED = 2;
+  private static final int CHANNEL_FETCH = 3;
+  private static final int CHANNEL_BRANCH = 4;
+  private static final int CHANNEL_STALL = 5;
+  private static final int CHANNEL_VALUES = 6;
+  private static final int CHANNEL_COUNT = 7;
+
+  /**
+   * Source of all decisions that the model of the SM's control flow
+   * can not derive on its own.  When recording, the decisions are
+   * taken from the emulated SM and written to the channels; when
+   * replaying, they are read back from the channels, in the very
+   * same order.
+   */
+  private interface Decisions
+  {
+    boolean resync(final Model model) throws IOException;
+    boolean processing() throws IOException;
+    int forced() throws IOException;
+    int fetch(final int expectedWord) throws IOException;
+    boolean jumpTaken() throws IOException;
+    boolean stalled(final boolean isExec) throws IOException;
+    int jumpTarget() throws IOException;
+    int execWord() throws IOException;
+  }
+
+  /**
+   * Model of an SM's control flow, mirroring methods
+   * clockRisingEdge() and clockFallingEdge() of class SM as far as
+   * the PC and the executed instructions are concerned.
+   */
+  private static class Model
+  {
+    private final int[] memory;
+    private int pc;
+    private int pendingDelay;
+    private int pendingExecd;
+    private int wrapBottom;
+    private int wrapTop;
+    private int sideSetCount;
+    private boolean sideEn;
+    private Kind kind;
+    private int cyclePC;
+    private int opCode;
+    private int origin;
+
+    private Model()
+    {
+      memory = new int[MEMORY_SIZE];
+      opCode = 0;
+    }
+
+    private Model(final Model model)
+    {
+      this();
+      System.arraycopy(model.memory, 0, memory, 0, MEMORY_SIZE);
+      pc = model.pc;
+      pendingDelay = model.pendingDelay;
+      pendingExecd = model.pendingExecd;
+      wrapBottom = model.wrapBottom;
+      wrapTop = model.wrapTop;
+      sideSetCount = model.sideSetCount;
+      sideEn = model.sideEn;
+    }
+
+    private void loadMemory(final Memory memory)
+    {
+      for (int address = 0; address < MEMORY_SIZE; address++) {
+        this.memory[address] = memory.get(address) & 0xffff;
+      }
+    }
+
+    private boolean differs(final SM.Status status)
+    {
+      return
+        (pc != status.regADDR) ||
+        (pendingDelay != status.pendingDelay) ||
+        (pendingExecd != status.pendingExecdInstruction) ||
+        (wrapBottom != status.regEXECCTRL_WRAP_BOTTOM) ||
+        (wrapTop != status.regEXECCTRL_WRAP_TOP) ||
+        (sideSetCount != status.regPINCTRL_SIDESET_COUNT) ||
+        (sideEn != status.regEXECCTRL_SIDE_EN);
+    }
+
+    private void load(final SM.Status status)
+    {
+      pc = status.regADDR;
+      pendingDelay = status.pendingDelay;
+      pendingExecd = status.pendingExecdInstruction;
+      wrapBottom = status.regEXECCTRL_WRAP_BOTTOM;
+      wrapTop = status.regEXECCTRL_WRAP_TOP;
+      sideSetCount = status.regPINCTRL_SIDESET_COUNT;
+      sideEn = status.regEXECCTRL_SIDE_EN;
+    }
+
+    private void writeState(final BitChannel channel)
+    {
+      channel.writeBits(pc, 5);
+      channel.writeBits(pendingDelay, 5);
+      channel.writeBit(pendingExecd >= 0);
+      if (pendingExecd >= 0) {
+        channel.writeBits(pendingExecd, 16);
+      }
+      channel.writeBits(wrapBottom, 5);
+      channel.writeBits(wrapTop, 5);
+      channel.writeBits(sideSetCount, 3);
+      channel.writeBit(sideEn);
+    }
+
+    private void readState(final BitChannel channel) throws IOException
+    {
+      pc = (int)channel.readBits(5);
+      pendingDelay = (int)channel.readBits(5);
+      pendingExecd = channel.readBit() ? (int)channel.readBits(16) : -1;
+      wrapBottom = (int)channel.readBits(5);
+      wrapTop = (int)channel.readBits(5);
+      sideSetCount = (int)channel.readBits(3);
+      sideEn = channel.readBit();
+    }
+
+    private void write(final DataOutputStream out) throws IOException
+    {
+      for (final int word : memory) {
+        out.writeShort(word);
+      }
+      out.writeByte(pc);
+      out.writeByte(pendingDelay);
+      out.writeInt(pendingExecd);
+      out.writeByte(wrapBottom);
+      out.writeByte(wrapTop);
+      out.writeByte(sideSetCount);
+      out.writeBoolean(sideEn);
+    }
+
+    private static Model read(final DataInputStream in) throws IOException
+    {
+      final Model model = new Model();
+      for (int address = 0; address < MEMORY_SIZE; address++) {
+        model.memory[address] = in.readUnsignedShort();
+      }
+      model.pc = in.readUnsignedByte() & (MEMORY_SIZE - 1);
+      model.pendingDelay = in.readUnsignedByte() & 0x1f;
+      final int pendingExecd = in.readInt();
+      model.pendingExecd = pendingExecd >= 0 ? pendingExecd & 0xffff : -1;
+      model.wrapBottom = in.readUnsignedByte() & (MEMORY_SIZE - 1);
+      model.wrapTop = in.readUnsignedByte() & (MEMORY_SIZE - 1);
+      model.sideSetCount = in.readUnsignedByte() & 0x7;
+      model.sideEn = in.readBoolean();
+      return model;
+    }
+
+    private void updatePC()
+    {
+      pc = pc == wrapTop ? wrapBottom : (pc + 1) & (MEMORY_SIZE - 1);
+    }
+
+    private int getDelay(final int word)
+    {
+      final int delayMask = (0x1 << (5 - sideSetCount)) - 1;
+      return (word >>> 8) & delayMask;
+    }
+
+    /**
+     * Corresponds to the start of method SM#clockRisingEdge().
+     */
+    private void beginCycle(final Decisions decisions) throws IOException
+    {
+      decisions.resync(this);
+    }
+
+    /**
+     * Corresponds to the remainder of method SM#clockRisingEdge()
+     * and method SM#clockFallingEdge().
+     */
+    private void completeCycle(final Decisions decisions)
+      throws IOException
+    {
+      cyclePC = pc;
+      origin = INSTR_ORIGIN_UNKNOWN;
+      if (!decisions.processing()) {
+        kind = Kind.IDLE;
+        return;
+      }
+      final int forced = decisions.forced();
+      if ((forced < 0) && (pendingExecd < 0) && (pendingDelay > 0)) {
+        pendingDelay--;
+        kind = Kind.DELAY;
+        return;
+      }
+      final int word;
+      if (forced >= 0) {
+        word = forced;
+        origin = INSTR_ORIGIN_FORCED;
+      } else if (pendingExecd >= 0) {
+        word = decisions.fetch(pendingExecd);
+        pendingExecd = -1;
+        origin = INSTR_ORIGIN_EXECD;
+      } else {
+        word = decisions.fetch(memory[pc]);
+        memory[pc] = word;
+        origin = pc;
+      }
+      opCode = word;
+      execute(word, forced >= 0, decisions);
+    }
+
+    private void execute(final int word, final boolean isForced,
+                         final Decisions decisions)
+      throws IOException
+    {
+      final int op = word >>> 13;
+      final int dst = (word >>> 5) & 0x7;
+      final boolean isExec =
+        ((op == OP_OUT) && (dst == OUT_DST_EXEC)) ||
+        ((op == OP_MOV) && (dst == MOV_DST_EXEC));
+      final boolean isJumpToPC =
+        ((op == OP_OUT) && (dst == OUT_DST_PC)) ||
+        ((op == OP_MOV) && (dst == MOV_DST_PC));
+      boolean stall = false;
+      if (op == OP_JMP) {
+        if ((dst == 0x0) || decisions.jumpTaken()) {
+          pc = word & (MEMORY_SIZE - 1);
+        } else {
+          updatePC();
+        }
+      } else if (decisions.stalled(isExec)) {
+        stall = true;
+      } else if (isExec) {
+        pendingExecd = decisions.execWord();
+      } else if (isJumpToPC) {
+        pc = decisions.jumpTarget();
+      } else {
+        updatePC();
+      }
+      final boolean keepPC = stall || isExec;
+      if (!isForced && !keepPC) {
+        pendingDelay = getDelay(word);
+      }
+      kind = stall ? Kind.STALL : Kind.EXECUTE;
+    }
+  }
+
+  /**
+   * Decisions as taken by the emulated SM, written to the channels.
+   */
+  private class Recorder implements Decisions
+  {
+    private SM.Status status;
+
+    private int getActualOpCode()
+    {
+      final Instruction instruction = status.instruction;
+      return instruction != null ? instruction.getOpCode() & 0xffff : 0;
+    }
+
+    @Override
+    public boolean resync(final Model model)
+    {
+      final boolean resync = model.differs(status);
+      channels[CHANNEL_SYNC].writeFlag(resync);
+      if (resync) {
+        model.load(status);
+        model.writeState(channels[CHANNEL_VALUES]);
+      }
+      return resync;
+    }
+
+    @Override
+    public boolean processing()
+    {
+      final boolean processing = status.processing;
+      channels[CHANNEL_PROCESSING].writeFlag(processing);
+      return processing;
+    }
+
+    @Override
+    public int forced()
+    {
+      final boolean forced =
+        !status.isDelayCycle && (status.origin == INSTR_ORIGIN_FORCED);
+      channels[CHANNEL_FORCED].writeFlag(forced);
+      if (!forced) return -1;
+      final int word = getActualOpCode();
+      channels[CHANNEL_VALUES].writeBits(word, 16);
+      return word;
+    }
+
+    @Override
+    public int fetch(final int expectedWord)
+    {
+      final int word = getActualOpCode();
+      final boolean changed = word != expectedWord;
+      channels[CHANNEL_FETCH].writeFlag(changed);
+      if (changed) {
+        channels[CHANNEL_VALUES].writeBits(word, 16);
+      }
+      return word;
+    }
+
+    @Override
+    public boolean jumpTaken()
+    {
+      final boolean taken =
+        status.resultState == Instruction.ResultState.JUMP;
+      channels[CHANNEL_BRANCH].writeFlag(taken);
+      return taken;
+    }
+
+    @Override
+    public boolean stalled(final boolean isExec)
+    {
+      /*
+       * OUT / MOV to EXEC report a stall when successfully handing
+       * over the instruction to be executed next.
+       */
+      final boolean stalled =
+        (status.resultState == Instruction.ResultState.STALL) &&
+        !(isExec && (status.pendingExecdInstruction >= 0));
+      channels[CHANNEL_STALL].writeFlag(stalled);
+      return stalled;
+    }
+
+    @Override
+    public int jumpTarget()
+    {
+      final int target = status.regADDR;
+      channels[CHANNEL_VALUES].writeBits(target, 5);
+      return target;
+    }
+
+    @Override
+    public int execWord()
+    {
+      final int word = status.pendingExecdInstruction & 0xffff;
+      channels[CHANNEL_VALUES].writeBits(word, 16);
+      return word;
+    }
+  }
+
+  /**
+   * Decisions read back from the channels of a recording.
+   */
+  private static class Replayer implements Decisions
+  {
+    private final BitChannel[] channels;
+
+    private Replayer(final BitChannel[] channels)
+    {
+      this.channels = new BitChannel[channels.length];
+      for (int index = 0; index < channels.length; index++) {
+        this.channels[index] = new BitChannel(channels[index]);
+      }
+    }
+
+    @Override
+    public boolean resync(final Model model) throws IOException
+    {
+      final boolean resync = channels[CHANNEL_SYNC].readFlag();
+      if (resync) {
+        model.readState(channels[CHANNEL_VALUES]);
+      }
+      return resync;
+    }
+
+    @Override
+    public boolean processing() throws IOException
+    {
+      return channels[CHANNEL_PROCESSING].readFlag();
+    }
+
+    @Override
+    public int forced() throws IOException
+    {
+      return
+        channels[CHANNEL_FORCED].readFlag() ?
+        (int)channels[CHANNEL_VALUES].readBits(16) : -1;
+    }
+
+    @Override
+    public int fetch(final int expectedWord) throws IOException
+    {
+      return
+        channels[CHANNEL_FETCH].readFlag() ?
+        (int)channels[CHANNEL_VALUES].readBits(16) : expectedWord;
+    }
+
+    @Override
+    public boolean jumpTaken() throws IOException
+    {
+      return channels[CHANNEL_BRANCH].readFlag();
+    }
+
+    @Override
+    public boolean stalled(final boolean isExec) throws IOException
+    {
+      return channels[CHANNEL_STALL].readFlag();
+    }
+
+    @Override
+    public int jumpTarget() throws IOException
+    {
+      return (int)channels[CHANNEL_VALUES].readBits(5);
+    }
+
+    @Override
+    public int execWord() throws IOException
+    {
+      return (int)channels[CHANNEL_VALUES].readBits(16);
+    }
+  }
+
+  /**
+   * Completed execution trace of an SM, i.e. the snapshot taken
+   * when the trace started, and the recorded decisions.
+   */
+  public static class Recording
+  {
+    private final int pioNum;
+    private final int smNum;
+    private final long startWallClock;
+    private final long cycles;
+    private final Model snapshot;
+    private final BitChannel[] channels;
+
+    private Recording()
+    {
+      throw new UnsupportedOperationException("unsupported empty constructor");
+    }
+
+    private Recording(final int pioNum, final int smNum,
+                      final long startWallClock, final long cycles,
+                      final Model snapshot, final BitChannel[] channels)
+    {
+      this.pioNum = pioNum;
+      this.smNum = smNum;
+      this.startWallClock = startWallClock;
+      this.cycles = cycles;
+      this.snapshot = snapshot;
+      this.channels = channels;
+    }
+
+    public int getPioNum() { return pioNum; }
+
+    public int getSmNum() { return smNum; }
+
+    /**
+     * Wall clock of the first recorded cycle.
+     */
+    public long getStartWallClock() { return startWallClock; }
+
+    /**
+     * Number of recorded cycles.
+     */
+    public long getCycles() { return cycles; }
+
+    /**
+     * Total size of the recorded decisions in bits, not including
+     * the snapshot.
+     */
+    public long getBits()
+    {
+      long bits = 0;
+      for (final BitChannel channel : channels) {
+        bits += channel.getSize();
+      }
+      return bits;
+    }
+
+    /**
+     * Replays the recording from its snapshot, passing each cycle to
+     * the specified listener, until the listener returns false or
+     * all cycles have been replayed.
+     *
+     * @return The number of cycles replayed.
+     */
+    public long replay(final CycleListener listener) throws IOException
+    {
+      if (listener == null) {
+        throw new NullPointerException("listener");
+      }
+      final Model model = new Model(snapshot);
+      final Replayer replayer = new Replayer(channels);
+      final Cycle cycle = new Cycle();
+      for (long count = 0; count < cycles; count++) {
+        model.beginCycle(replayer);
+        model.completeCycle(replayer);
+        cycle.wallClock = startWallClock + count;
+        cycle.kind = model.kind;
+        cycle.pc = model.cyclePC;
+        cycle.opCode = model.opCode;
+        cycle.origin = model.origin;
+        cycle.sideSetCount = model.sideSetCount;
+        cycle.sideEn = model.sideEn;
+        if (!listener.accept(cycle)) {
+          return count + 1;
+        }
+      }
+      return cycles;
+    }
+
+    public void write(final OutputStream out) throws IOException
+    {
+      if (out == null) {
+        throw new NullPointerException("out");
+      }
+      final DataOutputStream data = new DataOutputStream(out);
+      data.writeInt(MAGIC);
+      data.writeInt(VERSION);
+      data.writeByte(pioNum);
+      data.writeByte(smNum);
+      data.writeLong(startWallClock);
+      data.writeLong(cycles);
+      snapshot.write(data);
+      data.writeByte(channels.length);
+      for (final BitChannel channel : channels) {
+        channel.write(data);
+      }
+      data.flush();
+    }
+
+    public static Recording read(final InputStream in) throws IOException
+    {
+      if (in == null) {
+        throw new NullPointerException("in");
+      }
+      final DataInputStream data = new DataInputStream(in);
+      if (data.readInt() != MAGIC) {
+        throw new IOException("not an execution trace");
+      }
+      final int version = data.readInt();
+      if (version != VERSION) {
+        throw new IOException("unsupported execution trace version: " +
+                              version);
+      }
+      final int pioNum = data.readUnsignedByte();
+      final int smNum = data.readUnsignedByte();
+      final long startWallClock = data.readLong();
+      final long cycles = data.readLong();
+      if (cycles < 0) {
+        throw new IOException("invalid number of cycles: " + cycles);
+      }
+      final Model snapshot = Model.read(data);
+      final int channelCount = data.readUnsignedByte();
+      if (channelCount != CHANNEL_COUNT) {
+        throw new IOException("unexpected number of channels: " +
+                              channelCount);
+      }
+      final BitChannel[] channels = new BitChannel[channelCount];
+      for (int index = 0; index < channelCount; index++) {
+        channels[index] = BitChannel.read(data);
+      }
+      return new Recording(pioNum, smNum, startWallClock, cycles,
+                           snapshot, channels);
+    }
+  }
+
+  private final int pioNum;
+  private final SM sm;
+  private final BitChannel[] channels;
+  private final Recorder recorder;
+  private Model model;
+  private Model snapshot;
+  private long startWallClock;
+  private long cycles;
+  private boolean inCycle;
+  private boolean stopped;
+
+  private ExecTrace()
+  {
+    throw new UnsupportedOperationException("unsupported empty constructor");
+  }
+
+  /**
+   * Creates a trace for the specified SM.  Recording starts with the
+   * next cycle that the emulator performs, by taking a snapshot of
+   * the SM's instruction memory and control state.
+   */
+  public ExecTrace(final int pioNum, final SM sm)
+  {
+    Constants.checkPioNum(pioNum, "PIO number");
+    if (sm == null) {
+      throw new NullPointerException("sm");
+    }
+    this.pioNum = pioNum;
+    this.sm = sm;
+    channels = new BitChannel[CHANNEL_COUNT];
+    for (int index = 0; index < CHANNEL_COUNT; index++) {
+      channels[index] = new BitChannel();
+    }
+    recorder = new Recorder();
+    recorder.status = sm.getStatus();
+    model = null;
+    snapshot = null;
+    cycles = 0;
+    inCycle = false;
+    stopped = false;
+  }
+
+  private void takeSnapshot(final long wallClock)
+  {
+    model = new Model();
+    model.loadMemory(sm.getMemory());
+    model.load(sm.getStatus());
+    snapshot = new Model(model);
+    startWallClock = wallClock;
+  }
+
+  /**
+   * Called by the emulation thread at the start of each rising
+   * clock edge of the SM.
+   */
+  public synchronized void beforeCycle(final long wallClock)
+  {
+    if (stopped) return;
+    if (model == null) {
+      takeSnapshot(wallClock);
+    }
+    try {
+      model.beginCycle(recorder);
+    } catch (final IOException e) {
+      throw new InternalError("unexpected I/O error while recording", e);
+    }
+    inCycle = true;
+  }
+
+  /**
+   * Called by the emulation thread at the end of each falling clock
+   * edge of the SM.
+   */
+  public synchronized void afterCycle()
+  {
+    if (stopped || !inCycle) return;
+    try {
+      model.completeCycle(recorder);
+    } catch (final IOException e) {
+      throw new InternalError("unexpected I/O error while recording", e);
+    }
+    inCycle = false;
+    cycles++;
+  }
+
+  /**
+   * Stops recording and returns the recording.  A cycle that is in
+   * progress is not included.
+   */
+  public synchronized Recording stop(final long wallClock)
+  {
+    if (!stopped) {
+      stopped = true;
+      if (model == null) {
+        takeSnapshot(wallClock);
+      }
+      for (final BitChannel channel : channels) {
+        channel.flush();
+      }
+    }
+    return new Recording(pioNum, sm.getNum(), startWallClock, cycles,
+                         snapshot, channels);
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -0,0 +1,279 @@
+/*
+ * @(#)ExecTraceReplay.java 1.00 26/10/19
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Offline reconstructor for execution traces as recorded with the
+ * monitor's "record" command.  Replays the traced program from the
+ * trace's snapshot and prints the resulting sequence of cycles with
+ * PC and disassembled instruction.
+ *
+ * @see ExecTrace
+ */
+public class ExecTraceReplay
+{
+  private static final String APP_TITLE = "ExecTraceReplay";
+  private static final String APP_FULL_NAME =
+    "Execution Trace Reconstructor Version 0.1";
+
+  private static final CmdOptions.FlagOptionDeclaration optVersion =
+    CmdOptions.createFlagOption(false, 'V', "version", CmdOptions.Flag.OFF,
+                                "display version information and exit");
+  private static final CmdOptions.FlagOptionDeclaration optHelp =
+    CmdOptions.createFlagOption(false, 'h', "help", CmdOptions.Flag.OFF,
+                                "display this help text and exit");
+  private static final CmdOptions.StringOptionDeclaration optTrace =
+    CmdOptions.createStringOption("PATH", false, 't', "trace", null,
+                                  "execution trace file to replay");
+  private static final CmdOptions.StringOptionDeclaration optOutput =
+    CmdOptions.createStringOption("PATH", false, 'o', "output", null,
+                                  "write reconstructed cycles to file " +
+                                  "PATH rather than to the console");
+  private static final CmdOptions.IntegerOptionDeclaration optSkip =
+    CmdOptions.createIntegerOption("COUNT", false, 's', "skip", 0,
+                                   "number of cycles to replay without " +
+                                   "printing them");
+  private static final CmdOptions.IntegerOptionDeclaration optCycles =
+    CmdOptions.createIntegerOption("COUNT", false, 'c', "cycles", 0,
+                                   "if greater than 0, maximum number " +
+                                   "of cycles to print");
+  private static final CmdOptions.FlagOptionDeclaration optSummary =
+    CmdOptions.createFlagOption(false, null, "summary", CmdOptions.Flag.OFF,
+                                "print only number of cycles per kind " +
+                                "of cycle");
+  private static final List<CmdOptions.OptionDeclaration<?>>
+    optionDeclarations =
+    Arrays.asList(new CmdOptions.OptionDeclaration<?>[]
+                  { optVersion, optHelp, optTrace, optOutput, optSkip,
+                    optCycles, optSummary });
+
+  private final PrintStream console;
+  private final CmdOptions options;
+  private final Decoder decoder;
+
+  private ExecTraceReplay()
+  {
+    throw new UnsupportedOperationException("unsupported empty constructor");
+  }
+
+  public ExecTraceReplay(final PrintStream console, final String[] argv)
+    throws IOException
+  {
+    if (console == null) {
+      throw new NullPointerException("console");
+    }
+    this.console = console;
+    options = parseArgs(argv);
+    decoder = new Decoder();
+  }
+
+  private CmdOptions parseArgs(final String argv[]) throws IOException
+  {
+    final CmdOptions options;
+    try {
+      options = new CmdOptions(APP_TITLE, APP_FULL_NAME, null,
+                               optionDeclarations);
+      options.parse(argv);
+      checkValidity(options);
+    } catch (final CmdOptions.ParseException e) {
+      final String message =
+        String.format("parsing command line failed: %s", e.getMessage());
+      throw new IOException(message);
+    }
+    if (options.getValue(optVersion) == CmdOptions.Flag.ON) {
+      printAbout();
+      return null;
+    }
+    if (options.getValue(optHelp) == CmdOptions.Flag.ON) {
+      console.println(options.getFullInfo());
+      return null;
+    }
+    if (options.getValue(optTrace) == null) {
+      throw new IOException("missing trace file, use option \"-t\"");
+    }
+    return options;
+  }
+
+  private void checkValidity(final CmdOptions options)
+    throws CmdOptions.ParseException
+  {
+    if (options.getValue(optSkip) < 0) {
+      throw new CmdOptions.
+        ParseException("COUNT must be a non-negative value", optSkip);
+    }
+    if (options.getValue(optCycles) < 0) {
+      throw new CmdOptions.
+        ParseException("COUNT must be a non-negative value", optCycles);
+    }
+  }
+
+  private void printAbout()
+  {
+    console.printf("%s for%n%s%n%s%n",
+                   APP_FULL_NAME,
+                   Constants.getEmulatorIdAndVersionWithOs(),
+                   Constants.getCmdLineCopyrightNotice());
+  }
+
+  private String disassemble(final ExecTrace.Cycle cycle)
+  {
+    try {
+      return decoder.decode((short)cycle.getOpCode(),
+                            cycle.getSideSetCount(),
+                            cycle.getSideEn()).toString().trim();
+    } catch (final Decoder.DecodeException e) {
+      return "???";
+    }
+  }
+
+  private static String formatOrigin(final int origin)
+  {
+    switch (origin) {
+    case Constants.INSTR_ORIGIN_FORCED:
+      return "forced";
+    case Constants.INSTR_ORIGIN_EXECD:
+      return "exec'd";
+    default:
+      return "";
+    }
+  }
+
+  private void printCycle(final PrintStream out,
+                          final ExecTrace.Cycle cycle)
+  {
+    final ExecTrace.Kind kind = cycle.getKind();
+    switch (kind) {
+    case IDLE:
+      out.printf("%d %02x idle%n", cycle.getWallClock(), cycle.getPC());
+      break;
+    case DELAY:
+      out.printf("%d %02x delay%n", cycle.getWallClock(), cycle.getPC());
+      break;
+    default:
+      out.printf("%d %02x %04x %s %s%s%n",
+                 cycle.getWallClock(), cycle.getPC(), cycle.getOpCode(),
+                 kind == ExecTrace.Kind.STALL ? "stall  " : "execute",
+                 disassemble(cycle),
+                 cycle.getOrigin() < 0 ?
+                 " (" + formatOrigin(cycle.getOrigin()) + ")" : "");
+      break;
+    }
+  }
+
+  private void replay(final ExecTrace.Recording recording,
+                      final PrintStream out)
+    throws IOException
+  {
+    final long skip = options.getValue(optSkip);
+    final long cycles = options.getValue(optCycles);
+    final long stop = cycles > 0 ? skip + cycles : Long.MAX_VALUE;
+    final boolean summary = options.getValue(optSummary).isOn();
+    final long[] counts = new long[ExecTrace.Kind.values().length];
+    final long[] count = new long[1];
+    recording.replay((cycle) -> {
+        final long index = count[0]++;
+        if (summary) {
+          counts[cycle.getKind().ordinal()]++;
+          return true;
+        }
+        if (index >= skip) {
+          printCycle(out, cycle);
+        }
+        return index + 1 < stop;
+      });
+    if (summary) {
+      for (final ExecTrace.Kind kind : ExecTrace.Kind.values()) {
+        out.printf("%s: %d%n", kind, counts[kind.ordinal()]);
+      }
+    }
+  }
+
+  private int run() throws IOException
+  {
+    if (options == null) {
+      // version or help info has been displayed
+      return 0;
+    }
+    final String tracePath = options.getValue(optTrace);
+    final ExecTrace.Recording recording;
+    try (final InputStream in =
+         new BufferedInputStream(new FileInputStream(tracePath))) {
+      recording = ExecTrace.Recording.read(in);
+    }
+    console.printf("execution trace of PIO%d_SM%d: %d cycles " +
+                   "starting at cycle %d, %d bits%n",
+                   recording.getPioNum(), recording.getSmNum(),
+                   recording.getCycles(), recording.getStartWallClock(),
+                   recording.getBits());
+    final String outputPath = options.getValue(optOutput);
+    if (outputPath == null) {
+      replay(recording, console);
+    } else {
+      final OutputStream fileOut = new FileOutputStream(outputPath);
+      final PrintStream out =
+        new PrintStream(new BufferedOutputStream(fileOut), false);
+      try {
+        replay(recording, out);
+      } finally {
+        out.close();
+      }
+    }
+    return 0;
+  }
+
+  public static int main(final String argv[], final PrintStream out)
+  {
+    try {
+      return new ExecTraceReplay(out, argv).run();
+    } catch (final IOException e) {
+      out.println(e.getMessage());
+      return -1;
+    }
+  }
+
+  public static void main(final String argv[])
+  {
+    final int exitCode = main(argv, System.out);
+    System.exit(exitCode);
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -93,6 +93,7 @@ public class FIFO implements Constants
   private int rxReadPtr;
   private int rxWritePtr;
   private boolean rxFull;
+  private volatile int levels; // mirrors TX level (bits 3:0), RX level (7:4)
   private boolean regFDEBUG_TXSTALL; // one of bits 27:24 of FDEBUG
   private boolean regFDEBUG_TXOVER; // one of bits 19:16 of FDEBUG
   private boolean regFDEBUG_RXUNDER; // one of bits 11:8 of FDEBUG
@@ -133,6 +134,7 @@ public class FIFO implements Constants
     rxFull = joinTX;
     irq.setRxNEmpty(smNum, !fstatRxEmpty());
     irq.setTxNFull(smNum, !fstatTxFull());
+    updateLevels();
     notifyAll();
   }
 
@@ -194,6 +196,7 @@ public class FIFO implements Constants
       modified = false;
     }
     irq.setRxNEmpty(smNum, !fstatRxEmpty());
+    updateLevels();
     notifyAll();
     return modified;
   }
@@ -210,6 +213,7 @@ public class FIFO implements Constants
       value = 0;
     }
     irq.setRxNEmpty(smNum, !fstatRxEmpty());
+    updateLevels();
     notifyAll();
     return value;
   }
@@ -269,6 +273,23 @@ public class FIFO implements Constants
       txFull ? txSize : (txSize + txWritePtr - txReadPtr) & (txSize - 1);
   }
 
+  private void updateLevels()
+  {
+    levels = (getRXLevel() << 4) | getTXLevel();
+  }
+
+  /**
+   * Returns both FIFO levels in the format of an SM's share of
+   * register FLEVEL, i.e. TX level in bits 3:0 and RX level in bits
+   * 7:4.  Unlike methods getTXLevel() and getRXLevel(), this method
+   * does not lock the FIFO, such that it can be cheaply called once
+   * per cycle, e.g. for tracing.
+   */
+  public int getLevels()
+  {
+    return levels;
+  }
+
   public synchronized int txPull(final boolean stallIfEmpty)
   {
     final int value;
@@ -283,6 +304,7 @@ public class FIFO implements Constants
       }
     }
     irq.setTxNFull(smNum, !fstatTxFull());
+    updateLevels();
     notifyAll();
     return value;
   }
@@ -301,6 +323,7 @@ public class FIFO implements Constants
       regFDEBUG_TXOVER = true;
     }
     irq.setTxNFull(smNum, !fstatTxFull());
+    updateLevels();
     notifyAll();
   }
 
@@ -162,6 +162,7 @@ public class GPIO implements Constants
   private final PIO pio0;
   private final PIO pio1;
   private final Terminal[] terminals;
+  private volatile int padIn; // external inputs, one bit per pad
   private int regINPUT_SYNC_BYPASS; // bits 0…31 of INPUT_SYNC_BYPASS
                                     // (contents currently ignored)
 
@@ -193,20 +194,16 @@ public class GPIO implements Constants
     for (int port = 0; port < terminals.length; port++) {
       terminals[port].reset();
     }
+    padIn = 0x0;
   }
 
   public PIO getPIO0() { return pio0; }
 
   public PIO getPIO1() { return pio1; }
 
-  public synchronized int getGPIO_PADIN()
+  public int getGPIO_PADIN()
   {
-    int status = 0x0;
-    for (int port = 0; port < terminals.length; port++) {
-      status <<= 0x1;
-      status |= terminals[terminals.length - 1 - port].externalInput.getValue();
-    }
-    return status;
+    return padIn;
   }
 
   public synchronized void setGPIO_PADIN(final int bits, final int mask,
@@ -217,6 +214,35 @@ public class GPIO implements Constants
       terminals[port].externalInput =
         Bit.fromValue((status >>> port) & 0x1);
     }
+    padIn = status;
+  }
+
+  /**
+   * Returns the output levels of all GPIO pads after applying
+   * function select and overrides, one bit per pad.
+   */
+  public synchronized int getGPIO_PADOUT()
+  {
+    int status = 0x0;
+    for (int port = terminals.length - 1; port >= 0; port--) {
+      status <<= 0x1;
+      status |= getOutToPad(port).getValue();
+    }
+    return status;
+  }
+
+  /**
+   * Returns the output enables of all GPIO pads after applying
+   * function select and overrides, one bit per pad.
+   */
+  public synchronized int getGPIO_PADOE()
+  {
+    int status = 0x0;
+    for (int port = terminals.length - 1; port >= 0; port--) {
+      status <<= 0x1;
+      status |= getOeToPad(port).getValue();
+    }
+    return status;
   }
 
   /**
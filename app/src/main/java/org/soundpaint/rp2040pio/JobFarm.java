@@ -0,0 +1,661 @@
+/*
+ * @(#)JobFarm.java 1.00 26/10/19
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Coordinator of a job farm.  Distributes simulation jobs (see class
+ * BatchJob) among worker processes (see class JobWorker, started via
+ * "EmulationServer --worker"), which may run locally or on other
+ * nodes.  Each worker is asked for the number of its job slots, and
+ * one connection is opened per slot.  Jobs are taken from a shared
+ * queue, such that faster workers automatically get more jobs.
+ * Results are streamed back from the workers and written to the
+ * output files that each job specifies, relative to the coordinator's
+ * file system.
+ *
+ * If a connection to a worker breaks or times out, the job that was
+ * running on it is put back into the queue and retried on any
+ * worker, up to a maximum number of attempts.  A job that fails on
+ * its own, e.g. due to a failing setup script, is not retried.
+ */
+public class JobFarm
+{
+  private static final String APP_TITLE = "JobFarm";
+  private static final String APP_FULL_NAME =
+    "Simulation Job Farm Coordinator Version 0.1";
+  private static final String JOB_SUFFIX = ".properties";
+  private static final int MAX_CONNECT_FAILURES = 3;
+  private static final int RECONNECT_DELAY_MILLIS = 1000;
+
+  private static final CmdOptions.FlagOptionDeclaration optVersion =
+    CmdOptions.createFlagOption(false, 'V', "version", CmdOptions.Flag.OFF,
+                                "display version information and exit");
+  private static final CmdOptions.FlagOptionDeclaration optHelp =
+    CmdOptions.createFlagOption(false, 'h', "help", CmdOptions.Flag.OFF,
+                                "display this help text and exit");
+  private static final CmdOptions.StringOptionDeclaration optWorkers =
+    CmdOptions.createStringOption("ADDRESSES", false, 'w', "workers", null,
+                                  "comma-separated list of workers, each " +
+                                  "of the form HOST:PORT or PORT for " +
+                                  "localhost");
+  private static final CmdOptions.StringOptionDeclaration optDirectory =
+    CmdOptions.createStringOption("PATH", false, 'd', "directory", null,
+                                  "run all job files with file name " +
+                                  "suffix \"" + JOB_SUFFIX +
+                                  "\" in directory PATH");
+  private static final CmdOptions.IntegerOptionDeclaration optAttempts =
+    CmdOptions.createIntegerOption("COUNT", false, 'a', "attempts", 3,
+                                   "give up a job after COUNT attempts " +
+                                   "that failed due to a broken or timed " +
+                                   "out worker connection");
+  private static final CmdOptions.IntegerOptionDeclaration optTimeout =
+    CmdOptions.createIntegerOption("SECONDS", false, 't', "timeout", 0,
+                                   "consider a worker connection broken, " +
+                                   "if it does not send anything for " +
+                                   "SECONDS seconds, or never, if 0");
+  private static final CmdOptions.StringOptionDeclaration optReport =
+    CmdOptions.createStringOption("PATH", false, 'o', "report", null,
+                                  "write tab-separated summary with one " +
+                                  "line per job to file PATH");
+  private static final List<CmdOptions.OptionDeclaration<?>>
+    optionDeclarations =
+    Arrays.asList(new CmdOptions.OptionDeclaration<?>[]
+                  { optVersion, optHelp, optWorkers, optDirectory,
+                    optAttempts, optTimeout, optReport });
+
+  /**
+   * A job together with its encoding and state of processing.
+   */
+  private static class PendingJob
+  {
+    private final BatchJob job;
+    private final String encoded;
+    private int attempts;
+    private String worker;
+    private String failure;
+    private BatchJob.Result result;
+
+    private PendingJob(final BatchJob job) throws IOException
+    {
+      this.job = job;
+      encoded = job.encode();
+      attempts = 0;
+      worker = null;
+      failure = null;
+      result = null;
+    }
+  }
+
+  /**
+   * Signals a broken worker connection, as opposed to a failed job.
+   */
+  private static class ConnectionException extends IOException
+  {
+    private static final long serialVersionUID = -2714850093311462367L;
+
+    private ConnectionException(final String message)
+    {
+      super(message);
+    }
+  }
+
+  private final PrintStream console;
+  private final CmdOptions options;
+  private final BlockingDeque<PendingJob> queue;
+  private final AtomicInteger liveSlots;
+  private CountDownLatch unfinished;
+
+  private JobFarm()
+  {
+    throw new UnsupportedOperationException("unsupported empty constructor");
+  }
+
+  public JobFarm(final PrintStream console, final String[] argv)
+    throws IOException
+  {
+    if (console == null) {
+      throw new NullPointerException("console");
+    }
+    this.console = console;
+    options = parseArgs(argv);
+    queue = new LinkedBlockingDeque<PendingJob>();
+    liveSlots = new AtomicInteger();
+  }
+
+  private CmdOptions parseArgs(final String argv[]) throws IOException
+  {
+    final CmdOptions options;
+    try {
+      options = new CmdOptions(APP_TITLE, APP_FULL_NAME, null,
+                               optionDeclarations);
+      options.parse(argv);
+      checkValidity(options);
+    } catch (final CmdOptions.ParseException e) {
+      final String message =
+        String.format("parsing command line failed: %s", e.getMessage());
+      throw new IOException(message);
+    }
+    if (options.getValue(optVersion) == CmdOptions.Flag.ON) {
+      printAbout();
+      return null;
+    }
+    if (options.getValue(optHelp) == CmdOptions.Flag.ON) {
+      console.println(options.getFullInfo());
+      return null;
+    }
+    if (options.getValue(optWorkers) == null) {
+      throw new IOException("missing workers, use option \"-w\"");
+    }
+    if (options.getValue(optDirectory) == null) {
+      throw new IOException("missing job directory, use option \"-d\"");
+    }
+    return options;
+  }
+
+  private void checkValidity(final CmdOptions options)
+    throws CmdOptions.ParseException
+  {
+    if (options.getValue(optAttempts) <= 0) {
+      throw new CmdOptions.
+        ParseException("COUNT must be a positive value", optAttempts);
+    }
+    if (options.getValue(optTimeout) < 0) {
+      throw new CmdOptions.
+        ParseException("SECONDS must be a non-negative value", optTimeout);
+    }
+  }
+
+  private void printAbout()
+  {
+    console.printf("%s for%n%s%n%s%n",
+                   APP_FULL_NAME,
+                   Constants.getEmulatorIdAndVersionWithOs(),
+                   Constants.getCmdLineCopyrightNotice());
+  }
+
+  private List<PendingJob> loadJobs() throws IOException
+  {
+    final String directory = options.getValue(optDirectory);
+    final File[] files =
+      new File(directory).listFiles((dir, name) -> name.endsWith(JOB_SUFFIX));
+    if (files == null) {
+      throw new IOException("not a directory: " + directory);
+    }
+    Arrays.sort(files);
+    final List<PendingJob> jobs = new ArrayList<PendingJob>();
+    for (final File file : files) {
+      jobs.add(new PendingJob(BatchJob.load(file.getPath())));
+    }
+    return jobs;
+  }
+
+  private static InetSocketAddress parseWorkerAddress(final String address)
+    throws IOException
+  {
+    final int colonPos = address.lastIndexOf(':');
+    final String host = colonPos >= 0 ? address.substring(0, colonPos) : null;
+    final String port = address.substring(colonPos + 1);
+    try {
+      final int portNumber = Integer.parseInt(port);
+      return
+        host != null ?
+        new InetSocketAddress(host, portNumber) :
+        new InetSocketAddress("localhost", portNumber);
+    } catch (final IllegalArgumentException e) {
+      throw new IOException("invalid worker address: " + address);
+    }
+  }
+
+  /**
+   * A single connection to a worker, occupying one of its slots.
+   */
+  private class Connection
+  {
+    private final InetSocketAddress address;
+    private final Socket socket;
+    private final PrintWriter out;
+    private final BufferedReader in;
+
+    /**
+     * Cycle of the most recent result event of the current job.
+     */
+    private long lastCycle;
+
+    private Connection(final InetSocketAddress address) throws IOException
+    {
+      this.address = address;
+      socket = new Socket();
+      socket.connect(address);
+      socket.setSoTimeout(options.getValue(optTimeout) * 1000);
+      out =
+        new PrintWriter(new OutputStreamWriter(socket.getOutputStream(),
+                                               StandardCharsets.UTF_8),
+                        true);
+      in =
+        new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                                                 StandardCharsets.UTF_8));
+    }
+
+    private String getName()
+    {
+      return address.getHostString() + ":" + address.getPort();
+    }
+
+    private String readResponse() throws ConnectionException
+    {
+      final String response;
+      try {
+        response = in.readLine();
+      } catch (final SocketTimeoutException e) {
+        throw new ConnectionException("worker timed out");
+      } catch (final IOException e) {
+        throw new ConnectionException(e.getMessage());
+      }
+      if (response == null) {
+        throw new ConnectionException("worker closed connection");
+      }
+      return response;
+    }
+
+    private int getStatusCode(final String response)
+      throws ConnectionException
+    {
+      final int spacePos = response.indexOf(' ');
+      try {
+        return Integer.parseInt(spacePos >= 0 ?
+                                response.substring(0, spacePos) : response);
+      } catch (final NumberFormatException e) {
+        throw new ConnectionException("failed parsing worker response: " +
+                                      response);
+      }
+    }
+
+    private String getResult(final String response)
+    {
+      final int colonPos = response.indexOf(':');
+      return colonPos >= 0 ? response.substring(colonPos + 1).trim() : "";
+    }
+
+    private int getSlots() throws IOException
+    {
+      out.println("k");
+      final String response = readResponse();
+      if (getStatusCode(response) != JobWorker.STATUS_CODE_OK) {
+        throw new ConnectionException("unexpected worker response: " +
+                                      response);
+      }
+      try {
+        return Integer.parseInt(getResult(response));
+      } catch (final NumberFormatException e) {
+        throw new ConnectionException("invalid number of slots: " +
+                                      response);
+      }
+    }
+
+    private void deliverEvents(final String chunk,
+                               final BatchRunner.FileListener listener)
+      throws IOException
+    {
+      // cycles are delta encoded across chunk boundaries
+      long cycle = lastCycle;
+      for (final String event : chunk.split(" ")) {
+        final String[] fields = event.substring(1).split(":");
+        if (fields.length != 3) {
+          throw new ConnectionException("malformed result event: " + event);
+        }
+        try {
+          cycle += Long.parseLong(fields[0]);
+          final int value1 = Integer.parseUnsignedInt(fields[1], 16);
+          final int value2 = Integer.parseUnsignedInt(fields[2], 16);
+          switch (event.charAt(0)) {
+          case 'r':
+            listener.rxWord(cycle, value1 / Constants.SM_COUNT,
+                            value1 % Constants.SM_COUNT, value2);
+            break;
+          case 'g':
+            listener.gpioChanged(cycle, value1, value2);
+            break;
+          default:
+            throw new ConnectionException("unknown result event: " + event);
+          }
+        } catch (final NumberFormatException e) {
+          throw new ConnectionException("malformed result event: " + event);
+        }
+      }
+      lastCycle = cycle;
+    }
+
+    private BatchJob.Result parseResult(final String result)
+      throws ConnectionException
+    {
+      final String[] fields = result.split(" ", 6);
+      if (fields.length < 6) {
+        throw new ConnectionException("malformed job result: " + result);
+      }
+      try {
+        return new BatchJob.Result(fields[5],
+                                   Long.parseLong(fields[0]),
+                                   Long.parseLong(fields[1]),
+                                   Long.parseLong(fields[2]),
+                                   Long.parseLong(fields[3]),
+                                   Long.parseLong(fields[4]));
+      } catch (final NumberFormatException e) {
+        throw new ConnectionException("malformed job result: " + result);
+      }
+    }
+
+    /**
+     * Runs the job on the worker.  Throws ConnectionException, if
+     * the connection breaks, or IOException, if the job itself fails
+     * or its outputs can not be written.
+     */
+    private BatchJob.Result runJob(final PendingJob pendingJob)
+      throws IOException
+    {
+      final BatchJob job = pendingJob.job;
+      final BatchRunner.FileListener listener =
+        new BatchRunner.FileListener(job.getOutputGpio(), job.getOutputRx());
+      try {
+        out.println("j " + pendingJob.encoded);
+        lastCycle = 0;
+        while (true) {
+          final String response = readResponse();
+          final int statusCode = getStatusCode(response);
+          if (statusCode == JobWorker.STATUS_CODE_DATA) {
+            deliverEvents(getResult(response), listener);
+          } else if (statusCode == JobWorker.STATUS_CODE_OK) {
+            return parseResult(getResult(response));
+          } else if (statusCode == JobWorker.STATUS_CODE_JOB_FAILED) {
+            throw new IOException(getResult(response));
+          } else {
+            throw new ConnectionException("unexpected worker response: " +
+                                          response);
+          }
+        }
+      } finally {
+        listener.close();
+      }
+    }
+
+    private void close()
+    {
+      try {
+        out.println("q");
+        socket.close();
+      } catch (final IOException e) {
+        // ignore, we are throwing this connection away anyway
+      }
+    }
+  }
+
+  private void finish(final PendingJob pendingJob)
+  {
+    final BatchJob job = pendingJob.job;
+    if (pendingJob.result != null) {
+      console.printf("job %s: ok on %s (attempt %d): %d cycles, " +
+                     "%.0f cycles/s, %s%n",
+                     job.getJobId(), pendingJob.worker, pendingJob.attempts,
+                     pendingJob.result.getCycles(),
+                     pendingJob.result.getCyclesPerSecond(),
+                     pendingJob.result.getStopReason());
+      try {
+        BatchRunner.writeReport(job.getOutputReport(),
+                                pendingJob.result.getReport());
+      } catch (final IOException e) {
+        console.printf("job %s: failed writing report: %s%n",
+                       job.getJobId(), e.getMessage());
+      }
+    } else {
+      console.printf("job %s: FAILED after %d attempt(s): %s%n",
+                     job.getJobId(), pendingJob.attempts, pendingJob.failure);
+    }
+    unfinished.countDown();
+  }
+
+  private Connection connect(final InetSocketAddress address)
+    throws InterruptedException
+  {
+    for (int failures = 0; failures < MAX_CONNECT_FAILURES; failures++) {
+      if (failures > 0) {
+        Thread.sleep(RECONNECT_DELAY_MILLIS);
+      }
+      try {
+        return new Connection(address);
+      } catch (final IOException e) {
+        console.printf("worker %s:%d: connecting failed: %s%n",
+                       address.getHostString(), address.getPort(),
+                       e.getMessage());
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Repeatedly takes a job from the queue and runs it via a
+   * connection of its own to the specified worker, until all jobs
+   * are finished or the worker has become unreachable.
+   */
+  private void runSlot(final InetSocketAddress address)
+  {
+    final int maxAttempts = options.getValue(optAttempts);
+    Connection connection = null;
+    try {
+      while (unfinished.getCount() > 0) {
+        if (connection == null) {
+          connection = connect(address);
+          if (connection == null) {
+            console.printf("worker %s:%d: giving up slot%n",
+                           address.getHostString(), address.getPort());
+            return;
+          }
+        }
+        final PendingJob pendingJob = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (pendingJob == null) continue;
+        pendingJob.attempts++;
+        pendingJob.worker = connection.getName();
+        try {
+          pendingJob.result = connection.runJob(pendingJob);
+          finish(pendingJob);
+        } catch (final ConnectionException e) {
+          console.printf("worker %s: job %s: %s%n", connection.getName(),
+                         pendingJob.job.getJobId(), e.getMessage());
+          connection.close();
+          connection = null;
+          pendingJob.failure = e.getMessage();
+          if (pendingJob.attempts < maxAttempts) {
+            queue.addFirst(pendingJob);
+          } else {
+            finish(pendingJob);
+          }
+        } catch (final IOException e) {
+          pendingJob.failure = e.getMessage();
+          finish(pendingJob);
+        }
+      }
+    } catch (final InterruptedException e) {
+      // coordinator is shutting down
+    } finally {
+      if (connection != null) {
+        connection.close();
+      }
+      liveSlots.decrementAndGet();
+    }
+  }
+
+  private void startWorker(final InetSocketAddress address)
+  {
+    try {
+      final Connection connection = connect(address);
+      if (connection == null) return;
+      final int slots;
+      try {
+        slots = connection.getSlots();
+      } finally {
+        connection.close();
+      }
+      console.printf("worker %s: %d slot(s)%n", connection.getName(), slots);
+      for (int slot = 0; slot < slots; slot++) {
+        liveSlots.incrementAndGet();
+        final Thread thread =
+          new Thread(() -> runSlot(address), "JobFarm Slot Thread");
+        thread.setDaemon(true);
+        thread.start();
+      }
+    } catch (final IOException e) {
+      console.printf("worker %s:%d: %s%n", address.getHostString(),
+                     address.getPort(), e.getMessage());
+    } catch (final InterruptedException e) {
+      // coordinator is shutting down
+    } finally {
+      liveSlots.decrementAndGet();
+    }
+  }
+
+  private void writeReport(final List<PendingJob> jobs) throws IOException
+  {
+    final String path = options.getValue(optReport);
+    if (path == null) return;
+    try (final Writer out = new FileWriter(path, StandardCharsets.UTF_8)) {
+      out.write("# job\tstatus\tworker\tattempts\tcycles\tnanos\t" +
+                "reason\n");
+      for (final PendingJob pendingJob : jobs) {
+        final BatchJob.Result result = pendingJob.result;
+        out.write(String.format("%s\t%s\t%s\t%d\t%d\t%d\t%s%n",
+                                pendingJob.job.getJobId(),
+                                result != null ? "ok" : "failed",
+                                pendingJob.worker, pendingJob.attempts,
+                                result != null ? result.getCycles() : 0,
+                                result != null ? result.getNanos() : 0,
+                                result != null ?
+                                result.getStopReason() :
+                                pendingJob.failure));
+      }
+    }
+  }
+
+  private int run() throws IOException
+  {
+    if (options == null) {
+      // version or help info has been displayed
+      return 0;
+    }
+    final List<InetSocketAddress> addresses =
+      new ArrayList<InetSocketAddress>();
+    for (final String address : options.getValue(optWorkers).split(",")) {
+      addresses.add(parseWorkerAddress(address.trim()));
+    }
+    final List<PendingJob> jobs = loadJobs();
+    unfinished = new CountDownLatch(jobs.size());
+    queue.addAll(jobs);
+    final long startTime = System.nanoTime();
+    for (final InetSocketAddress address : addresses) {
+      // startup threads count as live slots until they have started
+      // the actual slot threads
+      liveSlots.incrementAndGet();
+      final Thread thread =
+        new Thread(() -> startWorker(address), "JobFarm Startup Thread");
+      thread.setDaemon(true);
+      thread.start();
+    }
+    try {
+      while (!unfinished.await(100, TimeUnit.MILLISECONDS)) {
+        if (liveSlots.get() == 0) {
+          console.println("no workers left");
+          PendingJob pendingJob;
+          while ((pendingJob = queue.poll()) != null) {
+            if (pendingJob.failure == null) {
+              pendingJob.failure = "no workers left";
+            }
+            finish(pendingJob);
+          }
+          break;
+        }
+      }
+    } catch (final InterruptedException e) {
+      throw new IOException("interrupted while running jobs");
+    }
+    final long nanos = System.nanoTime() - startTime;
+    writeReport(jobs);
+    int succeeded = 0;
+    long cycles = 0;
+    for (final PendingJob pendingJob : jobs) {
+      if (pendingJob.result != null) {
+        succeeded++;
+        cycles += pendingJob.result.getCycles();
+      }
+    }
+    final double seconds = nanos * 1.0e-9;
+    console.printf("%d job(s): %d succeeded, %d failed, %.3f s, " +
+                   "%.0f cycles/s in total%n",
+                   jobs.size(), succeeded, jobs.size() - succeeded, seconds,
+                   seconds > 0.0 ? cycles / seconds : 0.0);
+    return succeeded == jobs.size() ? 0 : -1;
+  }
+
+  public static int main(final String argv[], final PrintStream out)
+  {
+    try {
+      return new JobFarm(out, argv).run();
+    } catch (final IOException e) {
+      out.println(e.getMessage());
+      return -1;
+    }
+  }
+
+  public static void main(final String argv[])
+  {
+    final int exitCode = main(argv, System.out);
+    System.exit(exitCode);
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -0,0 +1,410 @@
+/*
+ * @(#)JobWorker.java 1.00 26/10/19
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Worker process of a job farm.  Accepts simulation jobs (see class
+ * BatchJob) from a coordinator (see class JobFarm) via a TCP/IP
+ * socket, runs each job on an embedded emulator of its own at
+ * maximum speed and streams the recorded results back.  The worker
+ * advertises how many jobs it is willing to run concurrently; the
+ * coordinator is expected to open one connection per slot.  Further
+ * jobs wait until a slot becomes free.  A job that does not stop
+ * within the worker's job timeout is abandoned: its emulator is
+ * terminated, its slot is released, and the job is reported as
+ * failed, such that the coordinator does not retry it elsewhere.
+ *
+ * The protocol follows that of class RemoteAddressSpaceServer: each
+ * request is a single line, starting with a command character.  For
+ * command "j", results are streamed as a sequence of DATA responses,
+ * each carrying a chunk of space-separated events, followed by a
+ * final OK response with the run's statistics.  Events are of the
+ * form "r&lt;dcycle&gt;:&lt;index&gt;:&lt;value&gt;" for a word
+ * received from the RX FIFO of state machine index (pio * 4 + sm)
+ * and "g&lt;dcycle&gt;:&lt;padout&gt;:&lt;padoe&gt;" for a change of
+ * GPIO pad output, with dcycle being the cycle delta to the previous
+ * event and all other numbers in hex.
+ */
+public class JobWorker
+{
+  public static final int STATUS_CODE_OK = 101;
+  public static final int STATUS_CODE_DATA = 102;
+  public static final int STATUS_CODE_JOB_FAILED = 409;
+
+  private static final int EVENTS_PER_CHUNK = 64;
+  private static final String[] NULL_ARGS = new String[0];
+
+  private final PrintStream console;
+  private final int slots;
+  private final int jobTimeout;
+  private final Semaphore freeSlots;
+  private final ServerSocket serverSocket;
+  private int connectionCounter;
+
+  private JobWorker()
+  {
+    throw new UnsupportedOperationException("unsupported empty constructor");
+  }
+
+  /**
+   * @param jobTimeout Maximum wall-clock time in seconds that a
+   * single job may run, or 0 for no limit.
+   */
+  public JobWorker(final PrintStream console, final int portNumber,
+                   final int slots, final int jobTimeout)
+    throws IOException
+  {
+    if (console == null) {
+      throw new NullPointerException("console");
+    }
+    if (slots <= 0) {
+      throw new IllegalArgumentException("slots <= 0: " + slots);
+    }
+    if (jobTimeout < 0) {
+      throw new IllegalArgumentException("jobTimeout < 0: " + jobTimeout);
+    }
+    this.console = console;
+    this.slots = slots;
+    this.jobTimeout = jobTimeout;
+    freeSlots = new Semaphore(slots, true);
+    serverSocket = new ServerSocket(portNumber);
+    connectionCounter = 0;
+    new Thread(() -> listen(), "JobWorker Client Thread").start();
+  }
+
+  private void listen()
+  {
+    while (true) {
+      try {
+        final Socket clientSocket = serverSocket.accept();
+        new Thread(() -> serve(clientSocket),
+                   "JobWorker Server Thread").start();
+      } catch (final IOException e) {
+        // establishing connection failed => abort connection
+      }
+    }
+  }
+
+  private String getHelp()
+  {
+    final String ls = System.lineSeparator();
+    return "available commands: " + ls +
+      "h                   (help)" + ls +
+      "v                   (version)" + ls +
+      "q                   (quit)" + ls +
+      "k                   (show number of job slots)" + ls +
+      "j <job>             (run Base64 encoded job)";
+  }
+
+  private enum ResponseStatus
+  {
+    OK("ok", STATUS_CODE_OK),
+    DATA("data", STATUS_CODE_DATA),
+    ERR_UNKNOWN_COMMAND("unknown command", 400),
+    ERR_MISSING_OPERAND("missing operand", 401),
+    ERR_UNPARSED_INPUT("unparsed input", 402),
+    ERR_IO("input / output error", 405),
+    ERR_UNEXPECTED("unexpected error", 406),
+    ERR_JOB_FAILED("job failed", STATUS_CODE_JOB_FAILED);
+
+    private final String id;
+    private final int code;
+
+    private ResponseStatus(final String id, final int code)
+    {
+      if (id == null) {
+        throw new NullPointerException("id");
+      }
+      this.id = id;
+      this.code = code;
+    }
+
+    public String getId() { return id; }
+
+    public int getCode() { return code; }
+
+    public String getDisplayValue()
+    {
+      return code + " " + id.toUpperCase();
+    }
+  };
+
+  private String createResponse(final ResponseStatus status)
+  {
+    return createResponse(status, null);
+  }
+
+  private String createResponse(final ResponseStatus status,
+                                final String message)
+  {
+    if (status == null) {
+      throw new NullPointerException("status");
+    }
+    final String statusDisplay = status.getDisplayValue();
+    return statusDisplay + (message != null ? ": " + message : "");
+  }
+
+  /**
+   * Collects events into chunks and sends each full chunk as DATA
+   * response.
+   */
+  private class ChunkingListener implements BatchJob.Listener
+  {
+    private final PrintWriter clientOut;
+    private final StringBuilder chunk;
+    private int eventCount;
+    private long lastCycle;
+
+    private ChunkingListener(final PrintWriter clientOut)
+    {
+      this.clientOut = clientOut;
+      chunk = new StringBuilder();
+      eventCount = 0;
+      lastCycle = 0;
+    }
+
+    private void addEvent(final char type, final long cycle,
+                          final int value1, final int value2)
+    {
+      if (eventCount > 0) chunk.append(' ');
+      chunk.append(type);
+      chunk.append(cycle - lastCycle);
+      chunk.append(':');
+      chunk.append(Integer.toHexString(value1));
+      chunk.append(':');
+      chunk.append(Integer.toHexString(value2));
+      lastCycle = cycle;
+      if (++eventCount >= EVENTS_PER_CHUNK) {
+        flush();
+      }
+    }
+
+    private void flush()
+    {
+      if (eventCount > 0) {
+        clientOut.println(createResponse(ResponseStatus.DATA,
+                                         chunk.toString()));
+        chunk.setLength(0);
+        eventCount = 0;
+      }
+    }
+
+    @Override
+    public void rxWord(final long cycle, final int pioNum, final int smNum,
+                       final int value)
+      throws IOException
+    {
+      addEvent('r', cycle, pioNum * Constants.SM_COUNT + smNum, value);
+      if (clientOut.checkError()) {
+        throw new IOException("failed sending results");
+      }
+    }
+
+    @Override
+    public void gpioChanged(final long cycle, final int padOut,
+                            final int padOe)
+      throws IOException
+    {
+      addEvent('g', cycle, padOut, padOe);
+      if (clientOut.checkError()) {
+        throw new IOException("failed sending results");
+      }
+    }
+  }
+
+  private String handleGetVersion(final String[] args)
+  {
+    if (args.length > 0) {
+      return createResponse(ResponseStatus.ERR_UNPARSED_INPUT, args[0]);
+    }
+    return createResponse(ResponseStatus.OK,
+                          Constants.getEmulatorIdAndVersionWithOs());
+  }
+
+  private String handleGetHelp(final String[] args)
+  {
+    if (args.length > 0) {
+      return createResponse(ResponseStatus.ERR_UNPARSED_INPUT, args[0]);
+    }
+    return createResponse(ResponseStatus.OK, getHelp());
+  }
+
+  private String handleGetSlots(final String[] args)
+  {
+    if (args.length > 0) {
+      return createResponse(ResponseStatus.ERR_UNPARSED_INPUT, args[0]);
+    }
+    return createResponse(ResponseStatus.OK, String.valueOf(slots));
+  }
+
+  private String handleRunJob(final String[] args,
+                              final PrintWriter clientOut)
+    throws IOException
+  {
+    if (args.length < 1) {
+      return createResponse(ResponseStatus.ERR_MISSING_OPERAND, null);
+    }
+    if (args.length > 1) {
+      return createResponse(ResponseStatus.ERR_UNPARSED_INPUT, args[1]);
+    }
+    final BatchJob job;
+    try {
+      job = BatchJob.decode(args[0]);
+    } catch (final IOException e) {
+      return createResponse(ResponseStatus.ERR_JOB_FAILED, e.getMessage());
+    }
+    try {
+      freeSlots.acquire();
+    } catch (final InterruptedException e) {
+      return createResponse(ResponseStatus.ERR_UNEXPECTED, "interrupted");
+    }
+    try {
+      console.printf("running job %s%n", job.getJobId());
+      final ByteArrayOutputStream jobOutput = new ByteArrayOutputStream();
+      final PrintStream jobConsole =
+        new PrintStream(jobOutput, true, StandardCharsets.UTF_8);
+      final ChunkingListener listener = new ChunkingListener(clientOut);
+      final BatchJob.Result result;
+      try {
+        result = job.execute(jobConsole, listener, jobTimeout * 1000L);
+      } catch (final IOException e) {
+        console.printf("job %s failed: %s%n", job.getJobId(), e.getMessage());
+        return createResponse(ResponseStatus.ERR_JOB_FAILED, e.getMessage());
+      }
+      listener.flush();
+      if (result == null) {
+        final String[] lines =
+          jobOutput.toString(StandardCharsets.UTF_8).split("\\R");
+        return createResponse(ResponseStatus.ERR_JOB_FAILED,
+                              "setup script failed: " +
+                              lines[lines.length - 1]);
+      }
+      console.printf("job %s completed: %s%n",
+                     job.getJobId(), result.getStopReason());
+      return createResponse(ResponseStatus.OK,
+                            String.format("%d %d %d %d %d %s",
+                                          result.getCycles(),
+                                          result.getNanos(),
+                                          result.getPeakHeapBytes(),
+                                          result.getTxWords(),
+                                          result.getRxWords(),
+                                          result.getStopReason()));
+    } finally {
+      freeSlots.release();
+    }
+  }
+
+  private String handleRequest(final String request,
+                               final PrintWriter clientOut)
+    throws IOException
+  {
+    if (request.isEmpty()) {
+      return null;
+    }
+    final char command = request.charAt(0);
+    final String unparsedArgs = request.substring(1).trim();
+    final String[] args =
+      unparsedArgs.length() > 0 ? unparsedArgs.split(" ") : NULL_ARGS;
+    switch (command) {
+    case 'v':
+      return handleGetVersion(args);
+    case 'h':
+    case '?':
+      return handleGetHelp(args);
+    case 'q':
+      return null;
+    case 'k':
+      return handleGetSlots(args);
+    case 'j':
+      return handleRunJob(args, clientOut);
+    default:
+      return createResponse(ResponseStatus.ERR_UNKNOWN_COMMAND,
+                            String.valueOf(command));
+    }
+  }
+
+  private void serve(final Socket clientSocket)
+  {
+    final int id = connectionCounter++;
+    console.printf("connection #%d opened%n", id);
+    PrintWriter clientOut = null;
+    try {
+      // not auto-flushing, since results are streamed in bulk
+      clientOut =
+        new PrintWriter(new BufferedWriter
+                        (new OutputStreamWriter(clientSocket.getOutputStream(),
+                                                StandardCharsets.UTF_8)));
+      final BufferedReader in =
+        new BufferedReader(new InputStreamReader(clientSocket.getInputStream(),
+                                                 StandardCharsets.UTF_8));
+      String request;
+      while ((request = in.readLine()) != null) {
+        final String response = handleRequest(request.trim(), clientOut);
+        if (response == null) {
+          break;
+        }
+        clientOut.println(response);
+        clientOut.flush();
+      }
+    } catch (final IOException e) {
+      console.printf("connection #%d aborted: %s%n", id, e);
+    } catch (final Throwable t) {
+      if (clientOut != null) {
+        clientOut.println(createResponse(ResponseStatus.ERR_UNEXPECTED,
+                                         t.getMessage()));
+        clientOut.flush();
+      }
+      t.printStackTrace(console);
+      console.printf("connection #%d aborted: %s%n", id, t);
+    } finally {
+      console.printf("connection #%d closed%n", id);
+      try {
+        clientSocket.close();
+      } catch (final IOException e) {
+        console.println("warning: failed closing client socket: " + e);
+      }
+    }
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
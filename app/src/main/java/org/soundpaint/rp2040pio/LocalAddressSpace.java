@@ -27,6 +27,9 @@ package org.soundpaint.rp2040pio;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class LocalAddressSpace extends AddressSpace
 {
@@ -46,6 +49,10 @@ public class LocalAddressSpace extends AddressSpace
    */
   private final List<RegisterSet> registerSetList;
 
+  private final Map<Integer, SampleSubscription> subscriptions;
+  private final Map<Integer, Runnable> subscriptionSamplers;
+  private final AtomicInteger subscriptionCounter;
+
   public LocalAddressSpace(final Emulator emulator)
   {
     this.emulator = emulator;
@@ -71,6 +78,10 @@ public class LocalAddressSpace extends AddressSpace
     registerSetList.add(pio1Registers);
     pio1EmuRegisters = new PIOEmuRegistersImpl(pio1);
     registerSetList.add(pio1EmuRegisters);
+
+    subscriptions = new ConcurrentHashMap<Integer, SampleSubscription>();
+    subscriptionSamplers = new ConcurrentHashMap<Integer, Runnable>();
+    subscriptionCounter = new AtomicInteger();
   }
 
   @Override
@@ -191,8 +202,41 @@ public class LocalAddressSpace extends AddressSpace
     throw new IOException(message);
   }
 
+  @Override
+  public synchronized void writeAddressesMasked(final WriteBatch batch)
+    throws IOException
+  {
+    if (batch == null) {
+      throw new NullPointerException("batch");
+    }
+    synchronized(emulator.getMasterClock().getPhaseLock()) {
+      super.writeAddressesMasked(batch);
+    }
+  }
+
   @Override
   public synchronized int readAddress(final int address) throws IOException
+  {
+    return readAddressUnsynchronized(address);
+  }
+
+  @Override
+  public synchronized int[] readAddresses(final int[] addresses)
+    throws IOException
+  {
+    if (addresses == null) {
+      throw new NullPointerException("addresses");
+    }
+    synchronized(emulator.getMasterClock().getPhaseLock()) {
+      final int[] values = new int[addresses.length];
+      for (int index = 0; index < addresses.length; index++) {
+        values[index] = readAddressUnsynchronized(addresses[index]);
+      }
+      return values;
+    }
+  }
+
+  private int readAddressUnsynchronized(final int address) throws IOException
   {
     final RegisterSet registers = getProvidingRegisters(address);
     if (registers != null) {
@@ -212,6 +256,155 @@ public class LocalAddressSpace extends AddressSpace
     throw new IOException(message);
   }
 
+  /**
+   * Probes are evaluated by the emulation thread.  Since this method
+   * holds this address space's lock while a chunk of cycles is
+   * running, the emulation thread reads registers without acquiring
+   * that lock.  The lock is released between chunks, including while
+   * the consumer processes a chunk, such that other clients are not
+   * locked out for the whole run.
+   */
+  @Override
+  public void runCycles(final Probe[] probes, final int cycles,
+                        final int chunkCycles, final SampleConsumer consumer)
+    throws IOException
+  {
+    checkRunCyclesArgs(probes, cycles, chunkCycles);
+    if (consumer == null) {
+      throw new NullPointerException("consumer");
+    }
+    final MasterClock masterClock = emulator.getMasterClock();
+    final int chunkSize =
+      (chunkCycles > 0) && (chunkCycles < cycles) ? chunkCycles : cycles;
+    final int[] samples = new int[chunkSize * probes.length];
+    final int[] sampleIndex = new int[1];
+    final IOException[] sampleException = new IOException[1];
+    final Runnable sampler = () -> {
+      if (sampleException[0] != null) return;
+      try {
+        for (final Probe probe : probes) {
+          samples[sampleIndex[0]++] =
+            probe.evaluate(this::readAddressUnsynchronized);
+        }
+      } catch (final IOException e) {
+        sampleException[0] = e;
+      }
+    };
+    int remaining = cycles;
+    while (remaining > 0) {
+      final int chunk = Math.min(chunkSize, remaining);
+      try {
+        synchronized(this) {
+          sampleIndex[0] = 0;
+          masterClock.runCycles(chunk, sampler);
+        }
+      } catch (final IllegalStateException e) {
+        throw new IOException(e.getMessage());
+      } catch (final InterruptedException e) {
+        throw new IOException("interrupted while running cycles");
+      }
+      if (sampleException[0] != null) {
+        throw sampleException[0];
+      }
+      consumer.accept(samples, chunk);
+      remaining -= chunk;
+    }
+  }
+
+  /**
+   * Subscriptions are sampled by the emulation thread.  Since the
+   * emulation thread holds the phase lock while sampling, the methods
+   * for managing subscriptions neither lock this address space nor
+   * the phase lock.  A lossless subscription pauses the emulation
+   * thread between two cycles, i.e. without holding the phase lock.
+   */
+  @Override
+  public int subscribe(final Probe[] probes, final int capacityCycles,
+                       final boolean lossless)
+  {
+    final int id = subscriptionCounter.incrementAndGet();
+    final SampleSubscription subscription =
+      new SampleSubscription(id, probes, capacityCycles, lossless);
+    final Runnable sampler =
+      () -> subscription.sample(this::readAddressUnsynchronized);
+    subscriptions.put(id, subscription);
+    subscriptionSamplers.put(id, sampler);
+    emulator.getMasterClock().addCycleGate(subscription);
+    emulator.getMasterClock().addCycleSampler(sampler);
+    return id;
+  }
+
+  private SampleSubscription getSubscription(final int subscriptionId)
+  {
+    final SampleSubscription subscription =
+      subscriptions.get(subscriptionId);
+    if (subscription == null) {
+      throw new IllegalArgumentException("no such subscription: " +
+                                         subscriptionId);
+    }
+    return subscription;
+  }
+
+  @Override
+  public int fetchSamples(final int subscriptionId, final int[] samples,
+                          final int maxCycles, final long millisTimeout)
+    throws IOException
+  {
+    return
+      getSubscription(subscriptionId).fetch(samples, maxCycles,
+                                            millisTimeout);
+  }
+
+  @Override
+  public SampleSubscription.Statistics
+    getSubscriptionStatistics(final int subscriptionId)
+  {
+    return getSubscription(subscriptionId).getStatistics();
+  }
+
+  @Override
+  public void unsubscribe(final int subscriptionId)
+  {
+    final SampleSubscription subscription =
+      getSubscription(subscriptionId);
+    final Runnable sampler = subscriptionSamplers.remove(subscriptionId);
+    subscriptions.remove(subscriptionId);
+    emulator.getMasterClock().removeCycleSampler(sampler);
+    emulator.getMasterClock().removeCycleGate(subscription);
+    subscription.close();
+  }
+
+  @Override
+  public StateTrace.Snapshot fetchStateTrace(final long maxCycles)
+    throws IOException
+  {
+    final StateTrace stateTrace = emulator.getStateTrace();
+    if (stateTrace == null) {
+      throw new IOException("state trace disabled");
+    }
+    return stateTrace.fetch(maxCycles);
+  }
+
+  private PIO getPIO(final int pioNum)
+  {
+    Constants.checkPioNum(pioNum, "PIO index number");
+    return pioNum == 0 ? emulator.getPIO0() : emulator.getPIO1();
+  }
+
+  @Override
+  public void startExecTrace(final int pioNum, final int smNum)
+  {
+    Constants.checkSmNum(smNum);
+    getPIO(pioNum).startExecTrace(smNum);
+  }
+
+  @Override
+  public ExecTrace.Recording stopExecTrace(final int pioNum, final int smNum)
+  {
+    Constants.checkSmNum(smNum);
+    return getPIO(pioNum).stopExecTrace(smNum);
+  }
+
   private static boolean timedOut(final long startWallClock,
                                   final long stopWallClock,
                                   final long wallClock)
@@ -252,7 +445,9 @@ public class LocalAddressSpace extends AddressSpace
           masterClock.awaitPhaseChange();
         }
       } catch (final InterruptedException e) {
-        // ignore here, since check in while condition
+        // give up waiting, but let the caller see the interrupt
+        Thread.currentThread().interrupt();
+        break;
       }
     }
     return receivedValue;
@@ -27,6 +27,7 @@ package org.soundpaint.rp2040pio;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * System Master Clock
@@ -47,6 +48,28 @@ public class MasterClock implements Clock, Constants
 
   private static final Mode[] MODES = Mode.values();
 
+  /**
+   * Gate that the emulation thread passes before performing each
+   * cycle.  Unlike cycle samplers, gates are passed while the
+   * emulation thread does not hold the phase lock, such that a gate
+   * may block for pausing the emulation without blocking other
+   * clients from accessing the emulator's registers meanwhile.
+   */
+  public interface CycleGate
+  {
+    /**
+     * Blocks until the next cycle may be performed or the gate has
+     * been closed.
+     */
+    void awaitOpen();
+
+    /**
+     * Permanently opens this gate, thereby releasing the emulation
+     * thread, if currently blocked in this gate.
+     */
+    void close();
+  }
+
   private class DrivingGear extends Thread
   {
     public DrivingGear()
@@ -54,8 +77,18 @@ public class MasterClock implements Clock, Constants
       super("Emulation Thread");
     }
 
+    private void passCycleGates()
+    {
+      for (final CycleGate gate : cycleGates) {
+        gate.awaitOpen();
+        if (terminate) return;
+      }
+    }
+
     private void runSingleStep()
     {
+      passCycleGates();
+      if (terminate) return;
       synchronized(this) {
         while ((mode == Mode.SINGLE_STEP) &&
                (phase == Phase.PHASE_1_STABLE)) {
@@ -87,11 +120,15 @@ public class MasterClock implements Clock, Constants
 
     private void runTargetFrequency()
     {
+      passCycleGates();
+      if (terminate) return;
       syncWithRealTime();
-      phase = Phase.PHASE_0_IN_PROGRESS;
-      cyclePhase0();
-      phase = Phase.PHASE_1_IN_PROGRESS;
-      cyclePhase1();
+      synchronized(this) {
+        phase = Phase.PHASE_0_IN_PROGRESS;
+        cyclePhase0();
+        phase = Phase.PHASE_1_IN_PROGRESS;
+        cyclePhase1();
+      }
     }
 
     @Override
@@ -133,7 +170,9 @@ public class MasterClock implements Clock, Constants
   private long wallClock;
   private long refWallClock;
   private long refRealTime;
-  private boolean terminate;
+  private volatile boolean terminate;
+  private final List<Runnable> cycleSamplers;
+  private final List<CycleGate> cycleGates;
 
   private MasterClock()
   {
@@ -150,6 +189,8 @@ public class MasterClock implements Clock, Constants
     registerWaitLock = new Object();
     drivingGear = new DrivingGear();
     listeners = new ArrayList<TransitionListener>();
+    cycleSamplers = new CopyOnWriteArrayList<Runnable>();
+    cycleGates = new CopyOnWriteArrayList<CycleGate>();
     reset();
     start();
   }
@@ -168,12 +209,22 @@ public class MasterClock implements Clock, Constants
     drivingGear.start();
   }
 
+  /**
+   * Stops the emulation thread.  Any cycle gates are closed, such
+   * that the emulation thread is released, if blocked in a gate.
+   */
   public void terminate()
   {
+    terminate = true;
+    for (final CycleGate gate : cycleGates) {
+      gate.close();
+    }
     synchronized(drivingGear) {
-      terminate = true;
       drivingGear.notify();
     }
+    synchronized(registerWaitLock) {
+      registerWaitLock.notifyAll();
+    }
   }
 
   private void resetRef()
@@ -228,6 +279,20 @@ public class MasterClock implements Clock, Constants
     return registerWaitLock;
   }
 
+  /**
+   * Returns the lock that the emulation thread holds while
+   * performing a clock phase.  Holding this lock guarantees that no
+   * clock phase is in progress, i.e. the emulator is in a stable
+   * state, as long as the lock is held.  Since the emulation thread
+   * releases this lock only between phases, any sequence of
+   * operations performed while holding it appears to be atomic from
+   * the point of view of the emulated PIOs.
+   */
+  public Object getPhaseLock()
+  {
+    return drivingGear;
+  }
+
   public void setMASTERCLK_FREQ(final int frequency)
   {
     synchronized(drivingGear) {
@@ -294,6 +359,51 @@ public class MasterClock implements Clock, Constants
     }
   }
 
+  /**
+   * Adds a sampler that the emulation thread runs for each cycle,
+   * independent of the clock mode and independent of who triggers
+   * the cycle.  Samplers are run when phase 0 has been completed,
+   * before the phase is announced as being stable.  Since the
+   * emulation thread holds the phase lock meanwhile, a sampler must
+   * not block.  For pausing the emulation, e.g. until some observer
+   * has caught up, use a cycle gate instead.
+   *
+   * @see #addCycleGate
+   */
+  public void addCycleSampler(final Runnable sampler)
+  {
+    if (sampler == null) {
+      throw new NullPointerException("sampler");
+    }
+    cycleSamplers.add(sampler);
+  }
+
+  public boolean removeCycleSampler(final Runnable sampler)
+  {
+    return cycleSamplers.remove(sampler);
+  }
+
+  /**
+   * Adds a gate that the emulation thread passes before each cycle,
+   * independent of the clock mode and independent of who triggers
+   * the cycle.
+   */
+  public void addCycleGate(final CycleGate gate)
+  {
+    if (gate == null) {
+      throw new NullPointerException("gate");
+    }
+    if (terminate) {
+      gate.close();
+    }
+    cycleGates.add(gate);
+  }
+
+  public boolean removeCycleGate(final CycleGate gate)
+  {
+    return cycleGates.remove(gate);
+  }
+
   public Phase getPhase() { return phase; }
 
   public void triggerPhase0()
@@ -316,6 +426,9 @@ public class MasterClock implements Clock, Constants
       return;
     }
     announceRisingEdge();
+    for (final Runnable sampler : cycleSamplers) {
+      sampler.run();
+    }
     phase = Phase.PHASE_0_STABLE;
     synchronized(registerWaitLock) {
       registerWaitLock.notifyAll();
@@ -349,6 +462,72 @@ public class MasterClock implements Clock, Constants
     }
   }
 
+  private void awaitPhase(final Phase phase) throws InterruptedException
+  {
+    synchronized(registerWaitLock) {
+      while ((this.phase != phase) && !terminate) {
+        registerWaitLock.wait();
+      }
+    }
+  }
+
+  /**
+   * Performs the specified number of complete clock cycles.  The
+   * clock must be in single step mode.  If the clock is amid a cycle,
+   * that cycle is completed first.  If not null, the specified hook
+   * is registered as cycle sampler while this method runs, i.e. it
+   * is run by the emulation thread for each of the cycles right
+   * after all transition listeners have processed the rising edge.
+   * Since each call registers a sampler of its own, concurrent calls
+   * do not replace each other's hook.  Even if other threads trigger
+   * further cycles meanwhile, the hook is run at most for the
+   * specified number of cycles.
+   *
+   * @see #addCycleSampler
+   */
+  public void runCycles(final int cycles, final Runnable phase0Hook)
+    throws InterruptedException
+  {
+    if (cycles < 0) {
+      throw new IllegalArgumentException("cycles < 0: " + cycles);
+    }
+    if (mode != Mode.SINGLE_STEP) {
+      throw new IllegalStateException("master clock not in single step mode");
+    }
+    if (phase == Phase.PHASE_0_IN_PROGRESS) {
+      awaitPhase(Phase.PHASE_0_STABLE);
+    }
+    if (phase == Phase.PHASE_0_STABLE) {
+      triggerPhase1();
+    }
+    awaitPhase(Phase.PHASE_1_STABLE);
+    final Runnable sampler;
+    if (phase0Hook != null) {
+      final int[] remaining = { cycles };
+      sampler = () -> {
+        if (remaining[0] > 0) {
+          remaining[0]--;
+          phase0Hook.run();
+        }
+      };
+      addCycleSampler(sampler);
+    } else {
+      sampler = null;
+    }
+    try {
+      for (int cycle = 0; (cycle < cycles) && !terminate; cycle++) {
+        triggerPhase0();
+        awaitPhase(Phase.PHASE_0_STABLE);
+        triggerPhase1();
+        awaitPhase(Phase.PHASE_1_STABLE);
+      }
+    } finally {
+      if (sampler != null) {
+        removeCycleSampler(sampler);
+      }
+    }
+  }
+
   public void awaitPhaseChange() throws InterruptedException
   {
     synchronized(registerWaitLock) {
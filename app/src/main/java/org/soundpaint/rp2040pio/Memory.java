@@ -31,11 +31,13 @@ public class Memory implements Constants
 {
   public final Object FETCH_LOCK;
   private final short[] code;
+  private volatile int version;
 
   public Memory()
   {
     FETCH_LOCK = new Object();
     code = new short[MEMORY_SIZE];
+    version = 0;
   }
 
   public void reset()
@@ -56,7 +58,20 @@ public class Memory implements Constants
   private void set(final int address, final short value)
   {
     Constants.checkSmMemAddr(address, "write address");
-    code[address] = value;
+    if (code[address] != value) {
+      code[address] = value;
+      version++;
+    }
+  }
+
+  /**
+   * Returns a counter that is incremented upon each change of the
+   * memory's contents, such that clients can tell if previously
+   * fetched instructions are still valid without re-fetching them.
+   */
+  public int getVersion()
+  {
+    return version;
   }
 
   public short get(final int address)
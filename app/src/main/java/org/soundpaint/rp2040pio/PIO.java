@@ -200,6 +200,23 @@ public class PIO implements Constants, Clock.TransitionListener
     return sms[index];
   }
 
+  /**
+   * @see SM#startExecTrace
+   */
+  public void startExecTrace(final int smNum)
+  {
+    final SM sm = getSM(smNum);
+    sm.startExecTrace(new ExecTrace(index, sm));
+  }
+
+  /**
+   * @see SM#stopExecTrace
+   */
+  public ExecTrace.Recording stopExecTrace(final int smNum)
+  {
+    return getSM(smNum).stopExecTrace();
+  }
+
   public IRQ getIRQ()
   {
     return irq;
@@ -408,7 +408,137 @@ public abstract class PIOEmuRegisters extends RegisterSet
         .map(n -> new BitsInfo("IRQ" + (7 - n), 7 - n, 7 - n,
                                "0x1 for HIGH or 0x0 for LOW",
                                BitsType.RO, 0))
-        .collect(Collectors.toList()));
+        .collect(Collectors.toList())),
+    INSTR_MEM_VERSION("Read-only counter that is incremented upon each%n" +
+                      "change of the contents of the PIO's instruction%n" +
+                      "memory.  Clients that display or decode the%n" +
+                      "instruction memory may compare this value with%n" +
+                      "the value read when they last fetched the memory%n" +
+                      "for skipping fetching it again, if unchanged.",
+                      new BitsInfo[] {
+                        new BitsInfo(null, 31, 0, null, BitsType.RO, 0)
+                      }),
+    SM0_BREAK_CONDITION("Condition that is evaluated on the emulation%n" +
+                        "thread whenever the program counter of the state%n" +
+                        "machine reaches an address marked in%n" +
+                        "SMx_BREAKPOINTS (or, if ANY_ADDRESS is set, after%n" +
+                        "each instruction executed by the state machine).%n" +
+                        "The value selected by SOURCE is ANDed with%n" +
+                        "SMx_BREAK_MASK and compared against%n" +
+                        "SMx_BREAK_VALUE by means of the comparison%n" +
+                        "operator OP.  Only if the comparison holds, the%n" +
+                        "breakpoint counts as hit.%n" +
+                        "%n" +
+                        "With the default value 0x0, any breakpoint%n" +
+                        "address unconditionally counts as hit, such that%n" +
+                        "plain SMx_BREAKPOINTS behave as before.", 0,
+                        new BitsInfo[] {
+                          new BitsInfo(null, 31, 8, null,
+                                       BitsType.RESERVED, null),
+                          new BitsInfo("ANY_ADDRESS", 7, 7,
+                                       "0x1, if the condition is to be%n" +
+                                       "evaluated after each executed%n" +
+                                       "instruction, irrespective of%n" +
+                                       "SMx_BREAKPOINTS.",
+                                       BitsType.RW, 0),
+                          new BitsInfo("OP", 6, 4,
+                                       "Comparison operator (unsigned):%n" +
+                                       "0x0: EQ, 0x1: NE, 0x2: LT, 0x3: LE,%n" +
+                                       "0x4: GT, 0x5: GE.",
+                                       BitsType.RW, 0),
+                          new BitsInfo("SOURCE", 3, 0,
+                                       "Value to compare: 0x0: NONE%n" +
+                                       "(always true), 0x1: X, 0x2: Y,%n" +
+                                       "0x3: ISR, 0x4: OSR, 0x5: ISR shift%n" +
+                                       "count, 0x6: OSR shift count,%n" +
+                                       "0x7: TX FIFO level, 0x8: RX FIFO%n" +
+                                       "level, 0x9: IRQ flags, 0xa: GPIO%n" +
+                                       "pins, 0xb: PC.",
+                                       BitsType.RW, 0)
+                        }),
+    SM0_BREAK_MASK("Mask that is applied to the value selected by%n" +
+                   "SMx_BREAK_CONDITION before comparison.", 0,
+                   new BitsInfo[] {
+                     new BitsInfo(null, 31, 0, null, BitsType.RW, ~0)
+                   }),
+    SM0_BREAK_VALUE("Operand that the masked value selected by%n" +
+                    "SMx_BREAK_CONDITION is compared against.", 0,
+                    new BitsInfo[] {
+                      new BitsInfo(null, 31, 0, null, BitsType.RW, 0)
+                    }),
+    SM0_BREAK_HIT_TARGET("Number of hits of a conditional breakpoint%n" +
+                         "that are required before master clock%n" +
+                         "MASTERCLK_MODE is switched to single step%n" +
+                         "mode.  Values 0x0 and 0x1 both stop on the%n" +
+                         "first hit.", 0,
+                         new BitsInfo[] {
+                           new BitsInfo(null, 31, 0, null, BitsType.RW, 0)
+                         }),
+    SM0_BREAK_HIT_COUNT("Number of hits counted since the last stop%n" +
+                        "caused by a conditional breakpoint.  The counter%n" +
+                        "is reset to 0x0 each time the hit target is%n" +
+                        "reached, and may be written, e.g. for skipping%n" +
+                        "some hits.", 0,
+                        new BitsInfo[] {
+                          new BitsInfo(null, 31, 0, null, BitsType.RW, 0)
+                        }),
+    SM0_WATCH_CONDITION("Data watchpoint.  After each master clock cycle,%n" +
+                        "the value selected by SOURCE (with the same%n" +
+                        "encoding as for SMx_BREAK_CONDITION) is ANDed%n" +
+                        "with SMx_WATCH_MASK and compared with the%n" +
+                        "result of the previous cycle.  If it has changed,%n" +
+                        "master clock MASTERCLK_MODE will be automatically%n" +
+                        "set to single step mode.  SOURCE 0x0 disables%n" +
+                        "the watchpoint.", 0,
+                        new BitsInfo[] {
+                          new BitsInfo(null, 31, 4, null,
+                                       BitsType.RESERVED, null),
+                          new BitsInfo("SOURCE", 3, 0,
+                                       "Value to watch, or 0x0 for none.",
+                                       BitsType.RW, 0)
+                        }),
+    SM0_WATCH_MASK("Mask of the bits of the value selected by%n" +
+                   "SMx_WATCH_CONDITION that are watched for change.", 0,
+                   new BitsInfo[] {
+                     new BitsInfo(null, 31, 0, null, BitsType.RW, ~0)
+                   }),
+    SM0_BREAK_REASON("Sticky flags that tell why the state machine most%n" +
+                     "recently switched master clock MASTERCLK_MODE to%n" +
+                     "single step mode.  Write 0x0 to clear.", 0,
+                     new BitsInfo[] {
+                       new BitsInfo(null, 31, 2, null, BitsType.UNUSED, null),
+                       new BitsInfo("WATCHPOINT", 1, 1,
+                                    "0x1, if a data watchpoint triggered.",
+                                    BitsType.RW, 0),
+                       new BitsInfo("BREAKPOINT", 0, 0,
+                                    "0x1, if a (conditional) breakpoint%n" +
+                                    "was hit.",
+                                    BitsType.RW, 0)
+                     }),
+    SM1_BREAK_CONDITION(Regs.SM0_BREAK_CONDITION, 1),
+    SM1_BREAK_MASK(Regs.SM0_BREAK_MASK, 1),
+    SM1_BREAK_VALUE(Regs.SM0_BREAK_VALUE, 1),
+    SM1_BREAK_HIT_TARGET(Regs.SM0_BREAK_HIT_TARGET, 1),
+    SM1_BREAK_HIT_COUNT(Regs.SM0_BREAK_HIT_COUNT, 1),
+    SM1_WATCH_CONDITION(Regs.SM0_WATCH_CONDITION, 1),
+    SM1_WATCH_MASK(Regs.SM0_WATCH_MASK, 1),
+    SM1_BREAK_REASON(Regs.SM0_BREAK_REASON, 1),
+    SM2_BREAK_CONDITION(Regs.SM0_BREAK_CONDITION, 2),
+    SM2_BREAK_MASK(Regs.SM0_BREAK_MASK, 2),
+    SM2_BREAK_VALUE(Regs.SM0_BREAK_VALUE, 2),
+    SM2_BREAK_HIT_TARGET(Regs.SM0_BREAK_HIT_TARGET, 2),
+    SM2_BREAK_HIT_COUNT(Regs.SM0_BREAK_HIT_COUNT, 2),
+    SM2_WATCH_CONDITION(Regs.SM0_WATCH_CONDITION, 2),
+    SM2_WATCH_MASK(Regs.SM0_WATCH_MASK, 2),
+    SM2_BREAK_REASON(Regs.SM0_BREAK_REASON, 2),
+    SM3_BREAK_CONDITION(Regs.SM0_BREAK_CONDITION, 3),
+    SM3_BREAK_MASK(Regs.SM0_BREAK_MASK, 3),
+    SM3_BREAK_VALUE(Regs.SM0_BREAK_VALUE, 3),
+    SM3_BREAK_HIT_TARGET(Regs.SM0_BREAK_HIT_TARGET, 3),
+    SM3_BREAK_HIT_COUNT(Regs.SM0_BREAK_HIT_COUNT, 3),
+    SM3_WATCH_CONDITION(Regs.SM0_WATCH_CONDITION, 3),
+    SM3_WATCH_MASK(Regs.SM0_WATCH_MASK, 3),
+    SM3_BREAK_REASON(Regs.SM0_BREAK_REASON, 3);
 
     public static String getRegisterSetLabel()
     {
@@ -496,6 +626,14 @@ public abstract class PIOEmuRegisters extends RegisterSet
   protected static final int SM_SIZE =
     Regs.SM1_REGX.ordinal() - Regs.SM0_REGX.ordinal();
 
+  /**
+   * Registers for conditional breakpoints and data watchpoints form a
+   * per-SM block of their own, following all other registers, such
+   * that the addresses of the other registers remain unchanged.
+   */
+  protected static final int BREAK_SM_SIZE =
+    Regs.SM1_BREAK_CONDITION.ordinal() - Regs.SM0_BREAK_CONDITION.ordinal();
+
   public static int getAddress(final int pioNum,
                                final PIOEmuRegisters.Regs register)
   {
@@ -543,14 +681,24 @@ public abstract class PIOEmuRegisters extends RegisterSet
     case SM0_NEXT_CLK_ENABLE:
     case SM0_BREAKPOINTS:
     case SM0_TRACEPOINTS:
-      break; // ok
+      return
+        Constants.getPIOEmuBaseAddress(pioNum) +
+        0x4 * (register.ordinal() + smNum * SM_SIZE);
+    case SM0_BREAK_CONDITION:
+    case SM0_BREAK_MASK:
+    case SM0_BREAK_VALUE:
+    case SM0_BREAK_HIT_TARGET:
+    case SM0_BREAK_HIT_COUNT:
+    case SM0_WATCH_CONDITION:
+    case SM0_WATCH_MASK:
+    case SM0_BREAK_REASON:
+      return
+        Constants.getPIOEmuBaseAddress(pioNum) +
+        0x4 * (register.ordinal() + smNum * BREAK_SM_SIZE);
     default:
       throw new IllegalArgumentException("register not one of SM0_*: " +
                                          register);
     }
-    return
-      Constants.getPIOEmuBaseAddress(pioNum) +
-      0x4 * (register.ordinal() + smNum * SM_SIZE);
   }
 
   public static int getFIFOMemAddress(final int pioNum, final int smNum,
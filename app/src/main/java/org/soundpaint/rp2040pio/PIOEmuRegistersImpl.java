@@ -240,6 +240,62 @@ public class PIOEmuRegistersImpl extends PIOEmuRegisters
       pio.getSM((regNum - Regs.SM0_TRACEPOINTS.ordinal()) / SM_SIZE).
         setTracePoints(value, mask, xor);
       break;
+    case SM0_BREAK_CONDITION:
+    case SM1_BREAK_CONDITION:
+    case SM2_BREAK_CONDITION:
+    case SM3_BREAK_CONDITION:
+      pio.getSM((regNum - Regs.SM0_BREAK_CONDITION.ordinal()) / BREAK_SM_SIZE).
+        setBreakCondition(value, mask, xor);
+      break;
+    case SM0_BREAK_MASK:
+    case SM1_BREAK_MASK:
+    case SM2_BREAK_MASK:
+    case SM3_BREAK_MASK:
+      pio.getSM((regNum - Regs.SM0_BREAK_MASK.ordinal()) / BREAK_SM_SIZE).
+        setBreakMask(value, mask, xor);
+      break;
+    case SM0_BREAK_VALUE:
+    case SM1_BREAK_VALUE:
+    case SM2_BREAK_VALUE:
+    case SM3_BREAK_VALUE:
+      pio.getSM((regNum - Regs.SM0_BREAK_VALUE.ordinal()) / BREAK_SM_SIZE).
+        setBreakValue(value, mask, xor);
+      break;
+    case SM0_BREAK_HIT_TARGET:
+    case SM1_BREAK_HIT_TARGET:
+    case SM2_BREAK_HIT_TARGET:
+    case SM3_BREAK_HIT_TARGET:
+      pio.getSM((regNum - Regs.SM0_BREAK_HIT_TARGET.ordinal()) / BREAK_SM_SIZE).
+        setBreakHitTarget(value, mask, xor);
+      break;
+    case SM0_BREAK_HIT_COUNT:
+    case SM1_BREAK_HIT_COUNT:
+    case SM2_BREAK_HIT_COUNT:
+    case SM3_BREAK_HIT_COUNT:
+      pio.getSM((regNum - Regs.SM0_BREAK_HIT_COUNT.ordinal()) / BREAK_SM_SIZE).
+        setBreakHitCount(value, mask, xor);
+      break;
+    case SM0_WATCH_CONDITION:
+    case SM1_WATCH_CONDITION:
+    case SM2_WATCH_CONDITION:
+    case SM3_WATCH_CONDITION:
+      pio.getSM((regNum - Regs.SM0_WATCH_CONDITION.ordinal()) / BREAK_SM_SIZE).
+        setWatchCondition(value, mask, xor);
+      break;
+    case SM0_WATCH_MASK:
+    case SM1_WATCH_MASK:
+    case SM2_WATCH_MASK:
+    case SM3_WATCH_MASK:
+      pio.getSM((regNum - Regs.SM0_WATCH_MASK.ordinal()) / BREAK_SM_SIZE).
+        setWatchMask(value, mask, xor);
+      break;
+    case SM0_BREAK_REASON:
+    case SM1_BREAK_REASON:
+    case SM2_BREAK_REASON:
+    case SM3_BREAK_REASON:
+      pio.getSM((regNum - Regs.SM0_BREAK_REASON.ordinal()) / BREAK_SM_SIZE).
+        setBreakReason(value, mask, xor);
+      break;
     case INSTR_MEM0:
     case INSTR_MEM1:
     case INSTR_MEM2:
@@ -295,6 +351,8 @@ public class PIOEmuRegistersImpl extends PIOEmuRegisters
       break;
     case IRQ:
       break; // read-only address
+    case INSTR_MEM_VERSION:
+      break; // read-only address
     default:
       throw new InternalError("unexpected case fall-through");
     }
@@ -494,6 +552,66 @@ public class PIOEmuRegistersImpl extends PIOEmuRegisters
       return
         pio.getSM((regNum - Regs.SM0_TRACEPOINTS.ordinal()) / SM_SIZE).
         getTracePoints();
+    case SM0_BREAK_CONDITION:
+    case SM1_BREAK_CONDITION:
+    case SM2_BREAK_CONDITION:
+    case SM3_BREAK_CONDITION:
+      return
+        pio.getSM((regNum - Regs.SM0_BREAK_CONDITION.ordinal()) /
+                  BREAK_SM_SIZE).
+        getBreakCondition();
+    case SM0_BREAK_MASK:
+    case SM1_BREAK_MASK:
+    case SM2_BREAK_MASK:
+    case SM3_BREAK_MASK:
+      return
+        pio.getSM((regNum - Regs.SM0_BREAK_MASK.ordinal()) / BREAK_SM_SIZE).
+        getBreakMask();
+    case SM0_BREAK_VALUE:
+    case SM1_BREAK_VALUE:
+    case SM2_BREAK_VALUE:
+    case SM3_BREAK_VALUE:
+      return
+        pio.getSM((regNum - Regs.SM0_BREAK_VALUE.ordinal()) / BREAK_SM_SIZE).
+        getBreakValue();
+    case SM0_BREAK_HIT_TARGET:
+    case SM1_BREAK_HIT_TARGET:
+    case SM2_BREAK_HIT_TARGET:
+    case SM3_BREAK_HIT_TARGET:
+      return
+        pio.getSM((regNum - Regs.SM0_BREAK_HIT_TARGET.ordinal()) /
+                  BREAK_SM_SIZE).
+        getBreakHitTarget();
+    case SM0_BREAK_HIT_COUNT:
+    case SM1_BREAK_HIT_COUNT:
+    case SM2_BREAK_HIT_COUNT:
+    case SM3_BREAK_HIT_COUNT:
+      return
+        pio.getSM((regNum - Regs.SM0_BREAK_HIT_COUNT.ordinal()) /
+                  BREAK_SM_SIZE).
+        getBreakHitCount();
+    case SM0_WATCH_CONDITION:
+    case SM1_WATCH_CONDITION:
+    case SM2_WATCH_CONDITION:
+    case SM3_WATCH_CONDITION:
+      return
+        pio.getSM((regNum - Regs.SM0_WATCH_CONDITION.ordinal()) /
+                  BREAK_SM_SIZE).
+        getWatchCondition();
+    case SM0_WATCH_MASK:
+    case SM1_WATCH_MASK:
+    case SM2_WATCH_MASK:
+    case SM3_WATCH_MASK:
+      return
+        pio.getSM((regNum - Regs.SM0_WATCH_MASK.ordinal()) / BREAK_SM_SIZE).
+        getWatchMask();
+    case SM0_BREAK_REASON:
+    case SM1_BREAK_REASON:
+    case SM2_BREAK_REASON:
+    case SM3_BREAK_REASON:
+      return
+        pio.getSM((regNum - Regs.SM0_BREAK_REASON.ordinal()) / BREAK_SM_SIZE).
+        getBreakReason();
     case INSTR_MEM0:
     case INSTR_MEM1:
     case INSTR_MEM2:
@@ -545,6 +663,8 @@ public class PIOEmuRegistersImpl extends PIOEmuRegisters
       return pio.getPIOGPIO().getPinDirs(0, GPIO_NUM);
     case IRQ:
       return pio.getIRQ().getIRQ();
+    case INSTR_MEM_VERSION:
+      return pio.getMemory().getVersion();
     default:
       throw new InternalError("unexpected case fall-through");
     }
@@ -33,6 +33,8 @@ public class PIOGPIO implements Constants
   private final Bit[] collatedLevels;
   private final Direction[] collatedDirections;
   private final PinState[] appliedStates;
+  private int appliedLevels; // one bit per pin, mirrors appliedStates
+  private int appliedDirections; // one bit per pin, mirrors appliedStates
 
   private PIOGPIO()
   {
@@ -58,6 +60,19 @@ public class PIOGPIO implements Constants
       collatedDirections[gpioNum] = null;
       appliedStates[gpioNum] = PinState.IN_LOW;
     }
+    appliedLevels = 0x0;
+    appliedDirections = 0x0;
+  }
+
+  private void applyState(final int gpioNum, final PinState pinState)
+  {
+    appliedStates[gpioNum] = pinState;
+    final int mask = 0x1 << gpioNum;
+    appliedLevels =
+      (appliedLevels & ~mask) | (pinState.getLevel().getValue() << gpioNum);
+    appliedDirections =
+      (appliedDirections & ~mask) |
+      (pinState.getDirection().getValue() << gpioNum);
   }
 
   public GPIO getGPIO() { return gpio; }
@@ -69,8 +84,7 @@ public class PIOGPIO implements Constants
     }
     Constants.checkGpioPin(gpioNum, "GPIO pin number");
     final PinState pinState = appliedStates[gpioNum];
-    appliedStates[gpioNum] =
-      PinState.fromValues(pinState.getDirection(), level);
+    applyState(gpioNum, PinState.fromValues(pinState.getDirection(), level));
   }
 
   public Bit getLevel(final int gpioNum)
@@ -86,8 +100,7 @@ public class PIOGPIO implements Constants
     }
     Constants.checkGpioPin(gpioNum, "GPIO pin number");
     final PinState pinState = appliedStates[gpioNum];
-    appliedStates[gpioNum] =
-      PinState.fromValues(direction, pinState.getLevel());
+    applyState(gpioNum, PinState.fromValues(direction, pinState.getLevel()));
   }
 
   public Direction getDirection(final int gpioNum)
@@ -96,6 +109,15 @@ public class PIOGPIO implements Constants
     return appliedStates[gpioNum].getDirection();
   }
 
+  /**
+   * Returns the levels of all GPIO pins as applied by this PIO, one
+   * bit per pin, without iterating over the pins.
+   */
+  public int getAllPins()
+  {
+    return appliedLevels;
+  }
+
   public int getPins(final int base, final int count)
   {
     Constants.checkGpioPin(base, "GPIO pin base");
@@ -144,6 +166,15 @@ public class PIOGPIO implements Constants
     }
   }
 
+  /**
+   * Returns the directions of all GPIO pins as applied by this PIO,
+   * one bit per pin, without iterating over the pins.
+   */
+  public int getAllPinDirs()
+  {
+    return appliedDirections;
+  }
+
   public int getPinDirs(final int base, final int count)
   {
     Constants.checkGpioPin(base, "GPIO pin base");
@@ -206,7 +237,7 @@ public class PIOGPIO implements Constants
         collatedLevel == null ? state.getLevel() : collatedLevel;
       final Direction direction =
         collatedDirection == null ? state.getDirection() : collatedDirection;
-      appliedStates[gpioNum] = PinState.fromValues(direction, level);
+      applyState(gpioNum, PinState.fromValues(direction, level));
       collatedLevels[gpioNum] = null;
       collatedDirections[gpioNum] = null;
     }
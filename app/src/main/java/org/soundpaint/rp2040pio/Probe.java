@@ -0,0 +1,318 @@
+/*
+ * @(#)Probe.java 1.00 26/10/19
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Specification of a value to be sampled once per cycle.  A probe is
+ * given as an expression in reverse Polish notation that is compiled
+ * once and then evaluated wherever the registers are accessible,
+ * e.g. on the emulation thread of an emulation server, such that
+ * only the final value needs to be transferred per cycle.  Tokens
+ * are separated by commas and operate on 32 bit integer values:
+ *
+ * <pre>
+ * &#64;ADDR     push value of register at hexadecimal address ADDR
+ * #VALUE    push hexadecimal constant VALUE
+ * MSB:LSB   replace top value by its bits MSB down to LSB
+ * not       replace top value by its bitwise complement
+ * and or xor add sub shl shr
+ *           replace top two values a, b by a op b
+ * eq ne ltu replace top two values a, b by 1, if the comparison of
+ *           a and b holds true, or else by 0
+ * sel       replace top three values c, a, b by a, if c is not 0,
+ *           or else by b
+ * ld        replace top value a by value of register at address a
+ *           (with bits 1…0 of a ignored)
+ * </pre>
+ *
+ * Examples: "&#64;50200000,3:0" samples bits 3…0 of a register;
+ * "&#64;50200010,#0,eq" evaluates to 1 if and only if a register is
+ * 0, as useful for filtering out delay cycles;
+ * "&#64;5020000c,3:0,&#64;5020000c,11:8,add" sums up two bit ranges
+ * of a register, e.g. FIFO levels; and
+ * "&#64;58200008,#2,shl,#582001b0,add,ld" samples the instruction
+ * memory word that PIO0 SM0's PC points to.
+ */
+public class Probe
+{
+  /**
+   * Provides the register values that a probe is evaluated upon.
+   */
+  @FunctionalInterface
+  public static interface RegisterReader
+  {
+    int readAddress(final int address) throws IOException;
+  }
+
+  @FunctionalInterface
+  private static interface Node
+  {
+    int evaluate(final RegisterReader reader) throws IOException;
+  }
+
+  @FunctionalInterface
+  private static interface BinaryOperator
+  {
+    int apply(final int a, final int b);
+  }
+
+  private final String expression;
+  private final Node root;
+
+  private Probe()
+  {
+    throw new UnsupportedOperationException("unsupported empty constructor");
+  }
+
+  /**
+   * Creates a probe that samples the full value of the register at
+   * the specified address.
+   */
+  public Probe(final int address)
+  {
+    this(address, 31, 0);
+  }
+
+  /**
+   * Creates a probe that samples the specified bit range of the
+   * register at the specified address.
+   */
+  public Probe(final int address, final int msb, final int lsb)
+  {
+    this(createExpression(address, msb, lsb));
+  }
+
+  /**
+   * Creates a probe from an expression as described in the class
+   * documentation.  White space within the expression is ignored.
+   *
+   * @throws IllegalArgumentException If the expression is malformed.
+   */
+  public Probe(final String expression)
+  {
+    if (expression == null) {
+      throw new NullPointerException("expression");
+    }
+    this.expression = expression.replaceAll("\\s", "");
+    root = compile(this.expression);
+  }
+
+  private static String createExpression(final int address,
+                                         final int msb, final int lsb)
+  {
+    checkAddressAligned(address);
+    Constants.checkMSBLSB(msb, lsb);
+    return
+      (msb - lsb == 31) ?
+      String.format("@%08x", address) :
+      String.format("@%08x,%d:%d", address, msb, lsb);
+  }
+
+  private static void checkAddressAligned(final int address)
+  {
+    if ((address & 0x3) != 0x0) {
+      throw new IllegalArgumentException("address not word-aligned: " +
+                                         String.format("0x%08x", address));
+    }
+  }
+
+  private static int parseHex(final String token)
+  {
+    try {
+      return Integer.parseUnsignedInt(token.substring(1), 16);
+    } catch (final NumberFormatException e) {
+      throw new IllegalArgumentException("invalid number in probe: " +
+                                         token);
+    }
+  }
+
+  private static Node pop(final Deque<Node> stack, final String token)
+  {
+    if (stack.isEmpty()) {
+      throw new IllegalArgumentException("missing operand in probe for " +
+                                         token);
+    }
+    return stack.pop();
+  }
+
+  private static Node createSlice(final Node operand, final String token)
+  {
+    final int colon = token.indexOf(':');
+    final int msb;
+    final int lsb;
+    try {
+      msb = Integer.parseInt(token.substring(0, colon));
+      lsb = Integer.parseInt(token.substring(colon + 1));
+    } catch (final NumberFormatException e) {
+      throw new IllegalArgumentException("invalid bit range in probe: " +
+                                         token);
+    }
+    Constants.checkMSBLSB(msb, lsb);
+    if (msb - lsb == 31) return operand;
+    final int mask = (0x1 << (msb - lsb + 1)) - 1;
+    return (reader) -> (operand.evaluate(reader) >>> lsb) & mask;
+  }
+
+  private static Node createBinary(final Deque<Node> stack,
+                                   final String token,
+                                   final BinaryOperator operator)
+  {
+    final Node b = pop(stack, token);
+    final Node a = pop(stack, token);
+    return (reader) -> operator.apply(a.evaluate(reader), b.evaluate(reader));
+  }
+
+  private static Node compileToken(final Deque<Node> stack,
+                                   final String token)
+  {
+    if (token.startsWith("@")) {
+      final int address = parseHex(token);
+      checkAddressAligned(address);
+      return (reader) -> reader.readAddress(address);
+    }
+    if (token.startsWith("#")) {
+      final int value = parseHex(token);
+      return (reader) -> value;
+    }
+    if (token.indexOf(':') >= 0) {
+      return createSlice(pop(stack, token), token);
+    }
+    switch (token) {
+    case "not":
+      final Node operand = pop(stack, token);
+      return (reader) -> ~operand.evaluate(reader);
+    case "and":
+      return createBinary(stack, token, (a, b) -> a & b);
+    case "or":
+      return createBinary(stack, token, (a, b) -> a | b);
+    case "xor":
+      return createBinary(stack, token, (a, b) -> a ^ b);
+    case "add":
+      return createBinary(stack, token, (a, b) -> a + b);
+    case "sub":
+      return createBinary(stack, token, (a, b) -> a - b);
+    case "shl":
+      return createBinary(stack, token, (a, b) -> a << b);
+    case "shr":
+      return createBinary(stack, token, (a, b) -> a >>> b);
+    case "eq":
+      return createBinary(stack, token, (a, b) -> a == b ? 1 : 0);
+    case "ne":
+      return createBinary(stack, token, (a, b) -> a != b ? 1 : 0);
+    case "ltu":
+      return createBinary(stack, token,
+                          (a, b) -> Integer.compareUnsigned(a, b) < 0 ? 1 : 0);
+    case "sel":
+      final Node onFalse = pop(stack, token);
+      final Node onTrue = pop(stack, token);
+      final Node condition = pop(stack, token);
+      return (reader) ->
+        condition.evaluate(reader) != 0 ?
+        onTrue.evaluate(reader) : onFalse.evaluate(reader);
+    case "ld":
+      final Node address = pop(stack, token);
+      return (reader) -> reader.readAddress(address.evaluate(reader) & ~0x3);
+    default:
+      throw new IllegalArgumentException("unknown token in probe: " + token);
+    }
+  }
+
+  private static Node compile(final String expression)
+  {
+    final Deque<Node> stack = new ArrayDeque<Node>();
+    for (final String token : expression.split(",", -1)) {
+      stack.push(compileToken(stack, token));
+    }
+    if (stack.size() != 1) {
+      throw new IllegalArgumentException("probe must result in exactly " +
+                                         "one value: " + expression);
+    }
+    return stack.pop();
+  }
+
+  /**
+   * Returns this probe's expression, suitable for recreating an
+   * equivalent probe, e.g. on the other side of a connection.
+   */
+  public String getExpression() { return expression; }
+
+  /**
+   * Evaluates this probe upon the register values provided by the
+   * specified reader.
+   */
+  public int evaluate(final RegisterReader reader) throws IOException
+  {
+    return root.evaluate(reader);
+  }
+
+  /**
+   * Returns a probe that evaluates to 1, if all of the specified
+   * probes evaluate to a value other than 0, or else to 0.
+   */
+  public static Probe conjunction(final Probe... probes)
+  {
+    if (probes.length == 0) {
+      return new Probe("#1");
+    }
+    final StringBuilder s = new StringBuilder();
+    for (int index = 0; index < probes.length; index++) {
+      s.append(probes[index].getExpression());
+      s.append(",#0,ne");
+      if (index > 0) s.append(",and");
+      if (index < probes.length - 1) s.append(',');
+    }
+    return new Probe(s.toString());
+  }
+
+  @Override
+  public boolean equals(final Object obj)
+  {
+    if (!(obj instanceof Probe)) return false;
+    return expression.equals(((Probe)obj).expression);
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return expression.hashCode();
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format("Probe(%s)", expression);
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -25,6 +25,7 @@
 package org.soundpaint.rp2040pio;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.InputStreamReader;
 import java.io.IOException;
 import java.io.PrintStream;
@@ -32,6 +33,7 @@ import java.io.PrintWriter;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.util.Base64;
 import org.soundpaint.rp2040pio.sdk.SDK;
 
 /**
@@ -219,7 +221,11 @@ public class RemoteAddressSpaceClient extends AddressSpace
     final BufferedReader in =
       new BufferedReader(new InputStreamReader(socket.getInputStream()));
     out.println(request);
-    final String response = in.readLine();
+    return parseResponse(in.readLine());
+  }
+
+  private Response parseResponse(final String response) throws IOException
+  {
     if (response == null) {
       return null;
     }
@@ -245,6 +251,91 @@ public class RemoteAddressSpaceClient extends AddressSpace
     return new Response(console, statusCode, statusId, result);
   }
 
+  private static final int STATUS_CODE_DATA = 102; // TODO: Use global constant.
+
+  private static int parseSamples(final String result, final int[] samples,
+                                  final int maxCount)
+    throws IOException
+  {
+    if ((result == null) || result.isEmpty()) {
+      return 0;
+    }
+    final String[] values = result.split(" ");
+    if (values.length > maxCount) {
+      throw new IOException("received more samples than expected: " +
+                            values.length);
+    }
+    for (int index = 0; index < values.length; index++) {
+      try {
+        samples[index] = Integer.parseUnsignedInt(values[index], 16);
+      } catch (final NumberFormatException e) {
+        throw new IOException("failed parsing sample value: " + values[index]);
+      }
+    }
+    return values.length;
+  }
+
+  private static void deliverSamples(final int[] samples, final int count,
+                                     final int probeCount,
+                                     final SampleConsumer consumer)
+    throws IOException
+  {
+    if (probeCount == 0) return;
+    if (count % probeCount != 0) {
+      throw new IOException("received incomplete cycle of samples: " + count);
+    }
+    consumer.accept(samples, count / probeCount);
+  }
+
+  /**
+   * Since the server streams its chunks as a sequence of DATA
+   * responses that is terminated by a final response, all of these
+   * responses are read while holding this client's lock.
+   */
+  @Override
+  public synchronized void runCycles(final Probe[] probes, final int cycles,
+                                     final int chunkCycles,
+                                     final SampleConsumer consumer)
+    throws IOException
+  {
+    checkRunCyclesArgs(probes, cycles, chunkCycles);
+    if (consumer == null) {
+      throw new NullPointerException("consumer");
+    }
+    final StringBuffer request = new StringBuffer();
+    request.append(String.format("c %d %d %d",
+                                 cycles, chunkCycles, probes.length));
+    for (final Probe probe : probes) {
+      request.append(' ');
+      request.append(probe.getExpression());
+    }
+    final PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+    final BufferedReader in =
+      new BufferedReader(new InputStreamReader(socket.getInputStream()));
+    out.println(request.toString());
+    final String message =
+      String.format("failed running %d cycles with %d probes",
+                    cycles, probes.length);
+    final int chunkSize =
+      (chunkCycles > 0) && (chunkCycles < cycles) ? chunkCycles : cycles;
+    final int[] samples = new int[chunkSize * probes.length];
+    while (true) {
+      final Response response = parseResponse(in.readLine());
+      checkResponse(response);
+      if (response.getStatusCode() != STATUS_CODE_DATA) {
+        final String result = response.getResultOrThrowOnFailure(message);
+        if (chunkCycles == 0) {
+          final int count = parseSamples(result, samples, samples.length);
+          deliverSamples(samples, count, probes.length, consumer);
+        }
+        return;
+      }
+      final int count =
+        parseSamples(response.getResult(), samples, samples.length);
+      deliverSamples(samples, count, probes.length, consumer);
+    }
+  }
+
   private void checkResponse(final Response response) throws IOException
   {
     if (response == null) {
@@ -355,6 +446,52 @@ public class RemoteAddressSpaceClient extends AddressSpace
     response.getResultOrThrowOnFailure(message);
   }
 
+  @Override
+  public void writeAddressesMasked(final WriteBatch batch) throws IOException
+  {
+    if (batch == null) {
+      throw new NullPointerException("batch");
+    }
+    if (batch.isEmpty()) return;
+    final StringBuffer request = new StringBuffer();
+    request.append(String.format("b %d", batch.size()));
+    for (int index = 0; index < batch.size(); index++) {
+      request.append(String.format(" 0x%08x 0x%08x 0x%08x %s",
+                                   batch.getAddress(index),
+                                   batch.getBits(index),
+                                   batch.getMask(index),
+                                   batch.getXor(index) ? "t" : "f"));
+    }
+    final Response response = getResponse(request.toString());
+    checkResponse(response);
+    final String message =
+      String.format("failed writing batch of %d values", batch.size());
+    response.getResultOrThrowOnFailure(message);
+  }
+
+  @Override
+  public void writeInstructionMemory(final int pioNum, final int offset,
+                                     final short[] instructions)
+    throws IOException
+  {
+    Constants.checkPioNum(pioNum, "PIO index number");
+    Constants.checkSmMemAddr(offset, "offset");
+    if (instructions == null) {
+      throw new NullPointerException("instructions");
+    }
+    final StringBuffer request = new StringBuffer();
+    request.append(String.format("m %d 0x%02x", pioNum, offset));
+    for (final short instruction : instructions) {
+      request.append(String.format(" 0x%04x", instruction & 0xffff));
+    }
+    final Response response = getResponse(request.toString());
+    checkResponse(response);
+    final String message =
+      String.format("failed writing %d instructions to memory of PIO%d " +
+                    "at offset 0x%02x", instructions.length, pioNum, offset);
+    response.getResultOrThrowOnFailure(message);
+  }
+
   private int parseIntResult(final int address, final String result)
     throws IOException
   {
@@ -387,6 +524,37 @@ public class RemoteAddressSpaceClient extends AddressSpace
     return parseIntResult(address, result);
   }
 
+  @Override
+  public int[] readAddresses(final int[] addresses) throws IOException
+  {
+    if (addresses == null) {
+      throw new NullPointerException("addresses");
+    }
+    if (addresses.length == 0) return new int[0];
+    final StringBuffer request = new StringBuffer();
+    request.append(String.format("g %d", addresses.length));
+    for (final int address : addresses) {
+      request.append(String.format(" 0x%08x", address));
+    }
+    final Response response = getResponse(request.toString());
+    checkResponse(response);
+    final String message =
+      String.format("failed retrieving batch of %d values", addresses.length);
+    final String result = response.getResultOrThrowOnFailure(message);
+    final String[] tokens = result != null ? result.split(" ") : new String[0];
+    if (tokens.length != addresses.length) {
+      final String tokensMessage =
+        String.format("expected %d values, but received %d",
+                      addresses.length, tokens.length);
+      throw new IOException(tokensMessage);
+    }
+    final int[] values = new int[addresses.length];
+    for (int index = 0; index < addresses.length; index++) {
+      values[index] = parseIntResult(addresses[index], tokens[index]);
+    }
+    return values;
+  }
+
   @Override
   public int waitAddress(final int address,
                          final int expectedValue, final int mask,
@@ -405,6 +573,194 @@ public class RemoteAddressSpaceClient extends AddressSpace
       response.getResultOrThrowOnFailure(message);
     return parseIntResult(address, result);
   }
+
+  private int parseSubscriptionResult(final String result)
+    throws IOException
+  {
+    if (result == null) {
+      throw new IOException("missing subscription result");
+    }
+    try {
+      return Integer.parseInt(result);
+    } catch (final NumberFormatException e) {
+      throw new IOException("failed parsing subscription result: " + result);
+    }
+  }
+
+  @Override
+  public int subscribe(final Probe[] probes, final int capacityCycles,
+                       final boolean lossless)
+    throws IOException
+  {
+    if (probes == null) {
+      throw new NullPointerException("probes");
+    }
+    final StringBuffer request = new StringBuffer();
+    request.append(String.format("a %d %s %d", capacityCycles,
+                                 lossless ? "t" : "f", probes.length));
+    for (final Probe probe : probes) {
+      request.append(' ');
+      request.append(probe.getExpression());
+    }
+    final Response response = getResponse(request.toString());
+    checkResponse(response);
+    final String message =
+      String.format("failed subscribing for %d probes", probes.length);
+    final String result = response.getResultOrThrowOnFailure(message);
+    return parseSubscriptionResult(result);
+  }
+
+  @Override
+  public int fetchSamples(final int subscriptionId, final int[] samples,
+                          final int maxCycles, final long millisTimeout)
+    throws IOException
+  {
+    if (samples == null) {
+      throw new NullPointerException("samples");
+    }
+    final String request =
+      String.format("f %d %d %d", subscriptionId, maxCycles,
+                    Math.min(millisTimeout, Integer.MAX_VALUE));
+    final Response response = getResponse(request);
+    checkResponse(response);
+    final String message =
+      String.format("failed fetching samples of subscription %d",
+                    subscriptionId);
+    final String result = response.getResultOrThrowOnFailure(message);
+    final int spacePos = result != null ? result.indexOf(' ') : -1;
+    final int cycles =
+      parseSubscriptionResult(spacePos >= 0 ?
+                              result.substring(0, spacePos) : result);
+    if ((cycles < 0) || (cycles > maxCycles)) {
+      throw new IOException("received unexpected number of cycles: " +
+                            cycles);
+    }
+    final int count =
+      spacePos >= 0 ?
+      parseSamples(result.substring(spacePos + 1), samples, samples.length) :
+      0;
+    if ((cycles > 0) && (count % cycles != 0)) {
+      throw new IOException("received incomplete cycle of samples: " + count);
+    }
+    return cycles;
+  }
+
+  @Override
+  public SampleSubscription.Statistics
+    getSubscriptionStatistics(final int subscriptionId)
+    throws IOException
+  {
+    final String request = String.format("t %d", subscriptionId);
+    final Response response = getResponse(request);
+    checkResponse(response);
+    final String message =
+      String.format("failed retrieving statistics of subscription %d",
+                    subscriptionId);
+    final String result = response.getResultOrThrowOnFailure(message);
+    final String[] tokens = result != null ? result.split(" ") : new String[0];
+    if (tokens.length != 7) {
+      throw new IOException("failed parsing subscription statistics: " +
+                            result);
+    }
+    final long[] values = new long[tokens.length];
+    for (int index = 0; index < tokens.length; index++) {
+      try {
+        values[index] = Long.parseLong(tokens[index]);
+      } catch (final NumberFormatException e) {
+        throw new IOException("failed parsing subscription statistics: " +
+                              result);
+      }
+    }
+    return new SampleSubscription.Statistics((int)values[0], (int)values[1],
+                                             values[2], values[3], values[4],
+                                             values[5], values[6]);
+  }
+
+  @Override
+  public void unsubscribe(final int subscriptionId) throws IOException
+  {
+    final String request = String.format("u %d", subscriptionId);
+    final Response response = getResponse(request);
+    checkResponse(response);
+    final String message =
+      String.format("failed unsubscribing subscription %d", subscriptionId);
+    response.getResultOrThrowOnFailure(message);
+  }
+
+  @Override
+  public void startExecTrace(final int pioNum, final int smNum)
+    throws IOException
+  {
+    final String request = String.format("e %d %d", pioNum, smNum);
+    final Response response = getResponse(request);
+    checkResponse(response);
+    final String message =
+      String.format("failed starting execution trace of PIO%d_SM%d",
+                    pioNum, smNum);
+    response.getResultOrThrowOnFailure(message);
+  }
+
+  @Override
+  public ExecTrace.Recording stopExecTrace(final int pioNum, final int smNum)
+    throws IOException
+  {
+    final String request = String.format("n %d %d", pioNum, smNum);
+    final Response response = getResponse(request);
+    checkResponse(response);
+    final String message =
+      String.format("failed stopping execution trace of PIO%d_SM%d",
+                    pioNum, smNum);
+    final String result = response.getResultOrThrowOnFailure(message);
+    final byte[] bytes;
+    try {
+      bytes = Base64.getDecoder().decode(result != null ? result : "");
+    } catch (final IllegalArgumentException e) {
+      throw new IOException("failed parsing execution trace: " +
+                            e.getMessage());
+    }
+    return ExecTrace.Recording.read(new ByteArrayInputStream(bytes));
+  }
+
+  @Override
+  public StateTrace.Snapshot fetchStateTrace(final long maxCycles)
+    throws IOException
+  {
+    final String request =
+      String.format("x %d", Math.min(maxCycles, Integer.MAX_VALUE));
+    final Response response = getResponse(request);
+    checkResponse(response);
+    final String result =
+      response.getResultOrThrowOnFailure("failed fetching state trace");
+    final String[] tokens = result != null ? result.split(" ") : new String[0];
+    if ((tokens.length < 2) ||
+        !String.valueOf(StateTrace.CHANNEL_COUNT).equals(tokens[1]) ||
+        (tokens.length < 2 + StateTrace.CHANNEL_COUNT)) {
+      throw new IOException("failed parsing state trace: unexpected format");
+    }
+    final int[] state = new int[StateTrace.CHANNEL_COUNT];
+    final long[] records =
+      new long[tokens.length - 2 - StateTrace.CHANNEL_COUNT];
+    final long wallClock;
+    int index = 0;
+    try {
+      wallClock = Long.parseLong(tokens[index++]);
+      index++;
+      for (int channel = 0; channel < state.length; channel++) {
+        state[channel] = Integer.parseUnsignedInt(tokens[index++], 16);
+      }
+      for (int record = 0; record < records.length; record++) {
+        records[record] = Long.parseUnsignedLong(tokens[index++], 16);
+      }
+    } catch (final NumberFormatException e) {
+      throw new IOException("failed parsing state trace value: " +
+                            tokens[index - 1]);
+    }
+    try {
+      return new StateTrace.Snapshot(wallClock, state, records);
+    } catch (final IllegalArgumentException e) {
+      throw new IOException("failed parsing state trace: " + e.getMessage());
+    }
+  }
 }
 
 /*
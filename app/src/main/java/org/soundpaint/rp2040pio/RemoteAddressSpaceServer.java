@@ -25,12 +25,16 @@
 package org.soundpaint.rp2040pio;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStreamReader;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * The idea of the RemoteAddressSpaceServer class is to provide access
@@ -125,8 +129,24 @@ public class RemoteAddressSpaceServer
       "v                   (version)" + ls +
       "q                   (quit)" + ls +
       "r <addr>            (read address)" + ls +
+      "g <count> {<addr>}  (read batch of addresses atomically)" + ls +
       "w <addr> <value> <mask> <xor>" + ls +
       "                    (write address)" + ls +
+      "b <count> {<addr> <value> <mask> <xor>}" + ls +
+      "                    (write batch of addresses atomically)" + ls +
+      "m <pio> <offset> {<instr>}" + ls +
+      "                    (write instruction memory atomically)" + ls +
+      "c <cycles> <chunk> <count> {<probe>}" + ls +
+      "                    (run cycles and sample values)" + ls +
+      "a <capacity> <lossless> <count> {<probe>}" + ls +
+      "                    (subscribe for samples of every cycle)" + ls +
+      "f <id> <max cycles> <timeout millis>" + ls +
+      "                    (fetch subscribed samples)" + ls +
+      "t <id>              (show subscription statistics)" + ls +
+      "u <id>              (unsubscribe)" + ls +
+      "x <max cycles>      (fetch state trace of most recent cycles)" + ls +
+      "e <pio> <sm>        (start recording execution trace)" + ls +
+      "n <pio> <sm>        (stop and fetch execution trace)" + ls +
       "i <addr> <value> [<mask> [<timeout cycles> [<timeout millis>]]]" + ls +
       "                    (await value)" + ls +
       "s <addr>            (show address register set id)" + ls +
@@ -138,13 +158,17 @@ public class RemoteAddressSpaceServer
   {
     BYE("bye", 100),
     OK("ok", 101),
+    DATA("data", 102),
     ERR_UNKNOWN_COMMAND("unknown command", 400),
     ERR_MISSING_OPERAND("missing operand", 401),
     ERR_UNPARSED_INPUT("unparsed input", 402),
     ERR_INVALID_NUMBER("invalid number", 403),
     ERR_INVALID_BOOL("invalid Boolean value", 404),
     ERR_IO("input / output error", 405),
-    ERR_UNEXPECTED("unexpected error", 406);
+    ERR_UNEXPECTED("unexpected error", 406),
+    ERR_INVALID_PROBE("invalid probe", 407),
+    ERR_INVALID_SUBSCRIPTION("invalid subscription", 408),
+    ERR_INVALID_STATE("invalid state", 409);
 
     private final String id;
     private final int code;
@@ -333,6 +357,415 @@ public class RemoteAddressSpaceServer
     return createResponse(ResponseStatus.OK);
   }
 
+  private String handleWriteAddresses(final String[] args) throws IOException
+  {
+    if (args.length < 1) {
+      return createResponse(ResponseStatus.ERR_MISSING_OPERAND, null);
+    }
+    final int count;
+    try {
+      count = parseInt(args[0]);
+    } catch (final NumberFormatException e) {
+      return createResponse(ResponseStatus.ERR_INVALID_NUMBER, e.getMessage());
+    }
+    if (count < 0) {
+      final String message = String.format("negative count: %d", count);
+      return createResponse(ResponseStatus.ERR_INVALID_NUMBER, message);
+    }
+    if (args.length < 1 + 4 * count) {
+      return createResponse(ResponseStatus.ERR_MISSING_OPERAND, null);
+    }
+    if (args.length > 1 + 4 * count) {
+      return createResponse(ResponseStatus.ERR_UNPARSED_INPUT,
+                            args[1 + 4 * count]);
+    }
+    final WriteBatch batch = new WriteBatch(Math.max(count, 1));
+    for (int index = 0; index < count; index++) {
+      final int argsOffset = 1 + 4 * index;
+      final int address;
+      final int value;
+      final int mask;
+      try {
+        address = parseAddress(args[argsOffset]);
+        value = parseInt(args[argsOffset + 1]);
+        mask = parseInt(args[argsOffset + 2]);
+      } catch (final NumberFormatException e) {
+        return createResponse(ResponseStatus.ERR_INVALID_NUMBER,
+                              e.getMessage());
+      }
+      final boolean xor;
+      try {
+        xor = parseBoolean(args[argsOffset + 3]);
+      } catch (final IllegalArgumentException e) {
+        return createResponse(ResponseStatus.ERR_INVALID_BOOL, e.getMessage());
+      }
+      batch.add(address, value, mask, xor);
+    }
+    memory.writeAddressesMasked(batch);
+    return createResponse(ResponseStatus.OK);
+  }
+
+  private String handleWriteInstructionMemory(final String[] args)
+    throws IOException
+  {
+    if (args.length < 2) {
+      return createResponse(ResponseStatus.ERR_MISSING_OPERAND, null);
+    }
+    if (args.length > 2 + Constants.MEMORY_SIZE) {
+      return createResponse(ResponseStatus.ERR_UNPARSED_INPUT,
+                            args[2 + Constants.MEMORY_SIZE]);
+    }
+    final int pioNum;
+    final int offset;
+    final short[] instructions = new short[args.length - 2];
+    try {
+      pioNum = parseInt(args[0]);
+      offset = parseInt(args[1]);
+      for (int index = 0; index < instructions.length; index++) {
+        final int instruction = parseInt(args[2 + index]);
+        if ((instruction & ~0xffff) != 0x0) {
+          final String message =
+            String.format("instruction not a 16 bit value: 0x%08x",
+                          instruction);
+          throw new NumberFormatException(message);
+        }
+        instructions[index] = (short)instruction;
+      }
+    } catch (final NumberFormatException e) {
+      return createResponse(ResponseStatus.ERR_INVALID_NUMBER, e.getMessage());
+    }
+    if ((pioNum < 0) || (pioNum > Constants.PIO_NUM - 1)) {
+      final String message = String.format("invalid PIO number: %d", pioNum);
+      return createResponse(ResponseStatus.ERR_INVALID_NUMBER, message);
+    }
+    if ((offset < 0) || (offset > Constants.MEMORY_SIZE - 1)) {
+      final String message = String.format("invalid offset: %d", offset);
+      return createResponse(ResponseStatus.ERR_INVALID_NUMBER, message);
+    }
+    memory.writeInstructionMemory(pioNum, offset, instructions);
+    return createResponse(ResponseStatus.OK);
+  }
+
+  private static String formatSamples(final int[] samples, final int count)
+  {
+    final StringBuffer values = new StringBuffer();
+    for (int index = 0; index < count; index++) {
+      if (index > 0) values.append(' ');
+      values.append(Integer.toHexString(samples[index]));
+    }
+    return values.toString();
+  }
+
+  /**
+   * If chunk size is 0, all samples are returned in a single OK
+   * response.  Otherwise, the samples are streamed as a sequence of
+   * DATA responses with one chunk each, followed by a final OK
+   * response.
+   */
+  private String handleRunCycles(final String[] args,
+                                 final PrintWriter clientOut)
+    throws IOException
+  {
+    if (args.length < 3) {
+      return createResponse(ResponseStatus.ERR_MISSING_OPERAND, null);
+    }
+    final int cycles;
+    final int chunkCycles;
+    final int count;
+    try {
+      cycles = parseInt(args[0]);
+      chunkCycles = parseInt(args[1]);
+      count = parseInt(args[2]);
+    } catch (final NumberFormatException e) {
+      return createResponse(ResponseStatus.ERR_INVALID_NUMBER, e.getMessage());
+    }
+    if ((cycles < 0) || (chunkCycles < 0) || (count < 0)) {
+      final String message =
+        String.format("negative cycles, chunk or count: %d, %d, %d",
+                      cycles, chunkCycles, count);
+      return createResponse(ResponseStatus.ERR_INVALID_NUMBER, message);
+    }
+    if (args.length < 3 + count) {
+      return createResponse(ResponseStatus.ERR_MISSING_OPERAND, null);
+    }
+    if (args.length > 3 + count) {
+      return createResponse(ResponseStatus.ERR_UNPARSED_INPUT,
+                            args[3 + count]);
+    }
+    final Probe[] probes = new Probe[count];
+    try {
+      for (int index = 0; index < count; index++) {
+        probes[index] = new Probe(args[3 + index]);
+      }
+    } catch (final IllegalArgumentException e) {
+      return createResponse(ResponseStatus.ERR_INVALID_PROBE, e.getMessage());
+    }
+    if (chunkCycles == 0) {
+      final int[] samples = memory.runCycles(probes, cycles);
+      return createResponse(ResponseStatus.OK,
+                            formatSamples(samples, samples.length));
+    }
+    memory.runCycles(probes, cycles, chunkCycles, (samples, chunk) -> {
+        clientOut.println(createResponse(ResponseStatus.DATA,
+                                         formatSamples(samples,
+                                                       chunk * count)));
+      });
+    return createResponse(ResponseStatus.OK);
+  }
+
+  private String handleSubscribe(final String[] args,
+                                 final Map<Integer, Integer> subscriptions)
+    throws IOException
+  {
+    if (args.length < 3) {
+      return createResponse(ResponseStatus.ERR_MISSING_OPERAND, null);
+    }
+    final int capacityCycles;
+    final int count;
+    try {
+      capacityCycles = parseInt(args[0]);
+      count = parseInt(args[2]);
+    } catch (final NumberFormatException e) {
+      return createResponse(ResponseStatus.ERR_INVALID_NUMBER, e.getMessage());
+    }
+    final boolean lossless;
+    try {
+      lossless = parseBoolean(args[1]);
+    } catch (final IllegalArgumentException e) {
+      return createResponse(ResponseStatus.ERR_INVALID_BOOL, e.getMessage());
+    }
+    if (count < 0) {
+      final String message = String.format("negative count: %d", count);
+      return createResponse(ResponseStatus.ERR_INVALID_NUMBER, message);
+    }
+    if (args.length < 3 + count) {
+      return createResponse(ResponseStatus.ERR_MISSING_OPERAND, null);
+    }
+    if (args.length > 3 + count) {
+      return createResponse(ResponseStatus.ERR_UNPARSED_INPUT,
+                            args[3 + count]);
+    }
+    final Probe[] probes = new Probe[count];
+    try {
+      for (int index = 0; index < count; index++) {
+        probes[index] = new Probe(args[3 + index]);
+      }
+    } catch (final IllegalArgumentException e) {
+      return createResponse(ResponseStatus.ERR_INVALID_PROBE, e.getMessage());
+    }
+    final int id;
+    try {
+      id = memory.subscribe(probes, capacityCycles, lossless);
+    } catch (final IllegalArgumentException e) {
+      return createResponse(ResponseStatus.ERR_INVALID_SUBSCRIPTION,
+                            e.getMessage());
+    }
+    subscriptions.put(id, count);
+    return createResponse(ResponseStatus.OK, String.valueOf(id));
+  }
+
+  private String handleFetchSamples(final String[] args,
+                                    final Map<Integer, Integer> subscriptions)
+    throws IOException
+  {
+    if (args.length < 3) {
+      return createResponse(ResponseStatus.ERR_MISSING_OPERAND, null);
+    }
+    if (args.length > 3) {
+      return createResponse(ResponseStatus.ERR_UNPARSED_INPUT, args[3]);
+    }
+    final int id;
+    final int maxCycles;
+    final int millisTimeout;
+    try {
+      id = parseInt(args[0]);
+      maxCycles = parseInt(args[1]);
+      millisTimeout = parseInt(args[2]);
+    } catch (final NumberFormatException e) {
+      return createResponse(ResponseStatus.ERR_INVALID_NUMBER, e.getMessage());
+    }
+    if ((maxCycles < 0) || (millisTimeout < 0)) {
+      final String message =
+        String.format("negative max cycles or timeout: %d, %d",
+                      maxCycles, millisTimeout);
+      return createResponse(ResponseStatus.ERR_INVALID_NUMBER, message);
+    }
+    final Integer probeCount = subscriptions.get(id);
+    if (probeCount == null) {
+      final String message =
+        String.format("no such subscription on this connection: %d", id);
+      return createResponse(ResponseStatus.ERR_INVALID_SUBSCRIPTION, message);
+    }
+    final int[] samples = new int[maxCycles * probeCount];
+    final int cycles;
+    try {
+      cycles = memory.fetchSamples(id, samples, maxCycles, millisTimeout);
+    } catch (final IllegalArgumentException e) {
+      return createResponse(ResponseStatus.ERR_INVALID_SUBSCRIPTION,
+                            e.getMessage());
+    }
+    final String values = formatSamples(samples, cycles * probeCount);
+    return createResponse(ResponseStatus.OK,
+                          cycles + (values.isEmpty() ? "" : " " + values));
+  }
+
+  private String handleGetSubscriptionStatistics(final String[] args)
+    throws IOException
+  {
+    if (args.length < 1) {
+      return createResponse(ResponseStatus.ERR_MISSING_OPERAND, null);
+    }
+    if (args.length > 1) {
+      return createResponse(ResponseStatus.ERR_UNPARSED_INPUT, args[1]);
+    }
+    final int id;
+    try {
+      id = parseInt(args[0]);
+    } catch (final NumberFormatException e) {
+      return createResponse(ResponseStatus.ERR_INVALID_NUMBER, e.getMessage());
+    }
+    final SampleSubscription.Statistics statistics;
+    try {
+      statistics = memory.getSubscriptionStatistics(id);
+    } catch (final IllegalArgumentException e) {
+      return createResponse(ResponseStatus.ERR_INVALID_SUBSCRIPTION,
+                            e.getMessage());
+    }
+    final String result =
+      String.format("%d %d %d %d %d %d %d",
+                    statistics.getBufferedCycles(),
+                    statistics.getCapacityCycles(),
+                    statistics.getSampledCycles(),
+                    statistics.getStalls(), statistics.getStallMillis(),
+                    statistics.getOverflows(), statistics.getLostCycles());
+    return createResponse(ResponseStatus.OK, result);
+  }
+
+  private String handleUnsubscribe(final String[] args,
+                                   final Map<Integer, Integer> subscriptions)
+    throws IOException
+  {
+    if (args.length < 1) {
+      return createResponse(ResponseStatus.ERR_MISSING_OPERAND, null);
+    }
+    if (args.length > 1) {
+      return createResponse(ResponseStatus.ERR_UNPARSED_INPUT, args[1]);
+    }
+    final int id;
+    try {
+      id = parseInt(args[0]);
+    } catch (final NumberFormatException e) {
+      return createResponse(ResponseStatus.ERR_INVALID_NUMBER, e.getMessage());
+    }
+    try {
+      memory.unsubscribe(id);
+    } catch (final IllegalArgumentException e) {
+      return createResponse(ResponseStatus.ERR_INVALID_SUBSCRIPTION,
+                            e.getMessage());
+    }
+    subscriptions.remove(id);
+    return createResponse(ResponseStatus.OK);
+  }
+
+  private String handleFetchStateTrace(final String[] args) throws IOException
+  {
+    if (args.length < 1) {
+      return createResponse(ResponseStatus.ERR_MISSING_OPERAND, null);
+    }
+    if (args.length > 1) {
+      return createResponse(ResponseStatus.ERR_UNPARSED_INPUT, args[1]);
+    }
+    final int maxCycles;
+    try {
+      maxCycles = parseInt(args[0]);
+    } catch (final NumberFormatException e) {
+      return createResponse(ResponseStatus.ERR_INVALID_NUMBER, e.getMessage());
+    }
+    if (maxCycles < 0) {
+      final String message =
+        String.format("negative max cycles: %d", maxCycles);
+      return createResponse(ResponseStatus.ERR_INVALID_NUMBER, message);
+    }
+    final StateTrace.Snapshot snapshot = memory.fetchStateTrace(maxCycles);
+    final StringBuffer result = new StringBuffer();
+    result.append(snapshot.getWallClock());
+    result.append(' ');
+    result.append(StateTrace.CHANNEL_COUNT);
+    for (int channel = 0; channel < StateTrace.CHANNEL_COUNT; channel++) {
+      result.append(' ');
+      result.append(Integer.toHexString(snapshot.getValue(channel)));
+    }
+    for (int index = 0; index < snapshot.getRecordCount(); index++) {
+      result.append(' ');
+      result.append(Long.toHexString(snapshot.getRecord(index)));
+    }
+    return createResponse(ResponseStatus.OK, result.toString());
+  }
+
+  private int[] parsePioAndSm(final String[] args)
+  {
+    final int pioNum = parseInt(args[0]);
+    final int smNum = parseInt(args[1]);
+    if ((pioNum < 0) || (pioNum > Constants.PIO_NUM - 1)) {
+      final String message = String.format("invalid PIO number: %d", pioNum);
+      throw new NumberFormatException(message);
+    }
+    if ((smNum < 0) || (smNum > Constants.SM_COUNT - 1)) {
+      final String message = String.format("invalid SM number: %d", smNum);
+      throw new NumberFormatException(message);
+    }
+    return new int[] {pioNum, smNum};
+  }
+
+  private String handleStartExecTrace(final String[] args) throws IOException
+  {
+    if (args.length < 2) {
+      return createResponse(ResponseStatus.ERR_MISSING_OPERAND, null);
+    }
+    if (args.length > 2) {
+      return createResponse(ResponseStatus.ERR_UNPARSED_INPUT, args[2]);
+    }
+    final int[] pioAndSm;
+    try {
+      pioAndSm = parsePioAndSm(args);
+    } catch (final NumberFormatException e) {
+      return createResponse(ResponseStatus.ERR_INVALID_NUMBER, e.getMessage());
+    }
+    try {
+      memory.startExecTrace(pioAndSm[0], pioAndSm[1]);
+    } catch (final IllegalStateException e) {
+      return createResponse(ResponseStatus.ERR_INVALID_STATE, e.getMessage());
+    }
+    return createResponse(ResponseStatus.OK);
+  }
+
+  private String handleStopExecTrace(final String[] args) throws IOException
+  {
+    if (args.length < 2) {
+      return createResponse(ResponseStatus.ERR_MISSING_OPERAND, null);
+    }
+    if (args.length > 2) {
+      return createResponse(ResponseStatus.ERR_UNPARSED_INPUT, args[2]);
+    }
+    final int[] pioAndSm;
+    try {
+      pioAndSm = parsePioAndSm(args);
+    } catch (final NumberFormatException e) {
+      return createResponse(ResponseStatus.ERR_INVALID_NUMBER, e.getMessage());
+    }
+    final ExecTrace.Recording recording;
+    try {
+      recording = memory.stopExecTrace(pioAndSm[0], pioAndSm[1]);
+    } catch (final IllegalStateException e) {
+      return createResponse(ResponseStatus.ERR_INVALID_STATE, e.getMessage());
+    }
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    recording.write(out);
+    final String result =
+      Base64.getEncoder().encodeToString(out.toByteArray());
+    return createResponse(ResponseStatus.OK, result);
+  }
+
   private String handleReadAddress(final String[] args) throws IOException
   {
     if (args.length < 1) {
@@ -351,6 +784,46 @@ public class RemoteAddressSpaceServer
     return createResponse(ResponseStatus.OK, String.valueOf(value));
   }
 
+  private String handleReadAddresses(final String[] args) throws IOException
+  {
+    if (args.length < 1) {
+      return createResponse(ResponseStatus.ERR_MISSING_OPERAND, null);
+    }
+    final int count;
+    try {
+      count = parseInt(args[0]);
+    } catch (final NumberFormatException e) {
+      return createResponse(ResponseStatus.ERR_INVALID_NUMBER, e.getMessage());
+    }
+    if (count < 0) {
+      final String message = String.format("negative count: %d", count);
+      return createResponse(ResponseStatus.ERR_INVALID_NUMBER, message);
+    }
+    if (args.length < 1 + count) {
+      return createResponse(ResponseStatus.ERR_MISSING_OPERAND, null);
+    }
+    if (args.length > 1 + count) {
+      return createResponse(ResponseStatus.ERR_UNPARSED_INPUT,
+                            args[1 + count]);
+    }
+    final int[] addresses = new int[count];
+    for (int index = 0; index < count; index++) {
+      try {
+        addresses[index] = parseAddress(args[1 + index]);
+      } catch (final NumberFormatException e) {
+        return createResponse(ResponseStatus.ERR_INVALID_NUMBER,
+                              e.getMessage());
+      }
+    }
+    final int[] values = memory.readAddresses(addresses);
+    final StringBuilder result = new StringBuilder();
+    for (final int value : values) {
+      if (result.length() > 0) result.append(' ');
+      result.append(value);
+    }
+    return createResponse(ResponseStatus.OK, result.toString());
+  }
+
   private String handleWait(final String[] args) throws IOException
   {
     if (args.length < 2) {
@@ -408,7 +881,10 @@ public class RemoteAddressSpaceServer
     return createResponse(ResponseStatus.OK, String.valueOf(value));
   }
 
-  private String handleRequest(final String request) throws IOException
+  private String handleRequest(final String request,
+                               final PrintWriter clientOut,
+                               final Map<Integer, Integer> subscriptions)
+    throws IOException
   {
     if (request.isEmpty()) {
       return null;
@@ -441,10 +917,32 @@ public class RemoteAddressSpaceServer
       return handleGetLabel(args);
     case 'w':
       return handleWriteAddress(args);
+    case 'b':
+      return handleWriteAddresses(args);
+    case 'm':
+      return handleWriteInstructionMemory(args);
+    case 'c':
+      return handleRunCycles(args, clientOut);
     case 'r':
       return handleReadAddress(args);
+    case 'g':
+      return handleReadAddresses(args);
     case 'i':
       return handleWait(args);
+    case 'a':
+      return handleSubscribe(args, subscriptions);
+    case 'f':
+      return handleFetchSamples(args, subscriptions);
+    case 't':
+      return handleGetSubscriptionStatistics(args);
+    case 'u':
+      return handleUnsubscribe(args, subscriptions);
+    case 'x':
+      return handleFetchStateTrace(args);
+    case 'e':
+      return handleStartExecTrace(args);
+    case 'n':
+      return handleStopExecTrace(args);
     default:
       return createResponse(ResponseStatus.ERR_UNKNOWN_COMMAND,
                             String.valueOf(command));
@@ -471,13 +969,16 @@ public class RemoteAddressSpaceServer
     final int id = connectionCounter++;
     console.printf("connection #%d opened%n", id);
     PrintWriter clientOut = null;
+    final Map<Integer, Integer> subscriptions =
+      new HashMap<Integer, Integer>();
     try {
       clientOut = new PrintWriter(clientSocket.getOutputStream(), true);
       final BufferedReader in =
         new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
       String request;
       while ((request = in.readLine()) != null) {
-        final String response = handleRequest(request.trim());
+        final String response = handleRequest(request.trim(), clientOut,
+                                               subscriptions);
         if (response == null) {
           break;
         }
@@ -488,6 +989,13 @@ public class RemoteAddressSpaceServer
     } catch (final Throwable t) {
       handleThrowable(clientOut, t, ResponseStatus.ERR_UNEXPECTED, id);
     } finally {
+      for (final int subscriptionId : subscriptions.keySet()) {
+        try {
+          memory.unsubscribe(subscriptionId);
+        } catch (final IOException | IllegalArgumentException e) {
+          console.println("warning: failed unsubscribing: " + e);
+        }
+      }
       console.printf("connection #%d closed%n", id);
       try {
         clientSocket.close();
@@ -27,6 +27,7 @@ package org.soundpaint.rp2040pio;
 import java.io.PrintStream;
 import java.util.function.Function;
 import java.util.function.IntConsumer;
+import java.util.function.ToIntFunction;
 
 /**
  * State Machine
@@ -43,6 +44,7 @@ public class SM implements Constants
   private final Decoder decoder;
   private final FIFO fifo;
   private final PLL pll;
+  private volatile ExecTrace execTrace;
 
   public enum IOMapping
   {
@@ -74,6 +76,85 @@ public class SM implements Constants
     }
   };
 
+  /**
+   * Values that conditional breakpoints and data watchpoints may
+   * refer to.  The ordinal of each constant is its code in the
+   * SOURCE bits of SMx_BREAK_CONDITION and SMx_WATCH_CONDITION.
+   */
+  public enum BreakSource
+  {
+    NONE((sm) -> 0),
+    X((sm) -> sm.status.regX),
+    Y((sm) -> sm.status.regY),
+    ISR((sm) -> sm.status.isrValue),
+    OSR((sm) -> sm.status.osrValue),
+    ISR_SHIFT_COUNT((sm) -> sm.status.isrShiftCount),
+    OSR_SHIFT_COUNT((sm) -> sm.status.osrShiftCount),
+    TX_LEVEL((sm) -> sm.fifo.getTXLevel()),
+    RX_LEVEL((sm) -> sm.fifo.getRXLevel()),
+    IRQ((sm) -> sm.irq.getIRQ()),
+    GPIO_PINS((sm) -> sm.pioGpio.getPins(0, GPIO_NUM)),
+    PC((sm) -> sm.status.regADDR);
+
+    private static final BreakSource[] SOURCES = values();
+
+    private final ToIntFunction<SM> getter;
+
+    private BreakSource(final ToIntFunction<SM> getter)
+    {
+      this.getter = getter;
+    }
+
+    public int getValue(final SM sm)
+    {
+      return getter.applyAsInt(sm);
+    }
+
+    public static BreakSource fromCode(final int code)
+    {
+      return (code >= 0) && (code < SOURCES.length) ? SOURCES[code] : NONE;
+    }
+  };
+
+  /**
+   * Unsigned comparison operators of conditional breakpoints.  The
+   * ordinal of each constant is its code in the OP bits of
+   * SMx_BREAK_CONDITION.
+   */
+  public enum BreakOp
+  {
+    EQ, NE, LT, LE, GT, GE;
+
+    private static final BreakOp[] OPS = values();
+
+    public boolean holds(final int value, final int operand)
+    {
+      final int cmp = Integer.compareUnsigned(value, operand);
+      switch (this) {
+      case EQ: return cmp == 0;
+      case NE: return cmp != 0;
+      case LT: return cmp < 0;
+      case LE: return cmp <= 0;
+      case GT: return cmp > 0;
+      case GE: return cmp >= 0;
+      default:
+        throw new InternalError("unexpected case fall-through");
+      }
+    }
+
+    public static BreakOp fromCode(final int code)
+    {
+      return (code >= 0) && (code < OPS.length) ? OPS[code] : EQ;
+    }
+  };
+
+  public static final int BREAK_CONDITION_SOURCE_MASK = 0x0000000f;
+  public static final int BREAK_CONDITION_OP_LSB = 4;
+  public static final int BREAK_CONDITION_OP_MASK = 0x00000070;
+  public static final int BREAK_CONDITION_ANY_ADDRESS_MASK = 0x00000080;
+  public static final int BREAK_REASON_BREAKPOINT_MASK = 0x00000001;
+  public static final int BREAK_REASON_WATCHPOINT_MASK = 0x00000002;
+
   public class Status
   {
     public Instruction instruction;
@@ -129,6 +210,15 @@ public class SM implements Constants
     // PIOEmuRegisters Status
     public int regBREAKPOINTS; // bits 0…31 of SMx_BREAKPOINTS
     public int regTRACEPOINTS; // bits 0…31 of SMx_TRACEPOINTS
+    public int regBREAK_CONDITION; // bits 0…7 of SMx_BREAK_CONDITION
+    public int regBREAK_MASK; // bits 0…31 of SMx_BREAK_MASK
+    public int regBREAK_VALUE; // bits 0…31 of SMx_BREAK_VALUE
+    public int regBREAK_HIT_TARGET; // bits 0…31 of SMx_BREAK_HIT_TARGET
+    public int regBREAK_HIT_COUNT; // bits 0…31 of SMx_BREAK_HIT_COUNT
+    public int regWATCH_CONDITION; // bits 0…3 of SMx_WATCH_CONDITION
+    public int regWATCH_MASK; // bits 0…31 of SMx_WATCH_MASK
+    public int regBREAK_REASON; // bits 0…1 of SMx_BREAK_REASON
+    public int watchedValue; // masked value seen by watchpoint last cycle
 
     public Status()
     {
@@ -190,6 +280,15 @@ public class SM implements Constants
       // PIOEmuRegisters Status
       regBREAKPOINTS = 0;
       regTRACEPOINTS = 0;
+      regBREAK_CONDITION = 0;
+      regBREAK_MASK = ~0;
+      regBREAK_VALUE = 0;
+      regBREAK_HIT_TARGET = 0;
+      regBREAK_HIT_COUNT = 0;
+      regWATCH_CONDITION = 0;
+      regWATCH_MASK = ~0;
+      regBREAK_REASON = 0;
+      watchedValue = 0;
     }
 
     public void restart()
@@ -368,6 +467,7 @@ public class SM implements Constants
     decoder = new Decoder();
     fifo = new FIFO(num, irq);
     pll = new PLL(console);
+    execTrace = null;
   }
 
   public int getNum() { return num; }
@@ -559,6 +659,10 @@ public class SM implements Constants
 
   public void clockRisingEdge(final boolean smEnabled, final long wallClock)
   {
+    final ExecTrace execTrace = this.execTrace;
+    if (execTrace != null) {
+      execTrace.beforeCycle(wallClock);
+    }
     status.smEnabled = smEnabled;
     if (smEnabled) {
       pll.risingEdge(wallClock);
@@ -604,6 +708,46 @@ public class SM implements Constants
         console.printf("internal error: %s%n", e.getMessage());
       }
     }
+    final ExecTrace execTrace = this.execTrace;
+    if (execTrace != null) {
+      execTrace.afterCycle();
+    }
+    checkWatchPoint();
+  }
+
+  /**
+   * Starts recording an execution trace of this SM with the next
+   * cycle.
+   *
+   * @throws IllegalStateException If an execution trace of this SM
+   * is already being recorded.
+   */
+  public synchronized void startExecTrace(final ExecTrace execTrace)
+  {
+    if (execTrace == null) {
+      throw new NullPointerException("execTrace");
+    }
+    if (this.execTrace != null) {
+      throw new IllegalStateException("execution trace already running");
+    }
+    this.execTrace = execTrace;
+  }
+
+  /**
+   * Stops recording the execution trace of this SM.
+   *
+   * @return The recording.
+   * @throws IllegalStateException If no execution trace of this SM
+   * is being recorded.
+   */
+  public synchronized ExecTrace.Recording stopExecTrace()
+  {
+    final ExecTrace execTrace = this.execTrace;
+    if (execTrace == null) {
+      throw new IllegalStateException("no execution trace running");
+    }
+    this.execTrace = null;
+    return execTrace.stop(masterClock.getWallClock());
   }
 
   public void restart()
@@ -871,6 +1015,174 @@ public class SM implements Constants
     return status.regTRACEPOINTS;
   }
 
+  public void setBreakCondition(final int condition,
+                                final int mask, final boolean xor)
+  {
+    status.regBREAK_CONDITION =
+      Constants.hwSetBits(status.regBREAK_CONDITION, condition, mask, xor) &
+      (BREAK_CONDITION_SOURCE_MASK | BREAK_CONDITION_OP_MASK |
+       BREAK_CONDITION_ANY_ADDRESS_MASK);
+  }
+
+  public int getBreakCondition()
+  {
+    return status.regBREAK_CONDITION;
+  }
+
+  public void setBreakMask(final int breakMask,
+                           final int mask, final boolean xor)
+  {
+    status.regBREAK_MASK =
+      Constants.hwSetBits(status.regBREAK_MASK, breakMask, mask, xor);
+  }
+
+  public int getBreakMask()
+  {
+    return status.regBREAK_MASK;
+  }
+
+  public void setBreakValue(final int breakValue,
+                            final int mask, final boolean xor)
+  {
+    status.regBREAK_VALUE =
+      Constants.hwSetBits(status.regBREAK_VALUE, breakValue, mask, xor);
+  }
+
+  public int getBreakValue()
+  {
+    return status.regBREAK_VALUE;
+  }
+
+  public void setBreakHitTarget(final int hitTarget,
+                                final int mask, final boolean xor)
+  {
+    status.regBREAK_HIT_TARGET =
+      Constants.hwSetBits(status.regBREAK_HIT_TARGET, hitTarget, mask, xor);
+  }
+
+  public int getBreakHitTarget()
+  {
+    return status.regBREAK_HIT_TARGET;
+  }
+
+  public void setBreakHitCount(final int hitCount,
+                               final int mask, final boolean xor)
+  {
+    status.regBREAK_HIT_COUNT =
+      Constants.hwSetBits(status.regBREAK_HIT_COUNT, hitCount, mask, xor);
+  }
+
+  public int getBreakHitCount()
+  {
+    return status.regBREAK_HIT_COUNT;
+  }
+
+  public void setWatchCondition(final int condition,
+                                final int mask, final boolean xor)
+  {
+    status.regWATCH_CONDITION =
+      Constants.hwSetBits(status.regWATCH_CONDITION, condition, mask, xor) &
+      BREAK_CONDITION_SOURCE_MASK;
+    status.watchedValue = getWatchedValue();
+  }
+
+  public int getWatchCondition()
+  {
+    return status.regWATCH_CONDITION;
+  }
+
+  public void setWatchMask(final int watchMask,
+                           final int mask, final boolean xor)
+  {
+    status.regWATCH_MASK =
+      Constants.hwSetBits(status.regWATCH_MASK, watchMask, mask, xor);
+    status.watchedValue = getWatchedValue();
+  }
+
+  public int getWatchMask()
+  {
+    return status.regWATCH_MASK;
+  }
+
+  public void setBreakReason(final int breakReason,
+                             final int mask, final boolean xor)
+  {
+    status.regBREAK_REASON =
+      Constants.hwSetBits(status.regBREAK_REASON, breakReason, mask, xor) &
+      (BREAK_REASON_BREAKPOINT_MASK | BREAK_REASON_WATCHPOINT_MASK);
+  }
+
+  public int getBreakReason()
+  {
+    return status.regBREAK_REASON;
+  }
+
+  private int getWatchedValue()
+  {
+    return
+      BreakSource.fromCode(status.regWATCH_CONDITION).getValue(this) &
+      status.regWATCH_MASK;
+  }
+
+  private boolean isBreakConditionFulfilled()
+  {
+    final int condition = status.regBREAK_CONDITION;
+    final BreakSource source =
+      BreakSource.fromCode(condition & BREAK_CONDITION_SOURCE_MASK);
+    if (source == BreakSource.NONE) return true;
+    final BreakOp op =
+      BreakOp.fromCode((condition & BREAK_CONDITION_OP_MASK) >>>
+                       BREAK_CONDITION_OP_LSB);
+    return op.holds(source.getValue(this) & status.regBREAK_MASK,
+                    status.regBREAK_VALUE);
+  }
+
+  /**
+   * Called on the emulation thread after an instruction has been
+   * completed and the program counter has been updated.  Counts a
+   * hit, if the new program counter is marked as breakpoint (or if
+   * the condition applies to any address) and the break condition
+   * holds, and switches to single step mode as soon as the hit
+   * target is reached.
+   */
+  private void checkBreakPoint()
+  {
+    final boolean anyAddress =
+      (status.regBREAK_CONDITION & BREAK_CONDITION_ANY_ADDRESS_MASK) != 0x0;
+    if (!anyAddress &&
+        (((status.regBREAKPOINTS >>> status.regADDR) & 0x1) == 0x0)) {
+      return;
+    }
+    if (anyAddress &&
+        ((status.regBREAK_CONDITION & BREAK_CONDITION_SOURCE_MASK) == 0x0)) {
+      return; // unconditional break on any address makes no sense
+    }
+    if (!isBreakConditionFulfilled()) return;
+    final int hitCount = status.regBREAK_HIT_COUNT + 1;
+    if (Integer.compareUnsigned(hitCount, status.regBREAK_HIT_TARGET) < 0) {
+      status.regBREAK_HIT_COUNT = hitCount;
+      return;
+    }
+    status.regBREAK_HIT_COUNT = 0;
+    status.regBREAK_REASON |= BREAK_REASON_BREAKPOINT_MASK;
+    masterClock.setMode(MasterClock.Mode.SINGLE_STEP);
+  }
+
+  /**
+   * Called on the emulation thread at the end of each master clock
+   * cycle.
+   */
+  private void checkWatchPoint()
+  {
+    if (status.regWATCH_CONDITION == 0x0) return;
+    final int value = getWatchedValue();
+    if (value != status.watchedValue) {
+      status.watchedValue = value;
+      status.regBREAK_REASON |= BREAK_REASON_WATCHPOINT_MASK;
+      masterClock.setMode(MasterClock.Mode.SINGLE_STEP);
+    }
+  }
+
   private int encodeJmp(final Instruction.Jmp.Condition condition,
                         final int address)
   {
@@ -927,9 +1239,6 @@ public class SM implements Constants
       } else {
         status.regADDR = (status.regADDR + 1) & (MEMORY_SIZE - 1);
       }
-      if (((status.regBREAKPOINTS >>> status.regADDR) & 0x1) != 0x0) {
-        masterClock.setMode(MasterClock.Mode.SINGLE_STEP);
-      }
     }
   }
 
@@ -1131,6 +1440,9 @@ public class SM implements Constants
        */
       updatePC();
     }
+    if (status.resultState != Instruction.ResultState.STALL) {
+      checkBreakPoint();
+    }
     /*
      * Sect. 3.5.7.: "Delay cycles are ignored on instructions written
      * to the INSTR register."
@@ -0,0 +1,318 @@
+/*
+ * @(#)SampleSubscription.java 1.00 26/10/19
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio;
+
+import java.io.IOException;
+
+/**
+ * Buffer of values that the emulation thread samples once per cycle
+ * on behalf of a recording observer, independent of whether the
+ * cycles are triggered by the observer itself, by any other client,
+ * or by the free-running master clock.  Flow control is credit-based:
+ * Upon subscribing, the observer reserves buffer capacity for a
+ * fixed number of cycles.  Each sampled cycle consumes one credit,
+ * and each cycle fetched by the observer returns one.  When a lossless
+ * subscription runs out of credits, the emulation thread pauses
+ * before the next cycle until the observer has fetched some cycles,
+ * such that a slow observer slows down the emulation rather than
+ * missing cycles.  The emulation thread pauses in the subscription's
+ * cycle gate, i.e. without holding the phase lock, such that other
+ * clients still can access the emulator meanwhile.  A lossy
+ * subscription instead discards its oldest cycles.  Both cases
+ * are counted in the statistics, such that buffers can be sized
+ * appropriately.
+ */
+public class SampleSubscription implements MasterClock.CycleGate
+{
+  /**
+   * Snapshot of the statistics of a subscription.
+   */
+  public static class Statistics
+  {
+    private final int bufferedCycles;
+    private final int capacityCycles;
+    private final long sampledCycles;
+    private final long stalls;
+    private final long stallMillis;
+    private final long overflows;
+    private final long lostCycles;
+
+    private Statistics()
+    {
+      throw new UnsupportedOperationException("unsupported empty constructor");
+    }
+
+    public Statistics(final int bufferedCycles, final int capacityCycles,
+                      final long sampledCycles,
+                      final long stalls, final long stallMillis,
+                      final long overflows, final long lostCycles)
+    {
+      this.bufferedCycles = bufferedCycles;
+      this.capacityCycles = capacityCycles;
+      this.sampledCycles = sampledCycles;
+      this.stalls = stalls;
+      this.stallMillis = stallMillis;
+      this.overflows = overflows;
+      this.lostCycles = lostCycles;
+    }
+
+    /**
+     * Number of sampled cycles not yet fetched by the observer.
+     */
+    public int getBufferedCycles() { return bufferedCycles; }
+
+    /**
+     * Number of cycles reserved for buffering, i.e. the total number
+     * of credits.
+     */
+    public int getCapacityCycles() { return capacityCycles; }
+
+    /**
+     * Number of cycles sampled since subscribing.
+     */
+    public long getSampledCycles() { return sampledCycles; }
+
+    /**
+     * Number of times that the emulation thread had to pause since a
+     * lossless subscription's buffer was full (slow path).
+     */
+    public long getStalls() { return stalls; }
+
+    /**
+     * Total time in milliseconds that the emulation thread paused.
+     */
+    public long getStallMillis() { return stallMillis; }
+
+    /**
+     * Number of times that a lossy subscription's buffer was full.
+     */
+    public long getOverflows() { return overflows; }
+
+    /**
+     * Number of cycles that a lossy subscription has discarded.
+     */
+    public long getLostCycles() { return lostCycles; }
+
+    @Override
+    public String toString()
+    {
+      return
+        String.format("buffered %d/%d cycles, sampled %d cycles, " +
+                      "%d stalls (%d ms), %d overflows (%d cycles lost)",
+                      bufferedCycles, capacityCycles, sampledCycles,
+                      stalls, stallMillis, overflows, lostCycles);
+    }
+  }
+
+  private final int id;
+  private final Probe[] probes;
+  private final int capacityCycles;
+  private final boolean lossless;
+  private final int[] buffer;
+  private int head;
+  private int count;
+  private boolean closed;
+  private IOException sampleException;
+  private long sampledCycles;
+  private long stalls;
+  private long stallMillis;
+  private long overflows;
+  private long lostCycles;
+
+  private SampleSubscription()
+  {
+    throw new UnsupportedOperationException("unsupported empty constructor");
+  }
+
+  public SampleSubscription(final int id, final Probe[] probes,
+                            final int capacityCycles, final boolean lossless)
+  {
+    if (probes == null) {
+      throw new NullPointerException("probes");
+    }
+    for (final Probe probe : probes) {
+      if (probe == null) {
+        throw new NullPointerException("probe");
+      }
+    }
+    if (capacityCycles <= 0) {
+      throw new IllegalArgumentException("capacityCycles <= 0: " +
+                                         capacityCycles);
+    }
+    if ((long)capacityCycles * probes.length > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("capacity exceeded: " +
+                                         capacityCycles + " cycles of " +
+                                         probes.length + " probes");
+    }
+    this.id = id;
+    this.probes = probes;
+    this.capacityCycles = capacityCycles;
+    this.lossless = lossless;
+    buffer = new int[capacityCycles * probes.length];
+    head = 0;
+    count = 0;
+    closed = false;
+    sampleException = null;
+  }
+
+  public int getId() { return id; }
+
+  public int getProbeCount() { return probes.length; }
+
+  /**
+   * Called by the emulation thread before each cycle, without holding
+   * the phase lock.  For a lossless subscription without credits
+   * left, blocks until the observer fetches cycles or the
+   * subscription is closed.
+   */
+  @Override
+  public synchronized void awaitOpen()
+  {
+    if (!lossless || closed || (sampleException != null)) return;
+    if (count < capacityCycles) return;
+    stalls++;
+    final long startTime = System.currentTimeMillis();
+    while ((count == capacityCycles) && !closed) {
+      try {
+        wait();
+      } catch (final InterruptedException e) {
+        // ignore here, since check in while condition
+      }
+    }
+    stallMillis += System.currentTimeMillis() - startTime;
+  }
+
+  /**
+   * Called by the emulation thread once per cycle, when phase 0 has
+   * been completed.  Never blocks, since the emulation thread holds
+   * the phase lock meanwhile.  A lossless subscription has been
+   * granted a credit already by method awaitOpen().
+   */
+  public synchronized void sample(final Probe.RegisterReader reader)
+  {
+    if (closed || (sampleException != null)) return;
+    if (count == capacityCycles) {
+      /*
+       * Can not happen for a lossless subscription, unless the
+       * emulation thread did not pass this subscription's gate,
+       * e.g. when subscribing amid a cycle.
+       */
+      overflows++;
+      lostCycles++;
+      head = (head + 1) % capacityCycles;
+      count--;
+    }
+    int index = ((head + count) % capacityCycles) * probes.length;
+    try {
+      for (final Probe probe : probes) {
+        buffer[index++] = probe.evaluate(reader);
+      }
+    } catch (final IOException e) {
+      sampleException = e;
+      notifyAll();
+      return;
+    }
+    count++;
+    sampledCycles++;
+    notifyAll();
+  }
+
+  /**
+   * Moves up to the specified number of the oldest buffered cycles
+   * into the specified array, thereby returning their credits.  If
+   * no cycle is buffered, waits for at most the specified number of
+   * milliseconds, or not at all, if 0.  The value of probe number p
+   * in cycle number c is stored at index (c * number of probes + p).
+   *
+   * @return The number of cycles fetched.
+   */
+  public synchronized int fetch(final int[] samples, final int maxCycles,
+                                final long millisTimeout)
+    throws IOException
+  {
+    if (samples == null) {
+      throw new NullPointerException("samples");
+    }
+    if (maxCycles < 0) {
+      throw new IllegalArgumentException("maxCycles < 0: " + maxCycles);
+    }
+    if (millisTimeout < 0) {
+      throw new IllegalArgumentException("millisTimeout < 0: " +
+                                         millisTimeout);
+    }
+    final long stopTime = System.currentTimeMillis() + millisTimeout;
+    while ((count == 0) && !closed && (sampleException == null)) {
+      final long remainingMillis = stopTime - System.currentTimeMillis();
+      if (remainingMillis <= 0) break;
+      try {
+        wait(remainingMillis);
+      } catch (final InterruptedException e) {
+        break;
+      }
+    }
+    if ((count == 0) && (sampleException != null)) {
+      throw sampleException;
+    }
+    final int cycles =
+      Math.min(Math.min(count, maxCycles),
+               probes.length > 0 ? samples.length / probes.length : count);
+    for (int cycle = 0; cycle < cycles; cycle++) {
+      System.arraycopy(buffer, head * probes.length,
+                       samples, cycle * probes.length, probes.length);
+      head = (head + 1) % capacityCycles;
+    }
+    count -= cycles;
+    if (cycles > 0) {
+      notifyAll();
+    }
+    return cycles;
+  }
+
+  /**
+   * Discards all buffered cycles and releases the emulation thread,
+   * if paused on behalf of this subscription.  No more cycles will be
+   * sampled.
+   */
+  @Override
+  public synchronized void close()
+  {
+    closed = true;
+    count = 0;
+    notifyAll();
+  }
+
+  public synchronized Statistics getStatistics()
+  {
+    return new Statistics(count, capacityCycles, sampledCycles,
+                          stalls, stallMillis, overflows, lostCycles);
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -8,9 +8,11 @@ import java.util.HashMap;
 
 import org.soundpaint.rp2040pio.doctool.RegistersDocsBuilder;
 import org.soundpaint.rp2040pio.monitor.Monitor;
+import org.soundpaint.rp2040pio.monitor.ScriptRunner;
 import org.soundpaint.rp2040pio.observer.Observer;
 import org.soundpaint.rp2040pio.observer.code.CodeObserver;
 import org.soundpaint.rp2040pio.observer.diagram.Diagram;
+import org.soundpaint.rp2040pio.observer.diagram.DiagramExporter;
 import org.soundpaint.rp2040pio.observer.fifo.FifoObserver;
 import org.soundpaint.rp2040pio.observer.gpio.GPIOObserver;
 import org.soundpaint.rp2040pio.observer.multigui.MultiGuiObserver;
@@ -21,10 +23,15 @@ public class SingleApp {
         var map = new HashMap<String, Class<?>>();
         map.put("server", EmulationServer.class);
         map.put("monitor", Monitor.class);
+        map.put("runner", ScriptRunner.class);
+        map.put("run", BatchRunner.class);
+        map.put("farm", JobFarm.class);
+        map.put("replay", ExecTraceReplay.class);
         map.put("fifoobserver", FifoObserver.class);
         map.put("codeobserver", CodeObserver.class);
         map.put("gpioobserver", GPIOObserver.class);
         map.put("diagram", Diagram.class);
+        map.put("export", DiagramExporter.class);
         map.put("doctool", RegistersDocsBuilder.class);
         map.put("observer", Observer.class);
         map.put("gui", MultiGuiObserver.class);
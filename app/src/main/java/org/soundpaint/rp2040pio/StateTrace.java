@@ -0,0 +1,503 @@
+/*
+ * @(#)StateTrace.java 1.00 26/10/19
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio;
+
+/**
+ * Always-on, fixed-size ring buffer that the emulation thread fills
+ * once per cycle with the changes of the state of all state
+ * machines, such that the history of the most recent cycles is
+ * available for post-mortem debugging, e.g. after a breakpoint has
+ * been hit, even if no client was observing the emulator.  The
+ * emulation server's emulator always has a state trace, while
+ * emulators that internally run scripts or batch jobs have none.
+ *
+ * To keep the overhead low enough for leaving the trace enabled
+ * even when the emulator runs at maximum speed, sampling neither
+ * allocates objects nor stores unchanged values: The traced state
+ * is divided into channels of 32 bits each (see enum Field), and
+ * only those channels that changed since the previous cycle are
+ * recorded, each as a single long value ("delta record") that
+ * holds the channel number and the XOR of the channel's old and new
+ * value.  The delta records of a cycle are preceded by a "cycle
+ * record" that holds the cycle's wall clock.  Cycles without any
+ * change are not recorded at all.  When the buffer is full, the
+ * oldest records are overwritten.
+ *
+ * Since delta records hold XOR differences rather than new values,
+ * the state of every recorded cycle can be reconstructed backwards
+ * from the current state, even after the ring buffer has wrapped
+ * around and the state at the start of the buffer has been lost.
+ */
+public class StateTrace implements Constants
+{
+  /**
+   * Default capacity in records, i.e. 16 MiB of memory, which
+   * typically covers the most recent 100k cycles or more.
+   */
+  public static final int DEFAULT_CAPACITY = 0x200000;
+
+  /**
+   * A channel of traced state.  Fields CTRL…LEVELS are traced for
+   * each SM, fields PINS and PINDIRS for each PIO, and field PADIN
+   * once for the GPIO pads.
+   */
+  public enum Field
+  {
+    /**
+     * Op-code (bits 0…15), PC (bits 16…20), stall flag (bit 21),
+     * delay flag (bit 22) and INSTR_ORIGIN (bits 23…29).
+     */
+    CTRL("ctrl"),
+    X("x"),
+    Y("y"),
+    ISR("isr"),
+    OSR("osr"),
+    /**
+     * ISR shift count (bits 0…7), OSR shift count (bits 8…15), TX
+     * FIFO level (bits 16…19) and RX FIFO level (bits 20…23).
+     */
+    LEVELS("levels"),
+    /**
+     * Output levels of the PIO's GPIO pins, one bit per pin.
+     */
+    PINS("pins"),
+    /**
+     * Output enables of the PIO's GPIO pins, one bit per pin.
+     */
+    PINDIRS("pindirs"),
+    /**
+     * External input levels of the GPIO pads, one bit per pad.
+     */
+    PADIN("padin");
+
+    private final String label;
+
+    private Field(final String label)
+    {
+      this.label = label;
+    }
+
+    public String getLabel() { return label; }
+  }
+
+  public static final int SM_FIELD_COUNT = Field.LEVELS.ordinal() + 1;
+  public static final int PIO_FIELD_COUNT =
+    Field.PINDIRS.ordinal() - Field.PINS.ordinal() + 1;
+  private static final int PIO_CHANNELS_BASE =
+    PIO_NUM * SM_COUNT * SM_FIELD_COUNT;
+  private static final int GPIO_CHANNELS_BASE =
+    PIO_CHANNELS_BASE + PIO_NUM * PIO_FIELD_COUNT;
+  public static final int CHANNEL_COUNT = GPIO_CHANNELS_BASE + 1;
+
+  private static final Field[] FIELDS = Field.values();
+  private static final long CYCLE_RECORD_BIT = 0x8000000000000000L;
+
+  /**
+   * Returns the number of the channel that holds the specified field
+   * of the specified SM or PIO.  Arguments pioNum and smNum are
+   * ignored for fields that do not depend on them.
+   */
+  public static int getChannel(final Field field,
+                               final int pioNum, final int smNum)
+  {
+    if (field == null) {
+      throw new NullPointerException("field");
+    }
+    final int ordinal = field.ordinal();
+    if (ordinal < SM_FIELD_COUNT) {
+      Constants.checkPioNum(pioNum, "PIO number");
+      Constants.checkSmNum(smNum);
+      return (pioNum * SM_COUNT + smNum) * SM_FIELD_COUNT + ordinal;
+    }
+    if (ordinal < SM_FIELD_COUNT + PIO_FIELD_COUNT) {
+      Constants.checkPioNum(pioNum, "PIO number");
+      return
+        PIO_CHANNELS_BASE + pioNum * PIO_FIELD_COUNT +
+        ordinal - SM_FIELD_COUNT;
+    }
+    return GPIO_CHANNELS_BASE;
+  }
+
+  private static void checkChannel(final int channel)
+  {
+    if ((channel < 0) || (channel >= CHANNEL_COUNT)) {
+      throw new IllegalArgumentException("invalid channel: " + channel);
+    }
+  }
+
+  public static Field getField(final int channel)
+  {
+    checkChannel(channel);
+    if (channel < PIO_CHANNELS_BASE) {
+      return FIELDS[channel % SM_FIELD_COUNT];
+    }
+    if (channel < GPIO_CHANNELS_BASE) {
+      return
+        FIELDS[SM_FIELD_COUNT + (channel - PIO_CHANNELS_BASE) %
+               PIO_FIELD_COUNT];
+    }
+    return Field.PADIN;
+  }
+
+  /**
+   * Returns the number of the PIO that the specified channel belongs
+   * to, or -1, if the channel does not belong to a specific PIO.
+   */
+  public static int getPioNum(final int channel)
+  {
+    checkChannel(channel);
+    if (channel < PIO_CHANNELS_BASE) {
+      return channel / (SM_COUNT * SM_FIELD_COUNT);
+    }
+    if (channel < GPIO_CHANNELS_BASE) {
+      return (channel - PIO_CHANNELS_BASE) / PIO_FIELD_COUNT;
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the number of the SM that the specified channel belongs
+   * to, or -1, if the channel does not belong to a specific SM.
+   */
+  public static int getSmNum(final int channel)
+  {
+    checkChannel(channel);
+    if (channel < PIO_CHANNELS_BASE) {
+      return (channel / SM_FIELD_COUNT) % SM_COUNT;
+    }
+    return -1;
+  }
+
+  public static int getCtrlOpCode(final int ctrl)
+  {
+    return ctrl & 0xffff;
+  }
+
+  public static int getCtrlPC(final int ctrl)
+  {
+    return (ctrl >>> 16) & 0x1f;
+  }
+
+  public static boolean isCtrlStalled(final int ctrl)
+  {
+    return ((ctrl >>> 21) & 0x1) != 0x0;
+  }
+
+  public static boolean isCtrlDelayCycle(final int ctrl)
+  {
+    return ((ctrl >>> 22) & 0x1) != 0x0;
+  }
+
+  public static int getCtrlInstrOrigin(final int ctrl)
+  {
+    return (ctrl >>> 23) & 0x7f;
+  }
+
+  public static int getLevelsISRShiftCount(final int levels)
+  {
+    return levels & 0xff;
+  }
+
+  public static int getLevelsOSRShiftCount(final int levels)
+  {
+    return (levels >>> 8) & 0xff;
+  }
+
+  public static int getLevelsTXFIFOLevel(final int levels)
+  {
+    return (levels >>> 16) & 0xf;
+  }
+
+  public static int getLevelsRXFIFOLevel(final int levels)
+  {
+    return (levels >>> 20) & 0xf;
+  }
+
+  public static boolean isCycleRecord(final long record)
+  {
+    return (record & CYCLE_RECORD_BIT) != 0x0;
+  }
+
+  /**
+   * Returns the wall clock of the specified cycle record.
+   */
+  public static long getWallClock(final long record)
+  {
+    return record & ~CYCLE_RECORD_BIT;
+  }
+
+  /**
+   * Returns the channel of the specified delta record.
+   */
+  public static int getChannel(final long record)
+  {
+    return (int)(record >>> 32);
+  }
+
+  /**
+   * Returns the XOR of the old and new value of the specified delta
+   * record's channel.
+   */
+  public static int getDelta(final long record)
+  {
+    return (int)record;
+  }
+
+  /**
+   * Section of the trace, as returned by method fetch().
+   */
+  public static class Snapshot
+  {
+    private final long wallClock;
+    private final int[] state;
+    private final long[] records;
+
+    private Snapshot()
+    {
+      throw new UnsupportedOperationException("unsupported empty constructor");
+    }
+
+    public Snapshot(final long wallClock, final int[] state,
+                    final long[] records)
+    {
+      if (state == null) {
+        throw new NullPointerException("state");
+      }
+      if (state.length != CHANNEL_COUNT) {
+        throw new IllegalArgumentException("expected " + CHANNEL_COUNT +
+                                           " channels, but got: " +
+                                           state.length);
+      }
+      if (records == null) {
+        throw new NullPointerException("records");
+      }
+      if ((records.length > 0) && !isCycleRecord(records[0])) {
+        throw new IllegalArgumentException("records must start with " +
+                                           "cycle record");
+      }
+      this.wallClock = wallClock;
+      this.state = state;
+      this.records = records;
+    }
+
+    /**
+     * Wall clock of the most recently traced cycle, which may be
+     * later than the wall clock of the last cycle record, if the
+     * state has not changed in the latest cycles.
+     */
+    public long getWallClock() { return wallClock; }
+
+    public int getRecordCount() { return records.length; }
+
+    public long getRecord(final int index) { return records[index]; }
+
+    /**
+     * Returns the value of the specified channel as of the most
+     * recently traced cycle.
+     */
+    public int getValue(final int channel)
+    {
+      checkChannel(channel);
+      return state[channel];
+    }
+
+    /**
+     * Returns a copy of the state as of the most recently traced
+     * cycle, indexed by channel.
+     */
+    public int[] getFinalState()
+    {
+      return state.clone();
+    }
+
+    /**
+     * Returns the state just before the first cycle of this
+     * snapshot, indexed by channel.  Replaying the delta records in
+     * order by XOR'ing them into this state yields the state of each
+     * recorded cycle.
+     */
+    public int[] getInitialState()
+    {
+      final int[] initialState = state.clone();
+      for (final long record : records) {
+        if (!isCycleRecord(record)) {
+          initialState[getChannel(record)] ^= getDelta(record);
+        }
+      }
+      return initialState;
+    }
+  }
+
+  private final MasterClock masterClock;
+  private final GPIO gpio;
+  private final PIO[] pios;
+  private final long[] buffer;
+  private final int[] state;
+  private int tail;
+  private int count;
+  private long sampledWallClock;
+  private boolean cycleRecorded;
+
+  private StateTrace()
+  {
+    throw new UnsupportedOperationException("unsupported empty constructor");
+  }
+
+  public StateTrace(final MasterClock masterClock, final GPIO gpio,
+                    final int capacity)
+  {
+    if (masterClock == null) {
+      throw new NullPointerException("masterClock");
+    }
+    if (gpio == null) {
+      throw new NullPointerException("gpio");
+    }
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity <= 0: " + capacity);
+    }
+    this.masterClock = masterClock;
+    this.gpio = gpio;
+    pios = new PIO[] { gpio.getPIO0(), gpio.getPIO1() };
+    buffer = new long[capacity];
+    state = new int[CHANNEL_COUNT];
+    reset();
+  }
+
+  /**
+   * Discards all records.  Since the traced state is reset to all
+   * zero, the next sample will record all non-zero channels.
+   */
+  public synchronized void reset()
+  {
+    tail = 0;
+    count = 0;
+    sampledWallClock = -1;
+    for (int channel = 0; channel < CHANNEL_COUNT; channel++) {
+      state[channel] = 0;
+    }
+  }
+
+  public int getCapacity() { return buffer.length; }
+
+  private void append(final long record)
+  {
+    buffer[tail] = record;
+    tail = tail + 1 == buffer.length ? 0 : tail + 1;
+    if (count < buffer.length) count++;
+  }
+
+  private void update(final int channel, final int value)
+  {
+    final int delta = state[channel] ^ value;
+    if (delta == 0x0) return;
+    state[channel] = value;
+    if (!cycleRecorded) {
+      append(CYCLE_RECORD_BIT | sampledWallClock);
+      cycleRecorded = true;
+    }
+    append(((long)channel << 32) | (delta & 0xffffffffL));
+  }
+
+  private static int getCtrl(final SM sm)
+  {
+    return
+      (sm.getOpCode() & 0xffff) |
+      (sm.getPC() << 16) |
+      (sm.isStalled() ? 0x1 << 21 : 0x0) |
+      (sm.isDelayCycle() ? 0x1 << 22 : 0x0) |
+      (sm.getINSTR_ORIGIN() << 23);
+  }
+
+  private static int getLevels(final SM sm)
+  {
+    return
+      sm.getISRShiftCount() |
+      (sm.getOSRShiftCount() << 8) |
+      (sm.getFIFO().getLevels() << 16);
+  }
+
+  /**
+   * Called by the emulation thread once per cycle, when phase 0 has
+   * been completed.
+   */
+  public synchronized void sample()
+  {
+    sampledWallClock = masterClock.getWallClock();
+    cycleRecorded = false;
+    int channel = 0;
+    for (final PIO pio : pios) {
+      for (int smNum = 0; smNum < SM_COUNT; smNum++) {
+        final SM sm = pio.getSM(smNum);
+        update(channel++, getCtrl(sm));
+        update(channel++, sm.getX());
+        update(channel++, sm.getY());
+        update(channel++, sm.getISRValue());
+        update(channel++, sm.getOSRValue());
+        update(channel++, getLevels(sm));
+      }
+    }
+    for (final PIO pio : pios) {
+      final PIOGPIO pioGpio = pio.getPIOGPIO();
+      update(channel++, pioGpio.getAllPins());
+      update(channel++, pioGpio.getAllPinDirs());
+    }
+    update(channel, gpio.getGPIO_PADIN());
+  }
+
+  /**
+   * Returns the records of all changes within the specified number
+   * of most recently traced cycles (or as many as still available
+   * in the ring buffer), together with the current state.
+   */
+  public synchronized Snapshot fetch(final long maxCycles)
+  {
+    if (maxCycles < 0) {
+      throw new IllegalArgumentException("maxCycles < 0: " + maxCycles);
+    }
+    final long minWallClock = sampledWallClock - maxCycles + 1;
+    final int capacity = buffer.length;
+    int start = -1;
+    for (int n = 1; n <= count; n++) {
+      final long record = buffer[(tail - n + capacity) % capacity];
+      if (isCycleRecord(record)) {
+        if (getWallClock(record) < minWallClock) break;
+        start = n;
+      }
+    }
+    final int size = start >= 0 ? start : 0;
+    final long[] records = new long[size];
+    for (int index = 0; index < size; index++) {
+      records[index] = buffer[(tail - size + index + capacity) % capacity];
+    }
+    return new Snapshot(sampledWallClock, state.clone(), records);
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -0,0 +1,159 @@
+/*
+ * @(#)WriteBatch.java 1.00 26/10/19
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio;
+
+import java.util.Arrays;
+
+/**
+ * A sequence of masked register writes that is to be applied as a
+ * whole, i.e. atomically with respect to the emulation's clock
+ * phases.  Each entry corresponds to a single call of method
+ * <code>AddressSpace#writeAddressMasked()</code>.  The entries are
+ * stored in primitive arrays that grow on demand, such that
+ * collecting many writes creates neither boxing overhead nor one
+ * object per write.
+ */
+public class WriteBatch
+{
+  private static final int DEFAULT_CAPACITY = 16;
+
+  private int[] addresses;
+  private int[] bits;
+  private int[] masks;
+  private boolean[] xors;
+  private int size;
+
+  public WriteBatch()
+  {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public WriteBatch(final int initialCapacity)
+  {
+    if (initialCapacity < 1) {
+      throw new IllegalArgumentException("initialCapacity < 1: " +
+                                         initialCapacity);
+    }
+    addresses = new int[initialCapacity];
+    bits = new int[initialCapacity];
+    masks = new int[initialCapacity];
+    xors = new boolean[initialCapacity];
+    size = 0;
+  }
+
+  private void ensureCapacity(final int capacity)
+  {
+    if (capacity <= addresses.length) return;
+    final int newCapacity = Math.max(capacity, 2 * addresses.length);
+    addresses = Arrays.copyOf(addresses, newCapacity);
+    bits = Arrays.copyOf(bits, newCapacity);
+    masks = Arrays.copyOf(masks, newCapacity);
+    xors = Arrays.copyOf(xors, newCapacity);
+  }
+
+  public void add(final int address, final int bits,
+                  final int mask, final boolean xor)
+  {
+    ensureCapacity(size + 1);
+    addresses[size] = address;
+    this.bits[size] = bits;
+    masks[size] = mask;
+    xors[size] = xor;
+    size++;
+  }
+
+  public void addAll(final WriteBatch batch)
+  {
+    if (batch == null) {
+      throw new NullPointerException("batch");
+    }
+    final int batchSize = batch.size;
+    ensureCapacity(size + batchSize);
+    System.arraycopy(batch.addresses, 0, addresses, size, batchSize);
+    System.arraycopy(batch.bits, 0, bits, size, batchSize);
+    System.arraycopy(batch.masks, 0, masks, size, batchSize);
+    System.arraycopy(batch.xors, 0, xors, size, batchSize);
+    size += batchSize;
+  }
+
+  public int size() { return size; }
+
+  public boolean isEmpty() { return size == 0; }
+
+  private void checkIndex(final int index)
+  {
+    if ((index < 0) || (index >= size)) {
+      throw new IndexOutOfBoundsException("index out of range: " + index);
+    }
+  }
+
+  public int getAddress(final int index)
+  {
+    checkIndex(index);
+    return addresses[index];
+  }
+
+  public int getBits(final int index)
+  {
+    checkIndex(index);
+    return bits[index];
+  }
+
+  public int getMask(final int index)
+  {
+    checkIndex(index);
+    return masks[index];
+  }
+
+  public boolean getXor(final int index)
+  {
+    checkIndex(index);
+    return xors[index];
+  }
+
+  /**
+   * Discards all entries added after the first <code>size</code>
+   * entries.
+   */
+  public void truncate(final int size)
+  {
+    if ((size < 0) || (size > this.size)) {
+      throw new IndexOutOfBoundsException("size out of range: " + size);
+    }
+    this.size = size;
+  }
+
+  public void clear()
+  {
+    size = 0;
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
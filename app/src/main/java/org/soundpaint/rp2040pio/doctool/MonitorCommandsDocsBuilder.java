@@ -135,7 +135,7 @@ public class MonitorCommandsDocsBuilder
     s.append(String.format("has been compiled from these sources.%n"));
     s.append(String.format("%n"));
     final PrintStream console = System.out;
-    final Emulator emulator = new Emulator(console);
+    final Emulator emulator = new Emulator(console, 0); // no state trace
     final AddressSpace memory = new LocalAddressSpace(emulator);
     final BufferedReader in =
       new BufferedReader(new InputStreamReader(System.in));
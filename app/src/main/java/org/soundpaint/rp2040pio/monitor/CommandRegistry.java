@@ -45,12 +45,14 @@ import org.soundpaint.rp2040pio.monitor.commands.Execute;
 import org.soundpaint.rp2040pio.monitor.commands.Fifo;
 import org.soundpaint.rp2040pio.monitor.commands.Gpio;
 import org.soundpaint.rp2040pio.monitor.commands.Help;
+import org.soundpaint.rp2040pio.monitor.commands.History;
 import org.soundpaint.rp2040pio.monitor.commands.Interrupt;
 import org.soundpaint.rp2040pio.monitor.commands.Label;
 import org.soundpaint.rp2040pio.monitor.commands.Load;
 import org.soundpaint.rp2040pio.monitor.commands.Quit;
 import org.soundpaint.rp2040pio.monitor.commands.PinCtrl;
 import org.soundpaint.rp2040pio.monitor.commands.Read;
+import org.soundpaint.rp2040pio.monitor.commands.Record;
 import org.soundpaint.rp2040pio.monitor.commands.Registers;
 import org.soundpaint.rp2040pio.monitor.commands.Reset;
 import org.soundpaint.rp2040pio.monitor.commands.Save;
@@ -72,6 +74,7 @@ import org.soundpaint.rp2040pio.sdk.SDK;
 public class CommandRegistry implements Iterable<Command>
 {
   private final PrintStream console;
+  private final SDK sdk;
   private final Set<Command> commands;
   private final HashMap<String, List<Command>> token2commands;
   private final Command quit;
@@ -90,6 +93,10 @@ public class CommandRegistry implements Iterable<Command>
       throw new NullPointerException("console");
     }
     this.console = console;
+    if (sdk == null) {
+      throw new NullPointerException("sdk");
+    }
+    this.sdk = sdk;
     commands =
       new TreeSet<Command>((cmd1, cmd2) ->
                            cmd1.getFullName().compareTo(cmd2.getFullName()));
@@ -110,12 +117,14 @@ public class CommandRegistry implements Iterable<Command>
     add(new Fifo(console, sdk));
     add(new Gpio(console, sdk));
     add(new Help(console, this));
+    add(new History(console, sdk));
     add(new Interrupt(console, sdk));
     add(new Label(console, sdk));
     add(new Load(console, sdk));
     add(quit = new Quit(console));
     add(new PinCtrl(console, sdk));
     add(new Read(console, sdk));
+    add(new Record(console, sdk));
     add(new Registers(console, sdk));
     add(new Reset(console, sdk));
     add(new Save(console, sdk));
@@ -259,7 +268,23 @@ public class CommandRegistry implements Iterable<Command>
     }
     final boolean executed;
     try {
-      executed = command.execute();
+      /*
+       * Each command is executed within an SDK write transaction,
+       * such that all of its writes are sent to the emulator as a
+       * single batch.  Reads (e.g. when awaiting a triggered clock
+       * phase) implicitly commit pending writes, and nested commands
+       * (as executed by scripts) join the enclosing transaction.  If
+       * the command fails, only its own pending writes are discarded,
+       * while those of an enclosing script command are kept.
+       */
+      sdk.beginTransaction();
+      try {
+        executed = command.execute();
+      } catch (final IOException | RuntimeException e) {
+        sdk.abortTransaction();
+        throw e;
+      }
+      sdk.commitTransaction();
     } catch (final IOException e) {
       throw createCommandParseException(command, e);
     }
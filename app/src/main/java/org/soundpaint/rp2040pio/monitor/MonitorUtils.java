@@ -96,8 +96,7 @@ public class MonitorUtils
     throws IOException
   {
     final PinState[] pinStates = sdk.getGPIOSDK().getPinStates(override);
-    final String gpioPinBits = asBitArrayDisplay(pinStates);
-    return String.format("(pio%s:sm*) %s%n", "*", gpioPinBits);
+    return gpioDisplay(pinStates, "*");
   }
 
   /**
@@ -110,6 +109,16 @@ public class MonitorUtils
     final PIOSDK pioSdk = pioNum == 0 ? sdk.getPIO0SDK() : sdk.getPIO1SDK();
     final PinState[] pinStates = pioSdk.getPinStates();
     final String pioNumId = String.format("%d", pioNum);
+    return gpioDisplay(pinStates, pioNumId);
+  }
+
+  /**
+   * @param pioNumId Either "0" or "1" for GPIO pins of PIO0 or PIO1,
+   * or "*" for global GPIO pins.
+   */
+  public static String gpioDisplay(final PinState[] pinStates,
+                                   final String pioNumId)
+  {
     final String gpioPinBits = asBitArrayDisplay(pinStates);
     return String.format("(pio%s:sm*) %s%n", pioNumId, gpioPinBits);
   }
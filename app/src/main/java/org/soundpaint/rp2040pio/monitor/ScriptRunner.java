@@ -0,0 +1,690 @@
+/*
+ * @(#)ScriptRunner.java 1.00 26/10/19
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio.monitor;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.soundpaint.rp2040pio.CmdOptions;
+import org.soundpaint.rp2040pio.Constants;
+import org.soundpaint.rp2040pio.Emulator;
+import org.soundpaint.rp2040pio.IOUtils;
+import org.soundpaint.rp2040pio.LocalAddressSpace;
+import org.soundpaint.rp2040pio.Probe;
+import org.soundpaint.rp2040pio.sdk.Panic;
+import org.soundpaint.rp2040pio.sdk.SDK;
+
+/**
+ * Runs a batch of monitor scripts concurrently, e.g. as a regression
+ * test suite.  Each script runs against an emulator of its own
+ * in-process, such that scripts do not interfere with each other,
+ * and no emulation server is needed.  Scripts are distributed among
+ * a work-stealing pool of threads.  For each script, the exit status,
+ * console output, number of emulated cycles and emulation speed are
+ * collected and optionally written as a report in JUnit XML or JSON
+ * format.
+ */
+public class ScriptRunner
+{
+  private static final String APP_TITLE = "ScriptRunner";
+  private static final String APP_FULL_NAME =
+    "Monitor Script Regression Runner Version 0.1";
+  private static final String SUITE_NAME = "rp2040pio.monitor.scripts";
+  private static final String ALL_EXAMPLES = "all";
+  private static final String SCRIPT_SUFFIX = ".mon";
+  private static final String FORMAT_JUNIT = "junit";
+  private static final String FORMAT_JSON = "json";
+
+  private static final CmdOptions.FlagOptionDeclaration optVersion =
+    CmdOptions.createFlagOption(false, 'V', "version", CmdOptions.Flag.OFF,
+                                "display version information and exit");
+  private static final CmdOptions.FlagOptionDeclaration optHelp =
+    CmdOptions.createFlagOption(false, 'h', "help", CmdOptions.Flag.OFF,
+                                "display this help text and exit");
+  private static final CmdOptions.StringOptionDeclaration optExamples =
+    CmdOptions.createStringOption("NAMES", false, 'e', "examples", null,
+                                  "comma-separated names of built-in " +
+                                  "example scripts to run, or \"" +
+                                  ALL_EXAMPLES + "\"; if neither this " +
+                                  "option nor option \"-d\" is specified, " +
+                                  "all built-in example scripts are run");
+  private static final CmdOptions.StringOptionDeclaration optDirectory =
+    CmdOptions.createStringOption("PATH", false, 'd', "directory", null,
+                                  "run all monitor script files with " +
+                                  "file name suffix \"" + SCRIPT_SUFFIX +
+                                  "\" in directory PATH");
+  private static final CmdOptions.IntegerOptionDeclaration optThreads =
+    CmdOptions.createIntegerOption("COUNT", false, 'j', "threads",
+                                   Runtime.getRuntime().availableProcessors(),
+                                   "run at most COUNT scripts at the same " +
+                                   "time");
+  private static final CmdOptions.IntegerOptionDeclaration optCycles =
+    CmdOptions.createIntegerOption("COUNT", false, 'c', "cycles", 0,
+                                   "after each script has completed, run " +
+                                   "another COUNT cycles on its emulator");
+  private static final CmdOptions.IntegerOptionDeclaration optTimeout =
+    CmdOptions.createIntegerOption("SECONDS", false, 't', "timeout", 60,
+                                   "abort each script that has not " +
+                                   "completed after SECONDS seconds, or " +
+                                   "never, if 0");
+  private static final CmdOptions.StringOptionDeclaration optReport =
+    CmdOptions.createStringOption("PATH", false, 'o', "report", null,
+                                  "write report to file PATH");
+  private static final CmdOptions.StringOptionDeclaration optFormat =
+    CmdOptions.createStringOption("FORMAT", false, 'r', "format",
+                                  FORMAT_JUNIT,
+                                  "format of report, either \"" +
+                                  FORMAT_JUNIT + "\" or \"" +
+                                  FORMAT_JSON + "\"");
+  private static final CmdOptions.FlagOptionDeclaration optVerbose =
+    CmdOptions.createFlagOption(false, 'v', "verbose", CmdOptions.Flag.OFF,
+                                "print console output of failed scripts");
+  private static final List<CmdOptions.OptionDeclaration<?>>
+    optionDeclarations =
+    Arrays.asList(new CmdOptions.OptionDeclaration<?>[]
+                  { optVersion, optHelp, optExamples, optDirectory,
+                    optThreads, optCycles, optTimeout, optReport, optFormat,
+                    optVerbose });
+
+  /**
+   * Identifies a script to run and where to read it from.
+   */
+  private static class ScriptSource
+  {
+    private final String scriptId;
+    private final String resourcePath;
+
+    private ScriptSource(final String scriptId, final String resourcePath)
+    {
+      this.scriptId = scriptId;
+      this.resourcePath = resourcePath;
+    }
+  }
+
+  /**
+   * Outcome of running a single script.
+   */
+  private static class ScriptResult
+  {
+    private final String scriptId;
+    private final int exitStatus;
+    private final String failure;
+    private final String output;
+    private final long cycles;
+    private final long nanos;
+
+    private ScriptResult(final String scriptId, final int exitStatus,
+                         final String failure, final String output,
+                         final long cycles, final long nanos)
+    {
+      this.scriptId = scriptId;
+      this.exitStatus = exitStatus;
+      this.failure = failure;
+      this.output = output;
+      this.cycles = cycles;
+      this.nanos = nanos;
+    }
+
+    private boolean passed()
+    {
+      return exitStatus == 0;
+    }
+
+    private double getSeconds()
+    {
+      return nanos * 1.0e-9;
+    }
+
+    private double getCyclesPerSecond()
+    {
+      return nanos > 0 ? cycles / getSeconds() : 0.0;
+    }
+  }
+
+  private final PrintStream console;
+  private final CmdOptions options;
+
+  private ScriptRunner()
+  {
+    throw new UnsupportedOperationException("unsupported empty constructor");
+  }
+
+  public ScriptRunner(final PrintStream console, final String[] argv)
+    throws IOException
+  {
+    if (console == null) {
+      throw new NullPointerException("console");
+    }
+    this.console = console;
+    options = parseArgs(argv);
+  }
+
+  private CmdOptions parseArgs(final String argv[]) throws IOException
+  {
+    final CmdOptions options;
+    try {
+      options = new CmdOptions(APP_TITLE, APP_FULL_NAME, null,
+                               optionDeclarations);
+      options.parse(argv);
+      checkValidity(options);
+    } catch (final CmdOptions.ParseException e) {
+      final String message =
+        String.format("parsing command line failed: %s", e.getMessage());
+      throw new IOException(message);
+    }
+    if (options.getValue(optVersion) == CmdOptions.Flag.ON) {
+      printAbout();
+      return null;
+    }
+    if (options.getValue(optHelp) == CmdOptions.Flag.ON) {
+      console.println(options.getFullInfo());
+      return null;
+    }
+    return options;
+  }
+
+  private void checkValidity(final CmdOptions options)
+    throws CmdOptions.ParseException
+  {
+    if (options.getValue(optThreads) <= 0) {
+      throw new CmdOptions.
+        ParseException("COUNT must be a positive value", optThreads);
+    }
+    if (options.getValue(optCycles) < 0) {
+      throw new CmdOptions.
+        ParseException("COUNT must be a non-negative value", optCycles);
+    }
+    if (options.getValue(optTimeout) < 0) {
+      throw new CmdOptions.
+        ParseException("SECONDS must be a non-negative value", optTimeout);
+    }
+    final String format = options.getValue(optFormat);
+    if (!FORMAT_JUNIT.equals(format) && !FORMAT_JSON.equals(format)) {
+      throw new CmdOptions.
+        ParseException("FORMAT must be either \"" + FORMAT_JUNIT +
+                       "\" or \"" + FORMAT_JSON + "\"", optFormat);
+    }
+  }
+
+  private void printAbout()
+  {
+    console.printf("%s for%n%s%n%s%n",
+                   APP_FULL_NAME,
+                   Constants.getEmulatorIdAndVersionWithOs(),
+                   Constants.getCmdLineCopyrightNotice());
+  }
+
+  private List<String> listExampleScriptIds() throws IOException
+  {
+    return
+      IOUtils.list("examples").stream().
+      filter(t -> t.endsWith(SCRIPT_SUFFIX)).
+      map(t -> t.substring(0, t.length() - SCRIPT_SUFFIX.length())).
+      sorted().
+      collect(Collectors.toList());
+  }
+
+  private List<ScriptSource> collectScripts() throws IOException
+  {
+    final List<ScriptSource> scripts = new ArrayList<ScriptSource>();
+    final String examples = options.getValue(optExamples);
+    final String directory = options.getValue(optDirectory);
+    if ((examples != null) || (directory == null)) {
+      final List<String> scriptIds =
+        (examples == null) || examples.equals(ALL_EXAMPLES) ?
+        listExampleScriptIds() : Arrays.asList(examples.split(","));
+      for (final String scriptId : scriptIds) {
+        final String resourcePath =
+          String.format("/examples/%s%s", scriptId.trim(), SCRIPT_SUFFIX);
+        scripts.add(new ScriptSource(scriptId.trim(), resourcePath));
+      }
+    }
+    if (directory != null) {
+      final File[] files =
+        new File(directory).listFiles((dir, name) ->
+                                      name.endsWith(SCRIPT_SUFFIX));
+      if (files == null) {
+        throw new IOException("not a directory: " + directory);
+      }
+      Arrays.sort(files);
+      for (final File file : files) {
+        scripts.add(new ScriptSource(file.getName(), file.getPath()));
+      }
+    }
+    return scripts;
+  }
+
+  /**
+   * Interrupts the thread that runs a script when the script's time
+   * is up, unless the script has completed in the meantime.
+   */
+  private static class Watchdog
+  {
+    private final Thread worker;
+    private boolean done;
+    private boolean timedOut;
+
+    private Watchdog(final Thread worker)
+    {
+      this.worker = worker;
+      done = false;
+      timedOut = false;
+    }
+
+    private synchronized void alarm()
+    {
+      if (!done) {
+        timedOut = true;
+        worker.interrupt();
+      }
+    }
+
+    /**
+     * Clears any interrupt that the alarm may have raised, such that
+     * the worker can go on with the next script.
+     */
+    private synchronized void done()
+    {
+      done = true;
+      Thread.interrupted();
+    }
+
+    private synchronized boolean isTimedOut()
+    {
+      return timedOut;
+    }
+  }
+
+  /**
+   * Executes the specified script line by line, with the same
+   * semantics as monitor command "script", i.e. stops on the first
+   * failing command.  Also stops, if the current thread is
+   * interrupted, since the script's time is up.
+   */
+  private static int executeScript(final LineNumberReader in,
+                                   final CommandRegistry commands,
+                                   final PrintStream console,
+                                   final StringBuilder failure)
+    throws IOException
+  {
+    while (true) {
+      if (Thread.currentThread().isInterrupted()) {
+        failure.append(String.format("line %d: timed out",
+                                     in.getLineNumber()));
+        return -1;
+      }
+      final String line = in.readLine();
+      if (line == null) break;
+      console.println("script> " + line);
+      try {
+        if (commands.parseAndExecute(line, false)) break;
+      } catch (final Panic | IOException e) {
+        console.println(e.getMessage());
+        if (e instanceof Panic) {
+          console.printf(Command.panicNotes);
+          console.println();
+        }
+        failure.append(String.format("line %d: %s",
+                                     in.getLineNumber(), e.getMessage()));
+        return -1;
+      }
+    }
+    return 0;
+  }
+
+  private ScriptResult runScript(final ScriptSource script,
+                                 final int extraCycles,
+                                 final ScheduledExecutorService watchdogs,
+                                 final int timeout)
+  {
+    final Watchdog watchdog = new Watchdog(Thread.currentThread());
+    final ScheduledFuture<?> alarm =
+      timeout > 0 ?
+      watchdogs.schedule(() -> watchdog.alarm(), timeout, TimeUnit.SECONDS) :
+      null;
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    final PrintStream scriptConsole =
+      new PrintStream(buffer, true, StandardCharsets.UTF_8);
+    final StringBuilder failure = new StringBuilder();
+    final long startTime = System.nanoTime();
+    final Emulator emulator =
+      new Emulator(scriptConsole, 0); // no state trace
+    int exitStatus;
+    try {
+      final SDK sdk = new SDK(scriptConsole, new LocalAddressSpace(emulator));
+      final BufferedReader noInput = new BufferedReader(new StringReader(""));
+      final CommandRegistry commands =
+        new CommandRegistry(scriptConsole, noInput, sdk, APP_FULL_NAME);
+      final LineNumberReader in =
+        IOUtils.getReaderForResourcePath(script.resourcePath);
+      try {
+        exitStatus = executeScript(in, commands, scriptConsole, failure);
+      } finally {
+        in.close();
+      }
+      if ((exitStatus == 0) && (extraCycles > 0)) {
+        sdk.runCycles(new Probe[0], extraCycles, 0, (samples, cycles) -> {});
+      }
+    } catch (final IOException | RuntimeException e) {
+      scriptConsole.println(e);
+      failure.append(e.toString());
+      exitStatus = -1;
+    } finally {
+      if (alarm != null) {
+        alarm.cancel(false);
+      }
+      watchdog.done();
+      emulator.terminate();
+    }
+    if (watchdog.isTimedOut() && (exitStatus == 0)) {
+      failure.append("timed out");
+      exitStatus = -1;
+    }
+    final long nanos = System.nanoTime() - startTime;
+    final long cycles = emulator.getMasterClock().getWallClock();
+    scriptConsole.flush();
+    return new ScriptResult(script.scriptId, exitStatus,
+                            failure.length() > 0 ? failure.toString() : null,
+                            buffer.toString(StandardCharsets.UTF_8),
+                            cycles, nanos);
+  }
+
+  private List<ScriptResult> runScripts(final List<ScriptSource> scripts)
+    throws IOException
+  {
+    final int extraCycles = options.getValue(optCycles);
+    final int timeout = options.getValue(optTimeout);
+    final ExecutorService pool =
+      Executors.newWorkStealingPool(options.getValue(optThreads));
+    final ScheduledExecutorService watchdogs =
+      Executors.newSingleThreadScheduledExecutor((runnable) -> {
+          final Thread thread = new Thread(runnable, "script watchdog");
+          thread.setDaemon(true);
+          return thread;
+        });
+    try {
+      final List<Future<ScriptResult>> futures =
+        new ArrayList<Future<ScriptResult>>();
+      for (final ScriptSource script : scripts) {
+        final Callable<ScriptResult> task =
+          () -> runScript(script, extraCycles, watchdogs, timeout);
+        futures.add(pool.submit(task));
+      }
+      final List<ScriptResult> results = new ArrayList<ScriptResult>();
+      for (final Future<ScriptResult> future : futures) {
+        try {
+          results.add(future.get());
+        } catch (final ExecutionException e) {
+          throw new IOException("running script failed: " + e.getCause(),
+                                e.getCause());
+        } catch (final InterruptedException e) {
+          throw new IOException("interrupted while running scripts");
+        }
+      }
+      return results;
+    } finally {
+      pool.shutdownNow();
+      watchdogs.shutdownNow();
+    }
+  }
+
+  private static String escapeXml(final String text)
+  {
+    final StringBuilder s = new StringBuilder();
+    for (final char ch : text.toCharArray()) {
+      switch (ch) {
+      case '&':
+        s.append("&amp;");
+        break;
+      case '<':
+        s.append("&lt;");
+        break;
+      case '>':
+        s.append("&gt;");
+        break;
+      case '"':
+        s.append("&quot;");
+        break;
+      case '\t':
+      case '\n':
+      case '\r':
+        s.append(ch);
+        break;
+      default:
+        if (ch >= ' ') {
+          s.append(ch);
+        } // else: not allowed in XML 1.0 => drop
+        break;
+      }
+    }
+    return s.toString();
+  }
+
+  private static String escapeJson(final String text)
+  {
+    if (text == null) {
+      return "null";
+    }
+    final StringBuilder s = new StringBuilder();
+    s.append('"');
+    for (final char ch : text.toCharArray()) {
+      switch (ch) {
+      case '"':
+        s.append("\\\"");
+        break;
+      case '\\':
+        s.append("\\\\");
+        break;
+      case '\n':
+        s.append("\\n");
+        break;
+      case '\r':
+        s.append("\\r");
+        break;
+      case '\t':
+        s.append("\\t");
+        break;
+      default:
+        if (ch < ' ') {
+          s.append(String.format("\\u%04x", (int)ch));
+        } else {
+          s.append(ch);
+        }
+        break;
+      }
+    }
+    s.append('"');
+    return s.toString();
+  }
+
+  private static void writeJUnitReport(final PrintStream out,
+                                       final List<ScriptResult> results,
+                                       final int failures,
+                                       final double seconds)
+  {
+    out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+    out.printf("<testsuite name=\"%s\" tests=\"%d\" failures=\"%d\" " +
+               "errors=\"0\" skipped=\"0\" time=\"%.3f\">%n",
+               SUITE_NAME, results.size(), failures, seconds);
+    for (final ScriptResult result : results) {
+      out.printf("  <testcase classname=\"%s\" name=\"%s\" " +
+                 "time=\"%.3f\">%n",
+                 SUITE_NAME, escapeXml(result.scriptId),
+                 result.getSeconds());
+      out.println("    <properties>");
+      out.printf("      <property name=\"exitStatus\" value=\"%d\"/>%n",
+                 result.exitStatus);
+      out.printf("      <property name=\"cycles\" value=\"%d\"/>%n",
+                 result.cycles);
+      out.printf("      <property name=\"cyclesPerSecond\" " +
+                 "value=\"%.1f\"/>%n", result.getCyclesPerSecond());
+      out.println("    </properties>");
+      if (!result.passed()) {
+        out.printf("    <failure message=\"%s\"/>%n",
+                   escapeXml(result.failure != null ?
+                             result.failure : "exit status " +
+                             result.exitStatus));
+      }
+      out.printf("    <system-out>%s</system-out>%n",
+                 escapeXml(result.output));
+      out.println("  </testcase>");
+    }
+    out.println("</testsuite>");
+  }
+
+  private static void writeJsonReport(final PrintStream out,
+                                      final List<ScriptResult> results,
+                                      final int failures,
+                                      final double seconds)
+  {
+    out.println("{");
+    out.printf("  \"suite\": %s,%n", escapeJson(SUITE_NAME));
+    out.printf("  \"tests\": %d,%n", results.size());
+    out.printf("  \"failures\": %d,%n", failures);
+    out.printf("  \"seconds\": %.3f,%n", seconds);
+    out.println("  \"scripts\": [");
+    for (int index = 0; index < results.size(); index++) {
+      final ScriptResult result = results.get(index);
+      out.println("    {");
+      out.printf("      \"name\": %s,%n", escapeJson(result.scriptId));
+      out.printf("      \"exitStatus\": %d,%n", result.exitStatus);
+      out.printf("      \"passed\": %s,%n", result.passed());
+      out.printf("      \"seconds\": %.3f,%n", result.getSeconds());
+      out.printf("      \"cycles\": %d,%n", result.cycles);
+      out.printf("      \"cyclesPerSecond\": %.1f,%n",
+                 result.getCyclesPerSecond());
+      out.printf("      \"failure\": %s,%n", escapeJson(result.failure));
+      out.printf("      \"output\": %s%n", escapeJson(result.output));
+      out.printf("    }%s%n", index + 1 < results.size() ? "," : "");
+    }
+    out.println("  ]");
+    out.println("}");
+  }
+
+  private void writeReport(final List<ScriptResult> results,
+                           final int failures, final double seconds)
+    throws IOException
+  {
+    final String reportPath = options.getValue(optReport);
+    if (reportPath == null) return;
+    final PrintStream out =
+      new PrintStream(new FileOutputStream(reportPath), false,
+                      StandardCharsets.UTF_8);
+    try {
+      if (FORMAT_JSON.equals(options.getValue(optFormat))) {
+        writeJsonReport(out, results, failures, seconds);
+      } else {
+        writeJUnitReport(out, results, failures, seconds);
+      }
+    } finally {
+      out.close();
+    }
+    if (out.checkError()) {
+      throw new IOException("failed writing report: " + reportPath);
+    }
+    console.printf("report written to %s%n", reportPath);
+  }
+
+  private int run()
+  {
+    if (options == null) return 0;
+    try {
+      final List<ScriptSource> scripts = collectScripts();
+      console.printf("running %d scripts on %d threads…%n",
+                     scripts.size(), options.getValue(optThreads));
+      final long startTime = System.nanoTime();
+      final List<ScriptResult> results = runScripts(scripts);
+      final double seconds = (System.nanoTime() - startTime) * 1.0e-9;
+      final boolean verbose =
+        options.getValue(optVerbose) == CmdOptions.Flag.ON;
+      int failures = 0;
+      long totalCycles = 0;
+      for (final ScriptResult result : results) {
+        console.printf("%-4s %-24s %8.3fs %12d cycles %14.1f cycles/s%n",
+                       result.passed() ? "ok" : "FAIL", result.scriptId,
+                       result.getSeconds(), result.cycles,
+                       result.getCyclesPerSecond());
+        if (!result.passed()) {
+          failures++;
+          if (result.failure != null) {
+            console.printf("     %s%n", result.failure);
+          }
+          if (verbose) {
+            console.print(result.output);
+          }
+        }
+        totalCycles += result.cycles;
+      }
+      console.printf("%d scripts, %d failed, %d cycles in %.3fs%n",
+                     results.size(), failures, totalCycles, seconds);
+      writeReport(results, failures, seconds);
+      return failures > 0 ? 1 : 0;
+    } catch (final IOException e) {
+      console.println(e.getMessage());
+      return -1;
+    }
+  }
+
+  public static int main(final String argv[], final PrintStream out)
+  {
+    try {
+      return new ScriptRunner(out, argv).run();
+    } catch (final IOException e) {
+      out.println(e.getMessage());
+      return -1;
+    }
+  }
+
+  public static void main(final String argv[])
+  {
+    final int exitCode = main(argv, System.out);
+    System.exit(exitCode);
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -0,0 +1,372 @@
+/*
+ * @(#)TraceStream.java 1.00 26/10/19
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio.monitor;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.soundpaint.rp2040pio.AddressSpace;
+import org.soundpaint.rp2040pio.Bit;
+import org.soundpaint.rp2040pio.Constants;
+import org.soundpaint.rp2040pio.Direction;
+import org.soundpaint.rp2040pio.GPIOIOBank0Registers;
+import org.soundpaint.rp2040pio.PIOEmuRegisters;
+import org.soundpaint.rp2040pio.PicoEmuRegisters;
+import org.soundpaint.rp2040pio.PinState;
+import org.soundpaint.rp2040pio.Probe;
+import org.soundpaint.rp2040pio.sdk.GPIOSDK;
+import org.soundpaint.rp2040pio.sdk.SDK;
+
+/**
+ * Records a trace of selected state machines and GPIO pins while
+ * running cycles.  Rather than reading each register via a separate
+ * request after each cycle, all values of a trace record are
+ * collected as probes that are sampled on the emulation thread and
+ * delivered in bulk as chunks of cycles.  The records are written to
+ * a buffered sink, either as text in the same format as the monitor's
+ * "trace" command displays it, or in a compact binary format.
+ *
+ * The binary format starts with a header consisting of the 8 ASCII
+ * characters "PIOTRACE", the format version and the number of
+ * columns as 32 bit integers, and, for each column, its label and
+ * probe expression as written by
+ * <code>DataOutputStream.writeUTF()</code>.  The header is followed
+ * by one record per cycle, each consisting of the 32 bit integer
+ * value of each column.  All integers are big-endian.  The first
+ * two columns always hold the lower and upper 32 bits of the wall
+ * clock.
+ */
+public class TraceStream implements AddressSpace.SampleConsumer
+{
+  public static final String BINARY_MAGIC = "PIOTRACE";
+  public static final int BINARY_VERSION = 1;
+
+  /**
+   * Number of cycles per chunk of samples that the emulator delivers.
+   */
+  private static final int CHUNK_CYCLES = 1000;
+
+  private static final int BUFFER_SIZE = 0x10000;
+
+  private final int pioNumFirst;
+  private final int pioNumLast;
+  private final int smNumFirst;
+  private final int smNumLast;
+  private final boolean showPc;
+  private final boolean showRegs;
+  private final boolean showLocalGpio;
+  private final boolean showGpio;
+  private final GPIOSDK.Override override;
+  private final List<String> labels;
+  private final List<Probe> probes;
+  private final int gpioStatusColumn;
+  private final int localGpioColumn;
+  private final PinState[] pinStates;
+  private PrintStream textOut;
+  private DataOutputStream binaryOut;
+
+  private TraceStream()
+  {
+    throw new UnsupportedOperationException("unsupported empty constructor");
+  }
+
+  /**
+   * @param override Selects the status of global GPIO pins before or
+   * after override, if showGpio is true.
+   */
+  public TraceStream(final int pioNumFirst, final int pioNumLast,
+                     final int smNumFirst, final int smNumLast,
+                     final boolean showPc, final boolean showRegs,
+                     final boolean showLocalGpio, final boolean showGpio,
+                     final GPIOSDK.Override override)
+  {
+    if (override == null) {
+      throw new NullPointerException("override");
+    }
+    this.pioNumFirst = pioNumFirst;
+    this.pioNumLast = pioNumLast;
+    this.smNumFirst = smNumFirst;
+    this.smNumLast = smNumLast;
+    this.showPc = showPc;
+    this.showRegs = showRegs;
+    this.showLocalGpio = showLocalGpio;
+    this.showGpio = showGpio;
+    this.override = override;
+    labels = new ArrayList<String>();
+    probes = new ArrayList<Probe>();
+    pinStates = new PinState[Constants.GPIO_NUM];
+    addColumn("WALLCLOCK_LSB",
+              PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.
+                                          WALLCLOCK_LSB));
+    addColumn("WALLCLOCK_MSB",
+              PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.
+                                          WALLCLOCK_MSB));
+    for (int pioNum = pioNumFirst; pioNum <= pioNumLast; pioNum++) {
+      for (int smNum = smNumFirst; smNum <= smNumLast; smNum++) {
+        addSmColumns(pioNum, smNum);
+      }
+    }
+    localGpioColumn = probes.size();
+    if (showLocalGpio) {
+      for (int pioNum = pioNumFirst; pioNum <= pioNumLast; pioNum++) {
+        addColumn(String.format("PIO%d_GPIO_PINS", pioNum),
+                  PIOEmuRegisters.getAddress(pioNum, PIOEmuRegisters.Regs.
+                                             GPIO_PINS));
+        addColumn(String.format("PIO%d_GPIO_PINDIRS", pioNum),
+                  PIOEmuRegisters.getAddress(pioNum, PIOEmuRegisters.Regs.
+                                             GPIO_PINDIRS));
+      }
+    }
+    gpioStatusColumn = probes.size();
+    if (showLocalGpio || showGpio) {
+      for (int gpioNum = 0; gpioNum < Constants.GPIO_NUM; gpioNum++) {
+        addColumn(String.format("GPIO%d_STATUS", gpioNum),
+                  GPIOIOBank0Registers.
+                  getGPIOAddress(gpioNum,
+                                 GPIOIOBank0Registers.Regs.GPIO0_STATUS));
+      }
+    }
+  }
+
+  private void addColumn(final String label, final Probe probe)
+  {
+    labels.add(label);
+    probes.add(probe);
+  }
+
+  private void addColumn(final String label, final int address)
+  {
+    addColumn(label, new Probe(address));
+  }
+
+  private void addSmColumns(final int pioNum, final int smNum)
+  {
+    final String prefix = String.format("PIO%d_SM%d_", pioNum, smNum);
+    if (showPc) {
+      final int pcAddress =
+        PIOEmuRegisters.getSMAddress(pioNum, smNum,
+                                     PIOEmuRegisters.Regs.SM0_PC);
+      addColumn(prefix + "PC", pcAddress);
+      final Probe instr =
+        new Probe(String.format("@%08x,4:0,#2,shl,#%08x,add,ld,15:0",
+                                pcAddress,
+                                PIOEmuRegisters.getMemoryAddress(pioNum, 0)));
+      addColumn(prefix + "INSTR", instr);
+    }
+    if (showRegs) {
+      addColumn(prefix + "X",
+                PIOEmuRegisters.getSMAddress(pioNum, smNum,
+                                             PIOEmuRegisters.Regs.SM0_REGX));
+      addColumn(prefix + "Y",
+                PIOEmuRegisters.getSMAddress(pioNum, smNum,
+                                             PIOEmuRegisters.Regs.SM0_REGY));
+      addColumn(prefix + "ISR",
+                PIOEmuRegisters.getSMAddress(pioNum, smNum,
+                                             PIOEmuRegisters.Regs.SM0_ISR));
+      addColumn(prefix + "OSR",
+                PIOEmuRegisters.getSMAddress(pioNum, smNum,
+                                             PIOEmuRegisters.Regs.SM0_OSR));
+    }
+  }
+
+  public Probe[] getProbes()
+  {
+    return probes.toArray(new Probe[probes.size()]);
+  }
+
+  private void writeBinaryHeader() throws IOException
+  {
+    binaryOut.write(BINARY_MAGIC.getBytes(StandardCharsets.US_ASCII));
+    binaryOut.writeInt(BINARY_VERSION);
+    binaryOut.writeInt(probes.size());
+    for (int column = 0; column < probes.size(); column++) {
+      binaryOut.writeUTF(labels.get(column));
+      binaryOut.writeUTF(probes.get(column).getExpression());
+    }
+  }
+
+  private void formatSmRecord(final StringBuilder s, final int[] samples,
+                              final int offset, final int pioNum,
+                              final int smNum)
+  {
+    s.append(String.format("(pio%d:sm%d)", pioNum, smNum));
+    int column = offset;
+    if (showPc) {
+      s.append(String.format(" PC=%02x INSTR=%04x",
+                             samples[column], samples[column + 1]));
+      column += 2;
+    }
+    if (showRegs) {
+      s.append(String.format(" X=%08x Y=%08x ISR=%08x OSR=%08x",
+                             samples[column], samples[column + 1],
+                             samples[column + 2], samples[column + 3]));
+    }
+    s.append(String.format("%n"));
+  }
+
+  private void formatLocalGpio(final StringBuilder s, final int[] samples,
+                               final int offset, final int pioNum,
+                               final int statusOffset)
+  {
+    final int pins = samples[offset];
+    final int pinDirs = samples[offset + 1];
+    for (int gpioNum = 0; gpioNum < Constants.GPIO_NUM; gpioNum++) {
+      final Direction direction =
+        Direction.fromValue((pinDirs >>> gpioNum) & 0x1);
+      final Bit level;
+      if (direction == Direction.OUT) {
+        level = Bit.fromValue((pins >>> gpioNum) & 0x1);
+      } else {
+        level =
+          GPIOSDK.getInputLevelFromStatus(samples[statusOffset + gpioNum],
+                                          GPIOSDK.Override.AFTER);
+      }
+      pinStates[gpioNum] = PinState.fromValues(direction, level);
+    }
+    s.append(MonitorUtils.gpioDisplay(pinStates, String.valueOf(pioNum)));
+  }
+
+  private void formatGpio(final StringBuilder s, final int[] samples,
+                          final int statusOffset)
+  {
+    for (int gpioNum = 0; gpioNum < Constants.GPIO_NUM; gpioNum++) {
+      pinStates[gpioNum] =
+        GPIOSDK.getPinStateFromStatus(samples[statusOffset + gpioNum],
+                                      override);
+    }
+    s.append(MonitorUtils.gpioDisplay(pinStates, "*"));
+  }
+
+  /**
+   * Formats a single cycle's record in the same way as the monitor's
+   * "trace" command does, preceded by the cycle's wall clock.
+   */
+  private void formatRecord(final StringBuilder s, final int[] samples,
+                            final int offset)
+  {
+    final long wallClock =
+      ((long)samples[offset + 1] << 32) | (samples[offset] & 0xffffffffL);
+    s.append(String.format("(pio*:sm*) cycle %d%n", wallClock));
+    final int smColumns = (showPc ? 2 : 0) + (showRegs ? 4 : 0);
+    int column = offset + 2;
+    if (smColumns > 0) {
+      for (int pioNum = pioNumFirst; pioNum <= pioNumLast; pioNum++) {
+        for (int smNum = smNumFirst; smNum <= smNumLast; smNum++) {
+          formatSmRecord(s, samples, column, pioNum, smNum);
+          column += smColumns;
+        }
+      }
+    }
+    if (showLocalGpio) {
+      for (int pioNum = pioNumFirst; pioNum <= pioNumLast; pioNum++) {
+        formatLocalGpio(s, samples,
+                        offset + localGpioColumn +
+                        2 * (pioNum - pioNumFirst),
+                        pioNum, offset + gpioStatusColumn);
+      }
+    }
+    if (showGpio) {
+      formatGpio(s, samples, offset + gpioStatusColumn);
+    }
+  }
+
+  @Override
+  public void accept(final int[] samples, final int cycles)
+    throws IOException
+  {
+    final int columns = probes.size();
+    if (binaryOut != null) {
+      for (int index = 0; index < cycles * columns; index++) {
+        binaryOut.writeInt(samples[index]);
+      }
+    } else {
+      final StringBuilder s = new StringBuilder();
+      for (int cycle = 0; cycle < cycles; cycle++) {
+        formatRecord(s, samples, cycle * columns);
+      }
+      textOut.print(s);
+      if (textOut.checkError()) {
+        throw new IOException("failed writing trace");
+      }
+    }
+  }
+
+  /**
+   * Runs the specified number of cycles and writes the trace records
+   * as text to the specified print stream.
+   */
+  public void traceAsText(final SDK sdk, final int cycles,
+                          final PrintStream out)
+    throws IOException
+  {
+    if (out == null) {
+      throw new NullPointerException("out");
+    }
+    textOut = out;
+    binaryOut = null;
+    try {
+      sdk.runCycles(getProbes(), cycles, CHUNK_CYCLES, this);
+    } finally {
+      textOut.flush();
+      textOut = null;
+    }
+  }
+
+  /**
+   * Runs the specified number of cycles and writes the trace records
+   * in binary format to the specified output stream.  The stream is
+   * buffered, but not closed.
+   */
+  public void traceAsBinary(final SDK sdk, final int cycles,
+                            final OutputStream out)
+    throws IOException
+  {
+    if (out == null) {
+      throw new NullPointerException("out");
+    }
+    textOut = null;
+    binaryOut =
+      new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+    try {
+      writeBinaryHeader();
+      sdk.runCycles(getProbes(), cycles, CHUNK_CYCLES, this);
+    } finally {
+      binaryOut.flush();
+      binaryOut = null;
+    }
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
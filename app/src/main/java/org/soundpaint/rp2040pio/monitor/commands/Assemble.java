@@ -24,33 +24,23 @@
  */
 package org.soundpaint.rp2040pio.monitor.commands;
 
-import java.io.File;
-import java.io.FileReader;
+import java.io.BufferedReader;
+import java.io.FileWriter;
 import java.io.IOException;
-import java.io.LineNumberReader;
 import java.io.PrintStream;
-import java.io.StringReader;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
-
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
+import java.io.PrintWriter;
 import org.soundpaint.rp2040pio.CmdOptions;
-import org.soundpaint.rp2040pio.Constants;
-import org.soundpaint.rp2040pio.Decoder;
 import org.soundpaint.rp2040pio.IOUtils;
-import org.soundpaint.rp2040pio.PIOEmuRegisters;
-import org.soundpaint.rp2040pio.PIORegisters;
 import org.soundpaint.rp2040pio.monitor.Command;
 import org.soundpaint.rp2040pio.sdk.PIOSDK;
+import org.soundpaint.rp2040pio.sdk.Program;
+import org.soundpaint.rp2040pio.sdk.ProgramAssembler;
 import org.soundpaint.rp2040pio.sdk.SDK;
 
 /**
- * Monitor command "assemble" compiles .pio or .pioasm files
- * into .hex files by utilizing the external pioasm tool 
- * (must be installed seperately) 
+ * Monitor command "assemble" compiles .pio or .pioasm files into
+ * .hex files or directly loads them into PIO instruction memory by
+ * utilizing the built-in, pioasm compatible assembler.
  */
 public class Assemble extends Command
 {
@@ -58,14 +48,16 @@ public class Assemble extends Command
   private static final String singleLineDescription =
     "assemble pio instructions to a hex file for loading";
   private static final String notes =
-    "Note that this command assumes that pioasm is installed%n" +
-    "on your PATH and simply shells out to it for now.%n" +
-    "It is possible to specify other locations for pioasm.%n" +
-    "%n" + 
+    "The source is assembled by the emulator's built-in assembler,%n" +
+    "which understands the syntax of the Pico SDK's pioasm tool.%n" +
+    "Assembled programs are cached by the source's content, such%n" +
+    "that repeatedly assembling an unchanged file is cheap.%n" +
+    "%n" +
     "If the \"-l\" load option is given, then after assembly,%n" +
-    "it it loaded into pio 0, along with wrap and side set %n"+
-    "commands for sm 0. If you need further control, manually%n" +
-    "load and configure the file, or make a PR with code improvements.";
+    "it it loaded into pio 0, along with wrap and side set%n" +
+    "commands for sm 0.  Otherwise, the program is written to a .hex%n" +
+    "file that can be loaded with the \"load\" command.  If you need%n" +
+    "further control, manually load and configure the file.";
 
   private static final CmdOptions.StringOptionDeclaration optInput =
     CmdOptions.createStringOption("PATH", false, 'i', "input", null,
@@ -73,9 +65,6 @@ public class Assemble extends Command
   private static final CmdOptions.StringOptionDeclaration optOutput =
     CmdOptions.createStringOption("PATH", false, 'o', "output", null,
                                   "path of .hex file to write");
-  private static final CmdOptions.StringOptionDeclaration optTool =
-    CmdOptions.createStringOption("PATH", false, 't', "tool", null,
-                                  "path to pioasm tool, if not on PATH");
   private static final CmdOptions.StringOptionDeclaration optProgram =
     CmdOptions.createStringOption("NAME", false, 'p', "program", null,
                                   "name of program to use, if any");
@@ -89,26 +78,79 @@ public class Assemble extends Command
   {
     super(console, fullName, singleLineDescription, notes,
           new CmdOptions.OptionDeclaration<?>[]
-          { optInput, optOutput, optTool, optLoad, optProgram });
+          { optInput, optOutput, optLoad, optProgram });
     if (sdk == null) {
       throw new NullPointerException("sdk");
     }
     this.sdk = sdk;
   }
 
-
   @Override
   protected void checkValidity(final CmdOptions options)
     throws CmdOptions.ParseException
   {
     if (options.getValue(optHelp) != CmdOptions.Flag.ON) {
-	    if (options.getValue(optInput) == null) {
-	        throw new CmdOptions.
-	          ParseException("input file \"-i\" must be specified");
-	    }
+      if (options.getValue(optInput) == null) {
+        throw new CmdOptions.
+          ParseException("input file \"-i\" must be specified");
+      }
     }
   }
 
+  private static String getDefaultOutput(final String input)
+  {
+    final String upperCaseInput = input.toUpperCase();
+    if (upperCaseInput.endsWith(".PIO") ||
+        upperCaseInput.endsWith(".ASM") ||
+        upperCaseInput.endsWith(".PIOASM")) {
+      return input.substring(0, input.lastIndexOf(".")) + ".hex";
+    }
+    return input + ".hex";
+  }
+
+  /**
+   * Writes the program as hex dump, including all directives that
+   * the "load" command understands.
+   */
+  private static void writeHexDump(final Program program,
+                                   final String output)
+    throws IOException
+  {
+    try (final PrintWriter out = new PrintWriter(new FileWriter(output))) {
+      out.printf("# .program %s%n", program.getId());
+      if (program.getOrigin() >= 0) {
+        out.printf("# .origin %d%n", program.getOrigin());
+      }
+      if ((program.getSideSetCount() > 0) || program.getSideSetOpt()) {
+        out.printf("# .side_set %d%s%s%n", program.getSideSetCount(),
+                   program.getSideSetOpt() ? " opt" : "",
+                   program.getSideSetPinDirs() ? " pindirs" : "");
+      }
+      out.printf("# .wrap_target %d%n", program.getWrapTarget());
+      out.printf("# .wrap %d%n", program.getWrap());
+      for (int index = 0; index < program.getLength(); index++) {
+        out.printf("%04x%n", program.getInstruction(index) & 0xffff);
+      }
+    }
+  }
+
+  private boolean load(final Program program) throws IOException
+  {
+    final PIOSDK pioSdk = sdk.getPIO0SDK();
+    final int address = pioSdk.addProgram(program);
+    console.printf("(pio0:sm*) loaded program %s at address 0x%02x%n",
+                   program.getId(), address);
+    final int offset = program.getOrigin() >= 0 ? 0 : address;
+    final Wrap wrap = new Wrap(console, sdk);
+    wrap.setWrap(0, 0, sdk, offset + program.getWrap());
+    wrap.setWrapTarget(0, 0, sdk, offset + program.getWrapTarget());
+    final SideSet sideSet = new SideSet(console, sdk);
+    sideSet.setSideSetOpt(0, 0, sdk, program.getSideSetOpt());
+    sideSet.setSideSetCount(0, 0, sdk, program.getSideSetCount());
+    sideSet.setSideSetPinDirs(0, 0, sdk, program.getSideSetPinDirs());
+    return true;
+  }
+
   /**
    * Returns true if no error occurred and the command has been
    * executed.
@@ -116,104 +158,22 @@ public class Assemble extends Command
   @Override
   protected boolean execute(final CmdOptions options) throws IOException
   {
-	// pioasm -o hex input output
-	String pioasm = options.getValue(optTool);
-	if (pioasm == null)
-		pioasm = "pioasm";
-	String input = options.getValue(optInput);
-	String output = options.getValue(optOutput);
-	if (output == null || output.isEmpty())
-	{
-		if (input.toUpperCase().endsWith(".PIO") || input.toUpperCase().endsWith(".ASM") || input.toUpperCase().endsWith(".PIOASM"))
-			output = input.substring(0,input.lastIndexOf(".")) + ".hex";
-		else
-			output = input + ".hex";
-	}
-	if (!options.getValue(optLoad))
-	{
-		sdk.getConsole().println("Assembling PIO code to " + output);
-	    Process p = Runtime.getRuntime().exec(new String[] {pioasm, "-o", "hex", input, output});
-	    try {
-			int exitVal = p.waitFor();
-			sdk.getConsole().println("pioasm exited with code " + exitVal);
-			return exitVal == 0;
-		} catch (InterruptedException e) {
-			return false;
-		}
-	}
-	else
-	{
-		var jsonOutput = File.createTempFile("rp2040pio", ".json");
-		jsonOutput.deleteOnExit();
-	    Process p = Runtime.getRuntime().exec(new String[] {pioasm, "-o", "json", input, jsonOutput.getAbsolutePath()});
-	    try {
-			int exitVal = p.waitFor();
-			sdk.getConsole().println("pioasm exited with code " + exitVal);
-			if (exitVal != 0)
-				return false;
-		} catch (InterruptedException e) {
-			return false;
-		}
-	    var parser = new JSONParser();
-		try(var reader = new FileReader(jsonOutput))
-		{
-			var data = (JSONObject) parser.parse(reader);
-			
-			var all_programs = ((JSONArray)data.get("programs"));
-			
-			String requestedProgram = options.getValue(optProgram);
-
-			if (all_programs.size() != 1 && requestedProgram == null)
-			{
-				sdk.getConsole().println("pioasm files must have exactly one program when being loaded without -p specified. Please specify -p");
-				return false;
-			}
-			int progindex = 0;
-			if (requestedProgram != null)
-			{
-				int i = 0;
-				for (var progr : all_programs)
-				{
-					if (((JSONObject)progr).get("name").toString().equals(requestedProgram))
-					{
-						progindex = i;
-						break;
-					}
-					i++;
-				}
-				if (progindex != i)
-				{
-					sdk.getConsole().println("pio program name not found");
-					return false;
-				}	
-			}
-			// load it. { "progr_name":{"instructions:[{"hex": "...."}]}}
-			// load it. {programs: [ { "instructions:[{"hex": "...."}], name: "name"}] }
-			var program = (JSONObject) all_programs.get(progindex);
-			var program_name = program.get("name").toString();
-			String hex = ((Stream<Object>)((JSONArray)program.get("instructions")).stream()).map(x -> ((JSONObject)x).get("hex").toString()).collect(Collectors.joining("\n"));
-			
-			// TODO: use ProgramParser supported directives?
-			hex = "#.program " + program_name + "\n\n" + hex;
-			if (!new Load(sdk.getConsole(), sdk).loadHexDump(0, new LineNumberReader(new StringReader(hex)), program_name, null))
-				return false;
-			// code loaded, now 			
-			// Use the JSON output to get set/side set options
-			var wrap = new Wrap(sdk.getConsole(), sdk);
-			wrap.setWrap(0, 0, sdk, (int)(long)(Long)program.get("wrap"));
-			wrap.setWrapTarget(0, 0, sdk, (int)(long)(Long)program.get("wrapTarget"));
-			var sideset_obj = (JSONObject)program.get("sideset");
-			var sideset = new SideSet(sdk.getConsole(), sdk);
-			sideset.setSideSetCount(0, 0, sdk, (int)(long)(Long)sideset_obj.get("size"));
-			sideset.setSideSetOpt(0, 0, sdk, (Boolean)sideset_obj.get("optional"));
-			sideset.setSideSetPinDirs(0, 0, sdk, (Boolean)sideset_obj.get("pindirs"));
-			
-			return true;
-		} catch (ParseException e) {
-			e.printStackTrace();
-			return false;
-		}
-	}
+    final String input = options.getValue(optInput);
+    final String optOutputValue = options.getValue(optOutput);
+    final String output =
+      (optOutputValue == null) || optOutputValue.isEmpty() ?
+      getDefaultOutput(input) : optOutputValue;
+    final BufferedReader reader = IOUtils.getReaderForResourcePath(input);
+    final Program program =
+      ProgramAssembler.assemble(input, reader, options.getValue(optProgram));
+    console.printf("assembled program %s with %d PIO SM instructions%n",
+                   program.getId(), program.getLength());
+    if (options.getValue(optLoad)) {
+      return load(program);
+    }
+    writeHexDump(program, output);
+    console.println("Assembled PIO code to " + output);
+    return true;
   }
 }
 
@@ -29,21 +29,40 @@ import java.io.PrintStream;
 import org.soundpaint.rp2040pio.CmdOptions;
 import org.soundpaint.rp2040pio.Constants;
 import org.soundpaint.rp2040pio.PIOEmuRegisters;
+import org.soundpaint.rp2040pio.SM;
 import org.soundpaint.rp2040pio.monitor.Command;
 import org.soundpaint.rp2040pio.sdk.SDK;
 
 /**
  * Monitor command "breakpoints" manages breakpoints.  Breakpoints are
  * not a feature of the RP2040 itself, but have been added to the PIO
- * emulator for advanced debugging.
+ * emulator for advanced debugging.  Conditions, hit counts and data
+ * watchpoints are evaluated by the emulator itself, such that the
+ * emulation may run at full speed until the breakpoint triggers.
  */
 public class BreakPoints extends Command
 {
   private static final String fullName = "breakpoints";
+  private static final String[] SOURCES = {
+    "none", "x", "y", "isr", "osr", "isr-count", "osr-count",
+    "tx-level", "rx-level", "irq", "gpio", "pc"
+  };
+  private static final String SOURCE_NAMES = String.join(", ", SOURCES);
+  private static final String[] OPS = { "==", "!=", "<", "<=", ">", ">=" };
   private static final String singleLineDescription =
     "change breakpoints";
   private static final String notes =
-    "For displaying breakpoints, use the \"unassemble\" command.";
+    "For displaying breakpoints, use the \"unassemble\" command.%n" +
+    "%n" +
+    "A condition has the form SOURCE[&MASK]OP VALUE, e.g. \"x==0\",%n" +
+    "\"rx-level>=4\" or \"irq&0x1!=0\", where SOURCE is one of%n" +
+    SOURCE_NAMES + ",%n" +
+    "and OP is one of ==, !=, <, <=, >, >= (unsigned comparison).%n" +
+    "The condition applies to all breakpoint addresses of the SM, or,%n" +
+    "with option \"--any-address\", to each executed instruction.%n" +
+    "A watchpoint SOURCE[&MASK] stops the emulation as soon as the%n" +
+    "masked value changes.  Specify \"none\" for removing a condition%n" +
+    "or watchpoint.";
 
   private static final CmdOptions.IntegerOptionDeclaration optPio =
     CmdOptions.createIntegerOption("NUMBER", false, 'p', "pio", 0,
@@ -59,6 +78,28 @@ public class BreakPoints extends Command
     CmdOptions.createIntegerOption("ADDRESS", false, 'd', "delete", null,
                                    "remove breakpoint from specified " +
                                    "address (0x00…0x1f)");
+  private static final CmdOptions.StringOptionDeclaration optCondition =
+    CmdOptions.createStringOption("CONDITION", false, 'c', "condition", null,
+                                  "let breakpoints of the SM only stop " +
+                                  "when CONDITION holds");
+  private static final CmdOptions.FlagOptionDeclaration optAnyAddress =
+    CmdOptions.createFlagOption(false, null, "any-address",
+                                CmdOptions.Flag.OFF,
+                                "with option -c, evaluate the condition " +
+                                "after each instruction, irrespective of " +
+                                "breakpoint addresses");
+  private static final CmdOptions.IntegerOptionDeclaration optHits =
+    CmdOptions.createIntegerOption("COUNT", false, 'n', "hits", null,
+                                   "stop only on each COUNT'th hit of a " +
+                                   "breakpoint of the SM");
+  private static final CmdOptions.StringOptionDeclaration optWatch =
+    CmdOptions.createStringOption("SOURCE[&MASK]", false, 'w', "watch", null,
+                                  "stop as soon as the (masked) value of " +
+                                  "SOURCE changes");
+  private static final CmdOptions.FlagOptionDeclaration optList =
+    CmdOptions.createFlagOption(false, 'l', "list", CmdOptions.Flag.OFF,
+                                "show condition, hit count and watchpoint " +
+                                "of the SM");
 
   private final SDK sdk;
 
@@ -66,7 +107,8 @@ public class BreakPoints extends Command
   {
     super(console, fullName, singleLineDescription, notes,
           new CmdOptions.OptionDeclaration<?>[]
-          { optPio, optSm, optAdd, optDelete });
+          { optPio, optSm, optAdd, optDelete, optCondition, optAnyAddress,
+            optHits, optWatch, optList });
     if (sdk == null) {
       throw new NullPointerException("sdk");
     }
@@ -88,11 +130,175 @@ public class BreakPoints extends Command
         throw new CmdOptions.
           ParseException("SM number must be one of 0, 1, 2 or 3");
       }
-      if (!options.isDefined(optAdd) && !options.isDefined(optDelete)) {
+      if (!options.isDefined(optAdd) && !options.isDefined(optDelete) &&
+          !options.isDefined(optCondition) && !options.isDefined(optHits) &&
+          !options.isDefined(optWatch) &&
+          (options.getValue(optList) != CmdOptions.Flag.ON)) {
         throw new CmdOptions.
-          ParseException("at least one of options -a and -d must be specified");
+          ParseException("at least one of options -a, -d, -c, -n, -w and " +
+                         "-l must be specified");
       }
+      if ((options.getValue(optAnyAddress) == CmdOptions.Flag.ON) &&
+          !options.isDefined(optCondition)) {
+        throw new CmdOptions.
+          ParseException("option --any-address requires option -c");
+      }
+      if (options.isDefined(optHits) && (options.getValue(optHits) < 0)) {
+        throw new CmdOptions.
+          ParseException("hit count must be a non-negative number");
+      }
+      if (options.isDefined(optCondition)) {
+        parseCondition(options.getValue(optCondition));
+      }
+      if (options.isDefined(optWatch)) {
+        parseWatch(options.getValue(optWatch));
+      }
+    }
+  }
+
+  private static int parseNumber(final String number)
+    throws CmdOptions.ParseException
+  {
+    try {
+      final long value = Long.decode(number.trim());
+      if ((value < Integer.MIN_VALUE) || (value > 0xffffffffL)) {
+        throw new CmdOptions.
+          ParseException("number out of 32 bit range: " + number);
+      }
+      return (int)value;
+    } catch (final NumberFormatException e) {
+      throw new CmdOptions.ParseException("invalid number: " + number);
+    }
+  }
+
+  private static int parseSource(final String source)
+    throws CmdOptions.ParseException
+  {
+    final String name = source.trim().toLowerCase();
+    for (int code = 0; code < SOURCES.length; code++) {
+      if (SOURCES[code].equals(name)) return code;
+    }
+    throw new CmdOptions.
+      ParseException(String.format("unknown source \"%s\", expected one " +
+                                   "of %s", source, SOURCE_NAMES));
+  }
+
+  /**
+   * Parses SOURCE[&amp;MASK] into { source code, mask }.
+   */
+  private static int[] parseWatch(final String watch)
+    throws CmdOptions.ParseException
+  {
+    final int ampersandPos = watch.indexOf('&');
+    if (ampersandPos < 0) {
+      return new int[] { parseSource(watch), ~0 };
+    }
+    return new int[] {
+      parseSource(watch.substring(0, ampersandPos)),
+      parseNumber(watch.substring(ampersandPos + 1))
+    };
+  }
+
+  /**
+   * Parses SOURCE[&amp;MASK]OP VALUE into { source code, mask, op
+   * code, value }.
+   */
+  private static int[] parseCondition(final String condition)
+    throws CmdOptions.ParseException
+  {
+    int opPos = -1;
+    int opCode = -1;
+    for (int pos = 0; (pos < condition.length()) && (opPos < 0); pos++) {
+      for (int code = OPS.length - 1; code >= 0; code--) {
+        if (condition.startsWith(OPS[code], pos)) {
+          opPos = pos;
+          opCode = code;
+          break;
+        }
+      }
+    }
+    if (opPos < 0) {
+      if (parseSource(condition) == SM.BreakSource.NONE.ordinal()) {
+        return new int[] { 0, ~0, 0, 0 };
+      }
+      throw new CmdOptions.
+        ParseException("missing comparison operator in condition: " +
+                       condition);
+    }
+    final int[] sourceAndMask = parseWatch(condition.substring(0, opPos));
+    final int value =
+      parseNumber(condition.substring(opPos + OPS[opCode].length()));
+    return new int[] { sourceAndMask[0], sourceAndMask[1], opCode, value };
+  }
+
+  private void list(final int pioNum, final int smNum) throws IOException
+  {
+    final int condition =
+      sdk.readAddress(PIOEmuRegisters.getSMAddress(pioNum, smNum,
+                                                   PIOEmuRegisters.Regs.
+                                                   SM0_BREAK_CONDITION));
+    final int breakMask =
+      sdk.readAddress(PIOEmuRegisters.getSMAddress(pioNum, smNum,
+                                                   PIOEmuRegisters.Regs.
+                                                   SM0_BREAK_MASK));
+    final int breakValue =
+      sdk.readAddress(PIOEmuRegisters.getSMAddress(pioNum, smNum,
+                                                   PIOEmuRegisters.Regs.
+                                                   SM0_BREAK_VALUE));
+    final int hitTarget =
+      sdk.readAddress(PIOEmuRegisters.getSMAddress(pioNum, smNum,
+                                                   PIOEmuRegisters.Regs.
+                                                   SM0_BREAK_HIT_TARGET));
+    final int hitCount =
+      sdk.readAddress(PIOEmuRegisters.getSMAddress(pioNum, smNum,
+                                                   PIOEmuRegisters.Regs.
+                                                   SM0_BREAK_HIT_COUNT));
+    final int watch =
+      sdk.readAddress(PIOEmuRegisters.getSMAddress(pioNum, smNum,
+                                                   PIOEmuRegisters.Regs.
+                                                   SM0_WATCH_CONDITION));
+    final int watchMask =
+      sdk.readAddress(PIOEmuRegisters.getSMAddress(pioNum, smNum,
+                                                   PIOEmuRegisters.Regs.
+                                                   SM0_WATCH_MASK));
+    final int reason =
+      sdk.readAddress(PIOEmuRegisters.getSMAddress(pioNum, smNum,
+                                                   PIOEmuRegisters.Regs.
+                                                   SM0_BREAK_REASON));
+    final int source = condition & SM.BREAK_CONDITION_SOURCE_MASK;
+    final String conditionDisplay;
+    if (source == SM.BreakSource.NONE.ordinal()) {
+      conditionDisplay = "none";
+    } else {
+      final int opCode =
+        (condition & SM.BREAK_CONDITION_OP_MASK) >>>
+        SM.BREAK_CONDITION_OP_LSB;
+      conditionDisplay =
+        String.format("%s&0x%08x%s0x%08x%s", sourceName(source), breakMask,
+                      opCode < OPS.length ? OPS[opCode] : "?", breakValue,
+                      (condition & SM.BREAK_CONDITION_ANY_ADDRESS_MASK) != 0 ?
+                      " (any address)" : "");
     }
+    final String watchDisplay =
+      watch == SM.BreakSource.NONE.ordinal() ? "none" :
+      String.format("%s&0x%08x", sourceName(watch), watchMask);
+    console.printf("(pio%d:sm%d) condition: %s%n",
+                   pioNum, smNum, conditionDisplay);
+    console.printf("(pio%d:sm%d) hits: %d of %d%n",
+                   pioNum, smNum, hitCount, Math.max(hitTarget, 1));
+    console.printf("(pio%d:sm%d) watchpoint: %s%n",
+                   pioNum, smNum, watchDisplay);
+    console.printf("(pio%d:sm%d) last stop reason:%s%s%s%n", pioNum, smNum,
+                   (reason & SM.BREAK_REASON_BREAKPOINT_MASK) != 0 ?
+                   " breakpoint" : "",
+                   (reason & SM.BREAK_REASON_WATCHPOINT_MASK) != 0 ?
+                   " watchpoint" : "",
+                   reason == 0 ? " none" : "");
+  }
+
+  private static String sourceName(final int source)
+  {
+    return source < SOURCES.length ? SOURCES[source] : "?";
   }
 
   /**
@@ -115,6 +321,67 @@ public class BreakPoints extends Command
     if (optDeleteValue != null) {
       sdk.hwClearBits(address, 0x1 << optDeleteValue);
     }
+    final String optConditionValue = options.getValue(optCondition);
+    if (optConditionValue != null) {
+      final int[] condition;
+      try {
+        condition = parseCondition(optConditionValue);
+      } catch (final CmdOptions.ParseException e) {
+        throw new InternalError("condition already checked for validity", e);
+      }
+      final boolean anyAddress =
+        options.getValue(optAnyAddress) == CmdOptions.Flag.ON;
+      sdk.writeAddress(PIOEmuRegisters.getSMAddress(pioNum, smNum,
+                                                    PIOEmuRegisters.Regs.
+                                                    SM0_BREAK_MASK),
+                       condition[1]);
+      sdk.writeAddress(PIOEmuRegisters.getSMAddress(pioNum, smNum,
+                                                    PIOEmuRegisters.Regs.
+                                                    SM0_BREAK_VALUE),
+                       condition[3]);
+      sdk.writeAddress(PIOEmuRegisters.getSMAddress(pioNum, smNum,
+                                                    PIOEmuRegisters.Regs.
+                                                    SM0_BREAK_HIT_COUNT),
+                       0);
+      sdk.writeAddress(PIOEmuRegisters.getSMAddress(pioNum, smNum,
+                                                    PIOEmuRegisters.Regs.
+                                                    SM0_BREAK_CONDITION),
+                       condition[0] |
+                       (condition[2] << SM.BREAK_CONDITION_OP_LSB) |
+                       (anyAddress ?
+                        SM.BREAK_CONDITION_ANY_ADDRESS_MASK : 0));
+    }
+    final Integer optHitsValue = options.getValue(optHits);
+    if (optHitsValue != null) {
+      sdk.writeAddress(PIOEmuRegisters.getSMAddress(pioNum, smNum,
+                                                    PIOEmuRegisters.Regs.
+                                                    SM0_BREAK_HIT_TARGET),
+                       optHitsValue);
+      sdk.writeAddress(PIOEmuRegisters.getSMAddress(pioNum, smNum,
+                                                    PIOEmuRegisters.Regs.
+                                                    SM0_BREAK_HIT_COUNT),
+                       0);
+    }
+    final String optWatchValue = options.getValue(optWatch);
+    if (optWatchValue != null) {
+      final int[] watch;
+      try {
+        watch = parseWatch(optWatchValue);
+      } catch (final CmdOptions.ParseException e) {
+        throw new InternalError("watchpoint already checked for validity", e);
+      }
+      sdk.writeAddress(PIOEmuRegisters.getSMAddress(pioNum, smNum,
+                                                    PIOEmuRegisters.Regs.
+                                                    SM0_WATCH_MASK),
+                       watch[1]);
+      sdk.writeAddress(PIOEmuRegisters.getSMAddress(pioNum, smNum,
+                                                    PIOEmuRegisters.Regs.
+                                                    SM0_WATCH_CONDITION),
+                       watch[0]);
+    }
+    if (options.getValue(optList) == CmdOptions.Flag.ON) {
+      list(pioNum, smNum);
+    }
     return true;
   }
 }
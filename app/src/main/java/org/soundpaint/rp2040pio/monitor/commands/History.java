@@ -0,0 +1,265 @@
+/*
+ * @(#)History.java 1.00 26/10/19
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio.monitor.commands;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import org.soundpaint.rp2040pio.CmdOptions;
+import org.soundpaint.rp2040pio.Constants;
+import org.soundpaint.rp2040pio.StateTrace;
+import org.soundpaint.rp2040pio.monitor.Command;
+import org.soundpaint.rp2040pio.sdk.SDK;
+
+/**
+ * Monitor command "history" displays the emulator's always-on state
+ * trace, i.e. the state of all state machines in the most recent
+ * cycles, without executing any cycle.
+ */
+public class History extends Command
+{
+  private static final String fullName = "history";
+  private static final String singleLineDescription =
+    "display state of SMs and GPIO pins in most recent cycles";
+  private static final String notes =
+    "The emulator continuously records changes of PC, instruction,%n" +
+    "registers X, Y, ISR and OSR, shift counts and FIFO levels of each%n" +
+    "SM, as well as of the PIOs' pins and GPIO pad inputs, in a ring%n" +
+    "buffer of fixed size, even while running at maximum speed.  This%n" +
+    "command fetches the buffer in bulk and displays, for each cycle%n" +
+    "within the specified number of most recent cycles, the complete%n" +
+    "state of each SM or PIO that changed in that cycle.  Cycles without%n" +
+    "changes are omitted.  The main use is post-mortem analysis after a%n" +
+    "breakpoint has been hit.  For many cycles, consider writing the%n" +
+    "history to a file with option \"-f\".";
+
+  private static final CmdOptions.IntegerOptionDeclaration optCycles =
+    CmdOptions.createIntegerOption("COUNT", false, 'c', "cycles", 100,
+                                   "number of most recent cycles to display");
+  private static final CmdOptions.IntegerOptionDeclaration optPio =
+    CmdOptions.createIntegerOption("NUMBER", false, 'p', "pio", null,
+                                   "limit display to PIO number, " +
+                                   "either 0 or 1 or both, if undefined");
+  private static final CmdOptions.IntegerOptionDeclaration optSm =
+    CmdOptions.createIntegerOption("NUMBER", false, 's', "sm", null,
+                                   "limit display to SM number, one of " +
+                                   "0, 1, 2 or 3, or all, if undefined");
+  private static final CmdOptions.StringOptionDeclaration optFile =
+    CmdOptions.createStringOption("PATH", false, 'f', "file", null,
+                                  "write history to file PATH rather " +
+                                  "than to the console");
+
+  private static final int UNIT_COUNT =
+    Constants.PIO_NUM * Constants.SM_COUNT + Constants.PIO_NUM + 1;
+
+  private final SDK sdk;
+
+  public History(final PrintStream console, final SDK sdk)
+  {
+    super(console, fullName, singleLineDescription, notes,
+          new CmdOptions.OptionDeclaration<?>[]
+          { optPio, optSm, optCycles, optFile });
+    if (sdk == null) {
+      throw new NullPointerException("sdk");
+    }
+    this.sdk = sdk;
+  }
+
+  @Override
+  protected void checkValidity(final CmdOptions options)
+    throws CmdOptions.ParseException
+  {
+    final Integer optPioValue = options.getValue(optPio);
+    if (optPioValue != null) {
+      final int pioNum = optPioValue;
+      if ((pioNum < 0) || (pioNum > Constants.PIO_NUM - 1)) {
+        throw new CmdOptions.
+          ParseException("PIO number must be either 0 or 1, if defined");
+      }
+    }
+    final Integer optSmValue = options.getValue(optSm);
+    if (optSmValue != null) {
+      final int smNum = optSmValue;
+      if ((smNum < 0) || (smNum > Constants.SM_COUNT - 1)) {
+        throw new CmdOptions.
+          ParseException("SM number must be one of 0, 1, 2 or 3, if defined");
+      }
+    }
+    final int cycles = options.getValue(optCycles);
+    if (cycles < 0) {
+      throw new CmdOptions.
+        ParseException("COUNT must be a non-negative value", optCycles);
+    }
+  }
+
+  /**
+   * Units are the SMs, followed by the PIOs, followed by the GPIO
+   * pads, such that changes can be tracked per displayed line.
+   */
+  private static int getUnit(final int channel)
+  {
+    final int pioNum = StateTrace.getPioNum(channel);
+    final int smNum = StateTrace.getSmNum(channel);
+    if (smNum >= 0) {
+      return pioNum * Constants.SM_COUNT + smNum;
+    }
+    if (pioNum >= 0) {
+      return Constants.PIO_NUM * Constants.SM_COUNT + pioNum;
+    }
+    return UNIT_COUNT - 1;
+  }
+
+  private static int getValue(final int[] state, final StateTrace.Field field,
+                              final int pioNum, final int smNum)
+  {
+    return state[StateTrace.getChannel(field, pioNum, smNum)];
+  }
+
+  private void displaySm(final PrintStream out, final long wallClock,
+                         final int[] state, final int pioNum, final int smNum)
+  {
+    final int ctrl = getValue(state, StateTrace.Field.CTRL, pioNum, smNum);
+    final int levels =
+      getValue(state, StateTrace.Field.LEVELS, pioNum, smNum);
+    final String flags =
+      (StateTrace.isCtrlStalled(ctrl) ? " (stalled)" : "") +
+      (StateTrace.isCtrlDelayCycle(ctrl) ? " (delay)" : "");
+    out.printf("%d (pio%d:sm%d) PC=%02x INSTR=%04x%s X=%08x Y=%08x " +
+               "ISR=%08x/%d OSR=%08x/%d RX=%d TX=%d%n",
+               wallClock, pioNum, smNum,
+               StateTrace.getCtrlPC(ctrl), StateTrace.getCtrlOpCode(ctrl),
+               flags,
+               getValue(state, StateTrace.Field.X, pioNum, smNum),
+               getValue(state, StateTrace.Field.Y, pioNum, smNum),
+               getValue(state, StateTrace.Field.ISR, pioNum, smNum),
+               StateTrace.getLevelsISRShiftCount(levels),
+               getValue(state, StateTrace.Field.OSR, pioNum, smNum),
+               StateTrace.getLevelsOSRShiftCount(levels),
+               StateTrace.getLevelsRXFIFOLevel(levels),
+               StateTrace.getLevelsTXFIFOLevel(levels));
+  }
+
+  private void displayCycle(final PrintStream out, final long wallClock,
+                            final int[] state, final boolean[] changed,
+                            final Integer optPioValue,
+                            final Integer optSmValue)
+  {
+    for (int pioNum = 0; pioNum < Constants.PIO_NUM; pioNum++) {
+      if ((optPioValue != null) && (optPioValue != pioNum)) continue;
+      for (int smNum = 0; smNum < Constants.SM_COUNT; smNum++) {
+        if ((optSmValue != null) && (optSmValue != smNum)) continue;
+        if (changed[pioNum * Constants.SM_COUNT + smNum]) {
+          displaySm(out, wallClock, state, pioNum, smNum);
+        }
+      }
+    }
+    for (int pioNum = 0; pioNum < Constants.PIO_NUM; pioNum++) {
+      if ((optPioValue != null) && (optPioValue != pioNum)) continue;
+      if (changed[Constants.PIO_NUM * Constants.SM_COUNT + pioNum]) {
+        out.printf("%d (pio%d:sm*) PINS=%08x PINDIRS=%08x%n",
+                   wallClock, pioNum,
+                   getValue(state, StateTrace.Field.PINS, pioNum, 0),
+                   getValue(state, StateTrace.Field.PINDIRS, pioNum, 0));
+      }
+    }
+    if ((optPioValue == null) && changed[UNIT_COUNT - 1]) {
+      out.printf("%d (gpio) PADIN=%08x%n", wallClock,
+                 getValue(state, StateTrace.Field.PADIN, 0, 0));
+    }
+  }
+
+  private void displayHistory(final PrintStream out,
+                              final StateTrace.Snapshot snapshot,
+                              final Integer optPioValue,
+                              final Integer optSmValue)
+  {
+    final int[] state = snapshot.getInitialState();
+    final boolean[] changed = new boolean[UNIT_COUNT];
+    long wallClock = -1;
+    for (int index = 0; index < snapshot.getRecordCount(); index++) {
+      final long record = snapshot.getRecord(index);
+      if (StateTrace.isCycleRecord(record)) {
+        if (wallClock >= 0) {
+          displayCycle(out, wallClock, state, changed,
+                       optPioValue, optSmValue);
+        }
+        wallClock = StateTrace.getWallClock(record);
+        for (int unit = 0; unit < UNIT_COUNT; unit++) {
+          changed[unit] = false;
+        }
+      } else {
+        final int channel = StateTrace.getChannel(record);
+        state[channel] ^= StateTrace.getDelta(record);
+        changed[getUnit(channel)] = true;
+      }
+    }
+    if (wallClock >= 0) {
+      displayCycle(out, wallClock, state, changed, optPioValue, optSmValue);
+    }
+  }
+
+  /**
+   * Returns true if no error occurred and the command has been
+   * executed.
+   */
+  @Override
+  protected boolean execute(final CmdOptions options) throws IOException
+  {
+    final Integer optPioValue = options.getValue(optPio);
+    final Integer optSmValue = options.getValue(optSm);
+    final int cycles = options.getValue(optCycles);
+    final StateTrace.Snapshot snapshot = sdk.fetchStateTrace(cycles);
+    final String filePath = options.getValue(optFile);
+    if (filePath == null) {
+      displayHistory(console, snapshot, optPioValue, optSmValue);
+    } else {
+      final OutputStream fileOut = new FileOutputStream(filePath);
+      final PrintStream out =
+        new PrintStream(new BufferedOutputStream(fileOut), false);
+      try {
+        displayHistory(out, snapshot, optPioValue, optSmValue);
+      } finally {
+        out.close();
+      }
+      console.printf("(pio*:sm*) history written to file %s%n", filePath);
+    }
+    final long wallClock = snapshot.getWallClock();
+    final long firstWallClock =
+      snapshot.getRecordCount() > 0 ?
+      StateTrace.getWallClock(snapshot.getRecord(0)) : wallClock;
+    console.printf("(pio*:sm*) %d state trace records of cycles %d…%d%n",
+                   snapshot.getRecordCount(), firstWallClock, wallClock);
+    return true;
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -0,0 +1,170 @@
+/*
+ * @(#)Record.java 1.00 26/10/19
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio.monitor.commands;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import org.soundpaint.rp2040pio.CmdOptions;
+import org.soundpaint.rp2040pio.Constants;
+import org.soundpaint.rp2040pio.ExecTrace;
+import org.soundpaint.rp2040pio.monitor.Command;
+import org.soundpaint.rp2040pio.sdk.SDK;
+
+/**
+ * Monitor command "record" starts or stops recording a compact
+ * execution trace of a state machine.
+ */
+public class Record extends Command
+{
+  private static final String fullName = "record";
+  private static final String singleLineDescription =
+    "start or stop recording execution trace of an SM";
+  private static final String notes =
+    "An execution trace records only those decisions of a state machine%n" +
+    "that can not be derived from its program, like outcomes of%n" +
+    "conditional jumps, stalls, forced and EXEC'd instructions, or%n" +
+    "cycles skipped by the clock divider.  Since most decisions are%n" +
+    "run-length encoded, typically only a few bits or even only a%n" +
+    "fraction of a bit per cycle are needed, such that even runs%n" +
+    "of billions of cycles can be recorded.  The exact sequence of PCs%n" +
+    "and instructions is reconstructed offline from the trace file by%n" +
+    "replaying the program, using the \"replay\" tool.%n" +
+    "%n" +
+    "Options -p and -s select the state machine that this command%n" +
+    "applies to.  Default is PIO0 and SM0.%n" +
+    "%n" +
+    "Option --start starts recording with the next cycle.  Option%n" +
+    "--stop stops recording and writes the trace to the file specified%n" +
+    "with option -f, conventionally with extension \"" +
+    ExecTrace.EXTENSION + "\".";
+
+  private static final CmdOptions.IntegerOptionDeclaration optPio =
+    CmdOptions.createIntegerOption("NUMBER", false, 'p', "pio", 0,
+                                   "PIO number, either 0 or 1");
+  private static final CmdOptions.IntegerOptionDeclaration optSm =
+    CmdOptions.createIntegerOption("NUMBER", false, 's', "sm", 0,
+                                   "SM number, one of 0, 1, 2 or 3");
+  private static final CmdOptions.FlagOptionDeclaration optStart =
+    CmdOptions.createFlagOption(false, null, "start", CmdOptions.Flag.OFF,
+                                "start recording execution trace");
+  private static final CmdOptions.FlagOptionDeclaration optStop =
+    CmdOptions.createFlagOption(false, null, "stop", CmdOptions.Flag.OFF,
+                                "stop recording execution trace and " +
+                                "write it to the file specified by " +
+                                "option \"-f\"");
+  private static final CmdOptions.StringOptionDeclaration optFile =
+    CmdOptions.createStringOption("PATH", false, 'f', "file", null,
+                                  "file to write the execution trace to");
+
+  private final SDK sdk;
+
+  public Record(final PrintStream console, final SDK sdk)
+  {
+    super(console, fullName, singleLineDescription, notes,
+          new CmdOptions.OptionDeclaration<?>[]
+          { optPio, optSm, optStart, optStop, optFile });
+    if (sdk == null) {
+      throw new NullPointerException("sdk");
+    }
+    this.sdk = sdk;
+  }
+
+  @Override
+  protected void checkValidity(final CmdOptions options)
+    throws CmdOptions.ParseException
+  {
+    if (options.getValue(optHelp) != CmdOptions.Flag.ON) {
+      final int pioNum = options.getValue(optPio);
+      if ((pioNum < 0) || (pioNum > Constants.PIO_NUM - 1)) {
+        throw new CmdOptions.
+          ParseException("PIO number must be either 0 or 1");
+      }
+      final int smNum = options.getValue(optSm);
+      if ((smNum < 0) || (smNum > Constants.SM_COUNT - 1)) {
+        throw new CmdOptions.
+          ParseException("SM number must be one of 0, 1, 2 or 3");
+      }
+      final boolean start = options.getValue(optStart).isOn();
+      final boolean stop = options.getValue(optStop).isOn();
+      if (start == stop) {
+        throw new CmdOptions.
+          ParseException("exactly one of options \"--start\" and " +
+                         "\"--stop\" must be specified");
+      }
+      if (stop && !options.isDefined(optFile)) {
+        throw new CmdOptions.
+          ParseException("option \"--stop\" requires option \"-f\"");
+      }
+      if (start && options.isDefined(optFile)) {
+        throw new CmdOptions.
+          ParseException("option \"-f\" requires option \"--stop\"");
+      }
+    }
+  }
+
+  /**
+   * Returns true if no error occurred and the command has been
+   * executed.
+   */
+  @Override
+  protected boolean execute(final CmdOptions options) throws IOException
+  {
+    final int pioNum = options.getValue(optPio);
+    final int smNum = options.getValue(optSm);
+    if (options.getValue(optStart).isOn()) {
+      sdk.startExecTrace(pioNum, smNum);
+      console.printf("(pio%d:sm%d) started recording execution trace%n",
+                     pioNum, smNum);
+      return true;
+    }
+    final ExecTrace.Recording recording = sdk.stopExecTrace(pioNum, smNum);
+    final String filePath = options.getValue(optFile);
+    final OutputStream out =
+      new BufferedOutputStream(new FileOutputStream(filePath));
+    try {
+      recording.write(out);
+    } finally {
+      out.close();
+    }
+    final long cycles = recording.getCycles();
+    final long bits = recording.getBits();
+    console.printf("(pio%d:sm%d) execution trace of %d cycles written " +
+                   "to file %s%n", pioNum, smNum, cycles, filePath);
+    console.printf("(pio%d:sm%d) %d bits of decisions, %.3f bits per " +
+                   "cycle%n", pioNum, smNum, bits,
+                   cycles > 0 ? (double)bits / cycles : 0.0);
+    return true;
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -24,7 +24,10 @@
  */
 package org.soundpaint.rp2040pio.monitor.commands;
 
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import org.soundpaint.rp2040pio.Bit;
 import org.soundpaint.rp2040pio.CmdOptions;
@@ -35,6 +38,7 @@ import org.soundpaint.rp2040pio.PIOEmuRegisters;
 import org.soundpaint.rp2040pio.PinState;
 import org.soundpaint.rp2040pio.monitor.Command;
 import org.soundpaint.rp2040pio.monitor.MonitorUtils;
+import org.soundpaint.rp2040pio.monitor.TraceStream;
 import org.soundpaint.rp2040pio.sdk.GPIOSDK;
 import org.soundpaint.rp2040pio.sdk.SDK;
 
@@ -47,6 +51,21 @@ public class Trace extends Command
   private static final String fullName = "trace";
   private static final String singleLineDescription =
     "trace program by performing a number of clock cycles";
+  private static final String notes =
+    "By default, the trace is displayed by reading all registers of%n" +
+    "interest after each cycle.  Option \"--stream\" instead lets the%n" +
+    "emulator sample these registers on its own while running the%n" +
+    "cycles, and deliver the values in bulk, which is much faster when%n" +
+    "tracing many cycles.  In streaming mode, each record is preceded%n" +
+    "by the cycle's wall clock, the instruction op-code is shown next%n" +
+    "to the PC, option \"-r\" additionally shows registers X, Y, ISR%n" +
+    "and OSR, and the trace may be written to a file rather than to%n" +
+    "the console.  With option \"--binary\", the file is written in a%n" +
+    "compact binary format: a header with magic \"" +
+    TraceStream.BINARY_MAGIC + "\", format%n" +
+    "version, number of columns and each column's label and probe%n" +
+    "expression, followed by one big-endian 32 bit integer per column%n" +
+    "and cycle, with the first two columns holding the wall clock.";
 
   private static final CmdOptions.IntegerOptionDeclaration optCycles =
     CmdOptions.createIntegerOption("COUNT", false, 'c', "cycles", 1,
@@ -78,6 +97,22 @@ public class Trace extends Command
     CmdOptions.createIntegerOption("NUMBER", false, 'w', "wait", 0,
                                    "before each cycle, sleep for the " +
                                    "specified time [ms] or until interrupted");
+  private static final CmdOptions.FlagOptionDeclaration optStream =
+    CmdOptions.createFlagOption(false, null, "stream", CmdOptions.Flag.OFF,
+                                "let the emulator sample the trace while " +
+                                "running all cycles at once");
+  private static final CmdOptions.FlagOptionDeclaration optRegs =
+    CmdOptions.createFlagOption(false, 'r', "show-regs", CmdOptions.Flag.OFF,
+                                "in streaming mode, also show registers " +
+                                "X, Y, ISR and OSR of selected SMs");
+  private static final CmdOptions.StringOptionDeclaration optFile =
+    CmdOptions.createStringOption("PATH", false, 'f', "file", null,
+                                  "in streaming mode, write trace to file " +
+                                  "PATH rather than to the console");
+  private static final CmdOptions.FlagOptionDeclaration optBinary =
+    CmdOptions.createFlagOption(false, null, "binary", CmdOptions.Flag.OFF,
+                                "write trace file in compact binary " +
+                                "rather than text format");
 
   private static final int[][] addressPioSmPc = {{
       PIOEmuRegisters.getAddress(0, PIOEmuRegisters.Regs.SM0_PC),
@@ -95,10 +130,11 @@ public class Trace extends Command
 
   public Trace(final PrintStream console, final SDK sdk)
   {
-    super(console, fullName, singleLineDescription,
+    super(console, fullName, singleLineDescription, notes,
           new CmdOptions.OptionDeclaration<?>[]
           { optPio, optSm, optCycles, optPc,
-              optPioGpio, optGpio, optBefore, optWait });
+              optPioGpio, optGpio, optBefore, optWait,
+              optStream, optRegs, optFile, optBinary });
     if (sdk == null) {
       throw new NullPointerException("sdk");
     }
@@ -142,6 +178,26 @@ public class Trace extends Command
                          "option \"-g\" is specified");
       }
     }
+    if (options.getValue(optStream) == CmdOptions.Flag.ON) {
+      if (wait > 0) {
+        throw new CmdOptions.
+          ParseException("option \"-w\" may not be specified in " +
+                         "streaming mode");
+      }
+    } else {
+      if ((options.getValue(optRegs) == CmdOptions.Flag.ON) ||
+          options.isDefined(optFile) ||
+          (options.getValue(optBinary) == CmdOptions.Flag.ON)) {
+        throw new CmdOptions.
+          ParseException("options \"-r\", \"-f\" and \"binary\" may " +
+                         "only be specified in streaming mode");
+      }
+    }
+    if ((options.getValue(optBinary) == CmdOptions.Flag.ON) &&
+        !options.isDefined(optFile)) {
+      throw new CmdOptions.
+        ParseException("option \"binary\" requires option \"-f\"");
+    }
   }
 
   private void displayPcValues(final int pioNumFirst,
@@ -174,6 +230,46 @@ public class Trace extends Command
     }
   }
 
+  private boolean executeStreaming(final CmdOptions options,
+                                   final int pioNumFirst,
+                                   final int pioNumLast,
+                                   final int smNumFirst,
+                                   final int smNumLast,
+                                   final int cycles)
+    throws IOException
+  {
+    final GPIOSDK.Override override =
+      options.getValue(optBefore) == CmdOptions.Flag.ON ?
+      GPIOSDK.Override.BEFORE : GPIOSDK.Override.AFTER;
+    final TraceStream trace =
+      new TraceStream(pioNumFirst, pioNumLast, smNumFirst, smNumLast,
+                      options.getValue(optPc).isOn(),
+                      options.getValue(optRegs).isOn(),
+                      options.getValue(optPioGpio).isOn(),
+                      options.getValue(optGpio).isOn(), override);
+    final String filePath = options.getValue(optFile);
+    if (filePath == null) {
+      trace.traceAsText(sdk, cycles, console);
+    } else {
+      final OutputStream out = new FileOutputStream(filePath);
+      try {
+        if (options.getValue(optBinary).isOn()) {
+          trace.traceAsBinary(sdk, cycles, out);
+        } else {
+          final PrintStream textOut =
+            new PrintStream(new BufferedOutputStream(out), false);
+          trace.traceAsText(sdk, cycles, textOut);
+        }
+      } finally {
+        out.close();
+      }
+      console.printf("(pio*:sm*) trace written to file %s%n", filePath);
+    }
+    console.println(cycles + " clock cycle" + (cycles != 1 ? "s" : "") +
+                    " executed.");
+    return true;
+  }
+
   /**
    * Returns true if no error occurred and the command has been
    * executed.
@@ -190,6 +286,10 @@ public class Trace extends Command
     final int smNumLast =
       optSmValue != null ? optSmValue : Constants.SM_COUNT - 1;
     final int cycles = options.getValue(optCycles);
+    if (options.getValue(optStream) == CmdOptions.Flag.ON) {
+      return executeStreaming(options, pioNumFirst, pioNumLast,
+                              smNumFirst, smNumLast, cycles);
+    }
     final int wait = options.getValue(optWait);
     final int wait0 = wait / 2;
     final int wait1 = wait - wait0;
@@ -29,16 +29,21 @@ import java.awt.Color;
 import java.awt.event.WindowEvent;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.swing.Box;
 import javax.swing.BoxLayout;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JMenuBar;
-import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.UIManager;
+import org.soundpaint.rp2040pio.AddressSpace;
 import org.soundpaint.rp2040pio.Constants;
 import org.soundpaint.rp2040pio.CmdOptions;
 import org.soundpaint.rp2040pio.PicoEmuRegisters;
@@ -70,10 +75,20 @@ public abstract class GUIObserver extends JFrame
     CmdOptions.createIntegerOption("TIME", false, 'r', "refresh", 1000,
                                    "autorefresh after <TIME> millis or " +
                                    "no autorefresh, if 0");
+  private static final CmdOptions.IntegerOptionDeclaration optFps =
+    CmdOptions.createIntegerOption("FPS", false, 'f', "fps", 25,
+                                   "repaint the view at most FPS " +
+                                   "times per second");
   private static final List<CmdOptions.OptionDeclaration<?>>
     optionDeclarations =
     Arrays.asList(new CmdOptions.OptionDeclaration<?>[]
-                  { optVersion, optHelp, optPort, optRefresh });
+                  { optVersion, optHelp, optPort, optRefresh, optFps });
+
+  /**
+   * Minimum number of milliseconds between two updates of the frame
+   * statistics in the status line.
+   */
+  private static final int FRAME_STATUS_PERIOD = 1000;
 
   static
   {
@@ -86,11 +101,19 @@ public abstract class GUIObserver extends JFrame
   private final PrintStream console;
   private final ConnectDialog connectDialog;
   private final JLabel lbStatus;
+  private final JLabel lbFrameStatus;
   private final CmdOptions options;
   private final SDK sdk;
   private final RemoteAddressSpaceClient sdkClient;
   private final RemoteAddressSpaceClient updateLoopClient;
+  private final List<RemoteAddressSpaceClient> auxiliaryClients;
   private final ActionPanel<? extends GUIObserver> actionPanel;
+  private final AtomicBoolean viewDirty;
+  private final AtomicLong coalescedFrames;
+  private long paintedFrames;
+  private long droppedFrames;
+  private long lastFrameTick;
+  private long lastFrameStatusUpdate;
 
   private GUIObserver()
   {
@@ -113,9 +136,13 @@ public abstract class GUIObserver extends JFrame
     setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
     connectDialog = new ConnectDialog(this, getPort());
     lbStatus = new JLabel();
+    lbFrameStatus = new JLabel();
+    viewDirty = new AtomicBoolean(false);
+    coalescedFrames = new AtomicLong(0);
     sdkClient = createRemoteAddressSpace("GUI event thread");
     sdk = new SDK(console, sdkClient);
     updateLoopClient = createRemoteAddressSpace("update loop thread");
+    auxiliaryClients = new CopyOnWriteArrayList<RemoteAddressSpaceClient>();
     connect(null, getPort());
     add(actionPanel = createActionPanel(), BorderLayout.NORTH);
     add(createStatusLine(), BorderLayout.SOUTH);
@@ -128,6 +155,7 @@ public abstract class GUIObserver extends JFrame
     final Box hBox = new Box(BoxLayout.LINE_AXIS);
     hBox.add(lbStatus);
     hBox.add(Box.createHorizontalGlue());
+    hBox.add(lbFrameStatus);
     return hBox;
   }
 
@@ -182,11 +210,29 @@ public abstract class GUIObserver extends JFrame
     return sdk;
   }
 
+  /**
+   * Returns the address space that this observer's SDK is built
+   * upon, e.g. for sharing it among multiple panels.
+   */
+  protected AddressSpace getAddressSpace()
+  {
+    return sdkClient;
+  }
+
   protected ActionPanel<? extends GUIObserver> getActionPanel()
   {
     return actionPanel;
   }
 
+  /**
+   * Returns the parsed command-line options, including values of any
+   * additional options declared by the subclass.
+   */
+  protected CmdOptions getOptions()
+  {
+    return options;
+  }
+
   protected int getPort()
   {
     return options.getValue(optPort);
@@ -206,10 +252,13 @@ public abstract class GUIObserver extends JFrame
   {
     final List<CmdOptions.OptionDeclaration<?>> additionalOptionDeclarations =
       getAdditionalOptionDeclarations();
-    if (additionalOptionDeclarations != null) {
-      optionDeclarations.addAll(additionalOptionDeclarations);
+    if (additionalOptionDeclarations == null) {
+      return optionDeclarations;
     }
-    return optionDeclarations;
+    final List<CmdOptions.OptionDeclaration<?>> allOptionDeclarations =
+      new ArrayList<CmdOptions.OptionDeclaration<?>>(optionDeclarations);
+    allOptionDeclarations.addAll(additionalOptionDeclarations);
+    return allOptionDeclarations;
   }
 
   private CmdOptions parseArgs(final String argv[])
@@ -263,6 +312,11 @@ public abstract class GUIObserver extends JFrame
       throw new CmdOptions.
         ParseException("TIME must be a non-negative value", optRefresh);
     }
+    final int fps = options.getValue(optFps);
+    if ((fps <= 0) || (fps > 1000)) {
+      throw new CmdOptions.
+        ParseException("FPS must be in the range 1…1000", optFps);
+    }
     checkValidity(options);
   }
 
@@ -292,6 +346,22 @@ public abstract class GUIObserver extends JFrame
     }
   }
 
+  /**
+   * Creates another SDK with a connection of its own to the emulation
+   * server this observer is currently connected to, e.g. for a
+   * thread that blocks on the server for longer periods of time.
+   * Upon reconnecting this observer, the connection of the returned
+   * SDK is reconnected as well.
+   */
+  protected SDK createSDK(final String threadName) throws IOException
+  {
+    final RemoteAddressSpaceClient client =
+      createRemoteAddressSpace(threadName);
+    client.connect(sdkClient.getHost(), sdkClient.getPort());
+    auxiliaryClients.add(client);
+    return new SDK(console, client);
+  }
+
   public void openConnectDialog()
   {
     connectDialog.makeVisible();
@@ -311,6 +381,9 @@ public abstract class GUIObserver extends JFrame
   {
     sdkClient.connect(host, port);
     updateLoopClient.connect(host, port);
+    for (final RemoteAddressSpaceClient client : auxiliaryClients) {
+      client.connect(host, port);
+    }
     final String status =
       String.format("Connected to emulation server at port %d.", port);
     setStatus(status);
@@ -328,18 +401,92 @@ public abstract class GUIObserver extends JFrame
     dispatchEvent(closeEvent);
   }
 
+  /**
+   * Starts sampling the emulator's state in a separate update thread,
+   * and repainting the view on the event dispatch thread.  Sampling
+   * and painting are decoupled: The update thread just samples the
+   * emulator's state upon each stable clock phase and marks the view
+   * as dirty, while a timer on the event dispatch thread repaints
+   * the view at most with the frame rate specified by command line
+   * option "--fps", and only if the view is dirty.  Thereby, multiple
+   * updates that occur within a single frame are coalesced into a
+   * single repaint, such that neither fast emulation floods the
+   * event dispatch thread, nor slow painting throttles the update
+   * thread.
+   */
   protected void startUpdating()
   {
+    final int framePeriod = Math.max(1000 / options.getValue(optFps), 1);
+    final Timer frameTimer =
+      new Timer(framePeriod, (event) -> frameTick(framePeriod));
+    frameTimer.setCoalesce(true);
+    frameTimer.start();
     new Thread(() -> updateLoop()).start();
   }
 
   /**
-   * This method is regularly called.  The observer implementation
-   * should check if the RP2040 Emulator's data, that it displays,
-   * has changed, and if so, properly update its view.
+   * This method is regularly called by the update thread.  The
+   * observer implementation should check if the RP2040 Emulator's
+   * data, that it displays, has changed, and if so, properly update
+   * its view's state.  Painting is done separately.
+   *
+   * @see #paintView
    */
   protected abstract void updateView();
 
+  /**
+   * This method is called on the event dispatch thread, if the view
+   * has been updated since the last call of this method, but at most
+   * as many times per second as specified by the frame rate.  The
+   * default implementation just repaints the whole frame.
+   */
+  protected void paintView()
+  {
+    repaint();
+  }
+
+  /**
+   * Called by the update thread after each update for marking the
+   * view as dirty.  If the view is still dirty from a previous
+   * update, that has not yet been painted, both updates are
+   * coalesced into a single frame.
+   */
+  private void markViewDirty()
+  {
+    if (viewDirty.getAndSet(true)) {
+      coalescedFrames.incrementAndGet();
+    }
+  }
+
+  private void frameTick(final int framePeriod)
+  {
+    final long now = System.currentTimeMillis();
+    final boolean dirty = viewDirty.getAndSet(false);
+    if (dirty) {
+      if (lastFrameTick != 0) {
+        /*
+         * Frame timer events that have not been delivered in time
+         * since the event dispatch thread was busy, are dropped
+         * frames.
+         */
+        final long missedTicks = (now - lastFrameTick) / framePeriod - 1;
+        if (missedTicks > 0) {
+          droppedFrames += missedTicks;
+        }
+      }
+      paintView();
+      paintedFrames++;
+    }
+    lastFrameTick = now;
+    if (now - lastFrameStatusUpdate >= FRAME_STATUS_PERIOD) {
+      lastFrameStatusUpdate = now;
+      final String frameStatus =
+        String.format("frames: %d painted, %d coalesced, %d dropped",
+                      paintedFrames, coalescedFrames.get(), droppedFrames);
+      lbFrameStatus.setText(frameStatus);
+    }
+  }
+
   private void updateLoop()
   {
     final int addressPhase0 =
@@ -360,7 +507,7 @@ public abstract class GUIObserver extends JFrame
           updateLoopClient.waitAddress(addressPhase1, expectedValue, mask,
                                        cyclesTimeout, millisTimeoutPhase1);
           updateView();
-          SwingUtilities.invokeLater(() -> repaint());
+          markViewDirty();
           updateLoopClient.waitAddress(addressPhase0, expectedValue, mask,
                                        cyclesTimeout, millisTimeoutPhase0);
         }
@@ -0,0 +1,365 @@
+/*
+ * @(#)ObserverDataHub.java 1.00 26/10/19
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio.observer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import org.soundpaint.rp2040pio.AddressSpace;
+import org.soundpaint.rp2040pio.Probe;
+import org.soundpaint.rp2040pio.WriteBatch;
+
+/**
+ * Per-process hub for sharing register values among multiple
+ * observer panels.  Rather than having each panel fetch its
+ * registers on its own, each panel reads registers via its own
+ * client of this hub.  Upon each refresh, the hub fetches the union
+ * of the addresses registered by all of its clients in a single
+ * batch, and publishes the values as immutable snapshot to all
+ * clients.  Thereby, the number of requests to a remote emulator per
+ * refresh stays constant, no matter how many panels are open and how
+ * many addresses they share.
+ *
+ * Clients register addresses either explicitly, or implicitly by
+ * reading an address that is not yet part of the current snapshot.
+ * In the latter case, the value is read directly from the emulator,
+ * and the address is included in the batch of subsequent refreshes.
+ *
+ * As soon as any client modifies the emulator's state, e.g. by
+ * writing a register, the current snapshot is outdated.  Therefore,
+ * until the next refresh, all clients read directly from the
+ * emulator, such that an action that reads back a register right
+ * after writing it sees the written value.
+ */
+public class ObserverDataHub
+{
+  /**
+   * Immutable set of register values fetched at once.
+   */
+  public static class Snapshot
+  {
+    private static final Snapshot EMPTY = new Snapshot(new int[0], new int[0]);
+
+    private final int[] addresses;
+    private final int[] values;
+
+    private Snapshot()
+    {
+      throw new UnsupportedOperationException("unsupported empty constructor");
+    }
+
+    /**
+     * @param addresses Addresses in ascending order.
+     * @param values Value of each address.
+     */
+    private Snapshot(final int[] addresses, final int[] values)
+    {
+      this.addresses = addresses;
+      this.values = values;
+    }
+
+    public int size()
+    {
+      return addresses.length;
+    }
+
+    public boolean contains(final int address)
+    {
+      return Arrays.binarySearch(addresses, address) >= 0;
+    }
+
+    /**
+     * Returns the value of the specified address.
+     *
+     * @throws IllegalArgumentException If the address is not part
+     * of this snapshot.
+     */
+    public int getValue(final int address)
+    {
+      final int index = Arrays.binarySearch(addresses, address);
+      if (index < 0) {
+        final String message =
+          String.format("address not in snapshot: 0x%08x", address);
+        throw new IllegalArgumentException(message);
+      }
+      return values[index];
+    }
+  }
+
+  /**
+   * Address space view of a single panel.  Reads are served from the
+   * most recent snapshot published by the hub, unless the snapshot
+   * has been invalidated by a modification, while all other
+   * operations are forwarded to the hub's underlying address space.
+   */
+  public class Client extends AddressSpace
+  {
+    private final TreeSet<Integer> registeredAddresses;
+    private volatile Snapshot snapshot;
+
+    private Client()
+    {
+      registeredAddresses = new TreeSet<Integer>();
+      snapshot = Snapshot.EMPTY;
+    }
+
+    /**
+     * Registers the specified address for being fetched upon each
+     * refresh of the hub.
+     */
+    public void register(final int address)
+    {
+      checkAddressAligned(address);
+      synchronized(ObserverDataHub.this) {
+        registeredAddresses.add(address);
+      }
+    }
+
+    /**
+     * Unregisters all addresses of this client and removes this
+     * client from the hub, e.g. when its panel has been closed.
+     */
+    public void close()
+    {
+      removeClient(this);
+    }
+
+    /**
+     * Returns the snapshot most recently published to this client.
+     */
+    public Snapshot getSnapshot()
+    {
+      return snapshot;
+    }
+
+    private void publish(final Snapshot snapshot)
+    {
+      this.snapshot = snapshot;
+    }
+
+    @Override
+    public String getEmulatorInfo() throws IOException
+    {
+      return memory.getEmulatorInfo();
+    }
+
+    @Override
+    public boolean providesAddress(final int address) throws IOException
+    {
+      return memory.providesAddress(address);
+    }
+
+    @Override
+    public String getRegisterSetId(final int address) throws IOException
+    {
+      return memory.getRegisterSetId(address);
+    }
+
+    @Override
+    public String getAddressLabel(final int address) throws IOException
+    {
+      return memory.getAddressLabel(address);
+    }
+
+    @Override
+    public int readAddress(final int address) throws IOException
+    {
+      final Snapshot snapshot = this.snapshot;
+      if (snapshot.contains(address)) {
+        return snapshot.getValue(address);
+      }
+      register(address);
+      return memory.readAddress(address);
+    }
+
+    @Override
+    public void writeAddressMasked(final int address, final int bits,
+                                   final int mask, final boolean xor)
+      throws IOException
+    {
+      try {
+        memory.writeAddressMasked(address, bits, mask, xor);
+      } finally {
+        invalidate();
+      }
+    }
+
+    @Override
+    public void writeAddressesMasked(final WriteBatch batch)
+      throws IOException
+    {
+      try {
+        memory.writeAddressesMasked(batch);
+      } finally {
+        invalidate();
+      }
+    }
+
+    @Override
+    public void writeInstructionMemory(final int pioNum, final int offset,
+                                       final short[] instructions)
+      throws IOException
+    {
+      try {
+        memory.writeInstructionMemory(pioNum, offset, instructions);
+      } finally {
+        invalidate();
+      }
+    }
+
+    @Override
+    public int waitAddress(final int address, final int expectedValue,
+                           final int mask,
+                           final long cyclesTimeout, final long millisTimeout)
+      throws IOException
+    {
+      return memory.waitAddress(address, expectedValue, mask,
+                                cyclesTimeout, millisTimeout);
+    }
+
+    @Override
+    public void runCycles(final Probe[] probes, final int cycles,
+                          final int chunkCycles,
+                          final SampleConsumer consumer)
+      throws IOException
+    {
+      try {
+        memory.runCycles(probes, cycles, chunkCycles, consumer);
+      } finally {
+        invalidate();
+      }
+    }
+  }
+
+  private final AddressSpace memory;
+  private final List<Client> clients;
+  private Snapshot snapshot;
+  private int modificationCount;
+
+  private ObserverDataHub()
+  {
+    throw new UnsupportedOperationException("unsupported empty constructor");
+  }
+
+  public ObserverDataHub(final AddressSpace memory)
+  {
+    if (memory == null) {
+      throw new NullPointerException("memory");
+    }
+    this.memory = memory;
+    clients = new ArrayList<Client>();
+    snapshot = Snapshot.EMPTY;
+    modificationCount = 0;
+  }
+
+  /**
+   * Creates a new client, typically one for each panel.
+   */
+  public synchronized Client createClient()
+  {
+    final Client client = new Client();
+    client.publish(snapshot);
+    clients.add(client);
+    return client;
+  }
+
+  private synchronized void removeClient(final Client client)
+  {
+    clients.remove(client);
+  }
+
+  /**
+   * Returns the most recently fetched snapshot.
+   */
+  public synchronized Snapshot getSnapshot()
+  {
+    return snapshot;
+  }
+
+  /**
+   * Called after a client has modified the emulator's state.  Until
+   * the next refresh, clients read through to the emulator rather
+   * than from the outdated snapshot.
+   */
+  private synchronized void invalidate()
+  {
+    modificationCount++;
+    for (final Client client : clients) {
+      client.publish(Snapshot.EMPTY);
+    }
+  }
+
+  private synchronized int[] collectAddresses()
+  {
+    final TreeSet<Integer> union = new TreeSet<Integer>();
+    for (final Client client : clients) {
+      union.addAll(client.registeredAddresses);
+    }
+    final int[] addresses = new int[union.size()];
+    int index = 0;
+    for (final int address : union) {
+      addresses[index++] = address;
+    }
+    return addresses;
+  }
+
+  /**
+   * Fetches the union of all addresses registered by any client in
+   * a single batch, and publishes the values as new snapshot to all
+   * clients, unless a client has modified the emulator's state
+   * while the values were being fetched.  Typically called once per
+   * refresh of the view, before the panels update themselves.
+   */
+  public Snapshot refresh() throws IOException
+  {
+    final int modificationCount;
+    synchronized(this) {
+      modificationCount = this.modificationCount;
+    }
+    final int[] addresses = collectAddresses();
+    final int[] values = memory.readAddresses(addresses);
+    final Snapshot snapshot = new Snapshot(addresses, values);
+    synchronized(this) {
+      this.snapshot = snapshot;
+      if (modificationCount != this.modificationCount) {
+        // modified while fetching => keep reading through
+        return snapshot;
+      }
+      for (final Client client : clients) {
+        client.publish(snapshot);
+      }
+    }
+    return snapshot;
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -242,10 +242,11 @@ public class CodeSmViewPanel extends JPanel
     final boolean haveExecd = (execdInstr & 0x00010000) != 0x0;
     final int execdOpCode = haveExecd ? execdInstr & 0xffff : 0x0;
 
+    final PIOSDK.InstructionInfo[] instructionInfos =
+      pioSdk.getMemoryInstructions(smNum, true, true);
     for (int address = 0; address < Constants.MEMORY_SIZE; address++) {
       final boolean isCurrentAddress = address == pc;
-      final PIOSDK.InstructionInfo instructionInfo =
-        pioSdk.getMemoryInstruction(smNum, address, true, true);
+      final PIOSDK.InstructionInfo instructionInfo = instructionInfos[address];
       final boolean isAllocated = ((memoryAllocation >>> address) & 0x1) != 0x0;
       final boolean isWrap = address == wrap;
       final boolean isWrapTarget = address == wrapTarget;
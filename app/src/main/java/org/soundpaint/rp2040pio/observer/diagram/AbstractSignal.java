@@ -24,37 +24,17 @@
  */
 package org.soundpaint.rp2040pio.observer.diagram;
 
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+import org.soundpaint.rp2040pio.Probe;
 
 public abstract class AbstractSignal<T> implements Signal
 {
-  private static class SignalRecord<T>
-  {
-    private T value;
-    private int notChangedSince;
-
-    private SignalRecord()
-    {
-      throw new UnsupportedOperationException("unsupported empty constructor");
-    }
-
-    private SignalRecord(final T value, final int notChangedSince)
-    {
-      this.value = value;
-      this.notChangedSince = notChangedSince;
-    }
-
-    @Override
-    public String toString()
-    {
-      return String.format("SignalRecord(value=%s,notChangedSince=%d",
-                           value, notChangedSince);
-    }
-  }
-
-  private final List<SignalRecord<T>> signalRecords;
+  private final SignalHistory history;
+  private volatile SignalStore store;
+  private volatile CaptureFile.ColumnWriter captureColumn;
   private final SignalRendering.SignalParams signalParams;
   private boolean visible;
 
@@ -66,7 +46,9 @@ public abstract class AbstractSignal<T> implements Signal
   public AbstractSignal(final SignalRendering.SignalParams signalParams)
   {
     Objects.requireNonNull(signalParams);
-    this.signalRecords = new ArrayList<SignalRecord<T>>();
+    this.history = new SignalHistory();
+    store = history;
+    captureColumn = null;
     this.signalParams = signalParams;
     visible = false;
   }
@@ -78,54 +60,160 @@ public abstract class AbstractSignal<T> implements Signal
 
   @Override
   public void reset() {
-    signalRecords.clear();
+    history.clear();
+    store = history;
     // keep visibility unmodified
   }
 
   @Override
   public String getLabel() { return signalParams.getLabel(); }
 
+  /**
+   * Converts the specified non-null value into its primitive
+   * representation for storage in this signal's history.  Signals
+   * that record only null values need not override this method.
+   */
+  protected long encodeValue(final T value)
+  {
+    throw new UnsupportedOperationException("signal without values");
+  }
+
+  /**
+   * Converts the specified primitive representation as returned by
+   * method <code>encodeValue()</code> back into the value.
+   */
+  protected T decodeValue(final long value)
+  {
+    throw new UnsupportedOperationException("signal without values");
+  }
+
   protected void record(final T value, final boolean enforceChanged)
   {
-    final int size = signalRecords.size();
-    final T previousValue =
-      size > 0 ? signalRecords.get(size - 1).value : null;
-    final int previousNotChangedSince =
-      size > 0 ? signalRecords.get(size - 1).notChangedSince : 0;
-    final int notChangedSince =
-      enforceChanged ||
-      ((value == null) && (previousValue != null)) ||
-      ((value != null) && !value.equals(previousValue)) ?
-      0 : previousNotChangedSince + 1;
-    final SignalRecord<T> signalRecord =
-      new SignalRecord<T>(value, notChangedSince);
-    signalRecords.add(signalRecord);
+    final long encodedValue =
+      value != null ? encodeValue(value) : SignalHistory.NULL_VALUE;
+    history.record(encodedValue, enforceChanged);
+    final CaptureFile.ColumnWriter captureColumn = this.captureColumn;
+    if (captureColumn != null) {
+      captureColumn.record(encodedValue, enforceChanged);
+    }
+  }
+
+  /**
+   * Additionally writes each recorded value to the specified column
+   * of a capture file, or stops doing so, if the column is null.
+   */
+  @Override
+  public void setCaptureColumn(final CaptureFile.ColumnWriter column)
+  {
+    captureColumn = column;
+  }
+
+  /**
+   * Replaces the recorded values by the values of the specified
+   * store, e.g. a column of a capture file, until the signal is
+   * reset.
+   */
+  @Override
+  public void setStore(final SignalStore store)
+  {
+    if (store == null) {
+      throw new NullPointerException("store");
+    }
+    this.store = store;
+  }
+
+  /**
+   * Records a value from the specified source of sampled register
+   * values.  This default implementation is suitable for signals that
+   * do not depend on any register values; it ignores the source and
+   * just calls method <code>record()</code>.
+   */
+  @Override
+  public void record(final SampleSource source) throws IOException
+  {
+    record();
+  }
+
+  /**
+   * Adds all probes that this signal records its values from to the
+   * specified set.  This default implementation adds nothing.
+   */
+  @Override
+  public void collectProbes(final Set<Probe> probes)
+  {
+  }
+
+  @Override
+  public void publish()
+  {
+    store.publish();
   }
 
   @Override
   public int size()
   {
-    return signalRecords.size();
+    return store.size();
+  }
+
+  @Override
+  public void dropCycles(final int count)
+  {
+    store.drop(count);
+  }
+
+  @Override
+  public long getDroppedCycles()
+  {
+    return store.getDroppedCycles();
+  }
+
+  @Override
+  public long getMemoryUsage()
+  {
+    return store.getMemoryUsage();
   }
 
   public boolean next(final int cycle)
   {
-    return cycle < signalRecords.size() - 1;
+    return cycle < store.size() - 1;
   }
 
   public T getValue(final int index)
   {
-    return
-      index < 0 ?
-      null :
-      (index >= size() ? null : signalRecords.get(index).value);
+    final long value = store.getValue(index);
+    return SignalHistory.isNull(value) ? null : decodeValue(value);
+  }
+
+  /**
+   * Returns a summary of the specified range of cycles, from
+   * fromCycle inclusive to toCycle exclusive.  Since tiles of the
+   * same signal may be rendered concurrently, a new span is created
+   * for each call.
+   */
+  protected SignalSummary.Span getSummary(final int fromCycle,
+                                          final int toCycle)
+  {
+    final SignalSummary.Span span = new SignalSummary.Span();
+    store.summarize(fromCycle, toCycle, span);
+    return span;
+  }
+
+  @Override
+  public long getNotChangedSince(final int cycle)
+  {
+    return store.getNotChangedSince(cycle);
+  }
+
+  @Override
+  public int findNext(final int cycle, final SignalCondition condition)
+  {
+    return store.findNext(cycle, condition);
   }
 
   @Override
-  public int getNotChangedSince(final int cycle)
+  public int findPrevious(final int cycle, final SignalCondition condition)
   {
-    return
-      cycle >= 0 ? signalRecords.get(cycle).notChangedSince : 0;
+    return store.findPrevious(cycle, condition);
   }
 
   public boolean changed(final int cycle)
@@ -152,7 +240,7 @@ public abstract class AbstractSignal<T> implements Signal
   {
     final String previousToolTipText = getToolTipText(cycle - 1);
     if (previousToolTipText != null) {
-      final int previousCycles = getNotChangedSince(cycle - 1) + 1;
+      final long previousCycles = getNotChangedSince(cycle - 1) + 1;
       toolTips.add(new ToolTip((int)(xStart - previousCycles * zoom),
                                (int)(yBottom - getSignalHeight()),
                                (int)xStart - 1, (int)yBottom,
@@ -162,7 +250,7 @@ public abstract class AbstractSignal<T> implements Signal
       // print label as preview for not yet finished value
       final String toolTipText = getToolTipText(cycle);
       if (toolTipText != null) {
-        final int cycles = getNotChangedSince(cycle) - 1;
+        final long cycles = getNotChangedSince(cycle) - 1;
         toolTips.add(new ToolTip((int)(xStart - cycles * zoom),
                                  (int)(yBottom - getSignalHeight()),
                                  (int)xStart - 1, (int)yBottom,
@@ -187,9 +275,9 @@ public abstract class AbstractSignal<T> implements Signal
   public String toString()
   {
     final StringBuffer values = new StringBuffer();
-    for (final SignalRecord<T> record : signalRecords) {
+    for (int cycle = 0; cycle < store.size(); cycle++) {
       if (values.length() > 0) values.append(", ");
-      values.append(record.value);
+      values.append(getValue(cycle));
     }
     return String.format("Signal[label=%s, values={%s}]", getLabel(), values);
   }
@@ -27,12 +27,16 @@ package org.soundpaint.rp2040pio.observer.diagram;
 import java.awt.Dimension;
 import java.awt.event.KeyEvent;
 import java.io.IOException;
+import java.util.Hashtable;
 import javax.swing.Box;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
+import javax.swing.JComponent;
 import javax.swing.JLabel;
 import javax.swing.JSlider;
 import javax.swing.JSpinner;
+import javax.swing.JTextField;
+import javax.swing.JToggleButton;
 import javax.swing.SpinnerModel;
 import javax.swing.SpinnerNumberModel;
 import org.soundpaint.rp2040pio.SwingUtils;
@@ -48,6 +52,7 @@ public class ActionPanel
   private static final ImageIcon iconScript;
 
   private /*final*/ JSpinner spCycles;
+  private /*final*/ JToggleButton btFreeze;
 
   static {
     try {
@@ -72,6 +77,15 @@ public class ActionPanel
     return (Integer)spCycles.getValue();
   }
 
+  /**
+   * Reflects the frozen state of the capture window, that may also
+   * have been changed by a freeze trigger.
+   */
+  public void setFrozen(final boolean frozen)
+  {
+    btFreeze.setSelected(frozen);
+  }
+
   @Override
   protected void addAdditionalButtons(final Diagram diagram)
   {
@@ -87,11 +101,16 @@ public class ActionPanel
     add(Box.createHorizontalGlue());
     btEmulate.addActionListener((event) -> diagram.applyCycles());
     addButtonClear(diagram);
+    add(Box.createHorizontalStrut(5));
+    addButtonFreeze(diagram);
     add(Box.createHorizontalStrut(15));
     add(Box.createHorizontalGlue());
     addZoomControl(diagram);
     add(Box.createHorizontalStrut(15));
     add(Box.createHorizontalGlue());
+    addSearchControl(diagram);
+    add(Box.createHorizontalStrut(15));
+    add(Box.createHorizontalGlue());
   }
 
   private void addButtonLoad(final Diagram diagram)
@@ -130,6 +149,75 @@ public class ActionPanel
     add(btClear);
   }
 
+  private void addButtonFreeze(final Diagram diagram)
+  {
+    btFreeze = new JToggleButton("Freeze");
+    btFreeze.setMnemonic(KeyEvent.VK_F);
+    btFreeze.setToolTipText(TOOLTIP_TEXT_FREEZE);
+    btFreeze.addActionListener((event) ->
+                               diagram.setFrozen(btFreeze.isSelected()));
+    add(btFreeze);
+  }
+
+  private void addSearchControl(final Diagram diagram)
+  {
+    final JLabel lbSearch = new JLabel("Search");
+    lbSearch.setDisplayedMnemonic(KeyEvent.VK_S);
+    lbSearch.setToolTipText(TOOLTIP_TEXT_SEARCH);
+    add(lbSearch);
+    add(Box.createHorizontalStrut(5));
+    final JTextField tfSearch = new JTextField(16);
+    tfSearch.setMaximumSize(new Dimension(300,
+                                          tfSearch.getPreferredSize().height));
+    tfSearch.setToolTipText(TOOLTIP_TEXT_SEARCH);
+    lbSearch.setLabelFor(tfSearch);
+    add(tfSearch);
+    add(Box.createHorizontalStrut(5));
+    final JButton btPrevious = new JButton("◀");
+    btPrevious.setToolTipText(TOOLTIP_TEXT_SEARCH_PREVIOUS);
+    add(btPrevious);
+    final JButton btNext = new JButton("▶");
+    btNext.setToolTipText(TOOLTIP_TEXT_SEARCH_NEXT);
+    add(btNext);
+    final JToggleButton btTrigger = new JToggleButton("Trigger");
+    btTrigger.setMnemonic(KeyEvent.VK_T);
+    btTrigger.setToolTipText(TOOLTIP_TEXT_SEARCH_TRIGGER);
+    add(btTrigger);
+    add(Box.createHorizontalStrut(5));
+    final JLabel lbResult = new JLabel();
+    add(lbResult);
+    btPrevious.addActionListener((event) ->
+                                 search(diagram, tfSearch, lbResult, false));
+    btNext.addActionListener((event) ->
+                             search(diagram, tfSearch, lbResult, true));
+    tfSearch.addActionListener((event) ->
+                               search(diagram, tfSearch, lbResult, true));
+    btTrigger.addActionListener((event) -> {
+        final String query = btTrigger.isSelected() ? tfSearch.getText() : null;
+        btTrigger.setSelected(diagram.setFreezeTrigger(query));
+      });
+  }
+
+  private static void search(final Diagram diagram, final JTextField tfSearch,
+                             final JLabel lbResult, final boolean forward)
+  {
+    final String result = diagram.search(tfSearch.getText(), forward);
+    lbResult.setText(result != null ? result : "");
+  }
+
+  /**
+   * Slider values from ZOOM_MIN upwards directly specify the number
+   * of pixels per cycle.  Each slider step below ZOOM_MIN halves the
+   * number of pixels per cycle.
+   */
+  private static double sliderValueToZoom(final int value)
+  {
+    return
+      value >= SignalPanel.ZOOM_MIN ?
+      value :
+      (double)SignalPanel.ZOOM_MIN / (1 << (SignalPanel.ZOOM_MIN - value));
+  }
+
   private void addZoomControl(final Diagram diagram)
   {
     final JLabel lbZoom = new JLabel("Zoom");
@@ -138,14 +226,21 @@ public class ActionPanel
     add(lbZoom);
     add(Box.createHorizontalStrut(5));
     final JSlider slZoom =
-      new JSlider(SignalPanel.ZOOM_MIN, SignalPanel.ZOOM_MAX,
-                  SignalPanel.ZOOM_DEFAULT);
+      new JSlider(SignalPanel.ZOOM_MIN - SignalPanel.ZOOM_OUT_STEPS,
+                  SignalPanel.ZOOM_MAX, SignalPanel.ZOOM_DEFAULT);
     lbZoom.setLabelFor(slZoom);
-    slZoom.setMajorTickSpacing(SignalPanel.ZOOM_MIN);
+    slZoom.setMajorTickSpacing(SignalPanel.ZOOM_MIN / 2);
     slZoom.setPaintTicks(true);
-    slZoom.setLabelTable(slZoom.createStandardLabels(SignalPanel.ZOOM_MIN));
+    final Hashtable<Integer, JComponent> labels =
+      slZoom.createStandardLabels(SignalPanel.ZOOM_MIN, SignalPanel.ZOOM_MIN);
+    labels.put(SignalPanel.ZOOM_MIN - 8, new JLabel("1/16"));
+    labels.put(SignalPanel.ZOOM_MIN - 16, new JLabel("1/4K"));
+    labels.put(SignalPanel.ZOOM_MIN - 24, new JLabel("1/1M"));
+    slZoom.setLabelTable(labels);
     slZoom.setPaintLabels(true);
-    slZoom.addChangeListener((event) -> diagram.setZoom(slZoom.getValue()));
+    slZoom.addChangeListener((event) ->
+                             diagram.setZoom(sliderValueToZoom(slZoom.
+                                                               getValue())));
     slZoom.setToolTipText(TOOLTIP_TEXT_ZOOM);
     add(slZoom);
   }
@@ -0,0 +1,1170 @@
+/*
+ * @(#)CaptureFile.java 1.00 26/10/19
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio.observer.diagram;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.soundpaint.rp2040pio.sdk.SDK;
+
+/**
+ * Columnar file format for recorded signals, written while
+ * recording and viewed through memory mapping, such that captures
+ * of billions of cycles need not fit into the heap.
+ *
+ * The file starts with a header that holds the magic number, the
+ * format version, the number of cycles per segment, and for each
+ * signal (or column) the metadata for re-creating the signal, i.e.
+ * its kind, label, value rendering, register address, bit range,
+ * PIO and state machine.  The header is followed by segments of
+ * cycles.  Each segment holds the runs of unchanged values of each
+ * signal within the segment's cycles, one column after the other.
+ * Within a column, run starts are delta encoded and values are
+ * delta encoded against the previous value of the same column, both
+ * as variable-length integers.  Each column of a segment starts
+ * with the run that covers the segment's first cycle, even if that
+ * run started in a previous segment, such that each column of each
+ * segment can be decoded on its own.
+ *
+ * When recording has completed, a fixed-size index entry per column
+ * and segment is appended, followed by a fixed-size trailer.  An
+ * index entry holds the file offset of the column data, the number
+ * of runs, the first change within the segment, and a summary of
+ * the segment's values, such that summarizing or searching many
+ * cycles need not decode each segment.  Hence, opening a capture
+ * reads only the header and the trailer, and viewing a range of
+ * cycles touches only the pages of the index and segments of that
+ * range.
+ *
+ * @see SignalHistory
+ */
+public class CaptureFile
+{
+  /**
+   * Recommended file name extension of capture files.
+   */
+  public static final String EXTENSION = ".rpcap";
+
+  /**
+   * Default number of cycles per segment, i.e. cycles between two
+   * subsequent entries of the cycle index.
+   */
+  public static final int DEFAULT_SEGMENT_CYCLES = 65536;
+
+  private static final int MAGIC = 0x52504346; // "RPCF"
+  private static final int VERSION = 1;
+
+  private static final int ENTRY_OFFSET = 0;
+  private static final int ENTRY_LENGTH = 8;
+  private static final int ENTRY_RUNS = 12;
+  private static final int ENTRY_FIRST_CHANGE = 16;
+  private static final int ENTRY_MIN = 20;
+  private static final int ENTRY_MAX = 28;
+  private static final int ENTRY_FLAGS = 36;
+  private static final int ENTRY_BYTES = 37;
+
+  private static final int TRAILER_BYTES = 20;
+
+  private static final byte FLAG_DEFINED = 0x1;
+  private static final byte FLAG_UNDEFINED = 0x2;
+  private static final byte FLAG_CHANGED = 0x4;
+
+  /**
+   * Token that represents an undefined value in column data.  Tokens
+   * of defined values are even.
+   */
+  private static final long NULL_TOKEN = 0x1;
+
+  /**
+   * Size of each memory-mapped window of the file.
+   */
+  private static final int WINDOW_BITS = 30;
+
+  /**
+   * Maximum number of decoded segments to keep per column.
+   */
+  private static final int SEGMENT_CACHE_SIZE = 16;
+
+  public enum Kind
+  {
+    CLOCK, RULER, BIT, VALUE, INTERNAL;
+  };
+
+  /**
+   * Metadata of a captured signal.
+   */
+  public static class SignalInfo
+  {
+    private final Kind kind;
+    private final String label;
+    private final SignalRendering rendering;
+    private final int address;
+    private final int msb;
+    private final int lsb;
+    private final int pioNum;
+    private final int smNum;
+
+    private SignalInfo()
+    {
+      throw new UnsupportedOperationException("unsupported empty constructor");
+    }
+
+    private SignalInfo(final Kind kind, final String label,
+                       final SignalRendering rendering,
+                       final int address, final int msb, final int lsb,
+                       final int pioNum, final int smNum)
+    {
+      Objects.requireNonNull(kind);
+      Objects.requireNonNull(label);
+      this.kind = kind;
+      this.label = label;
+      this.rendering = rendering;
+      this.address = address;
+      this.msb = msb;
+      this.lsb = lsb;
+      this.pioNum = pioNum;
+      this.smNum = smNum;
+    }
+
+    /**
+     * Creates the metadata of the specified signal.
+     *
+     * @param internal If true, the signal is an internal signal of
+     * the model, as used for instruction rendering.
+     */
+    public static SignalInfo fromSignal(final Signal signal,
+                                        final boolean internal)
+    {
+      if (signal instanceof ClockSignal) {
+        return new SignalInfo(Kind.CLOCK, signal.getLabel(), null,
+                              -1, -1, -1, -1, -1);
+      }
+      if (signal instanceof CycleRuler) {
+        return new SignalInfo(Kind.RULER, signal.getLabel(), null,
+                              -1, -1, -1, -1, -1);
+      }
+      if (!(signal instanceof ValuedSignal)) {
+        throw new IllegalArgumentException("unsupported signal: " +
+                                           signal.getLabel());
+      }
+      final ValuedSignal<?> valuedSignal = (ValuedSignal<?>)signal;
+      final SignalRendering.SignalParams params =
+        valuedSignal.getSignalParams();
+      final Kind kind =
+        internal ? Kind.INTERNAL :
+        (signal instanceof RegisterBitSignal ? Kind.BIT : Kind.VALUE);
+      return new SignalInfo(kind, signal.getLabel(),
+                            valuedSignal.getValueRendering(),
+                            params.getAddress(),
+                            params.getMsb(), params.getLsb(),
+                            params.getPioNum(), params.getSmNum());
+    }
+
+    public Kind getKind() { return kind; }
+
+    public String getLabel() { return label; }
+
+    public int getAddress() { return address; }
+
+    /**
+     * Creates a signal as described by this metadata.  Since
+     * captured values are already filtered, the signal has no
+     * display filters.
+     */
+    public Signal createSignal(final DiagramModel model, final SDK sdk)
+      throws IOException
+    {
+      switch (kind) {
+      case CLOCK:
+        return SignalFactory.createClockSignal(label);
+      case RULER:
+        return SignalFactory.createRuler(label);
+      case BIT:
+        return
+          SignalFactory.createFromRegister(model, sdk, label, address, msb,
+                                           null, pioNum, smNum);
+      case VALUE:
+        return
+          SignalFactory.createFromRegister(model, sdk, label, address,
+                                           msb, lsb, rendering,
+                                           null, pioNum, smNum);
+      default:
+        return SignalFactory.createInternal(model, sdk, label, address);
+      }
+    }
+
+    private void write(final DataOutputStream out) throws IOException
+    {
+      out.writeByte(kind.ordinal());
+      out.writeUTF(label);
+      out.writeUTF(rendering != null ? rendering.name() : "");
+      out.writeInt(address);
+      out.writeByte(msb);
+      out.writeByte(lsb);
+      out.writeByte(pioNum);
+      out.writeByte(smNum);
+    }
+
+    private static SignalInfo read(final DataInputStream in)
+      throws IOException
+    {
+      final int kindIndex = in.readUnsignedByte();
+      if (kindIndex >= Kind.values().length) {
+        throw new IOException("unknown signal kind: " + kindIndex);
+      }
+      final Kind kind = Kind.values()[kindIndex];
+      final String label = in.readUTF();
+      final String renderingName = in.readUTF();
+      final SignalRendering rendering;
+      try {
+        rendering =
+          renderingName.isEmpty() ? null :
+          SignalRendering.valueOf(renderingName);
+      } catch (final IllegalArgumentException e) {
+        throw new IOException("unknown signal rendering: " + renderingName);
+      }
+      final int address = in.readInt();
+      final int msb = in.readByte();
+      final int lsb = in.readByte();
+      final int pioNum = in.readByte();
+      final int smNum = in.readByte();
+      return new SignalInfo(kind, label, rendering, address, msb, lsb,
+                            pioNum, smNum);
+    }
+  }
+
+  /**
+   * Growable buffer for encoding variable-length integers.
+   */
+  private static class VarIntBuffer extends ByteArrayOutputStream
+  {
+    private void writeVarLong(final long value)
+    {
+      long remaining = value;
+      while ((remaining & ~0x7fL) != 0) {
+        write((int)((remaining & 0x7f) | 0x80));
+        remaining >>>= 7;
+      }
+      write((int)remaining);
+    }
+  }
+
+  private static long zigZag(final long value)
+  {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  private static long unZigZag(final long value)
+  {
+    return (value >>> 1) ^ -(value & 0x1);
+  }
+
+  private static long readVarLong(final ByteBuffer buffer)
+  {
+    long value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = buffer.get();
+      value |= (long)(b & 0x7f) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return value;
+  }
+
+  /**
+   * Writes a capture file in streaming fashion: Values are appended
+   * cycle by cycle to the columns, and each segment is written as
+   * soon as its last cycle has been completed.  Only the index
+   * entries, i.e. a few dozen bytes per column and segment, are kept
+   * until the file is closed.
+   */
+  public static class Writer implements Closeable
+  {
+    private final String path;
+    private final DataOutputStream out;
+    private final int segmentCycles;
+    private final List<ColumnWriter> columns;
+    private final DataOutputStream index;
+    private final ByteArrayOutputStream indexBytes;
+    private final VarIntBuffer columnData;
+    private long position;
+    private int cycles;
+    private int segmentCount;
+    private boolean closed;
+
+    private Writer()
+    {
+      throw new UnsupportedOperationException("unsupported empty constructor");
+    }
+
+    public Writer(final File file, final List<SignalInfo> signalInfos)
+      throws IOException
+    {
+      this(file, signalInfos, DEFAULT_SEGMENT_CYCLES);
+    }
+
+    public Writer(final File file, final List<SignalInfo> signalInfos,
+                  final int segmentCycles)
+      throws IOException
+    {
+      if (file == null) {
+        throw new NullPointerException("file");
+      }
+      if (signalInfos == null) {
+        throw new NullPointerException("signalInfos");
+      }
+      if (segmentCycles <= 0) {
+        throw new IllegalArgumentException("segmentCycles <= 0: " +
+                                           segmentCycles);
+      }
+      path = file.getPath();
+      this.segmentCycles = segmentCycles;
+      columns = new ArrayList<ColumnWriter>();
+      for (int column = 0; column < signalInfos.size(); column++) {
+        columns.add(new ColumnWriter(this));
+      }
+      indexBytes = new ByteArrayOutputStream();
+      index = new DataOutputStream(indexBytes);
+      columnData = new VarIntBuffer();
+      out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream
+                                                      (file)));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(segmentCycles);
+      out.writeInt(signalInfos.size());
+      for (final SignalInfo signalInfo : signalInfos) {
+        signalInfo.write(out);
+      }
+      position = out.size();
+      cycles = 0;
+      segmentCount = 0;
+      closed = false;
+    }
+
+    public String getPath() { return path; }
+
+    /**
+     * Returns the writer for the values of the specified column,
+     * with columns numbered in the order of the signal metadata.
+     */
+    public ColumnWriter getColumn(final int column)
+    {
+      return columns.get(column);
+    }
+
+    /**
+     * Returns the number of completed cycles.
+     */
+    public int getCycles() { return cycles; }
+
+    /**
+     * Completes the current cycle.  Columns without a value for this
+     * cycle, e.g. of signals that have been hidden while recording,
+     * are completed with an undefined value.
+     */
+    public void endCycle() throws IOException
+    {
+      if (closed) {
+        throw new IOException("capture file closed: " + path);
+      }
+      if (cycles == Integer.MAX_VALUE) {
+        throw new IOException("capture file full: " + path);
+      }
+      for (final ColumnWriter column : columns) {
+        if (column.recordedCycles <= cycles) {
+          column.record(SignalHistory.NULL_VALUE, false);
+        }
+      }
+      cycles++;
+      if (cycles % segmentCycles == 0) {
+        writeSegment();
+      }
+    }
+
+    private void writeSegment() throws IOException
+    {
+      final int segmentStart = segmentCount * segmentCycles;
+      for (final ColumnWriter column : columns) {
+        columnData.reset();
+        column.encode(segmentStart, cycles, columnData);
+        index.writeLong(position);
+        index.writeInt(columnData.size());
+        column.writeEntry(segmentStart, cycles, index);
+        columnData.writeTo(out);
+        position += columnData.size();
+        column.startSegment();
+      }
+      segmentCount++;
+    }
+
+    /**
+     * Writes the remaining cycles, the index and the trailer, and
+     * closes the file.
+     */
+    @Override
+    public void close() throws IOException
+    {
+      if (closed) return;
+      closed = true;
+      try {
+        if (cycles > segmentCount * segmentCycles) {
+          writeSegment();
+        }
+        index.flush();
+        indexBytes.writeTo(out);
+        out.writeLong(position);
+        out.writeInt(segmentCount);
+        out.writeInt(cycles);
+        out.writeInt(MAGIC);
+      } finally {
+        out.close();
+      }
+    }
+  }
+
+  /**
+   * Collects the runs of a single column of the current segment.
+   * The run semantics equal those of <code>SignalHistory</code>.
+   */
+  public static class ColumnWriter
+  {
+    private final Writer writer;
+    private int[] runStarts;
+    private long[] runValues;
+    private int runCount;
+    private int recordedCycles;
+
+    private ColumnWriter()
+    {
+      throw new UnsupportedOperationException("unsupported empty constructor");
+    }
+
+    private ColumnWriter(final Writer writer)
+    {
+      this.writer = writer;
+      runStarts = new int[16];
+      runValues = new long[16];
+      runCount = 0;
+      recordedCycles = 0;
+    }
+
+    private void appendRun(final int start, final long value)
+    {
+      if (runCount == runStarts.length) {
+        runStarts = Arrays.copyOf(runStarts, 2 * runCount);
+        runValues = Arrays.copyOf(runValues, 2 * runCount);
+      }
+      runStarts[runCount] = start;
+      runValues[runCount] = value;
+      runCount++;
+    }
+
+    /**
+     * Records the encoded value of the current cycle.  Further values
+     * for the same cycle are ignored.
+     *
+     * @param enforceChanged If true, a change is assumed even if the
+     * value is equal to the value of the previous cycle.
+     */
+    public void record(final long value, final boolean enforceChanged)
+    {
+      if (recordedCycles > writer.cycles) return;
+      final int cycle = recordedCycles;
+      if (runCount == 0) {
+        final boolean changed =
+          enforceChanged || !SignalHistory.isNull(value);
+        appendRun(changed ? cycle : cycle - 1, value);
+      } else if (enforceChanged || (runValues[runCount - 1] != value)) {
+        appendRun(cycle, value);
+      }
+      recordedCycles++;
+    }
+
+    private void encode(final int segmentStart, final int segmentStop,
+                        final VarIntBuffer data)
+    {
+      data.writeVarLong(runCount);
+      int previousStart = segmentStart;
+      long previousValue = 0;
+      for (int run = 0; run < runCount; run++) {
+        final int start = runStarts[run];
+        data.writeVarLong(run == 0 ?
+                          zigZag(start - segmentStart) :
+                          start - previousStart);
+        final long value = runValues[run];
+        if (SignalHistory.isNull(value)) {
+          data.writeVarLong(NULL_TOKEN);
+        } else {
+          data.writeVarLong(zigZag(value - previousValue) << 1);
+          previousValue = value;
+        }
+        previousStart = start;
+      }
+    }
+
+    private void writeEntry(final int segmentStart, final int segmentStop,
+                            final DataOutputStream index)
+      throws IOException
+    {
+      final SignalSummary.Span span = new SignalSummary.Span();
+      int firstChange = -1;
+      for (int run = 0; run < runCount; run++) {
+        final int start = runStarts[run];
+        final int stop =
+          run + 1 < runCount ? runStarts[run + 1] : segmentStop;
+        if (stop > segmentStart) {
+          span.addValue(runValues[run]);
+        }
+        if ((start >= segmentStart) && (firstChange < 0)) {
+          firstChange = start;
+          span.addChange();
+        }
+      }
+      index.writeInt(runCount);
+      index.writeInt(firstChange);
+      index.writeLong(span.getMin());
+      index.writeLong(span.getMax());
+      index.writeByte((span.hasDefinedValues() ? FLAG_DEFINED : 0) |
+                      (span.hasUndefinedValues() ? FLAG_UNDEFINED : 0) |
+                      (span.isChanged() ? FLAG_CHANGED : 0));
+    }
+
+    /**
+     * Keeps only the run that continues into the next segment.
+     */
+    private void startSegment()
+    {
+      if (runCount > 0) {
+        runStarts[0] = runStarts[runCount - 1];
+        runValues[0] = runValues[runCount - 1];
+        runCount = 1;
+      }
+    }
+  }
+
+  /**
+   * Runs of a single column of a single segment.
+   */
+  private static class Segment
+  {
+    private final int[] runStarts;
+    private final long[] runValues;
+
+    private Segment()
+    {
+      throw new UnsupportedOperationException("unsupported empty constructor");
+    }
+
+    private Segment(final int runCount)
+    {
+      runStarts = new int[runCount];
+      runValues = new long[runCount];
+    }
+
+    private int getRunCount()
+    {
+      return runStarts.length;
+    }
+
+    private long getMemoryUsage()
+    {
+      return (long)runStarts.length * (Integer.BYTES + Long.BYTES);
+    }
+
+    /**
+     * Returns the index of the run that contains the specified
+     * absolute cycle.
+     */
+    private int findRun(final int absoluteCycle)
+    {
+      int low = 0;
+      int high = runStarts.length - 1;
+      while (low < high) {
+        final int mid = (low + high + 1) >>> 1;
+        if (runStarts[mid] <= absoluteCycle) {
+          low = mid;
+        } else {
+          high = mid - 1;
+        }
+      }
+      return low;
+    }
+  }
+
+  /**
+   * Read-only view of a capture file.  The whole file is mapped into
+   * memory in windows of up to 1 GiB upon opening; only the pages
+   * that are actually accessed are read by the operating system.
+   */
+  public static class Reader implements Closeable
+  {
+    private final String path;
+    private final FileChannel channel;
+    private final ByteBuffer[] windows;
+    private final int segmentCycles;
+    private final List<SignalInfo> signalInfos;
+    private final List<MappedColumn> columns;
+    private final long indexOffset;
+    private final int segmentCount;
+    private final int cycles;
+
+    private Reader()
+    {
+      throw new UnsupportedOperationException("unsupported empty constructor");
+    }
+
+    public Reader(final File file) throws IOException
+    {
+      if (file == null) {
+        throw new NullPointerException("file");
+      }
+      path = file.getPath();
+      channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      try {
+        final long fileSize = channel.size();
+        final int windowCount = (int)((fileSize >>> WINDOW_BITS) + 1);
+        windows = new ByteBuffer[windowCount];
+        for (int window = 0; window < windowCount; window++) {
+          final long start = (long)window << WINDOW_BITS;
+          final long size = Math.min(1L << WINDOW_BITS, fileSize - start);
+          windows[window] =
+            channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        }
+        final DataInputStream in =
+          new DataInputStream(Channels.newInputStream(channel.position(0)));
+        if (in.readInt() != MAGIC) {
+          throw new IOException("not a capture file: " + path);
+        }
+        final int version = in.readInt();
+        if (version != VERSION) {
+          throw new IOException("unsupported capture file version: " +
+                                version);
+        }
+        segmentCycles = in.readInt();
+        final int columnCount = in.readInt();
+        if ((segmentCycles <= 0) || (columnCount < 0)) {
+          throw new IOException("corrupt capture file header: " + path);
+        }
+        final List<SignalInfo> signalInfos = new ArrayList<SignalInfo>();
+        for (int column = 0; column < columnCount; column++) {
+          signalInfos.add(SignalInfo.read(in));
+        }
+        this.signalInfos = Collections.unmodifiableList(signalInfos);
+        if (fileSize < channel.position() + TRAILER_BYTES) {
+          throw new IOException("incomplete capture file: " + path);
+        }
+        final ByteBuffer trailer =
+          getRegion(fileSize - TRAILER_BYTES, TRAILER_BYTES);
+        indexOffset = trailer.getLong(0);
+        segmentCount = trailer.getInt(8);
+        cycles = trailer.getInt(12);
+        final long indexBytes =
+          (long)segmentCount * columnCount * ENTRY_BYTES;
+        if ((trailer.getInt(16) != MAGIC) ||
+            (indexOffset + indexBytes != fileSize - TRAILER_BYTES) ||
+            (cycles < 0) ||
+            ((long)segmentCount * segmentCycles < cycles)) {
+          throw new IOException("incomplete capture file: " + path);
+        }
+        columns = new ArrayList<MappedColumn>();
+        for (int column = 0; column < columnCount; column++) {
+          columns.add(new MappedColumn(this, column));
+        }
+      } catch (final IOException | RuntimeException e) {
+        channel.close();
+        throw e;
+      }
+    }
+
+    public String getPath() { return path; }
+
+    public int getCycles() { return cycles; }
+
+    public List<SignalInfo> getSignalInfos() { return signalInfos; }
+
+    /**
+     * Returns the values of the specified column, with columns
+     * numbered in the order of the signal metadata.
+     */
+    public MappedColumn getColumn(final int column)
+    {
+      return columns.get(column);
+    }
+
+    /**
+     * Returns a buffer with the specified bytes of the file, at
+     * position 0.  Only if the bytes cross a window boundary, they
+     * are copied.
+     */
+    private ByteBuffer getRegion(final long offset, final int length)
+    {
+      final int window = (int)(offset >>> WINDOW_BITS);
+      final int windowOffset = (int)(offset & ((1L << WINDOW_BITS) - 1));
+      final ByteBuffer buffer = windows[window];
+      if (windowOffset + length <= buffer.limit()) {
+        return buffer.slice(windowOffset, length);
+      }
+      final byte[] bytes = new byte[length];
+      final int head = buffer.limit() - windowOffset;
+      buffer.get(windowOffset, bytes, 0, head);
+      windows[window + 1].get(0, bytes, head, length - head);
+      return ByteBuffer.wrap(bytes);
+    }
+
+    private ByteBuffer getEntry(final int segment, final int column)
+    {
+      final long entry =
+        ((long)segment * columns.size() + column) * ENTRY_BYTES;
+      return getRegion(indexOffset + entry, ENTRY_BYTES);
+    }
+
+    private Segment decode(final int segment, final int column)
+    {
+      final ByteBuffer entry = getEntry(segment, column);
+      final ByteBuffer data =
+        getRegion(entry.getLong(ENTRY_OFFSET), entry.getInt(ENTRY_LENGTH));
+      final int runCount = (int)readVarLong(data);
+      final Segment decoded = new Segment(runCount);
+      int start = segment * segmentCycles;
+      long value = 0;
+      for (int run = 0; run < runCount; run++) {
+        final long startToken = readVarLong(data);
+        start += run == 0 ? unZigZag(startToken) : startToken;
+        decoded.runStarts[run] = start;
+        final long valueToken = readVarLong(data);
+        if (valueToken == NULL_TOKEN) {
+          decoded.runValues[run] = SignalHistory.NULL_VALUE;
+        } else {
+          value += unZigZag(valueToken >>> 1);
+          decoded.runValues[run] = value;
+        }
+      }
+      return decoded;
+    }
+
+    /**
+     * Closes the file.  Memory-mapped windows remain valid until
+     * they are no longer referenced, such that concurrent readers of
+     * the columns need not be stopped beforehand.
+     */
+    @Override
+    public void close() throws IOException
+    {
+      channel.close();
+    }
+  }
+
+  /**
+   * Read-only values of a single column of a capture file.  Recently
+   * decoded segments are cached.  Cycles can be dropped from the
+   * view just like from a recorded history, e.g. for applying the
+   * capture window.
+   */
+  public static class MappedColumn implements SignalStore
+  {
+    private final Reader reader;
+    private final int column;
+    private final Map<Integer, Segment> cache;
+    private volatile int droppedCycles;
+
+    private MappedColumn()
+    {
+      throw new UnsupportedOperationException("unsupported empty constructor");
+    }
+
+    private MappedColumn(final Reader reader, final int column)
+    {
+      this.reader = reader;
+      this.column = column;
+      cache = new LinkedHashMap<Integer, Segment>(16, 0.75f, true) {
+        private static final long serialVersionUID = -1838213046327015513L;
+
+        @Override
+        protected boolean
+          removeEldestEntry(final Map.Entry<Integer, Segment> eldest)
+        {
+          return size() > SEGMENT_CACHE_SIZE;
+        }
+      };
+      droppedCycles = 0;
+    }
+
+    private Segment getSegment(final int segment)
+    {
+      synchronized(cache) {
+        final Segment cached = cache.get(segment);
+        if (cached != null) return cached;
+      }
+      final Segment decoded = reader.decode(segment, column);
+      synchronized(cache) {
+        cache.put(segment, decoded);
+      }
+      return decoded;
+    }
+
+    private int getSegmentStart(final int segment)
+    {
+      return segment * reader.segmentCycles;
+    }
+
+    @Override
+    public void publish()
+    {
+      // file contents never change
+    }
+
+    @Override
+    public int size()
+    {
+      return reader.cycles - droppedCycles;
+    }
+
+    @Override
+    public void drop(final int cycles)
+    {
+      if (cycles < 0) {
+        throw new IllegalArgumentException("cycles < 0: " + cycles);
+      }
+      droppedCycles += Math.min(cycles, size());
+    }
+
+    @Override
+    public long getDroppedCycles()
+    {
+      return droppedCycles;
+    }
+
+    @Override
+    public long getMemoryUsage()
+    {
+      long memoryUsage = 0;
+      synchronized(cache) {
+        for (final Segment segment : cache.values()) {
+          memoryUsage += segment.getMemoryUsage();
+        }
+      }
+      return memoryUsage;
+    }
+
+    @Override
+    public long getValue(final int cycle)
+    {
+      final int droppedCycles = this.droppedCycles;
+      if ((cycle < 0) || (cycle >= reader.cycles - droppedCycles)) {
+        return SignalHistory.NULL_VALUE;
+      }
+      final int absoluteCycle = cycle + droppedCycles;
+      final Segment segment =
+        getSegment(absoluteCycle / reader.segmentCycles);
+      return segment.runValues[segment.findRun(absoluteCycle)];
+    }
+
+    @Override
+    public long getNotChangedSince(final int cycle)
+    {
+      final int droppedCycles = this.droppedCycles;
+      if ((cycle < 0) || (cycle >= reader.cycles - droppedCycles)) {
+        return 0;
+      }
+      final int absoluteCycle = cycle + droppedCycles;
+      final Segment segment =
+        getSegment(absoluteCycle / reader.segmentCycles);
+      return absoluteCycle - segment.runStarts[segment.findRun(absoluteCycle)];
+    }
+
+    /**
+     * Summarizes the range of cycles from the index entries of all
+     * segments that are completely covered by the range, and decodes
+     * only the segments at the edges of the range.
+     */
+    @Override
+    public void summarize(final int fromCycle, final int toCycle,
+                          final SignalSummary.Span span)
+    {
+      if (span == null) {
+        throw new NullPointerException("span");
+      }
+      final int droppedCycles = this.droppedCycles;
+      final int absoluteFrom = Math.max(fromCycle, 0) + droppedCycles;
+      final int absoluteTo =
+        Math.min(toCycle, reader.cycles - droppedCycles) + droppedCycles;
+      for (int segment = absoluteFrom / reader.segmentCycles;
+           (absoluteFrom < absoluteTo) &&
+             (getSegmentStart(segment) < absoluteTo);
+           segment++) {
+        final int segmentStart = getSegmentStart(segment);
+        final int segmentStop =
+          Math.min(segmentStart + reader.segmentCycles, reader.cycles);
+        if ((absoluteFrom <= segmentStart) && (segmentStop <= absoluteTo)) {
+          summarizeEntry(segment, span);
+        } else {
+          summarizeRuns(getSegment(segment),
+                        Math.max(absoluteFrom, segmentStart),
+                        Math.min(absoluteTo, segmentStop), span);
+        }
+      }
+    }
+
+    private void summarizeEntry(final int segment,
+                                final SignalSummary.Span span)
+    {
+      final ByteBuffer entry = reader.getEntry(segment, column);
+      final byte flags = entry.get(ENTRY_FLAGS);
+      if ((flags & FLAG_DEFINED) != 0x0) {
+        span.addValue(entry.getLong(ENTRY_MIN));
+        span.addValue(entry.getLong(ENTRY_MAX));
+      }
+      if ((flags & FLAG_UNDEFINED) != 0x0) {
+        span.addValue(SignalHistory.NULL_VALUE);
+      }
+      if ((flags & FLAG_CHANGED) != 0x0) {
+        span.addChange();
+      }
+    }
+
+    private static void summarizeRuns(final Segment segment,
+                                      final int absoluteFrom,
+                                      final int absoluteTo,
+                                      final SignalSummary.Span span)
+    {
+      for (int run = segment.findRun(absoluteFrom);
+           run < segment.getRunCount(); run++) {
+        final int runStart = segment.runStarts[run];
+        if (runStart >= absoluteTo) break;
+        span.addValue(segment.runValues[run]);
+        if (runStart >= absoluteFrom) {
+          span.addChange();
+        }
+      }
+    }
+
+    /**
+     * Returns false, if the index entry of the specified segment
+     * proves that no run starting within the segment fulfills the
+     * specified condition.
+     */
+    private boolean maySatisfy(final int segment,
+                               final SignalCondition condition)
+    {
+      final ByteBuffer entry = reader.getEntry(segment, column);
+      if (condition.getKind().isEdge()) {
+        return entry.getInt(ENTRY_FIRST_CHANGE) >= 0;
+      }
+      final byte flags = entry.get(ENTRY_FLAGS);
+      final boolean defined = (flags & FLAG_DEFINED) != 0x0;
+      final long min = entry.getLong(ENTRY_MIN);
+      final long max = entry.getLong(ENTRY_MAX);
+      final long value = condition.getValue();
+      if (condition.getKind() == SignalCondition.Kind.EQUALS) {
+        return
+          SignalHistory.isNull(value) ?
+          (flags & FLAG_UNDEFINED) != 0x0 :
+          defined && (min <= value) && (value <= max);
+      }
+      return defined && ((min != max) || (min != value));
+    }
+
+    /**
+     * Returns true, if the specified run is the first run of its
+     * value, i.e. it is not a continuation of the last run of the
+     * previous segment.
+     */
+    private static boolean isUnique(final Segment segment,
+                                    final int segmentNumber,
+                                    final int segmentStart, final int run)
+    {
+      return
+        (segment.runStarts[run] >= segmentStart) ||
+        ((segmentNumber == 0) && (run == 0));
+    }
+
+    /**
+     * Returns true, if the specified run starts with a change of the
+     * value that fulfills the specified edge condition.  Changes
+     * before the oldest remaining cycle are not considered.
+     */
+    private static boolean isEdge(final Segment segment,
+                                  final int segmentNumber, final int run,
+                                  final int droppedCycles,
+                                  final SignalCondition condition)
+    {
+      final int runStart = segment.runStarts[run];
+      if ((segmentNumber == 0) && (run == 0)) {
+        return
+          (runStart >= droppedCycles) &&
+          condition.acceptsEdge(SignalHistory.NULL_VALUE,
+                                segment.runValues[run]);
+      }
+      return
+        (runStart > droppedCycles) &&
+        condition.acceptsEdge(segment.runValues[run - 1],
+                              segment.runValues[run]);
+    }
+
+    /**
+     * Returns the smallest relative cycle greater than or equal to
+     * the specified cycle for which the specified condition holds,
+     * or -1, if there is no such cycle.  Segments are skipped as far
+     * as their index entries prove that they do not match.
+     */
+    @Override
+    public int findNext(final int cycle, final SignalCondition condition)
+    {
+      if (condition == null) {
+        throw new NullPointerException("condition");
+      }
+      final int droppedCycles = this.droppedCycles;
+      final int fromCycle = Math.max(cycle, 0);
+      if (fromCycle >= reader.cycles - droppedCycles) return -1;
+      final int absoluteCycle = fromCycle + droppedCycles;
+      final boolean isEdge = condition.getKind().isEdge();
+      final int firstSegment = absoluteCycle / reader.segmentCycles;
+      final Segment first = getSegment(firstSegment);
+      final int firstRun = first.findRun(absoluteCycle);
+      if (!isEdge && condition.acceptsValue(first.runValues[firstRun])) {
+        return fromCycle;
+      }
+      for (int segmentNumber = firstSegment;
+           segmentNumber < reader.segmentCount; segmentNumber++) {
+        if ((segmentNumber > firstSegment) &&
+            !maySatisfy(segmentNumber, condition)) {
+          continue;
+        }
+        final Segment segment = getSegment(segmentNumber);
+        final int segmentStart = getSegmentStart(segmentNumber);
+        for (int run = segmentNumber == firstSegment ? firstRun : 0;
+             run < segment.getRunCount(); run++) {
+          final int runStart = segment.runStarts[run];
+          if (!isUnique(segment, segmentNumber, segmentStart, run)) continue;
+          if (isEdge) {
+            if ((runStart >= absoluteCycle) &&
+                isEdge(segment, segmentNumber, run, droppedCycles,
+                       condition)) {
+              return runStart - droppedCycles;
+            }
+          } else {
+            if ((runStart > absoluteCycle) &&
+                condition.acceptsValue(segment.runValues[run])) {
+              return runStart - droppedCycles;
+            }
+          }
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * Returns the greatest relative cycle less than or equal to the
+     * specified cycle for which the specified condition holds, or -1,
+     * if there is no such cycle.  Segments are skipped as far as
+     * their index entries prove that they do not match.
+     */
+    @Override
+    public int findPrevious(final int cycle, final SignalCondition condition)
+    {
+      if (condition == null) {
+        throw new NullPointerException("condition");
+      }
+      final int droppedCycles = this.droppedCycles;
+      final int fromCycle =
+        Math.min(cycle, reader.cycles - droppedCycles - 1);
+      if (fromCycle < 0) return -1;
+      final int absoluteCycle = fromCycle + droppedCycles;
+      final boolean isEdge = condition.getKind().isEdge();
+      final int firstSegment = absoluteCycle / reader.segmentCycles;
+      final Segment first = getSegment(firstSegment);
+      final int firstRun = first.findRun(absoluteCycle);
+      if (!isEdge && condition.acceptsValue(first.runValues[firstRun])) {
+        return fromCycle;
+      }
+      /*
+       * For value conditions, the last cycle of a matching run is
+       * the cycle before the start of the subsequent run.
+       */
+      int nextStart = first.runStarts[firstRun];
+      for (int segmentNumber = firstSegment; segmentNumber >= 0;
+           segmentNumber--) {
+        if ((segmentNumber < firstSegment) &&
+            !maySatisfy(segmentNumber, condition)) {
+          final int firstChange =
+            reader.getEntry(segmentNumber, column).
+            getInt(ENTRY_FIRST_CHANGE);
+          if (firstChange >= 0) {
+            nextStart = firstChange;
+          }
+          if (nextStart <= droppedCycles) return -1;
+          continue;
+        }
+        final Segment segment = getSegment(segmentNumber);
+        final int segmentStart = getSegmentStart(segmentNumber);
+        for (int run = segmentNumber == firstSegment ?
+               firstRun : segment.getRunCount() - 1;
+             run >= 0; run--) {
+          if (!isUnique(segment, segmentNumber, segmentStart, run)) break;
+          final int runStart = segment.runStarts[run];
+          if (isEdge) {
+            if (runStart < droppedCycles) return -1;
+            if (isEdge(segment, segmentNumber, run, droppedCycles,
+                       condition)) {
+              return runStart - droppedCycles;
+            }
+          } else if (runStart < nextStart) {
+            if (nextStart <= droppedCycles) return -1;
+            if (condition.acceptsValue(segment.runValues[run])) {
+              return nextStart - 1 - droppedCycles;
+            }
+            nextStart = runStart;
+          }
+        }
+      }
+      return -1;
+    }
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
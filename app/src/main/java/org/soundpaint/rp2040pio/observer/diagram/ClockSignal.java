@@ -26,6 +26,7 @@ package org.soundpaint.rp2040pio.observer.diagram;
 
 import java.awt.Graphics2D;
 import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
 
 public class ClockSignal extends AbstractSignal<Void>
 {
@@ -80,6 +81,21 @@ public class ClockSignal extends AbstractSignal<Void>
     g.draw(new Line2D.Double(xFallingEdge, yTop, xFallingEdge, yBottom));
     g.draw(new Line2D.Double(xFallingEdge, yBottom, xStop, yBottom));
   }
+
+  /**
+   * Since the clock toggles in every cycle, a range of cycles too
+   * narrow for displaying each cycle is just drawn as solid block.
+   */
+  @Override
+  public void paintSummary(final Graphics2D g, final double zoom,
+                           final double xStart, final double yBottom,
+                           final int fromCycle, final int toCycle)
+  {
+    if (fromCycle >= size()) return;
+    final double xStop = xStart + (toCycle - fromCycle) * zoom;
+    final double yTop = yBottom - SIGNAL_HEIGHT;
+    g.fill(new Rectangle2D.Double(xStart, yTop, xStop - xStart, SIGNAL_HEIGHT));
+  }
 }
 
 /*
@@ -37,11 +37,27 @@ public interface Constants
     "emulate specified number of cycles in one go";
   static final String TOOLTIP_TEXT_CLEAR =
     "clear recorded cycles data";
+  static final String TOOLTIP_TEXT_FREEZE =
+    "stop dropping oldest cycles from the capture window";
   static final String TOOLTIP_TEXT_ZOOM =
     "change horizontal display scale";
+  static final String TOOLTIP_TEXT_SEARCH =
+    "search recorded cycles, e.g. \"GPIO0 rises && SM0_REGX == 0x0c\"";
+  static final String TOOLTIP_TEXT_SEARCH_PREVIOUS =
+    "jump to previous cycle that matches search query";
+  static final String TOOLTIP_TEXT_SEARCH_NEXT =
+    "jump to next cycle that matches search query";
+  static final String TOOLTIP_TEXT_SEARCH_TRIGGER =
+    "freeze capture window as soon as a recorded cycle matches " +
+    "search query";
   static final int ZOOM_MIN = 16;
   static final int ZOOM_MAX = 112;
   static final int ZOOM_DEFAULT = 32;
+  /**
+   * Number of zoom slider steps below ZOOM_MIN, each of which halves
+   * the horizontal scale, for viewing many cycles per pixel.
+   */
+  static final int ZOOM_OUT_STEPS = 24;
   static final double TOP_MARGIN = 0.0;
   static final double BOTTOM_MARGIN = 16.0;
   static final double SIGNAL_SETUP_X = 4.0;
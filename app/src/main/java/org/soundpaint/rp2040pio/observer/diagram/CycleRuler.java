@@ -32,6 +32,7 @@ public class CycleRuler extends AbstractSignal<Void>
 {
   private static final double SIGNAL_HEIGHT = 16.0;
   private static final int PADDING = 1;
+  private static final double MIN_LABEL_DISTANCE = 80.0;
 
   public CycleRuler()
   {
@@ -61,7 +62,7 @@ public class CycleRuler extends AbstractSignal<Void>
   @Override
   public String getToolTipText(final int cycle)
   {
-    return "cycle #" + cycle;
+    return "cycle #" + (cycle + getDroppedCycles());
   }
 
   @Override
@@ -74,15 +75,54 @@ public class CycleRuler extends AbstractSignal<Void>
     final double tickYBottom = yBottom;
     final double tickYTop = yBottom - 0.3 * SIGNAL_HEIGHT;
     g.draw(new Line2D.Double(xStart, tickYBottom, xStart, tickYTop));
-    if ((cycle % 5) == 0) {
+    final long absoluteCycle = cycle + getDroppedCycles();
+    if ((absoluteCycle % 5) == 0) {
       final double labelYBottom = yBottom - 0.5 * SIGNAL_HEIGHT;
-      final String label = String.format("%d", cycle);
+      final String label = String.format("%d", absoluteCycle);
       g.setFont(Constants.DEFAULT_FONT);
       final FontMetrics fm = g.getFontMetrics(g.getFont());
       final int width = fm.stringWidth(label) - PADDING;
       g.drawString(label, (float)(xStart - 0.5 * width), (float)labelYBottom);
     }
   }
+
+  /**
+   * Returns the smallest number of cycles of the form 1, 2 or 5
+   * times a power of ten that covers at least the specified number
+   * of pixels with the specified zoom.
+   */
+  private static long getLabelStep(final double zoom)
+  {
+    long step = 1;
+    while (true) {
+      if (step * zoom >= MIN_LABEL_DISTANCE) return step;
+      if (2 * step * zoom >= MIN_LABEL_DISTANCE) return 2 * step;
+      if (5 * step * zoom >= MIN_LABEL_DISTANCE) return 5 * step;
+      step *= 10;
+    }
+  }
+
+  @Override
+  public void paintSummary(final Graphics2D g, final double zoom,
+                           final double xStart, final double yBottom,
+                           final int fromCycle, final int toCycle)
+  {
+    final long step = getLabelStep(zoom);
+    final long absoluteFrom = fromCycle + getDroppedCycles();
+    final long absoluteTo = toCycle + getDroppedCycles();
+    final long labelCycle = (absoluteFrom + step - 1) / step * step;
+    if (labelCycle >= absoluteTo) return;
+    final double x = xStart + (labelCycle - absoluteFrom) * zoom;
+    final double tickYBottom = yBottom;
+    final double tickYTop = yBottom - 0.3 * SIGNAL_HEIGHT;
+    g.draw(new Line2D.Double(x, tickYBottom, x, tickYTop));
+    final double labelYBottom = yBottom - 0.5 * SIGNAL_HEIGHT;
+    final String label = String.format("%d", labelCycle);
+    g.setFont(Constants.DEFAULT_FONT);
+    final FontMetrics fm = g.getFontMetrics(g.getFont());
+    final int width = fm.stringWidth(label) - PADDING;
+    g.drawString(label, (float)(x - 0.5 * width), (float)labelYBottom);
+  }
 }
 
 /*
@@ -24,21 +24,26 @@
  */
 package org.soundpaint.rp2040pio.observer.diagram;
 
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Supplier;
 import javax.swing.Box;
 import javax.swing.BoxLayout;
+import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.ScrollPaneConstants;
 import javax.swing.SwingUtilities;
-import org.soundpaint.rp2040pio.Constants;
-import org.soundpaint.rp2040pio.GPIOIOBank0Registers;
-import org.soundpaint.rp2040pio.PIOEmuRegisters;
-import org.soundpaint.rp2040pio.PIORegisters;
+import javax.swing.filechooser.FileNameExtensionFilter;
+import org.soundpaint.rp2040pio.CmdOptions;
 import org.soundpaint.rp2040pio.observer.GUIObserver;
 import org.soundpaint.rp2040pio.sdk.SDK;
 
@@ -67,26 +72,111 @@ public class Diagram extends GUIObserver
   private static final String APP_FULL_NAME =
     "Timing Diagram Creator Version 0.1";
 
+  private static final CmdOptions.IntegerOptionDeclaration optCaptureCycles =
+    CmdOptions.createIntegerOption("COUNT", false, 'c', "capture-cycles",
+                                   100000,
+                                   "keep at most the most recent COUNT " +
+                                   "cycles or no limit, if 0");
+  private static final CmdOptions.IntegerOptionDeclaration optCaptureMBytes =
+    CmdOptions.createIntegerOption("SIZE", false, 'm', "capture-mbytes", 64,
+                                   "keep at most SIZE megabytes of " +
+                                   "recorded cycles or no limit, if 0");
+  private static final CmdOptions.IntegerOptionDeclaration optFollowBuffer =
+    CmdOptions.createIntegerOption("COUNT", false, 'b', "follow-buffer", 0,
+                                   "record every cycle the emulator runs, " +
+                                   "stalling it whenever more than COUNT " +
+                                   "(e.g. 65536) cycles are not yet " +
+                                   "recorded, or record only own cycles, " +
+                                   "if 0; beware that while stalled, the " +
+                                   "emulator also blocks all other " +
+                                   "clients, including their register " +
+                                   "accesses");
+
+  /**
+   * Period of time to wait before following the emulation again after
+   * the connection to the emulation server has failed.
+   */
+  private static final int FOLLOW_RETRY_MILLIS = 1000;
+
+  /**
+   * Emulates cycles and records the signals off the event dispatch
+   * thread, such that recording does not block painting and vice
+   * versa.  A single thread serializes subsequent requests.
+   */
+  private static final ExecutorService RECORDER =
+    Executors.newSingleThreadExecutor((runnable) -> {
+        final Thread thread = new Thread(runnable, "diagram recorder");
+        thread.setDaemon(true);
+        return thread;
+      });
+
   private final DiagramModel model;
   private final DiagramViewPanel diagramPanel;
   private final TelemetryPanel telemetryPanel;
   private final ScriptDialog scriptDialog;
+  private final JFileChooser captureFileChooser;
+  private int searchMatch;
 
   private Diagram(final PrintStream console, final String[] argv)
     throws IOException
   {
     super(APP_TITLE, APP_FULL_NAME, console, argv);
     model = new DiagramModel(console, getSDK());
+    model.setCaptureWindow(getOptions().getValue(optCaptureCycles),
+                           getOptions().getValue(optCaptureMBytes) *
+                           1024L * 1024L);
     diagramPanel = new DiagramViewPanel(model);
     telemetryPanel =
       new TelemetryPanel(model, () -> diagramPanel.getLeftMostVisibleCycle());
-    configureModel();
+    model.addDefaultSignals();
+    searchMatch = -1;
     modelChanged();
     add(createView());
     scriptDialog = new ScriptDialog(this, console);
+    captureFileChooser = createCaptureFileChooser();
+    addWindowListener(new WindowAdapter() {
+        @Override
+        public void windowClosing(final WindowEvent e)
+        {
+          stopCapture();
+        }
+      });
     pack();
     setVisible(true);
     startUpdating();
+    final int followBuffer = getOptions().getValue(optFollowBuffer);
+    if (followBuffer > 0) {
+      startFollowing(followBuffer);
+    }
+  }
+
+  /**
+   * Records every cycle that the emulator runs, including cycles
+   * triggered by other clients, on a separate thread with a
+   * connection of its own.  Thereby, the emulator never runs more
+   * than the specified number of cycles ahead of the recorded
+   * signals.
+   */
+  private void startFollowing(final int followBuffer) throws IOException
+  {
+    final SDK follower = createSDK("follower thread");
+    final Thread thread = new Thread(() -> {
+        while (true) {
+          try {
+            model.follow(follower, followBuffer);
+          } catch (final IOException e) {
+            getConsole().println("following emulation failed: " +
+                                 e.getMessage());
+          }
+          try {
+            Thread.sleep(FOLLOW_RETRY_MILLIS);
+          } catch (final InterruptedException e) {
+            break;
+          }
+        }
+      }, "diagram follower");
+    thread.setDaemon(true);
+    thread.start();
   }
 
   private JPanel createView()
@@ -107,6 +197,33 @@ public class Diagram extends GUIObserver
     return model;
   }
 
+  @Override
+  protected List<CmdOptions.OptionDeclaration<?>>
+    getAdditionalOptionDeclarations()
+  {
+    return Arrays.asList(new CmdOptions.OptionDeclaration<?>[]
+                         { optCaptureCycles, optCaptureMBytes,
+                           optFollowBuffer });
+  }
+
+  @Override
+  protected void checkValidity(final CmdOptions options)
+    throws CmdOptions.ParseException
+  {
+    if (options.getValue(optCaptureCycles) < 0) {
+      throw new CmdOptions.
+        ParseException("COUNT must be a non-negative value", optCaptureCycles);
+    }
+    if (options.getValue(optCaptureMBytes) < 0) {
+      throw new CmdOptions.
+        ParseException("SIZE must be a non-negative value", optCaptureMBytes);
+    }
+    if (options.getValue(optFollowBuffer) < 0) {
+      throw new CmdOptions.
+        ParseException("COUNT must be a non-negative value", optFollowBuffer);
+    }
+  }
+
   @Override
   protected ActionPanel createActionPanel()
   {
@@ -123,10 +240,17 @@ public class Diagram extends GUIObserver
   {
     diagramPanel.modelChanged();
     telemetryPanel.modelChanged();
+    ((ActionPanel)getActionPanel()).setFrozen(model.isFrozen());
   }
 
   @Override
   protected void updateView()
+  {
+    // signals are recorded while emulating cycles; nothing to sample
+  }
+
+  @Override
+  protected void paintView()
   {
     modelChanged();
   }
@@ -136,132 +260,232 @@ public class Diagram extends GUIObserver
     scriptDialog.setVisible(true);
   }
 
+  private static JFileChooser createCaptureFileChooser()
+  {
+    final JFileChooser captureFileChooser = new JFileChooser();
+    captureFileChooser.setAcceptAllFileFilterUsed(true);
+    final FileNameExtensionFilter filter =
+      new FileNameExtensionFilter("Capture file (*" +
+                                  CaptureFile.EXTENSION + ")",
+                                  CaptureFile.EXTENSION.substring(1));
+    captureFileChooser.setFileFilter(filter);
+    return captureFileChooser;
+  }
+
+  private void captureFailed(final String title, final Exception e)
+  {
+    JOptionPane.showMessageDialog(this, e.getMessage(), title,
+                                  JOptionPane.WARNING_MESSAGE);
+  }
+
   /**
-   * Add pseudo signals that are not directly displayed, but provided
-   * for shared use for instruction rendering.
+   * Lets the user select a capture file, and views its signals
+   * instead of the recorded ones.  Since the file is memory-mapped,
+   * even huge captures open immediately.
    */
-  private void createInternalSignals() throws IOException
+  public void openCapture()
   {
-    for (int pioNum = 0; pioNum < Constants.PIO_NUM; pioNum++) {
-      for (int smNum = 0; smNum < Constants.SM_COUNT; smNum++) {
-        final String labelPrefix = String.format("_PIO%d_SM%d_", pioNum, smNum);
-        final int addressPinCtrl =
-          PIORegisters.getSMAddress(pioNum, smNum,
-                                    PIORegisters.Regs.SM0_PINCTRL);
-        final String labelPinCtrl = labelPrefix + "PINCTRL";
-        model.addInternalSignal(this, labelPinCtrl, addressPinCtrl);
-        final int addressExecCtrl =
-          PIORegisters.getSMAddress(pioNum, smNum,
-                                    PIORegisters.Regs.SM0_EXECCTRL);
-        final String labelExecCtrl = labelPrefix + "EXECCTRL";
-        model.addInternalSignal(this, labelExecCtrl, addressExecCtrl);
-        final int addressDelayCycle =
-          PIOEmuRegisters.getSMAddress(pioNum, smNum,
-                                       PIOEmuRegisters.Regs.SM0_DELAY_CYCLE);
-        final String labelDelayCycle = labelPrefix + "DELAY_CYCLE";
-        model.addInternalSignal(this, labelDelayCycle, addressDelayCycle);
-        final int addressDelay =
-          PIOEmuRegisters.getSMAddress(pioNum, smNum,
-                                       PIOEmuRegisters.Regs.SM0_DELAY);
-        final String labelDelay = labelPrefix + "DELAY";
-        model.addInternalSignal(this, labelDelay, addressDelay);
-        final int addressInstrOrigin =
-          PIOEmuRegisters.getSMAddress(pioNum, smNum,
-                                       PIOEmuRegisters.Regs.SM0_INSTR_ORIGIN);
-        final String labelInstrOrigin = labelPrefix + "INSTR_ORIGIN";
-        model.addInternalSignal(this, labelInstrOrigin, addressInstrOrigin);
-      }
+    captureFileChooser.setDialogTitle("Open Capture File");
+    if (captureFileChooser.showOpenDialog(this) !=
+        JFileChooser.APPROVE_OPTION) {
+      return;
     }
+    final File file = captureFileChooser.getSelectedFile();
+    RECORDER.execute(() -> {
+        try {
+          model.openCapture(file);
+          SwingUtilities.invokeLater(() -> {
+              searchMatch = -1;
+              modelChanged();
+              diagramPanel.rebuildToolTips();
+            });
+        } catch (final IOException | IllegalStateException e) {
+          SwingUtilities.invokeLater(() -> {
+              captureFailed("Opening Capture File Failed", e);
+              modelChanged();
+            });
+        }
+      });
   }
 
-  private void configureModel() throws IOException
+  private void stopCapture()
   {
-    createInternalSignals();
-    model.addSignal(SignalFactory.createRuler("cycle#")).setVisible(true);
-    model.addSignal(SignalFactory.createClockSignal("clock")).setVisible(true);
-    model.addSignal(this, "SM0_CLK_ENABLE", PIOEmuRegisters.
-                    getAddress(0, PIOEmuRegisters.Regs.SM0_CLK_ENABLE), 0).
-      setVisible(true);
-    final GPIOIOBank0Registers.Regs regGpio0Status =
-      GPIOIOBank0Registers.Regs.GPIO0_STATUS;
-    for (int gpioNum = 0; gpioNum < 30; gpioNum++) {
-      String label = "GPIO" + gpioNum + " (out from peri)";
-      int address =
-        GPIOIOBank0Registers.getGPIOAddress(gpioNum, regGpio0Status);
-      model.addSignal(this, label + " Value", address, 8, 8).
-        setVisible(gpioNum < 2);
-      model.addSignal(this, label + " Level", address, 8, null, -1, -1);
-
-      // input
-      label = "GPIO" + gpioNum + " (in from pad)";
-      address = GPIOIOBank0Registers.getGPIOAddress(gpioNum, regGpio0Status);
-      model.addSignal(this, label + " Value", address, 17, 17);
-      model.addSignal(this, label + " Level", address, 17);
-    	      
-
-      label = "GPIO" + gpioNum + " (oe to pad)";
-      address = GPIOIOBank0Registers.getGPIOAddress(gpioNum, regGpio0Status);
-      model.addSignal(this, label + " Value", address, 13,13);
-      model.addSignal(this, label + " Level", address, 13);
+    try {
+      model.stopCapture();
+    } catch (final IOException e) {
+      getConsole().println("failed completing capture file: " +
+                           e.getMessage());
+    }
+  }
+
+  /**
+   * Starts streaming recorded cycles into a capture file selected
+   * by the user, or completes the current capture file.
+   *
+   * @return True, if cycles are being captured thereafter.
+   */
+  public boolean setCapturing(final boolean capturing)
+  {
+    try {
+      if (!capturing) {
+        model.stopCapture();
+        return false;
+      }
+      if (model.isCapturing()) {
+        return true;
+      }
+      captureFileChooser.setDialogTitle("Record to Capture File");
+      if (captureFileChooser.showSaveDialog(this) !=
+          JFileChooser.APPROVE_OPTION) {
+        return false;
+      }
+      File file = captureFileChooser.getSelectedFile();
+      if (!file.getName().contains(".")) {
+        file = new File(file.getPath() + CaptureFile.EXTENSION);
+      }
+      model.startCapture(file);
+      return true;
+    } catch (final IOException | IllegalStateException e) {
+      captureFailed("Capture File Failed", e);
+      return model.isCapturing();
     }
-    final List<SignalFilter> noDelayFilter =
-      ValueFilterPanel.createFilters(true, false);
-    final int addrSm0Pc =
-      PIOEmuRegisters.getAddress(0, PIOEmuRegisters.Regs.SM0_PC);
-    model.addSignal(this, "SM0_PC", addrSm0Pc);
-    model.addSignal(this, "SM0_PC (hidden delay)", addrSm0Pc,
-                    noDelayFilter, 0, 0);
-    final int instrAddr =
-      PIORegisters.getAddress(0, PIORegisters.Regs.SM0_INSTR);
-    final List<SignalFilter> displayFilters =
-      ValueFilterPanel.createFilters(true, true);
-    model.addSignal(SignalFactory.
-                    createFromRegister(this, getSDK(), "PIO0_SM0_INSTR",
-                                       instrAddr, 15, 0,
-                                       SignalRendering.Mnemonic,
-                                       displayFilters, 0, 0)).
-      setVisible(true);
-    final int addrSm0RegX =
-      PIOEmuRegisters.getAddress(0, PIOEmuRegisters.Regs.SM0_REGX);
-    model.addSignal(this, "SM0_REGX", addrSm0RegX).setVisible(true);
-    final int addrSm0RegY =
-      PIOEmuRegisters.getAddress(0, PIOEmuRegisters.Regs.SM0_REGY);
-    model.addSignal(this, "SM0_REGY", addrSm0RegY);
   }
 
   public void clear()
   {
+    searchMatch = -1;
     model.resetSignals();
     modelChanged();
   }
 
-  private void applyCycles(final int count) throws IOException
+  private void cyclesApplied()
   {
-    model.applyCycles(count);
     modelChanged();
     diagramPanel.ensureCycleIsVisible(model.getSignalSize() - 1);
     diagramPanel.rebuildToolTips();
   }
 
+  private void applyCyclesFailed(final IOException e)
+  {
+    final String title = "Emulation Failed";
+    final String message = "I/O error: " + e.getMessage();
+    JOptionPane.showMessageDialog(this, message, title,
+                                  JOptionPane.WARNING_MESSAGE);
+    clear();
+  }
+
+  private void applyCycles(final int count)
+  {
+    try {
+      model.applyCycles(count);
+      SwingUtilities.invokeLater(() -> cyclesApplied());
+    } catch (final IOException e) {
+      SwingUtilities.invokeLater(() -> applyCyclesFailed(e));
+    }
+  }
+
+  /**
+   * Emulates the number of cycles selected in the action panel on
+   * the recorder thread.  While cycles are being emulated, the view
+   * is repainted as the emulator's clock advances.
+   */
   public void applyCycles()
   {
     final int cycles = ((ActionPanel)getActionPanel()).getCycles();
+    RECORDER.execute(() -> applyCycles(cycles));
+  }
+
+  /**
+   * Stops or resumes dropping the oldest cycles from the capture
+   * window.
+   */
+  public void setFrozen(final boolean frozen)
+  {
+    model.setFrozen(frozen);
+    modelChanged();
+  }
+
+  /**
+   * Arms a trigger that freezes the capture window as soon as a
+   * recorded cycle matches the specified search query, or disarms
+   * the trigger, if the query is null.  The query's signal labels
+   * are resolved when the trigger is armed.
+   *
+   * @return True, if the trigger is armed.
+   */
+  public boolean setFreezeTrigger(final String text)
+  {
+    if (text == null) {
+      model.setFreezeTrigger(null);
+      return false;
+    }
+    final SignalQuery query;
     try {
-      applyCycles(cycles);
-    } catch (final IOException e) {
-      final String title = "Emulation Failed";
-      final String message = "I/O error: " + e.getMessage();
-      JOptionPane.showMessageDialog(this, message, title,
+      query = model.parseQuery(text);
+    } catch (final IllegalArgumentException e) {
+      final String title = "Invalid Trigger Query";
+      JOptionPane.showMessageDialog(this, e.getMessage(), title,
                                     JOptionPane.WARNING_MESSAGE);
-      clear();
+      return false;
     }
+    // called by the recorder thread for the most recent cycle
+    model.setFreezeTrigger((cycle) -> query.findNext(cycle) == cycle);
+    return true;
   }
 
-  public void setZoom(final int zoom)
+  public void setZoom(final double zoom)
   {
     diagramPanel.setZoom(zoom);
   }
 
+  /**
+   * Searches the recorded cycles for the next or previous cycle that
+   * matches the specified query, and scrolls the match into view.
+   * The search continues from the most recent match, if it is still
+   * visible, or else starts from the left-most (when searching
+   * forward) or right-most (when searching backward) visible cycle.
+   *
+   * @return A description of the search result, or null, if the
+   * query is invalid.
+   */
+  public String search(final String text, final boolean forward)
+  {
+    final SignalQuery query;
+    try {
+      query = model.parseQuery(text);
+    } catch (final IllegalArgumentException e) {
+      final String title = "Invalid Search Query";
+      JOptionPane.showMessageDialog(this, e.getMessage(), title,
+                                    JOptionPane.WARNING_MESSAGE);
+      return null;
+    }
+    final double leftMostVisibleCycle =
+      diagramPanel.getLeftMostVisibleCycle();
+    final double rightMostVisibleCycle =
+      diagramPanel.getRightMostVisibleCycle();
+    final boolean continued =
+      (searchMatch >= leftMostVisibleCycle) &&
+      (searchMatch < rightMostVisibleCycle);
+    final int match;
+    if (forward) {
+      final int fromCycle =
+        continued ? searchMatch + 1 : (int)Math.ceil(leftMostVisibleCycle);
+      match = model.findNext(query, fromCycle);
+    } else {
+      final int fromCycle =
+        continued ?
+        searchMatch - 1 : (int)Math.ceil(rightMostVisibleCycle) - 1;
+      match = model.findPrevious(query, fromCycle);
+    }
+    if (match < 0) {
+      return "no match";
+    }
+    searchMatch = match;
+    diagramPanel.ensureCycleIsVisible(match);
+    diagramPanel.rebuildToolTips();
+    return "cycle #" + (match + model.getDroppedCycles());
+  }
+
   public RegisterIntSignal getInternalSignalByAddress(final int address)
   {
     return model.getInternalSignalByAddress(address);
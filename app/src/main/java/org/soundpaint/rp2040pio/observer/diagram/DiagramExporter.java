@@ -0,0 +1,631 @@
+/*
+ * @(#)DiagramExporter.java 1.00 26/10/19
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio.observer.diagram;
+
+import java.awt.Color;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.imageio.ImageIO;
+import org.soundpaint.rp2040pio.CmdOptions;
+import org.soundpaint.rp2040pio.Emulator;
+import org.soundpaint.rp2040pio.IOUtils;
+import org.soundpaint.rp2040pio.LocalAddressSpace;
+import org.soundpaint.rp2040pio.Probe;
+import org.soundpaint.rp2040pio.monitor.Monitor;
+import org.soundpaint.rp2040pio.monitor.commands.Script;
+import org.soundpaint.rp2040pio.sdk.SDK;
+
+/**
+ * Renders a timing diagram without any GUI.  A monitor script is
+ * executed on an embedded emulator, and the selected range of cycles
+ * is then emulated at full speed and rendered with the same signal
+ * configuration and painting code as the interactive diagram, either
+ * into a single SVG document or into a sequence of PNG tiles.  Cycles
+ * are rendered in chunks as soon as they have been recorded, such
+ * that memory consumption does not grow with the number of exported
+ * cycles.  Alternatively, the recorded cycles are streamed into a
+ * capture file for viewing them later in the interactive diagram.
+ */
+public class DiagramExporter
+{
+  private static final String PRG_TITLE = "DiagramExporter";
+  private static final String PRG_FULL_NAME =
+    "Timing Diagram Exporter Version 0.1";
+
+  /**
+   * Number of cycles that are emulated at once before the recorded
+   * cycles are rendered.
+   */
+  private static final int EXPORT_CHUNK_CYCLES = 10000;
+
+  /**
+   * Minimum number of cycles to keep in the capture window.  Labels
+   * of values that do not change for more cycles are centered over
+   * the kept cycles only.
+   */
+  private static final int EXPORT_WINDOW_CYCLES = 1 << 20;
+  private static final double LEGEND_WIDTH = 200.0;
+  private static final double LABEL_MARGIN_BOTTOM = 4.0;
+  private static final double LABEL_MARGIN_RIGHT = 10.0;
+
+  private static final CmdOptions.FlagOptionDeclaration optVersion =
+    CmdOptions.createFlagOption(false, 'V', "version", CmdOptions.Flag.OFF,
+                                "display version information and exit");
+  private static final CmdOptions.FlagOptionDeclaration optHelp =
+    CmdOptions.createFlagOption(false, 'h', "help", CmdOptions.Flag.OFF,
+                                "display this help text and exit");
+  private static final CmdOptions.StringOptionDeclaration optExample =
+    CmdOptions.createStringOption("NAME", false, 'e', "example", null,
+                                  "name of built-in example script to " +
+                                  "execute before emulating");
+  private static final CmdOptions.StringOptionDeclaration optFile =
+    CmdOptions.createStringOption("PATH", false, 'f', "file", null,
+                                  "path of monitor script file to " +
+                                  "execute before emulating");
+  private static final CmdOptions.IntegerOptionDeclaration optStart =
+    CmdOptions.createIntegerOption("CYCLE", false, 's', "start", 0,
+                                   "number of cycles to emulate without " +
+                                   "recording before the exported range");
+  private static final CmdOptions.IntegerOptionDeclaration optCycles =
+    CmdOptions.createIntegerOption("COUNT", false, 'c', "cycles", 100,
+                                   "number of cycles to export");
+  private static final CmdOptions.StringOptionDeclaration optOutput =
+    CmdOptions.createStringOption("PATH", false, 'o', "output", null,
+                                  "path of SVG file (if ending with " +
+                                  "\".svg\"), name pattern of PNG tiles " +
+                                  "(if ending with \".png\") or path of " +
+                                  "capture file (if ending with \"" +
+                                  CaptureFile.EXTENSION + "\") to write");
+  private static final CmdOptions.FloatOptionDeclaration optZoom =
+    CmdOptions.createFloatOption("PIXELS", false, 'z', "zoom",
+                                 (float)Constants.ZOOM_DEFAULT,
+                                 "width of a cycle in pixels");
+  private static final CmdOptions.IntegerOptionDeclaration optTileCycles =
+    CmdOptions.createIntegerOption("COUNT", false, 't', "tile-cycles", 1000,
+                                   "number of cycles per PNG tile");
+  private static final CmdOptions.StringOptionDeclaration optSignals =
+    CmdOptions.createStringOption("LABELS", false, 'l', "signals", null,
+                                  "comma-separated labels of signals to " +
+                                  "export rather than the default " +
+                                  "selection");
+  private static final List<CmdOptions.OptionDeclaration<?>>
+    optionDeclarations =
+    Arrays.asList(new CmdOptions.OptionDeclaration<?>[]
+                  { optVersion, optHelp, optExample, optFile, optStart,
+                    optCycles, optOutput, optZoom, optTileCycles,
+                    optSignals });
+
+  /**
+   * Destination of the rendered cycles.
+   */
+  private abstract class Output
+  {
+    protected long renderedCycles;
+
+    protected Output()
+    {
+      renderedCycles = 0;
+    }
+
+    /**
+     * Renders all recorded cycles that have not yet been rendered
+     * and that can already be rendered in their final appearance,
+     * or all remaining cycles, if recording has been completed.
+     */
+    abstract void render(final boolean completed) throws IOException;
+
+    abstract void close() throws IOException;
+  }
+
+  private class SvgOutput extends Output
+  {
+    private final String path;
+    private final PrintWriter out;
+    private final SvgGraphics2D g;
+
+    private SvgOutput(final String path) throws IOException
+    {
+      this.path = path;
+      final OutputStreamWriter writer =
+        new OutputStreamWriter(new FileOutputStream(path),
+                               StandardCharsets.UTF_8);
+      out = new PrintWriter(new BufferedWriter(writer));
+      final double width =
+        LEGEND_WIDTH + SignalPanel.LEFT_MARGIN + cycles * zoom;
+      g = new SvgGraphics2D(out, width, diagramHeight);
+      g.setColor(Color.WHITE);
+      g.fill(new Rectangle2D.Double(0.0, 0.0, width, diagramHeight));
+      paintLabels(g);
+      checkError();
+    }
+
+    private void checkError() throws IOException
+    {
+      if (g.checkError()) {
+        throw new IOException("failed writing " + path);
+      }
+    }
+
+    @Override
+    void render(final boolean completed) throws IOException
+    {
+      final long absoluteSize =
+        model.getDroppedCycles() + model.getSignalSize();
+      final int columnCycles = SignalPanel.getColumnCycles(zoom);
+      final long stopCycle;
+      if (completed) {
+        stopCycle = absoluteSize;
+      } else if (columnCycles > 0) {
+        stopCycle = absoluteSize - absoluteSize % columnCycles;
+      } else {
+        // last cycle's appearance depends on the next cycle
+        stopCycle = absoluteSize - 1;
+      }
+      if (stopCycle <= renderedCycles) return;
+      final Graphics2D rangeG = (Graphics2D)g.create();
+      rangeG.translate(LEGEND_WIDTH + SignalPanel.LEFT_MARGIN +
+                       renderedCycles * zoom, 0.0);
+      paintRange(rangeG, renderedCycles, stopCycle, 0);
+      rangeG.dispose();
+      renderedCycles = stopCycle;
+      checkError();
+    }
+
+    @Override
+    void close() throws IOException
+    {
+      g.finish();
+      checkError();
+      out.close();
+    }
+  }
+
+  private class PngOutput extends Output
+  {
+    private final String pathPrefix;
+    private final int marginCycles;
+    private final int pendingCycles;
+    private int tileIndex;
+
+    private PngOutput(final String pathPrefix) throws IOException
+    {
+      this.pathPrefix = pathPrefix;
+      final int columnCycles = SignalPanel.getColumnCycles(zoom);
+      marginCycles = SignalPanel.getMarginCycles(zoom, columnCycles);
+      // in per-cycle mode, last cycle's appearance depends on next cycle
+      pendingCycles = marginCycles + (columnCycles > 0 ? 0 : 1);
+      tileIndex = 0;
+      final BufferedImage labels =
+        createImage((int)Math.ceil(LEGEND_WIDTH));
+      final Graphics2D g = labels.createGraphics();
+      try {
+        paintLabels(g);
+      } finally {
+        g.dispose();
+      }
+      writeImage(labels, pathPrefix + "-labels.png");
+    }
+
+    private BufferedImage createImage(final int width)
+    {
+      final int height = (int)Math.ceil(diagramHeight);
+      final BufferedImage image =
+        new BufferedImage(Math.max(width, 1), Math.max(height, 1),
+                          BufferedImage.TYPE_INT_ARGB);
+      final Graphics2D g = image.createGraphics();
+      try {
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+      } finally {
+        g.dispose();
+      }
+      return image;
+    }
+
+    private void writeImage(final BufferedImage image, final String path)
+      throws IOException
+    {
+      if (!ImageIO.write(image, "png", new File(path))) {
+        throw new IOException("no PNG writer available for " + path);
+      }
+    }
+
+    /**
+     * Tile number n covers cycles n * tileCycles inclusive to (n + 1)
+     * * tileCycles exclusive, such that the tiles seamlessly fit
+     * next to each other in the order of their numbers, provided
+     * that the width of a tile in pixels is integral.
+     */
+    private void renderTile(final long startCycle, final long stopCycle,
+                            final boolean isLastTile)
+      throws IOException
+    {
+      final double width =
+        (stopCycle - startCycle) * zoom +
+        (isLastTile ? SignalPanel.LEFT_MARGIN : 0.0);
+      final BufferedImage image = createImage((int)Math.ceil(width));
+      final Graphics2D g = image.createGraphics();
+      try {
+        g.translate(SignalPanel.LEFT_MARGIN, 0.0);
+        paintRange(g, startCycle, stopCycle, marginCycles);
+      } finally {
+        g.dispose();
+      }
+      writeImage(image, String.format("%s-%04d.png", pathPrefix, tileIndex));
+    }
+
+    @Override
+    void render(final boolean completed) throws IOException
+    {
+      final long absoluteSize =
+        model.getDroppedCycles() + model.getSignalSize();
+      while (renderedCycles < absoluteSize) {
+        final long stopCycle =
+          Math.min(renderedCycles + tileCycles, absoluteSize);
+        if (!completed &&
+            ((stopCycle - renderedCycles < tileCycles) ||
+             (stopCycle + pendingCycles > absoluteSize)))
+          break;
+        renderTile(renderedCycles, stopCycle,
+                   completed && (stopCycle == absoluteSize));
+        renderedCycles = stopCycle;
+        tileIndex++;
+      }
+    }
+
+    @Override
+    void close()
+    {
+      // each tile has already been written as a file of its own
+    }
+  }
+
+  private final PrintStream console;
+  private final CmdOptions options;
+  private final int cycles;
+  private final double zoom;
+  private final int tileCycles;
+  private DiagramModel model;
+  private List<Signal> visibleSignals;
+  private double diagramHeight;
+
+  private DiagramExporter()
+  {
+    throw new UnsupportedOperationException("unsupported empty constructor");
+  }
+
+  private DiagramExporter(final PrintStream console, final String[] argv)
+  {
+    if (console == null) {
+      throw new NullPointerException("console");
+    }
+    this.console = console;
+    options = parseArgs(argv);
+    cycles = options.getValue(optCycles);
+    zoom = options.getValue(optZoom);
+    tileCycles = options.getValue(optTileCycles);
+  }
+
+  private CmdOptions parseArgs(final String argv[])
+  {
+    final CmdOptions options;
+    try {
+      options = new CmdOptions(PRG_TITLE, PRG_FULL_NAME, null,
+                               optionDeclarations);
+      options.parse(argv);
+      checkValidity(options);
+    } catch (final CmdOptions.ParseException e) {
+      console.println(e.getMessage());
+      System.exit(-1);
+      throw new InternalError();
+    }
+    if (options.getValue(optVersion) == CmdOptions.Flag.ON) {
+      console.println(PRG_FULL_NAME);
+      console.println(org.soundpaint.rp2040pio.Constants.
+                      getEmulatorIdAndVersionWithOs());
+      System.exit(0);
+      throw new InternalError();
+    }
+    if (options.getValue(optHelp) == CmdOptions.Flag.ON) {
+      console.println(options.getFullInfo());
+      System.exit(0);
+      throw new InternalError();
+    }
+    if (options.getValue(optOutput) == null) {
+      console.println("missing output file, use option \"-o\"");
+      System.exit(-1);
+      throw new InternalError();
+    }
+    return options;
+  }
+
+  /**
+   * Streams the recorded cycles into a capture file rather than
+   * rendering them.
+   */
+  private class CaptureOutput extends Output
+  {
+    private CaptureOutput(final String path) throws IOException
+    {
+      model.startCapture(new File(path));
+    }
+
+    @Override
+    void render(final boolean completed)
+    {
+      // cycles are written while being recorded
+    }
+
+    @Override
+    void close() throws IOException
+    {
+      model.stopCapture();
+    }
+  }
+
+  private static boolean isSvgPath(final String path)
+  {
+    return path.toLowerCase().endsWith(".svg");
+  }
+
+  private static boolean isPngPath(final String path)
+  {
+    return path.toLowerCase().endsWith(".png");
+  }
+
+  private static boolean isCapturePath(final String path)
+  {
+    return path.toLowerCase().endsWith(CaptureFile.EXTENSION);
+  }
+
+  private void checkValidity(final CmdOptions options)
+    throws CmdOptions.ParseException
+  {
+    if (options.isDefined(optExample) && options.isDefined(optFile)) {
+      throw new CmdOptions.
+        ParseException("at most one of options \"-e\" and \"-f\" may be " +
+                       "specified at the same time");
+    }
+    if (options.getValue(optStart) < 0) {
+      throw new CmdOptions.
+        ParseException("CYCLE must be a non-negative value", optStart);
+    }
+    if (options.getValue(optCycles) <= 0) {
+      throw new CmdOptions.
+        ParseException("COUNT must be a positive value", optCycles);
+    }
+    final float zoom = options.getValue(optZoom);
+    if ((zoom <= 0.0f) || (zoom > Constants.ZOOM_MAX)) {
+      throw new CmdOptions.
+        ParseException("PIXELS must be a positive value not greater than " +
+                       Constants.ZOOM_MAX, optZoom);
+    }
+    if (options.getValue(optTileCycles) <= 0) {
+      throw new CmdOptions.
+        ParseException("COUNT must be a positive value", optTileCycles);
+    }
+    final String output = options.getValue(optOutput);
+    if ((output != null) && !isSvgPath(output) && !isPngPath(output) &&
+        !isCapturePath(output)) {
+      throw new CmdOptions.
+        ParseException("PATH must end with \".svg\", \".png\" or \"" +
+                       CaptureFile.EXTENSION + "\"", optOutput);
+    }
+  }
+
+  private boolean executeScript(final SDK sdk) throws IOException
+  {
+    final String scriptId;
+    final String resourcePath;
+    if (options.isDefined(optExample)) {
+      scriptId = options.getValue(optExample);
+      resourcePath = String.format("/examples/%s.mon", scriptId);
+    } else if (options.isDefined(optFile)) {
+      scriptId = options.getValue(optFile);
+      resourcePath = scriptId;
+    } else {
+      return true;
+    }
+    final LineNumberReader in = IOUtils.getReaderForResourcePath(resourcePath);
+    try {
+      final Script script =
+        new Script(console, Monitor.getMiniMonitor(null, sdk));
+      return script.executeScript(in, scriptId, false);
+    } finally {
+      in.close();
+    }
+  }
+
+  private void selectSignals() throws IOException
+  {
+    if (options.isDefined(optSignals)) {
+      final Set<String> labels = new HashSet<String>();
+      for (final String label : options.getValue(optSignals).split(",")) {
+        labels.add(label.trim());
+      }
+      final Set<String> knownLabels = new HashSet<String>();
+      for (final Signal signal : model) {
+        knownLabels.add(signal.getLabel());
+        signal.setVisible(labels.contains(signal.getLabel()));
+      }
+      for (final String label : labels) {
+        if (!knownLabels.contains(label)) {
+          throw new IOException("unknown signal: " + label);
+        }
+      }
+    }
+    visibleSignals = new ArrayList<Signal>();
+    diagramHeight = Constants.TOP_MARGIN + Constants.BOTTOM_MARGIN;
+    for (final Signal signal : model) {
+      if (signal.getVisible()) {
+        visibleSignals.add(signal);
+        diagramHeight += signal.getDisplayHeight();
+      }
+    }
+  }
+
+  private void paintLabels(final Graphics2D g)
+  {
+    g.setColor(Color.BLACK);
+    g.setFont(Constants.DEFAULT_FONT);
+    final FontMetrics fm = g.getFontMetrics(g.getFont());
+    double y = Constants.TOP_MARGIN;
+    for (final Signal signal : visibleSignals) {
+      y += signal.getDisplayHeight();
+      final String label = signal.getLabel();
+      g.drawString(label,
+                   (float)(LEGEND_WIDTH - fm.stringWidth(label) -
+                           LABEL_MARGIN_RIGHT),
+                   (float)(y - LABEL_MARGIN_BOTTOM));
+    }
+  }
+
+  /**
+   * Paints the specified range of cycles of all visible signals,
+   * with the start of the range at the origin of the graphics
+   * context.  Cycles are specified as absolute numbers, i.e. counted
+   * from the start of recording, independent of dropped cycles.
+   */
+  private void paintRange(final Graphics2D g,
+                          final long fromAbsoluteCycle,
+                          final long toAbsoluteCycle,
+                          final int marginCycles)
+  {
+    final long droppedCycles = model.getDroppedCycles();
+    final int size = model.getSignalSize();
+    final int fromCycle = (int)(fromAbsoluteCycle - droppedCycles);
+    final int toCycle = (int)(toAbsoluteCycle - droppedCycles);
+    final int columnCycles = SignalPanel.getColumnCycles(zoom);
+    if (columnCycles == 0) {
+      for (int cycle = fromCycle; cycle <= toCycle; cycle++) {
+        SignalPanel.paintGridLine(g, (cycle - fromCycle) * zoom,
+                                  diagramHeight);
+      }
+    }
+    g.setColor(Color.BLACK);
+    g.setStroke(SignalPanel.PLAIN_STROKE);
+    double y = Constants.TOP_MARGIN;
+    for (final Signal signal : visibleSignals) {
+      y += signal.getDisplayHeight();
+      if (columnCycles > 0) {
+        SignalPanel.paintSummary(g, signal, zoom, y, columnCycles,
+                                 fromCycle, toCycle, droppedCycles, size);
+      } else {
+        SignalPanel.paintCycles(g, signal, zoom, y, marginCycles,
+                                fromCycle, toCycle, size);
+      }
+    }
+  }
+
+  private Output createOutput() throws IOException
+  {
+    final String path = options.getValue(optOutput);
+    if (isSvgPath(path)) {
+      return new SvgOutput(path);
+    }
+    if (isCapturePath(path)) {
+      return new CaptureOutput(path);
+    }
+    return new PngOutput(path.substring(0, path.length() - 4));
+  }
+
+  private void export(final SDK sdk) throws IOException
+  {
+    model = new DiagramModel(console, sdk);
+    final int marginCycles =
+      SignalPanel.getMarginCycles(zoom, SignalPanel.getColumnCycles(zoom));
+    final long windowCycles =
+      Math.max(EXPORT_WINDOW_CYCLES,
+               (long)tileCycles + marginCycles + 2 * EXPORT_CHUNK_CYCLES);
+    model.setCaptureWindow(windowCycles, 0);
+    model.addDefaultSignals();
+    selectSignals();
+    final int start = options.getValue(optStart);
+    sdk.runCycles(new Probe[0], start, EXPORT_CHUNK_CYCLES,
+                  (samples, skippedCycles) -> {});
+    final Output output = createOutput();
+    try {
+      int remaining = cycles;
+      while (remaining > 0) {
+        final int chunk = Math.min(EXPORT_CHUNK_CYCLES, remaining);
+        model.applyCycles(chunk);
+        remaining -= chunk;
+        output.render(remaining == 0);
+      }
+    } finally {
+      output.close();
+    }
+    console.printf("exported cycles %d…%d to %s%n",
+                   start, start + cycles - 1, options.getValue(optOutput));
+  }
+
+  private int run()
+  {
+    try {
+      final Emulator emulator = new Emulator(console, 0); // no state trace
+      final LocalAddressSpace memory = new LocalAddressSpace(emulator);
+      final SDK sdk = new SDK(console, memory);
+      if (!executeScript(sdk)) {
+        console.println("export aborted due to failed script");
+        return -1;
+      }
+      export(sdk);
+      return 0;
+    } catch (final IOException e) {
+      console.println("export failed: " + e.getMessage());
+      return -1;
+    }
+  }
+
+  public static void main(final String argv[])
+  {
+    System.setProperty("java.awt.headless", "true");
+    final int exitCode = new DiagramExporter(System.out, argv).run();
+    System.exit(exitCode);
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -24,24 +24,196 @@
  */
 package org.soundpaint.rp2040pio.observer.diagram;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.function.IntPredicate;
 import java.util.function.Supplier;
+import org.soundpaint.rp2040pio.Constants;
+import org.soundpaint.rp2040pio.GPIOIOBank0Registers;
+import org.soundpaint.rp2040pio.PIOEmuRegisters;
+import org.soundpaint.rp2040pio.PIORegisters;
+import org.soundpaint.rp2040pio.PicoEmuRegisters;
+import org.soundpaint.rp2040pio.Probe;
+import org.soundpaint.rp2040pio.SampleSubscription;
 import org.soundpaint.rp2040pio.sdk.SDK;
 
+/**
+ * Holds the recorded signals.  All methods that modify signals
+ * synchronize on the model, such that there is a single writer, the
+ * recorder, at any time.  Readers, i.e. threads that paint the
+ * signals, do not lock the model.  Instead, recorded cycles are
+ * published to them from time to time: Each signal publishes an
+ * immutable state of its history, and only thereafter, the model
+ * publishes the number of cycles and dropped cycles as an immutable
+ * pair via a volatile field.  Since cycles are only ever appended,
+ * readers that work on the published number of cycles see a stable
+ * prefix of each signal's history, even if that signal has already
+ * been published again.
+ *
+ * Dropping the oldest cycles or resetting the signals, however,
+ * shifts the relative index of each cycle.  Similar to optimistic
+ * reads with a StampedLock, readers therefore obtain a stamp via
+ * method <code>tryOptimisticRead()</code> before reading, and check
+ * via method <code>validate()</code> after reading, if the signals
+ * have been shifted in between, in which case the result of reading
+ * is to be discarded.
+ *
+ * Recorded cycles can additionally be streamed into a capture file.
+ * Conversely, the signals of a capture file can be viewed instead of
+ * recorded signals.  In the latter case, the signals' values are
+ * read from the memory-mapped file rather than being held in memory.
+ *
+ * @see CaptureFile
+ */
 public class DiagramModel implements Iterable<Signal>
 {
+  /**
+   * Number of cycles per chunk of samples that the emulator delivers
+   * while emulating cycles.
+   */
+  private static final int EMULATE_CHUNK_CYCLES = 1000;
+
+  /**
+   * Minimum period of time between two subsequent publications of
+   * the recorded cycles while emulating cycles.  Besides limiting
+   * the overhead of publishing, this leaves readers enough time for
+   * reading before cycles are shifted again.
+   */
+  private static final int PUBLISH_PERIOD_MILLIS = 20;
+
+  /**
+   * Maximum period of time to wait for the emulator to deliver
+   * samples while following the emulation.
+   */
+  private static final int FOLLOW_TIMEOUT_MILLIS = 100;
+
+  /**
+   * Minimum period of time between two subsequent updates of the
+   * statistics of the subscription while following the emulation.
+   */
+  private static final int STATISTICS_PERIOD_MILLIS = 500;
+
+  /**
+   * Maximum number of cycles to keep, such that relative cycle
+   * indices fit into int values.  Absolute cycle numbers, i.e. the
+   * number of dropped cycles, are not limited.
+   */
+  private static final int MAX_SIGNAL_SIZE = Integer.MAX_VALUE;
+
+  private static final Probe PROBE_WALLCLOCK_LSB =
+    new Probe(PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.
+                                          WALLCLOCK_LSB));
+  private static final Probe PROBE_WALLCLOCK_MSB =
+    new Probe(PicoEmuRegisters.getAddress(PicoEmuRegisters.Regs.
+                                          WALLCLOCK_MSB));
+
+  /**
+   * Provides the values that have been sampled for a single cycle.
+   * Probes and registers that have not been sampled are evaluated
+   * upon the emulator as a fallback.
+   */
+  private class SampledCycle implements SampleSource
+  {
+    private final SDK sdk;
+    private final HashMap<Probe, Integer> probe2index;
+    private final int probeCount;
+    private int[] samples;
+    private int offset;
+
+    private SampledCycle(final SDK sdk, final Probe[] probes)
+    {
+      this.sdk = sdk;
+      probe2index = new HashMap<Probe, Integer>();
+      for (int index = 0; index < probes.length; index++) {
+        probe2index.put(probes[index], index);
+      }
+      probeCount = probes.length;
+    }
+
+    private void select(final int[] samples, final int cycle)
+    {
+      this.samples = samples;
+      offset = cycle * probeCount;
+    }
+
+    private long getWallClock()
+    {
+      final int lsbIndex = probe2index.get(PROBE_WALLCLOCK_LSB);
+      final int msbIndex = probe2index.get(PROBE_WALLCLOCK_MSB);
+      return
+        ((long)samples[offset + msbIndex] << 32) |
+        (samples[offset + lsbIndex] & 0xffffffffL);
+    }
+
+    @Override
+    public int readAddress(final int address) throws IOException
+    {
+      return readProbe(new Probe(address));
+    }
+
+    @Override
+    public int readProbe(final Probe probe) throws IOException
+    {
+      final Integer index = probe2index.get(probe);
+      if (index != null) {
+        return samples[offset + index];
+      }
+      return probe.evaluate(sdk::readAddress);
+    }
+  }
+
+  /**
+   * Number of cycles and dropped cycles at the time of their
+   * publication.
+   */
+  private static class PublishedCycles
+  {
+    private static final PublishedCycles EMPTY = new PublishedCycles(0, 0);
+
+    private final int signalSize;
+    private final long droppedCycles;
+
+    private PublishedCycles()
+    {
+      throw new UnsupportedOperationException("unsupported empty constructor");
+    }
+
+    private PublishedCycles(final int signalSize, final long droppedCycles)
+    {
+      this.signalSize = signalSize;
+      this.droppedCycles = droppedCycles;
+    }
+  }
+
   private final PrintStream console;
   private final SDK sdk;
   private final HashMap<Integer, RegisterIntSignal> address2internalSignal;
   private final List<Signal> signals;
   private long wallClock;
-  private int signalSize;
+  private long signalSize;
+  private long droppedCycles;
+  private boolean shifted;
+  private long publishTime;
+  private volatile PublishedCycles published;
+  private volatile int shiftStamp;
+  private long maxCycles;
+  private long maxBytes;
+  private volatile IntPredicate freezeTrigger;
+  private volatile boolean frozen;
+  private int version;
+  private volatile boolean following;
+  private volatile SampleSubscription.Statistics followStatistics;
+  private CaptureFile.Writer captureWriter;
+  private CaptureFile.Reader captureReader;
 
   private DiagramModel()
   {
@@ -63,6 +235,169 @@ public class DiagramModel implements Iterable<Signal>
     signals = new ArrayList<Signal>();
     wallClock = -1;
     signalSize = 0;
+    droppedCycles = 0;
+    shifted = false;
+    publishTime = 0;
+    published = PublishedCycles.EMPTY;
+    shiftStamp = 0;
+    maxCycles = 0;
+    maxBytes = 0;
+    freezeTrigger = null;
+    frozen = false;
+    version = 0;
+    following = false;
+    followStatistics = null;
+    captureWriter = null;
+    captureReader = null;
+  }
+
+  /**
+   * Limits the recorded history to a capture window of the most
+   * recent cycles.  Whenever the window is exceeded, the oldest
+   * cycles are dropped.
+   *
+   * @param maxCycles Maximum number of cycles to keep, or 0 for no
+   * limit other than the range of relative cycle indices.
+   * @param maxBytes Maximum number of bytes to spend for storing
+   * the values of all signals, or 0 for no limit.
+   */
+  public synchronized void setCaptureWindow(final long maxCycles,
+                                            final long maxBytes)
+  {
+    if (maxCycles < 0) {
+      throw new IllegalArgumentException("maxCycles < 0: " + maxCycles);
+    }
+    if (maxBytes < 0) {
+      throw new IllegalArgumentException("maxBytes < 0: " + maxBytes);
+    }
+    this.maxCycles = maxCycles;
+    this.maxBytes = maxBytes;
+    applyCaptureWindow();
+    publish();
+  }
+
+  public long getMaxCycles() { return maxCycles; }
+
+  public long getMaxBytes() { return maxBytes; }
+
+  /**
+   * Arms the specified trigger.  After each recorded cycle, the
+   * trigger is called with the index of that cycle.  As soon as it
+   * returns true, the capture window is frozen, i.e. no more cycles
+   * are dropped, such that the cycles that led to the trigger
+   * condition are preserved.  Passing <code>null</code>
+   * disarms any previously armed trigger.
+   */
+  public void setFreezeTrigger(final IntPredicate freezeTrigger)
+  {
+    this.freezeTrigger = freezeTrigger;
+  }
+
+  public synchronized void setFrozen(final boolean frozen)
+  {
+    this.frozen = frozen;
+    if (!frozen) {
+      applyCaptureWindow();
+      publish();
+    }
+  }
+
+  public boolean isFrozen() { return frozen; }
+
+  /**
+   * Makes all cycles that have been recorded or dropped so far
+   * visible to readers.
+   */
+  private synchronized void publish()
+  {
+    if (shifted) {
+      shiftStamp++; // odd stamp: shifting in progress
+    }
+    for (final Signal signal : address2internalSignal.values()) {
+      signal.publish();
+    }
+    for (final Signal signal : signals) {
+      signal.publish();
+    }
+    published = new PublishedCycles((int)signalSize, droppedCycles);
+    if (shifted) {
+      shiftStamp++;
+      shifted = false;
+    }
+    publishTime = System.currentTimeMillis();
+  }
+
+  /**
+   * Returns a stamp for validating a subsequent read of the signals
+   * by method <code>validate()</code>.
+   */
+  public int tryOptimisticRead()
+  {
+    return shiftStamp;
+  }
+
+  /**
+   * Returns true, if the relative indices of the published cycles
+   * have not been shifted since the specified stamp has been
+   * obtained, such that anything read from the signals in the
+   * meantime is consistent with the number of cycles and dropped
+   * cycles read in the meantime.
+   */
+  public boolean validate(final int stamp)
+  {
+    return ((stamp & 0x1) == 0x0) && (stamp == shiftStamp);
+  }
+
+  /**
+   * Returns the number of oldest cycles that have been dropped from
+   * the capture window since the signals have been reset, i.e. the
+   * absolute number of the cycle with index 0, as published.
+   */
+  public long getDroppedCycles()
+  {
+    return published.droppedCycles;
+  }
+
+  public synchronized long getMemoryUsage()
+  {
+    long memoryUsage = 0;
+    for (final Signal signal : address2internalSignal.values()) {
+      memoryUsage += signal.getMemoryUsage();
+    }
+    for (final Signal signal : signals) {
+      memoryUsage += signal.getMemoryUsage();
+    }
+    return memoryUsage;
+  }
+
+  private void dropCycles(final int count)
+  {
+    for (final Signal signal : address2internalSignal.values()) {
+      signal.dropCycles(count);
+    }
+    for (final Signal signal : signals) {
+      signal.dropCycles(count);
+    }
+    signalSize -= count;
+    droppedCycles += count;
+    shifted = true;
+  }
+
+  private void applyCaptureWindow()
+  {
+    if (frozen) return;
+    if ((maxCycles > 0) && (signalSize > maxCycles)) {
+      dropCycles((int)(signalSize - maxCycles));
+    }
+    if (maxBytes > 0) {
+      /*
+       * Memory is released only chunk-wise, hence drop a fraction of
+       * the window at once rather than a single cycle.
+       */
+      while ((signalSize > 1) && (getMemoryUsage() > maxBytes)) {
+        dropCycles((int)(signalSize / 16 + 1));
+      }
+    }
   }
 
   public Iterator<Signal> iterator()
@@ -75,13 +410,14 @@ public class DiagramModel implements Iterable<Signal>
     return address2internalSignal.values();
   }
 
-  public Signal addInternalSignal(final Diagram diagram,
-                                  final String label, final int address)
+  public synchronized Signal addInternalSignal(final String label,
+                                               final int address)
     throws IOException
   {
     final RegisterIntSignal signal =
-      SignalFactory.createInternal(diagram, sdk, label, address);
+      SignalFactory.createInternal(this, sdk, label, address);
     address2internalSignal.put(address, signal);
+    version++;
     return signal;
   }
 
@@ -90,17 +426,17 @@ public class DiagramModel implements Iterable<Signal>
     return address2internalSignal.get(address);
   }
 
-  public Signal addSignal(final Signal signal)
+  public synchronized Signal addSignal(final Signal signal)
   {
     if (signal == null) {
       throw new NullPointerException("signal");
     }
     signals.add(signal);
+    version++;
     return signal;
   }
 
-  public Signal addSignal(final Diagram diagram,
-                          final String label, final int address,
+  public Signal addSignal(final String label, final int address,
                           final int msb, final int lsb,
                           final List<SignalFilter> displayFilters,
                           final int pioNum, final int smNum)
@@ -108,71 +444,174 @@ public class DiagramModel implements Iterable<Signal>
   {
     final Signal signal =
       SignalFactory.
-      createFromRegister(diagram, sdk, label, address, msb, lsb,
+      createFromRegister(this, sdk, label, address, msb, lsb,
                          SignalRendering.Hex, displayFilters, pioNum, smNum);
     return addSignal(signal);
   }
 
-  public Signal addSignal(final Diagram diagram,
-                          final String label, final int address,
+  public Signal addSignal(final String label, final int address,
                           final int msb, final int lsb)
     throws IOException
   {
-    return addSignal(diagram, label, address, msb, lsb, null, -1, -1);
+    return addSignal(label, address, msb, lsb, null, -1, -1);
   }
 
-  public Signal addSignal(final Diagram diagram,
-                          final String label, final int address, final int bit,
+  public Signal addSignal(final String label,
+                          final int address, final int bit,
                           final List<SignalFilter> displayFilters,
                           final int pioNum, final int smNum)
     throws IOException
   {
     final RegisterBitSignal signal =
-      SignalFactory.createFromRegister(diagram, sdk, label, address, bit,
+      SignalFactory.createFromRegister(this, sdk, label, address, bit,
                                        displayFilters, pioNum, smNum);
     return addSignal(signal);
   }
 
-  public Signal addSignal(final Diagram diagram, final String label,
-                          final int address, final int bit)
+  public Signal addSignal(final String label, final int address,
+                          final int bit)
     throws IOException
   {
-    return addSignal(diagram, label, address, bit, null, -1, -1);
+    return addSignal(label, address, bit, null, -1, -1);
   }
 
-  public Signal addSignal(final Diagram diagram,
-                          final String label, final int address)
+  public Signal addSignal(final String label, final int address)
     throws IOException
   {
-    return addSignal(diagram, label, address, 31, 0);
+    return addSignal(label, address, 31, 0);
   }
 
-  public Signal addSignal(final Diagram diagram,
-                          final String label, final int address,
+  public Signal addSignal(final String label, final int address,
                           final List<SignalFilter> displayFilters,
                           final int pioNum, final int smNum)
     throws IOException
   {
-    return addSignal(diagram, label, address, 31, 0,
+    return addSignal(label, address, 31, 0,
                      displayFilters, pioNum, smNum);
   }
 
-  public Signal addSignal(final Diagram diagram, final int address)
+  public Signal addSignal(final int address)
     throws IOException
   {
-    return addSignal(diagram, null, address);
+    return addSignal(null, address);
   }
 
-  public Signal addSignal(final Diagram diagram, final int address,
+  public Signal addSignal(final int address,
                           final List<SignalFilter> displayFilters,
                           final int pioNum, final int smNum)
     throws IOException
   {
-    return addSignal(diagram, null, address, displayFilters, pioNum, smNum);
+    return addSignal(null, address, displayFilters, pioNum, smNum);
+  }
+
+  /**
+   * Add pseudo signals that are not directly displayed, but provided
+   * for shared use for instruction rendering.
+   */
+  private void addInternalSignals() throws IOException
+  {
+    for (int pioNum = 0; pioNum < Constants.PIO_NUM; pioNum++) {
+      for (int smNum = 0; smNum < Constants.SM_COUNT; smNum++) {
+        final String labelPrefix = String.format("_PIO%d_SM%d_", pioNum, smNum);
+        final int addressPinCtrl =
+          PIORegisters.getSMAddress(pioNum, smNum,
+                                    PIORegisters.Regs.SM0_PINCTRL);
+        final String labelPinCtrl = labelPrefix + "PINCTRL";
+        addInternalSignal(labelPinCtrl, addressPinCtrl);
+        final int addressExecCtrl =
+          PIORegisters.getSMAddress(pioNum, smNum,
+                                    PIORegisters.Regs.SM0_EXECCTRL);
+        final String labelExecCtrl = labelPrefix + "EXECCTRL";
+        addInternalSignal(labelExecCtrl, addressExecCtrl);
+        final int addressDelayCycle =
+          PIOEmuRegisters.getSMAddress(pioNum, smNum,
+                                       PIOEmuRegisters.Regs.SM0_DELAY_CYCLE);
+        final String labelDelayCycle = labelPrefix + "DELAY_CYCLE";
+        addInternalSignal(labelDelayCycle, addressDelayCycle);
+        final int addressDelay =
+          PIOEmuRegisters.getSMAddress(pioNum, smNum,
+                                       PIOEmuRegisters.Regs.SM0_DELAY);
+        final String labelDelay = labelPrefix + "DELAY";
+        addInternalSignal(labelDelay, addressDelay);
+        final int addressInstrOrigin =
+          PIOEmuRegisters.getSMAddress(pioNum, smNum,
+                                       PIOEmuRegisters.Regs.SM0_INSTR_ORIGIN);
+        final String labelInstrOrigin = labelPrefix + "INSTR_ORIGIN";
+        addInternalSignal(labelInstrOrigin, addressInstrOrigin);
+      }
+    }
+  }
+
+  /**
+   * Adds the internal signals and the default set of displayable
+   * signals, with some of them made visible.
+   */
+  public void addDefaultSignals() throws IOException
+  {
+    addInternalSignals();
+    addSignal(SignalFactory.createRuler("cycle#")).setVisible(true);
+    addSignal(SignalFactory.createClockSignal("clock")).setVisible(true);
+    addSignal("SM0_CLK_ENABLE", PIOEmuRegisters.
+              getAddress(0, PIOEmuRegisters.Regs.SM0_CLK_ENABLE), 0).
+      setVisible(true);
+    final GPIOIOBank0Registers.Regs regGpio0Status =
+      GPIOIOBank0Registers.Regs.GPIO0_STATUS;
+    for (int gpioNum = 0; gpioNum < 30; gpioNum++) {
+      String label = "GPIO" + gpioNum + " (out from peri)";
+      int address =
+        GPIOIOBank0Registers.getGPIOAddress(gpioNum, regGpio0Status);
+      addSignal(label + " Value", address, 8, 8).setVisible(gpioNum < 2);
+      addSignal(label + " Level", address, 8, null, -1, -1);
+
+      // input
+      label = "GPIO" + gpioNum + " (in from pad)";
+      address = GPIOIOBank0Registers.getGPIOAddress(gpioNum, regGpio0Status);
+      addSignal(label + " Value", address, 17, 17);
+      addSignal(label + " Level", address, 17);
+
+      label = "GPIO" + gpioNum + " (oe to pad)";
+      address = GPIOIOBank0Registers.getGPIOAddress(gpioNum, regGpio0Status);
+      addSignal(label + " Value", address, 13,13);
+      addSignal(label + " Level", address, 13);
+    }
+    final List<SignalFilter> noDelayFilter =
+      ValueFilterPanel.createFilters(true, false);
+    final int addrSm0Pc =
+      PIOEmuRegisters.getAddress(0, PIOEmuRegisters.Regs.SM0_PC);
+    addSignal("SM0_PC", addrSm0Pc);
+    addSignal("SM0_PC (hidden delay)", addrSm0Pc, noDelayFilter, 0, 0);
+    final int instrAddr =
+      PIORegisters.getAddress(0, PIORegisters.Regs.SM0_INSTR);
+    final List<SignalFilter> displayFilters =
+      ValueFilterPanel.createFilters(true, true);
+    addSignal(SignalFactory.
+              createFromRegister(this, sdk, "PIO0_SM0_INSTR",
+                                 instrAddr, 15, 0,
+                                 SignalRendering.Mnemonic,
+                                 displayFilters, 0, 0)).
+      setVisible(true);
+    final int addrSm0RegX =
+      PIOEmuRegisters.getAddress(0, PIOEmuRegisters.Regs.SM0_REGX);
+    addSignal("SM0_REGX", addrSm0RegX).setVisible(true);
+    final int addrSm0RegY =
+      PIOEmuRegisters.getAddress(0, PIOEmuRegisters.Regs.SM0_REGY);
+    addSignal("SM0_REGY", addrSm0RegY);
+  }
+
+  /**
+   * Returns a number that changes whenever signals are added,
+   * replaced or reset, i.e. whenever previously rendered views of
+   * the signals may have become invalid for reasons other than
+   * recording or dropping cycles.
+   */
+  public int getVersion()
+  {
+    return version;
   }
 
-  public void resetSignals()
+  public synchronized void resetSignals()
   {
+    closeCaptureReader();
     for (final Signal signal : address2internalSignal.values()) {
       signal.reset();
     }
@@ -180,25 +619,62 @@ public class DiagramModel implements Iterable<Signal>
       signal.reset();
     }
     signalSize = 0;
+    droppedCycles = 0;
+    shifted = true;
+    version++;
+    publish();
   }
 
-  private void appendRecordToSignals() throws IOException
+  private void appendRecordToSignals(final SampleSource source)
+    throws IOException
   {
+    if (signalSize == MAX_SIGNAL_SIZE) {
+      // even a frozen window must not exceed the range of indices
+      dropCycles(1);
+    }
     for (final Signal signal : address2internalSignal.values()) {
-      signal.record();
+      signal.record(source);
     }
     for (final Signal signal : signals) {
       if (signal.getVisible()) {
-        signal.record();
+        signal.record(source);
       }
     }
     signalSize++;
+    if (captureWriter != null) {
+      captureWriter.endCycle();
+    }
+    if (!frozen && (freezeTrigger != null) &&
+        freezeTrigger.test((int)(signalSize - 1))) {
+      frozen = true;
+    }
+    applyCaptureWindow();
   }
 
-  private void checkForUpdate() throws IOException
+  private synchronized Probe[] collectProbes()
   {
-    try {
-      final long wallClock = sdk.getWallClock();
+    final Set<Probe> probes = new LinkedHashSet<Probe>();
+    probes.add(PROBE_WALLCLOCK_LSB);
+    probes.add(PROBE_WALLCLOCK_MSB);
+    for (final Signal signal : address2internalSignal.values()) {
+      signal.collectProbes(probes);
+    }
+    for (final Signal signal : signals) {
+      if (signal.getVisible()) {
+        signal.collectProbes(probes);
+      }
+    }
+    return probes.toArray(new Probe[probes.size()]);
+  }
+
+  private synchronized void appendSampledCycles(final SampledCycle source,
+                                                final int[] samples,
+                                                final int cycles)
+    throws IOException
+  {
+    for (int cycle = 0; cycle < cycles; cycle++) {
+      source.select(samples, cycle);
+      final long wallClock = source.getWallClock();
       if (wallClock == this.wallClock) {
         // nothing to update
       } else {
@@ -206,29 +682,353 @@ public class DiagramModel implements Iterable<Signal>
           // discontinuity in time => restart view
           resetSignals();
         }
-        appendRecordToSignals();
+        appendRecordToSignals(source);
       }
       this.wallClock = wallClock;
-    } catch (final IOException e) {
-      console.println("error: failed reading wall clock: " + e.getMessage());
+    }
+    if (System.currentTimeMillis() - publishTime >= PUBLISH_PERIOD_MILLIS) {
+      publish();
     }
   }
 
+  /**
+   * Emulates the specified number of cycles.  Rather than triggering
+   * each clock phase and reading each signal's registers one by one,
+   * the probes of all signals, including their display filters, are
+   * evaluated by the emulator itself, and only their values are
+   * delivered in chunks of cycles.  Signals with identical probes
+   * share a single probe.  The model is locked only per chunk, and
+   * recorded cycles are published to readers at most every
+   * PUBLISH_PERIOD_MILLIS milliseconds and when all cycles have been
+   * emulated, such that this method may run on a thread of its own
+   * at full speed while the signals are painted.
+   */
   public void applyCycles(final int count) throws IOException
   {
     if (count < 0) {
       throw new IllegalArgumentException("count < 0: " + count);
     }
-    for (int cycle = 0; cycle < count; cycle++) {
-      sdk.triggerCyclePhase0(true);
-      checkForUpdate();
-      sdk.triggerCyclePhase1(true);
+    if (captureReader != null) {
+      // return from viewing a capture file to recording
+      resetSignals();
+    }
+    if (following) {
+      // cycles are recorded by the follower
+      sdk.runCycles(new Probe[0], count, 0, (samples, cycles) -> {});
+      return;
+    }
+    final Probe[] probes = collectProbes();
+    final SampledCycle sampledCycle = new SampledCycle(sdk, probes);
+    try {
+      sdk.runCycles(probes, count, EMULATE_CHUNK_CYCLES,
+                    (samples, cycles) ->
+                    appendSampledCycles(sampledCycle, samples, cycles));
+    } finally {
+      publish();
+    }
+  }
+
+  /**
+   * Appends the specified cycles that have been sampled for the
+   * specified probes, unless the signals meanwhile require a
+   * different set of probes.  In the latter case, the cycles are
+   * discarded rather than evaluating the missing probes upon the
+   * emulator, since the emulator may be stalled waiting for the
+   * follower to fetch further samples.
+   *
+   * @return True, if the cycles have been appended.
+   */
+  private synchronized boolean appendFollowedCycles(final SampledCycle source,
+                                                    final Probe[] probes,
+                                                    final int[] samples,
+                                                    final int cycles)
+    throws IOException
+  {
+    if (!Arrays.equals(collectProbes(), probes)) {
+      return false;
+    }
+    if (captureReader != null) {
+      // viewing a capture file => discard followed cycles
+      return true;
+    }
+    appendSampledCycles(source, samples, cycles);
+    return true;
+  }
+
+  /**
+   * Records each cycle that the emulator runs, no matter which client
+   * triggers it, until the current thread is interrupted.  To this
+   * end, the probes of all signals are subscribed losslessly on the
+   * emulation server, such that the emulator stalls rather than
+   * dropping any cycle whenever the specified number of buffered
+   * cycles has not yet been fetched.  While following, method
+   * <code>applyCycles()</code> just runs the cycles without sampling
+   * them.  Since the emulator may stall until this method fetches
+   * further samples, it must run on a thread of its own with the
+   * specified SDK connected separately to the emulation server.
+   * Note that a stall affects all clients of the emulator: while
+   * stalled, their cycles and register accesses are blocked, too.
+   *
+   * @param follower The SDK to subscribe on and fetch samples from.
+   * @param capacityCycles The number of cycles that the emulator may
+   * run ahead of this method.
+   */
+  public void follow(final SDK follower, final int capacityCycles)
+    throws IOException
+  {
+    if (follower == null) {
+      throw new NullPointerException("follower");
+    }
+    if (capacityCycles <= 0) {
+      throw new IllegalArgumentException("capacityCycles <= 0: " +
+                                         capacityCycles);
+    }
+    following = true;
+    Probe[] probes = null;
+    int subscriptionId = -1;
+    try {
+      long statisticsTime = 0;
+      int[] samples = null;
+      SampledCycle sampledCycle = null;
+      while (!Thread.currentThread().isInterrupted()) {
+        final Probe[] currentProbes = collectProbes();
+        if (!Arrays.equals(currentProbes, probes)) {
+          if (subscriptionId >= 0) {
+            follower.unsubscribe(subscriptionId);
+            subscriptionId = -1;
+          }
+          probes = currentProbes;
+          subscriptionId = follower.subscribe(probes, capacityCycles, true);
+          samples = new int[EMULATE_CHUNK_CYCLES * probes.length];
+          sampledCycle = new SampledCycle(follower, probes);
+        }
+        final int cycles =
+          follower.fetchSamples(subscriptionId, samples, EMULATE_CHUNK_CYCLES,
+                                FOLLOW_TIMEOUT_MILLIS);
+        if (cycles > 0) {
+          appendFollowedCycles(sampledCycle, probes, samples, cycles);
+        } else {
+          publish(); // emulator is idle
+        }
+        final long now = System.currentTimeMillis();
+        if (now - statisticsTime >= STATISTICS_PERIOD_MILLIS) {
+          followStatistics =
+            follower.getSubscriptionStatistics(subscriptionId);
+          statisticsTime = now;
+        }
+      }
+    } finally {
+      following = false;
+      followStatistics = null;
+      if (subscriptionId >= 0) {
+        try {
+          follower.unsubscribe(subscriptionId);
+        } catch (final IOException e) {
+          // connection lost => server drops subscription anyway
+        }
+      }
+      publish();
+    }
+  }
+
+  public boolean isFollowing() { return following; }
+
+  /**
+   * Starts streaming each subsequently recorded cycle of the
+   * internal signals and of all currently visible signals into the
+   * specified capture file.
+   */
+  public synchronized void startCapture(final File file) throws IOException
+  {
+    if (file == null) {
+      throw new NullPointerException("file");
+    }
+    if (captureWriter != null) {
+      throw new IllegalStateException("already capturing to " +
+                                      captureWriter.getPath());
+    }
+    if (captureReader != null) {
+      throw new IllegalStateException("can not capture while viewing " +
+                                      captureReader.getPath());
+    }
+    final List<Signal> capturedSignals = new ArrayList<Signal>();
+    final List<CaptureFile.SignalInfo> signalInfos =
+      new ArrayList<CaptureFile.SignalInfo>();
+    for (final Signal signal : address2internalSignal.values()) {
+      capturedSignals.add(signal);
+      signalInfos.add(CaptureFile.SignalInfo.fromSignal(signal, true));
+    }
+    for (final Signal signal : signals) {
+      if (signal.getVisible()) {
+        capturedSignals.add(signal);
+        signalInfos.add(CaptureFile.SignalInfo.fromSignal(signal, false));
+      }
+    }
+    captureWriter = new CaptureFile.Writer(file, signalInfos);
+    for (int column = 0; column < capturedSignals.size(); column++) {
+      capturedSignals.get(column).
+        setCaptureColumn(captureWriter.getColumn(column));
+    }
+  }
+
+  /**
+   * Completes and closes the capture file, if any.
+   *
+   * @return The number of cycles written, or -1, if not capturing.
+   */
+  public synchronized int stopCapture() throws IOException
+  {
+    if (captureWriter == null) {
+      return -1;
+    }
+    for (final Signal signal : address2internalSignal.values()) {
+      signal.setCaptureColumn(null);
+    }
+    for (final Signal signal : signals) {
+      signal.setCaptureColumn(null);
+    }
+    final CaptureFile.Writer writer = captureWriter;
+    captureWriter = null;
+    writer.close();
+    return writer.getCycles();
+  }
+
+  public synchronized boolean isCapturing()
+  {
+    return captureWriter != null;
+  }
+
+  /**
+   * Replaces the recorded signals by the signals of the specified
+   * capture file.  Their values are read from the file on demand,
+   * such that opening even huge captures is fast.  The capture is
+   * viewed until the signals are reset or further cycles are
+   * emulated.  Meanwhile, cycles of a followed emulation are
+   * discarded.
+   */
+  public synchronized void openCapture(final File file) throws IOException
+  {
+    if (file == null) {
+      throw new NullPointerException("file");
+    }
+    if (captureWriter != null) {
+      throw new IllegalStateException("can not view capture file while " +
+                                      "capturing to " +
+                                      captureWriter.getPath());
+    }
+    final CaptureFile.Reader reader = new CaptureFile.Reader(file);
+    resetSignals();
+    final List<Signal> capturedSignals = new ArrayList<Signal>();
+    try {
+      final List<CaptureFile.SignalInfo> signalInfos =
+        reader.getSignalInfos();
+      for (int column = 0; column < signalInfos.size(); column++) {
+        final CaptureFile.SignalInfo signalInfo = signalInfos.get(column);
+        final Signal signal;
+        if (signalInfo.getKind() == CaptureFile.Kind.INTERNAL) {
+          final int address = signalInfo.getAddress();
+          if (!address2internalSignal.containsKey(address)) {
+            addInternalSignal(signalInfo.getLabel(), address);
+          }
+          signal = address2internalSignal.get(address);
+        } else {
+          signal = signalInfo.createSignal(this, sdk);
+          signal.setVisible(true);
+          capturedSignals.add(signal);
+        }
+        signal.setStore(reader.getColumn(column));
+      }
+    } catch (final IOException | RuntimeException e) {
+      reader.close();
+      resetSignals();
+      throw e;
     }
+    captureReader = reader;
+    signals.clear();
+    signals.addAll(capturedSignals);
+    wallClock = -1;
+    signalSize = reader.getCycles();
+    droppedCycles = 0;
+    shifted = true;
+    version++;
+    publish();
   }
 
+  /**
+   * Returns the path of the capture file currently being viewed,
+   * or null, if the recorded signals are viewed.
+   */
+  public synchronized String getViewedCapture()
+  {
+    return captureReader != null ? captureReader.getPath() : null;
+  }
+
+  private void closeCaptureReader()
+  {
+    if (captureReader == null) return;
+    try {
+      captureReader.close();
+    } catch (final IOException e) {
+      console.println("failed closing capture file: " + e.getMessage());
+    }
+    captureReader = null;
+  }
+
+  /**
+   * Returns the most recent statistics of the subscription while
+   * following the emulation, or null, if not following.
+   */
+  public SampleSubscription.Statistics getFollowStatistics()
+  {
+    return followStatistics;
+  }
+
+  /**
+   * Returns the number of published cycles that have not been
+   * dropped.
+   */
   public int getSignalSize()
   {
-    return signalSize;
+    return published.signalSize;
+  }
+
+  /**
+   * Parses a textual search query over the recorded signals.
+   *
+   * @see SignalQuery#parse
+   */
+  public synchronized SignalQuery parseQuery(final String text)
+  {
+    return SignalQuery.parse(text, signals);
+  }
+
+  /**
+   * Returns the smallest cycle greater than or equal to the specified
+   * cycle that matches the specified query, or -1, if there is no
+   * such cycle.
+   */
+  public synchronized int findNext(final SignalQuery query, final int cycle)
+  {
+    if (query == null) {
+      throw new NullPointerException("query");
+    }
+    publish(); // searching works on recorded rather than published cycles
+    return query.findNext(cycle);
+  }
+
+  /**
+   * Returns the greatest cycle less than or equal to the specified
+   * cycle that matches the specified query, or -1, if there is no
+   * such cycle.
+   */
+  public synchronized int findPrevious(final SignalQuery query,
+                                       final int cycle)
+  {
+    if (query == null) {
+      throw new NullPointerException("query");
+    }
+    publish(); // searching works on recorded rather than published cycles
+    return query.findPrevious(cycle);
   }
 
   public void pullSignals(final List<Signal> targetSignals)
@@ -239,7 +1039,7 @@ public class DiagramModel implements Iterable<Signal>
     }
   }
 
-  public void pushSignals(final List<Signal> newSignals)
+  public synchronized void pushSignals(final List<Signal> newSignals)
   {
     signals.clear();
     for (final Signal signal : newSignals) {
@@ -162,7 +162,7 @@ public class DiagramViewPanel extends JPanel implements Scrollable
       });
   }
 
-  public void setZoom(final int zoom)
+  public void setZoom(final double zoom)
   {
     final double leftMostCycle = getLeftMostVisibleCycle();
     signalPanel.setZoom(zoom);
@@ -28,6 +28,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
 import java.io.PrintStream;
 import javax.swing.KeyStroke;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JMenu;
 import javax.swing.JMenuItem;
 import org.soundpaint.rp2040pio.SwingUtils;
@@ -65,6 +66,24 @@ public class MenuBar
       setAccessibleDescription("Open Script for Execution");
     script.addActionListener((event) -> diagram.showScriptDialog());
     fileMenu.add(script);
+
+    final JMenuItem openCapture = new JMenuItem("Open Capture…");
+    openCapture.setMnemonic(KeyEvent.VK_A);
+    openCapture.getAccessibleContext().
+      setAccessibleDescription("View Signals of Capture File");
+    openCapture.addActionListener((event) -> diagram.openCapture());
+    fileMenu.add(openCapture);
+
+    final JCheckBoxMenuItem recordCapture =
+      new JCheckBoxMenuItem("Record to Capture File…");
+    recordCapture.setMnemonic(KeyEvent.VK_R);
+    recordCapture.getAccessibleContext().
+      setAccessibleDescription("Stream Recorded Cycles into Capture File");
+    recordCapture.addActionListener((event) ->
+                                    recordCapture.setSelected
+                                    (diagram.setCapturing
+                                     (recordCapture.isSelected())));
+    fileMenu.add(recordCapture);
   }
 
   @Override
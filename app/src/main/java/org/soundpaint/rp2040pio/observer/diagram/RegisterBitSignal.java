@@ -31,7 +31,6 @@ import java.io.IOException;
 import java.util.List;
 import java.util.function.Supplier;
 import org.soundpaint.rp2040pio.Bit;
-import org.soundpaint.rp2040pio.sdk.SDK;
 
 public class RegisterBitSignal extends ValuedSignal<Bit>
 {
@@ -68,13 +67,21 @@ public class RegisterBitSignal extends ValuedSignal<Bit>
   }
 
   @Override
-  protected Bit sampleValue() throws IOException
+  protected long encodeValue(final Bit value)
   {
-    final SignalRendering.SignalParams signalParams = getSignalParams();
-    final SDK sdk = signalParams.getSDK();
-    final int address = signalParams.getAddress();
-    final int bit = getBit();
-    return Bit.fromValue(sdk.readAddress(address, bit, bit));
+    return value.getValue();
+  }
+
+  @Override
+  protected Bit decodeValue(final long value)
+  {
+    return Bit.fromValue((int)value);
+  }
+
+  @Override
+  protected Bit sampleValue(final SampleSource source) throws IOException
+  {
+    return Bit.fromValue(source.readProbe(getValueProbe()));
   }
 
   @Override
@@ -118,6 +125,32 @@ public class RegisterBitSignal extends ValuedSignal<Bit>
       fillG.fill(rectangle);
     }
   }
+
+  @Override
+  public void paintSummary(final Graphics2D g, final double zoom,
+                           final double xStart, final double yBottom,
+                           final int fromCycle, final int toCycle)
+  {
+    final SignalSummary.Span span = getSummary(fromCycle, toCycle);
+    final double xStop = xStart + (toCycle - fromCycle) * zoom;
+    final double yTop = yBottom - SIGNAL_HEIGHT;
+    if (span.hasDefinedValues()) {
+      if (span.getMin() != span.getMax()) {
+        // toggling within range => draw as solid block
+        g.fill(new Rectangle2D.Double(xStart, yTop,
+                                      xStop - xStart, SIGNAL_HEIGHT));
+      } else {
+        final double yStable = span.getMin() != 0 ? yTop : yBottom;
+        g.draw(new Line2D.Double(xStart, yStable, xStop, yStable));
+        if (span.isChanged()) {
+          g.draw(new Line2D.Double(xStart, yBottom, xStart, yTop));
+        }
+      }
+    }
+    if (span.hasUndefinedValues()) {
+      fillUndefined(g, xStart, xStop, yBottom);
+    }
+  }
 }
 
 /*
@@ -33,7 +33,6 @@ import java.io.IOException;
 import java.util.List;
 import java.util.Objects;
 import java.util.function.Supplier;
-import org.soundpaint.rp2040pio.sdk.SDK;
 
 public class RegisterIntSignal extends ValuedSignal<Integer>
 {
@@ -64,14 +63,21 @@ public class RegisterIntSignal extends ValuedSignal<Integer>
   }
 
   @Override
-  protected Integer sampleValue() throws IOException
+  protected long encodeValue(final Integer value)
   {
-    final SignalRendering.SignalParams signalParams = getSignalParams();
-    final SDK sdk = signalParams.getSDK();
-    final int address = signalParams.getAddress();
-    final int msb = signalParams.getMsb();
-    final int lsb = signalParams.getLsb();
-    return sdk.readAddress(address, msb, lsb);
+    return SignalHistory.encode(value);
+  }
+
+  @Override
+  protected Integer decodeValue(final long value)
+  {
+    return (int)value;
+  }
+
+  @Override
+  protected Integer sampleValue(final SampleSource source) throws IOException
+  {
+    return source.readProbe(getValueProbe());
   }
 
   @Override
@@ -106,7 +112,7 @@ public class RegisterIntSignal extends ValuedSignal<Integer>
                                        final double xStart,
                                        final double yBottom,
                                        final String label,
-                                       final int cycles)
+                                       final long cycles)
   {
     if (label != null) {
       g.setFont(Constants.LABEL_FONT);
@@ -171,6 +177,24 @@ public class RegisterIntSignal extends ValuedSignal<Integer>
                        getRenderedValue(cycle), getNotChangedSince(cycle) - 1);
     }
   }
+
+  @Override
+  public void paintSummary(final Graphics2D g, final double zoom,
+                           final double xStart, final double yBottom,
+                           final int fromCycle, final int toCycle)
+  {
+    final SignalSummary.Span span = getSummary(fromCycle, toCycle);
+    final double xStop = xStart + (toCycle - fromCycle) * zoom;
+    final double yTop = yBottom - SIGNAL_HEIGHT;
+    g.draw(new Line2D.Double(xStart, yTop, xStop, yTop));
+    g.draw(new Line2D.Double(xStart, yBottom, xStop, yBottom));
+    if (span.isChanged()) {
+      g.draw(new Line2D.Double(xStart, yBottom, xStart, yTop));
+    }
+    if (span.hasUndefinedValues()) {
+      fillUndefined(g, xStart, xStop, yBottom);
+    }
+  }
 }
 
 /*
@@ -0,0 +1,57 @@
+/*
+ * @(#)SampleSource.java 1.00 26/10/19
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio.observer.diagram;
+
+import java.io.IOException;
+import org.soundpaint.rp2040pio.Probe;
+
+/**
+ * Source of register values that signals record their values from.
+ * This may be either the live emulator or a set of values that has
+ * been sampled in advance for a particular cycle.
+ */
+@FunctionalInterface
+public interface SampleSource
+{
+  int readAddress(final int address) throws IOException;
+
+  /**
+   * Returns the value of the specified probe.  This default
+   * implementation evaluates the probe upon the registers read via
+   * method readAddress().  Sources of values that have been sampled
+   * in advance return the sampled value, if available.
+   */
+  default int readProbe(final Probe probe) throws IOException
+  {
+    return probe.evaluate(this::readAddress);
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -27,6 +27,8 @@ package org.soundpaint.rp2040pio.observer.diagram;
 import java.awt.Graphics2D;
 import java.io.IOException;
 import java.util.List;
+import java.util.Set;
+import org.soundpaint.rp2040pio.Probe;
 
 public interface Signal
 {
@@ -36,13 +38,26 @@ public interface Signal
   int size();
   String getToolTipText(final int cycle);
   void record() throws IOException;
-  int getNotChangedSince(final int cycle);
+  void record(final SampleSource source) throws IOException;
+  void collectProbes(final Set<Probe> probes);
+  void publish();
+  void setCaptureColumn(final CaptureFile.ColumnWriter column);
+  void setStore(final SignalStore store);
+  void dropCycles(final int count);
+  long getDroppedCycles();
+  long getMemoryUsage();
+  long getNotChangedSince(final int cycle);
+  int findNext(final int cycle, final SignalCondition condition);
+  int findPrevious(final int cycle, final SignalCondition condition);
   void setVisible(final boolean visible);
   boolean getVisible();
   void paintCycle(final Graphics2D g, final double zoom,
                   final double xStart, final double yBottom,
                   final int cycle,
                   final boolean isFirstCycle, final boolean isLastCycle);
+  void paintSummary(final Graphics2D g, final double zoom,
+                    final double xStart, final double yBottom,
+                    final int fromCycle, final int toCycle);
   void createToolTip(final List<ToolTip> toolTips,
                      final int cycle,
                      final boolean isFirstCycle,
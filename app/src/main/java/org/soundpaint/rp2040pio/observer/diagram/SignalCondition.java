@@ -0,0 +1,157 @@
+/*
+ * @(#)SignalCondition.java 1.00 26/10/19
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio.observer.diagram;
+
+/**
+ * Condition on the values of a single signal, as used for searching
+ * recorded signals.  Value conditions hold for each cycle whose value
+ * fulfills the condition, while edge conditions hold only for the
+ * cycle where the value changes.  A value is considered as high, if
+ * it is defined and non-zero, and as low, if it is zero.
+ */
+public class SignalCondition
+{
+  public enum Kind
+  {
+    EQUALS("=="),
+    NOT_EQUALS("!="),
+    RISES("rises"),
+    FALLS("falls"),
+    CHANGES("changes");
+
+    private final String operator;
+
+    private Kind(final String operator)
+    {
+      this.operator = operator;
+    }
+
+    public String getOperator()
+    {
+      return operator;
+    }
+
+    public boolean isEdge()
+    {
+      return (this != EQUALS) && (this != NOT_EQUALS);
+    }
+  };
+
+  private final Kind kind;
+  private final long value;
+
+  private SignalCondition()
+  {
+    throw new UnsupportedOperationException("unsupported empty constructor");
+  }
+
+  /**
+   * Creates an edge condition.
+   */
+  public SignalCondition(final Kind kind)
+  {
+    this(kind, 0);
+    if (!kind.isEdge()) {
+      throw new IllegalArgumentException("missing value for condition: " +
+                                         kind);
+    }
+  }
+
+  /**
+   * Creates a value condition for the specified encoded value.  For
+   * edge conditions, the value is ignored.
+   */
+  public SignalCondition(final Kind kind, final long value)
+  {
+    if (kind == null) {
+      throw new NullPointerException("kind");
+    }
+    this.kind = kind;
+    this.value = kind.isEdge() ? 0 : value;
+  }
+
+  public Kind getKind()
+  {
+    return kind;
+  }
+
+  public long getValue()
+  {
+    return value;
+  }
+
+  /**
+   * Returns true if this is a value condition that holds for the
+   * specified encoded value.
+   */
+  public boolean acceptsValue(final long value)
+  {
+    switch (kind) {
+    case EQUALS:
+      return value == this.value;
+    case NOT_EQUALS:
+      return !SignalHistory.isNull(value) && (value != this.value);
+    default:
+      return false;
+    }
+  }
+
+  /**
+   * Returns true if this is an edge condition that holds for a change
+   * from the specified previous encoded value to the specified
+   * encoded value.
+   */
+  public boolean acceptsEdge(final long previousValue, final long value)
+  {
+    switch (kind) {
+    case RISES:
+      return (previousValue == 0) && !SignalHistory.isNull(value) &&
+        (value != 0);
+    case FALLS:
+      return !SignalHistory.isNull(previousValue) && (previousValue != 0) &&
+        (value == 0);
+    case CHANGES:
+      return previousValue != value;
+    default:
+      return false;
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return
+      kind.isEdge() ?
+      kind.getOperator() :
+      String.format("%s 0x%x", kind.getOperator(), value);
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
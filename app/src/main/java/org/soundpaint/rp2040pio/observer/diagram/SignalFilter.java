@@ -24,57 +24,56 @@
  */
 package org.soundpaint.rp2040pio.observer.diagram;
 
-import java.io.IOException;
 import java.util.Objects;
 import org.soundpaint.rp2040pio.PIOEmuRegisters;
-import org.soundpaint.rp2040pio.sdk.SDK;
+import org.soundpaint.rp2040pio.Probe;
 
 public enum SignalFilter
 {
   NO_DELAY("Cycle is a delay cycle on below target state machine.",
-           (sdk, pioNum, smNum) -> {
-             final PIOEmuRegisters.Regs sm0DelayCycle =
-               PIOEmuRegisters.Regs.SM0_DELAY_CYCLE;
-             final int smDelayCycleAddress =
-               PIOEmuRegisters.getSMAddress(pioNum, smNum, sm0DelayCycle);
-             final boolean isDelayCycle =
-               sdk.readAddress(smDelayCycleAddress) != 0x0;
-             return !isDelayCycle;
-           }),
+           PIOEmuRegisters.Regs.SM0_DELAY_CYCLE, "#0,eq"),
   CLK_ENABLED("CLK enable signal is false for below target state machine.",
-              (sdk, pioNum, smNum) -> {
-                final PIOEmuRegisters.Regs sm0ClkEnable =
-                  PIOEmuRegisters.Regs.SM0_CLK_ENABLE;
-                final int clkEnableAddress =
-                  PIOEmuRegisters.getSMAddress(pioNum, smNum, sm0ClkEnable);
-                final int clkEnable = sdk.readAddress(clkEnableAddress) & 0x1;
-                return clkEnable != 0x0;
-              });
-
-  @FunctionalInterface
-  private static interface FilterFunction
-  {
-    boolean acceptCurrentSignalValue(final SDK sdk,
-                                     final int pioNum, final int smNum)
-      throws IOException;
-  }
+              PIOEmuRegisters.Regs.SM0_CLK_ENABLE, "0:0");
 
   private final String description;
-  private final FilterFunction filterFunction;
+  private final PIOEmuRegisters.Regs sm0Register;
+  private final String condition;
 
+  /**
+   * @param condition Probe expression tokens that are applied to the
+   * register's value and evaluate to a value other than 0, if and
+   * only if the filter accepts the cycle.
+   */
   private SignalFilter(final String description,
-                       final FilterFunction filterFunction)
+                       final PIOEmuRegisters.Regs sm0Register,
+                       final String condition)
   {
     Objects.requireNonNull(description);
+    Objects.requireNonNull(sm0Register);
+    Objects.requireNonNull(condition);
     this.description = description;
-    this.filterFunction = filterFunction;
+    this.sm0Register = sm0Register;
+    this.condition = condition;
+  }
+
+  /**
+   * Returns the address of the register that this filter evaluates
+   * for the specified state machine.
+   */
+  public int getAddress(final int pioNum, final int smNum)
+  {
+    return PIOEmuRegisters.getSMAddress(pioNum, smNum, sm0Register);
   }
 
-  public boolean acceptCurrentSignalValue(final SDK sdk,
-                                          final int pioNum, final int smNum)
-    throws IOException
+  /**
+   * Returns a probe that evaluates to a value other than 0, if and
+   * only if this filter accepts the current cycle of the specified
+   * state machine.
+   */
+  public Probe getProbe(final int pioNum, final int smNum)
   {
-    return filterFunction.acceptCurrentSignalValue(sdk, pioNum, smNum);
+    return new Probe(String.format("@%08x,%s",
+                                   getAddress(pioNum, smNum), condition));
   }
 
   @Override
@@ -0,0 +1,831 @@
+/*
+ * @(#)SignalHistory.java 1.00 26/10/19
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio.observer.diagram;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact per-signal storage of recorded values.  Rather than
+ * storing one record per cycle, values are run-length encoded: A new
+ * run is started only when the value changes (or when a change is
+ * enforced), and each run just holds the cycle where it starts and
+ * its value, both as primitive values.  Runs are stored in
+ * fixed-size chunks of primitive arrays, such that growing the
+ * history never needs to copy existing data.  Since runs are sorted
+ * by their start cycle, the value of any cycle is found by binary
+ * search, and the number of cycles since the most recent change is
+ * derived from the start of the run rather than being stored.
+ *
+ * The oldest cycles can be dropped, e.g. for limiting the history
+ * to a capture window of the most recent cycles.  Chunks that hold
+ * only dropped runs are released by replacing the (comparably small)
+ * array of chunk references.  Cycle indices as passed to and
+ * returned by the public methods of this class are relative to the
+ * oldest cycle that has not been dropped.
+ *
+ * For displaying many cycles at once, the history additionally
+ * maintains a multi-resolution summary of its values.
+ *
+ * Since the run starts are exactly the cycles where the value
+ * changes, they also serve as sorted index of changes for searching
+ * the history.  For searching specific values, an additional index
+ * from each value to the ascending list of runs that hold this value
+ * is created upon the first search and from then on maintained
+ * while recording, such that each search step costs logarithmic
+ * time in the number of runs.
+ *
+ * The history is written by a single thread, the recorder, while
+ * any number of other threads may read it without locking.  Runs
+ * and chunks are never modified once they are visible to readers:
+ * New runs are appended behind the published ones, and released
+ * chunks are never reused.  Readers hence see an immutable state of
+ * the history, that the recorder replaces by calling method
+ * <code>publish()</code>.  Methods <code>size()</code>,
+ * <code>getDroppedCycles()</code>, <code>getValue()</code>,
+ * <code>getNotChangedSince()</code> and <code>summarize()</code>
+ * read the most recently published state, while all other methods
+ * must be called by the recorder only (or by threads that
+ * synchronize with it).
+ *
+ * @see SignalSummary
+ */
+public class SignalHistory implements SignalStore
+{
+  /**
+   * Encoded value that represents an undefined value.  Since regular
+   * values are zero-extended 32 bit values, this value never
+   * collides with any regular value.
+   */
+  public static final long NULL_VALUE = Long.MIN_VALUE;
+
+  private static final int CHUNK_SIZE = 1024;
+  private static final int CHUNK_BYTES = CHUNK_SIZE * 2 * Long.BYTES;
+
+  /**
+   * Approximate number of bytes of a value index entry, excluding
+   * its list of runs.
+   */
+  private static final int INDEX_ENTRY_BYTES = 96;
+
+  private static class Chunk
+  {
+    private final long[] runStarts;
+    private final long[] runValues;
+
+    private Chunk()
+    {
+      runStarts = new long[CHUNK_SIZE];
+      runValues = new long[CHUNK_SIZE];
+    }
+  }
+
+  /**
+   * Ascending list of run numbers.  Runs that have been dropped from
+   * the history are removed from the front of the list only lazily.
+   */
+  private static class RunList
+  {
+    private int[] runs;
+    private int first;
+    private int size;
+
+    private RunList()
+    {
+      runs = new int[4];
+      first = 0;
+      size = 0;
+    }
+
+    /**
+     * Appends the specified run and returns the number of bytes
+     * additionally allocated for doing so.
+     */
+    private int add(final int run)
+    {
+      int allocated = 0;
+      if (size == runs.length) {
+        if (first >= runs.length / 2) {
+          System.arraycopy(runs, first, runs, 0, size - first);
+        } else {
+          allocated = runs.length * Integer.BYTES;
+          runs = Arrays.copyOf(runs, 2 * runs.length);
+        }
+        size -= first;
+        first = 0;
+      }
+      runs[size++] = run;
+      return allocated;
+    }
+
+    private boolean isEmpty()
+    {
+      return first == size;
+    }
+
+    private int getMemoryUsage()
+    {
+      return runs.length * Integer.BYTES;
+    }
+
+    /**
+     * Returns the index of the first run that is greater than or
+     * equal to the specified run, or the list size, if there is no
+     * such run.
+     */
+    private int ceilingIndex(final int run)
+    {
+      int low = first;
+      int high = size;
+      while (low < high) {
+        final int mid = (low + high) >>> 1;
+        if (runs[mid] < run) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      return low;
+    }
+
+    private void dropBelow(final int run)
+    {
+      first = ceilingIndex(run);
+    }
+
+    /**
+     * Returns the smallest run that is greater than or equal to the
+     * specified run, or -1, if there is no such run.
+     */
+    private int ceiling(final int run)
+    {
+      final int index = ceilingIndex(run);
+      return index < size ? runs[index] : -1;
+    }
+
+    /**
+     * Returns the greatest run that is less than or equal to the
+     * specified run, or -1, if there is no such run.
+     */
+    private int floor(final int run)
+    {
+      final int index = ceilingIndex(run + 1) - 1;
+      return index >= first ? runs[index] : -1;
+    }
+  }
+
+  /**
+   * Immutable view of the history at the time of its publication.
+   */
+  static class State
+  {
+    private final Chunk[] chunks;
+    private final int firstChunk;
+    private final int firstRun;
+    private final int runCount;
+    private final long droppedCycles;
+    private final long size;
+    private final SignalSummary.State summary;
+
+    private State()
+    {
+      throw new UnsupportedOperationException("unsupported empty constructor");
+    }
+
+    private State(final SignalHistory history)
+    {
+      chunks = history.chunks;
+      firstChunk = history.firstChunk;
+      firstRun = history.firstRun;
+      runCount = history.runCount;
+      droppedCycles = history.droppedCycles;
+      size = history.size;
+      summary = history.summary.publish();
+    }
+
+    private int size()
+    {
+      return (int)(size - droppedCycles);
+    }
+
+    long getDroppedCycles()
+    {
+      return droppedCycles;
+    }
+
+    private int findRun(final int cycle)
+    {
+      if ((cycle < 0) || (cycle >= size())) {
+        return -1;
+      }
+      return
+        SignalHistory.findRun(chunks, firstChunk, firstRun, runCount,
+                              cycle + droppedCycles);
+    }
+
+    /**
+     * Adds the values and changes of the runs that cover the
+     * specified range of absolute cycles to the specified span.
+     */
+    void summarizeRuns(final long fromCycle, final long toCycle,
+                       final SignalSummary.Span span)
+    {
+      final long firstCycle = Math.max(fromCycle - droppedCycles, 0);
+      final long lastCycle = Math.min(toCycle - droppedCycles, size());
+      if (firstCycle >= lastCycle) return;
+      final long absoluteFrom = firstCycle + droppedCycles;
+      final long absoluteTo = lastCycle + droppedCycles;
+      for (int run = findRun((int)firstCycle); run < runCount; run++) {
+        final long runStart = getRunStart(chunks, firstChunk, run);
+        if (runStart >= absoluteTo) break;
+        span.addValue(getRunValue(chunks, firstChunk, run));
+        if (runStart >= absoluteFrom) {
+          span.addChange();
+        }
+      }
+    }
+
+    private void summarize(final int fromCycle, final int toCycle,
+                           final SignalSummary.Span span)
+    {
+      summary.summarize(fromCycle + droppedCycles, toCycle + droppedCycles,
+                        span, this);
+    }
+
+    private long getValue(final int cycle)
+    {
+      final int run = findRun(cycle);
+      return run >= 0 ? getRunValue(chunks, firstChunk, run) : NULL_VALUE;
+    }
+
+    private long getNotChangedSince(final int cycle)
+    {
+      final int run = findRun(cycle);
+      return
+        run >= 0 ?
+        cycle + droppedCycles - getRunStart(chunks, firstChunk, run) : 0;
+    }
+  }
+
+  /*
+   * Runs and cycles are numbered from 0 since the most recent call
+   * of method clear(), including dropped runs and cycles.  Chunk
+   * number k holds runs k * CHUNK_SIZE … (k + 1) * CHUNK_SIZE - 1 and
+   * is stored at index k - firstChunk of the chunks array.  Since
+   * cycles are counted as long values, they do not wrap even for
+   * very long recordings, while the number of cycles that have not
+   * been dropped, and thus any relative cycle index, is limited to
+   * the range of int values by the caller.
+   */
+  private Chunk[] chunks;
+  private int firstChunk;
+  private int chunkCount;
+  private int firstRun;
+  private int runCount;
+  private long droppedCycles;
+  private long size;
+  private final SignalSummary summary;
+  private Map<Long, RunList> valueIndex;
+  private int valueIndexFirstRun;
+  private long valueIndexBytes;
+  private volatile State published;
+
+  public SignalHistory()
+  {
+    summary = new SignalSummary();
+    clear();
+    publish();
+  }
+
+  public static long encode(final int value)
+  {
+    return value & 0xffffffffL;
+  }
+
+  public static boolean isNull(final long value)
+  {
+    return value == NULL_VALUE;
+  }
+
+  /**
+   * Clears the history.  Readers continue to see the previously
+   * published state until the next call of method
+   * <code>publish()</code>.
+   */
+  public void clear()
+  {
+    chunks = new Chunk[4];
+    firstChunk = 0;
+    chunkCount = 0;
+    firstRun = 0;
+    runCount = 0;
+    droppedCycles = 0;
+    size = 0;
+    summary.clear();
+    valueIndex = null;
+    valueIndexFirstRun = 0;
+    valueIndexBytes = 0;
+  }
+
+  /**
+   * Makes all cycles that have been recorded or dropped so far
+   * visible to readers.
+   */
+  @Override
+  public void publish()
+  {
+    published = new State(this);
+  }
+
+  /**
+   * Returns the number of published cycles that have not been
+   * dropped.
+   */
+  @Override
+  public int size()
+  {
+    return published.size();
+  }
+
+  /**
+   * Returns the number of oldest cycles that have been dropped since
+   * the history has been cleared, i.e. the absolute number of the
+   * cycle with relative index 0, as published.
+   */
+  @Override
+  public long getDroppedCycles()
+  {
+    return published.getDroppedCycles();
+  }
+
+  /**
+   * Returns the number of recorded cycles that have not been
+   * dropped, including cycles that have not yet been published.
+   */
+  private int getRecordedCycles()
+  {
+    return (int)(size - droppedCycles);
+  }
+
+  /**
+   * Returns the number of runs of unchanged values.
+   */
+  public int getRunCount()
+  {
+    return runCount - firstRun;
+  }
+
+  /**
+   * Returns the approximate number of bytes allocated for storing
+   * the runs and their summary.
+   */
+  @Override
+  public long getMemoryUsage()
+  {
+    return
+      (long)chunkCount * CHUNK_BYTES + summary.getMemoryUsage() +
+      valueIndexBytes;
+  }
+
+  private static Chunk getChunk(final Chunk[] chunks, final int firstChunk,
+                                final int run)
+  {
+    return chunks[run / CHUNK_SIZE - firstChunk];
+  }
+
+  private static long getRunStart(final Chunk[] chunks, final int firstChunk,
+                                  final int run)
+  {
+    return getChunk(chunks, firstChunk, run).runStarts[run % CHUNK_SIZE];
+  }
+
+  private static long getRunValue(final Chunk[] chunks, final int firstChunk,
+                                  final int run)
+  {
+    return getChunk(chunks, firstChunk, run).runValues[run % CHUNK_SIZE];
+  }
+
+  /**
+   * Returns the index of the run of the specified runs that contains
+   * the specified absolute cycle.
+   */
+  private static int findRun(final Chunk[] chunks, final int firstChunk,
+                             final int firstRun, final int runCount,
+                             final long absoluteCycle)
+  {
+    int low = firstRun;
+    int high = runCount - 1;
+    while (low < high) {
+      final int mid = (low + high + 1) >>> 1;
+      if (getRunStart(chunks, firstChunk, mid) <= absoluteCycle) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  private long getRunStart(final int run)
+  {
+    return getRunStart(chunks, firstChunk, run);
+  }
+
+  private long getRunValue(final int run)
+  {
+    return getRunValue(chunks, firstChunk, run);
+  }
+
+  private void appendRun(final long start, final long value)
+  {
+    if (runCount == (firstChunk + chunkCount) * CHUNK_SIZE) {
+      if (chunkCount == chunks.length) {
+        chunks = Arrays.copyOf(chunks, 2 * Math.max(chunkCount, 2));
+      }
+      chunks[chunkCount++] = new Chunk();
+    }
+    final Chunk chunk = getChunk(chunks, firstChunk, runCount);
+    chunk.runStarts[runCount % CHUNK_SIZE] = start;
+    chunk.runValues[runCount % CHUNK_SIZE] = value;
+    if (valueIndex != null) {
+      addToValueIndex(runCount, value);
+    }
+    runCount++;
+  }
+
+  private void addToValueIndex(final int run, final long value)
+  {
+    RunList runs = valueIndex.get(value);
+    if (runs == null) {
+      runs = new RunList();
+      valueIndex.put(value, runs);
+      valueIndexBytes += INDEX_ENTRY_BYTES + runs.getMemoryUsage();
+    }
+    valueIndexBytes += runs.add(run);
+  }
+
+  private Map<Long, RunList> getValueIndex()
+  {
+    if (valueIndex == null) {
+      valueIndex = new HashMap<Long, RunList>();
+      valueIndexFirstRun = firstRun;
+      valueIndexBytes = 0;
+      for (int run = firstRun; run < runCount; run++) {
+        addToValueIndex(run, getRunValue(run));
+      }
+    }
+    return valueIndex;
+  }
+
+  /**
+   * Removes dropped runs from the value index.  For amortized
+   * constant cost per run, this is done only when at least as many
+   * runs have been dropped since the last trimming as are left.
+   */
+  private void trimValueIndex()
+  {
+    if (firstRun - valueIndexFirstRun < runCount - firstRun) return;
+    valueIndexBytes = 0;
+    final Iterator<RunList> iterator = valueIndex.values().iterator();
+    while (iterator.hasNext()) {
+      final RunList runs = iterator.next();
+      runs.dropBelow(firstRun);
+      if (runs.isEmpty()) {
+        iterator.remove();
+      } else {
+        valueIndexBytes += INDEX_ENTRY_BYTES + runs.getMemoryUsage();
+      }
+    }
+    valueIndexFirstRun = firstRun;
+  }
+
+  /**
+   * Appends the specified value as value of the next cycle.
+   *
+   * @param value The encoded value, or NULL_VALUE, if undefined.
+   * @param enforceChanged If true, a change is assumed even if the
+   * value is equal to the value of the previous cycle.
+   */
+  public void record(final long value, final boolean enforceChanged)
+  {
+    final boolean changed;
+    if (runCount == firstRun) {
+      /*
+       * An initially undefined value is considered as unchanged
+       * since the (virtual) cycle before the first one.
+       */
+      changed = enforceChanged || !isNull(value);
+      appendRun(changed ? size : size - 1, value);
+    } else if (enforceChanged || (getRunValue(runCount - 1) != value)) {
+      changed = true;
+      appendRun(size, value);
+    } else {
+      changed = false;
+    }
+    summary.record(value, changed);
+    size++;
+  }
+
+  /**
+   * Drops the specified number of oldest cycles.  Chunks that hold
+   * only runs of dropped cycles are released.  The run that contains
+   * the oldest remaining cycle is kept, such that values that have
+   * not changed since before the oldest remaining cycle are still
+   * reported with their full duration.
+   */
+  @Override
+  public void drop(final int cycles)
+  {
+    if (cycles < 0) {
+      throw new IllegalArgumentException("cycles < 0: " + cycles);
+    }
+    droppedCycles += Math.min(cycles, getRecordedCycles());
+    while ((firstRun + 1 < runCount) &&
+           (getRunStart(firstRun + 1) <= droppedCycles)) {
+      firstRun++;
+    }
+    if (getRecordedCycles() == 0) {
+      firstRun = runCount;
+    }
+    summary.drop(droppedCycles);
+    if (valueIndex != null) {
+      trimValueIndex();
+    }
+    final int releasedChunks =
+      Math.min(firstRun / CHUNK_SIZE - firstChunk, chunkCount);
+    if (releasedChunks > 0) {
+      /*
+       * Published states may still refer to the released chunks,
+       * hence replace the array of chunk references rather than
+       * shifting it in place.
+       */
+      chunks =
+        Arrays.copyOfRange(chunks, releasedChunks,
+                           releasedChunks + Math.max(chunkCount, 4));
+      firstChunk += releasedChunks;
+      chunkCount -= releasedChunks;
+    }
+  }
+
+  /**
+   * Returns the index of the run that contains the specified
+   * relative cycle, or -1, if there is no such run.
+   */
+  private int findRun(final int cycle)
+  {
+    if ((cycle < 0) || (cycle >= getRecordedCycles())) {
+      return -1;
+    }
+    return findRun(chunks, firstChunk, firstRun, runCount,
+                   cycle + droppedCycles);
+  }
+
+  /**
+   * Returns true if the specified run starts with a change of the
+   * value that fulfills the specified edge condition.  Changes
+   * before the oldest remaining cycle are not considered.
+   */
+  private boolean isEdge(final int run, final SignalCondition condition)
+  {
+    if (run > firstRun) {
+      return condition.acceptsEdge(getRunValue(run - 1), getRunValue(run));
+    }
+    return
+      (run == 0) && (getRunStart(run) >= droppedCycles) &&
+      condition.acceptsEdge(NULL_VALUE, getRunValue(run));
+  }
+
+  private RunList getLowRuns()
+  {
+    return getValueIndex().get(encode(0));
+  }
+
+  private int findNextEdge(final int fromRun, final SignalCondition condition)
+  {
+    switch (condition.getKind()) {
+    case RISES:
+      final RunList lowsBeforeRise = getLowRuns();
+      if (lowsBeforeRise == null) return -1;
+      for (int low = lowsBeforeRise.ceiling(Math.max(fromRun - 1, firstRun));
+           low >= 0; low = lowsBeforeRise.ceiling(low + 1)) {
+        if ((low + 1 < runCount) && isEdge(low + 1, condition)) {
+          return low + 1;
+        }
+      }
+      return -1;
+    case FALLS:
+      final RunList lowsAfterFall = getLowRuns();
+      if (lowsAfterFall == null) return -1;
+      for (int low = lowsAfterFall.ceiling(fromRun);
+           low >= 0; low = lowsAfterFall.ceiling(low + 1)) {
+        if (isEdge(low, condition)) {
+          return low;
+        }
+      }
+      return -1;
+    default:
+      for (int run = fromRun; run < runCount; run++) {
+        if (isEdge(run, condition)) {
+          return run;
+        }
+      }
+      return -1;
+    }
+  }
+
+  private int findPreviousEdge(final int fromRun,
+                               final SignalCondition condition)
+  {
+    switch (condition.getKind()) {
+    case RISES:
+      final RunList lowsBeforeRise = getLowRuns();
+      if (lowsBeforeRise == null) return -1;
+      for (int low = lowsBeforeRise.floor(fromRun - 1);
+           low >= firstRun; low = lowsBeforeRise.floor(low - 1)) {
+        if (isEdge(low + 1, condition)) {
+          return low + 1;
+        }
+      }
+      return -1;
+    case FALLS:
+      final RunList lowsAfterFall = getLowRuns();
+      if (lowsAfterFall == null) return -1;
+      for (int low = lowsAfterFall.floor(fromRun);
+           low >= firstRun; low = lowsAfterFall.floor(low - 1)) {
+        if (isEdge(low, condition)) {
+          return low;
+        }
+      }
+      return -1;
+    default:
+      for (int run = fromRun; run >= firstRun; run--) {
+        if (isEdge(run, condition)) {
+          return run;
+        }
+      }
+      return -1;
+    }
+  }
+
+  private int findNextValue(final int fromRun, final SignalCondition condition)
+  {
+    if (condition.getKind() == SignalCondition.Kind.EQUALS) {
+      final RunList runs = getValueIndex().get(condition.getValue());
+      return runs != null ? runs.ceiling(fromRun) : -1;
+    }
+    for (int run = fromRun; run < runCount; run++) {
+      if (condition.acceptsValue(getRunValue(run))) {
+        return run;
+      }
+    }
+    return -1;
+  }
+
+  private int findPreviousValue(final int fromRun,
+                                final SignalCondition condition)
+  {
+    if (condition.getKind() == SignalCondition.Kind.EQUALS) {
+      final RunList runs = getValueIndex().get(condition.getValue());
+      final int run = runs != null ? runs.floor(fromRun) : -1;
+      return run >= firstRun ? run : -1;
+    }
+    for (int run = fromRun; run >= firstRun; run--) {
+      if (condition.acceptsValue(getRunValue(run))) {
+        return run;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the smallest relative cycle greater than or equal to the
+   * specified cycle for which the specified condition holds, or -1,
+   * if there is no such cycle.  Except for conditions that require a
+   * value to be different from some value, the cost is logarithmic
+   * in the number of runs.
+   */
+  @Override
+  public int findNext(final int cycle, final SignalCondition condition)
+  {
+    if (condition == null) {
+      throw new NullPointerException("condition");
+    }
+    final int fromCycle = Math.max(cycle, 0);
+    final int run = findRun(fromCycle);
+    if (run < 0) return -1;
+    final int matchingRun;
+    if (condition.getKind().isEdge()) {
+      final boolean startsAtCycle =
+        getRunStart(run) == fromCycle + droppedCycles;
+      matchingRun = findNextEdge(startsAtCycle ? run : run + 1, condition);
+    } else if (condition.acceptsValue(getRunValue(run))) {
+      return fromCycle;
+    } else {
+      matchingRun = findNextValue(run + 1, condition);
+    }
+    return
+      matchingRun >= 0 ? (int)(getRunStart(matchingRun) - droppedCycles) : -1;
+  }
+
+  /**
+   * Returns the greatest relative cycle less than or equal to the
+   * specified cycle for which the specified condition holds, or -1,
+   * if there is no such cycle.  Except for conditions that require a
+   * value to be different from some value, the cost is logarithmic
+   * in the number of runs.
+   */
+  @Override
+  public int findPrevious(final int cycle, final SignalCondition condition)
+  {
+    if (condition == null) {
+      throw new NullPointerException("condition");
+    }
+    final int fromCycle = Math.min(cycle, getRecordedCycles() - 1);
+    final int run = findRun(fromCycle);
+    if (run < 0) return -1;
+    if (condition.getKind().isEdge()) {
+      final int matchingRun = findPreviousEdge(run, condition);
+      return
+        matchingRun >= 0 ?
+        (int)(getRunStart(matchingRun) - droppedCycles) : -1;
+    }
+    if (condition.acceptsValue(getRunValue(run))) {
+      return fromCycle;
+    }
+    final int matchingRun = findPreviousValue(run - 1, condition);
+    return
+      matchingRun >= 0 ?
+      (int)(getRunStart(matchingRun + 1) - droppedCycles - 1) : -1;
+  }
+
+  /**
+   * Summarizes the values of the specified range of published cycles,
+   * from fromCycle inclusive to toCycle exclusive, into the specified
+   * span.  The cost is roughly logarithmic in the number of cycles,
+   * independent of the number of changes within the range.
+   */
+  @Override
+  public void summarize(final int fromCycle, final int toCycle,
+                        final SignalSummary.Span span)
+  {
+    if (span == null) {
+      throw new NullPointerException("span");
+    }
+    published.summarize(fromCycle, toCycle, span);
+  }
+
+  /**
+   * Returns the encoded value of the specified published cycle, or
+   * NULL_VALUE, if the value is undefined or the cycle is out of
+   * range.
+   */
+  @Override
+  public long getValue(final int cycle)
+  {
+    return published.getValue(cycle);
+  }
+
+  /**
+   * Returns the number of cycles that have passed since the most
+   * recent change of the value up to and including the specified
+   * published cycle, or 0, if the cycle is out of range.
+   */
+  @Override
+  public long getNotChangedSince(final int cycle)
+  {
+    return published.getNotChangedSince(cycle);
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -34,10 +34,12 @@ import java.awt.Rectangle;
 import java.awt.Stroke;
 import java.awt.event.MouseEvent;
 import java.awt.geom.Line2D;
+import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
 
 /**
  * Panel for drawing the view of the signals.
@@ -45,19 +47,48 @@ import javax.swing.JComponent;
 public class SignalPanel extends JComponent implements Constants
 {
   private static final long serialVersionUID = 6327282160532117231L;
-  private static final double LEFT_MARGIN = 2.0; // for clock arrow
+  static final double LEFT_MARGIN = 2.0; // for clock arrow
   private static final double RIGHT_MARGIN = 0.0;
-  private static final Stroke PLAIN_STROKE =
+  private static final double ZOOM_OUT_MIN =
+    (double)ZOOM_MIN / (1 << ZOOM_OUT_STEPS);
+
+  /**
+   * Below this number of pixels per cycle, cycles are no more
+   * painted one by one, but summarized in columns of this minimum
+   * width in pixels.
+   */
+  static final double SUMMARY_ZOOM_THRESHOLD = 4.0;
+  private static final double SUMMARY_COLUMN_WIDTH = 2.0;
+
+  /**
+   * Approximate width of a cached tile in pixels.
+   */
+  private static final double TILE_WIDTH = 256.0;
+
+  /**
+   * Width in pixels beyond the borders of a tile within which
+   * painting of cycles may still affect the tile's contents,
+   * e.g. for value labels that are centered over a sequence of
+   * cycles.
+   */
+  private static final double TILE_MARGIN_WIDTH = 128.0;
+  static final Stroke PLAIN_STROKE =
     new BasicStroke(1.0f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND, 1.0f);
   private static final Stroke DOTTED_STROKE =
     new BasicStroke(1.0f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_BEVEL, 0.0f,
                     new float[]{2.0f}, 0.0f);
 
   private final DiagramModel model;
+  private final SignalTileCache tileCache;
   private final List<ToolTip> toolTips;
   private final Dimension preferredSize;
   private double zoom;
   private Rectangle clipBounds;
+  private final Rectangle toolTipsBounds;
+  private double toolTipsZoom;
+  private int toolTipsVersion;
+  private long toolTipsAbsoluteSize;
+  private long toolTipsDroppedCycles;
 
   private SignalPanel()
   {
@@ -70,11 +101,16 @@ public class SignalPanel extends JComponent implements Constants
       throw new NullPointerException("model");
     }
     this.model = model;
+    tileCache =
+      new SignalTileCache(this::renderTile,
+                          () -> SwingUtilities.invokeLater(this::repaint));
     toolTips = new ArrayList<ToolTip>();
     setToolTipText("");
     preferredSize = new Dimension();
     zoom = ZOOM_DEFAULT;
     clipBounds = new Rectangle();
+    toolTipsBounds = new Rectangle();
+    toolTipsVersion = -1;
     updatePreferredSize();
   }
 
@@ -122,10 +158,10 @@ public class SignalPanel extends JComponent implements Constants
     return preferredSize;
   }
 
-  public void setZoom(final int zoom)
+  public void setZoom(final double zoom)
   {
     this.zoom =
-      zoom < ZOOM_MIN ? ZOOM_MIN : (zoom > ZOOM_MAX ? ZOOM_MAX : zoom);
+      zoom < ZOOM_OUT_MIN ? ZOOM_OUT_MIN : (zoom > ZOOM_MAX ? ZOOM_MAX : zoom);
     updatePreferredWidth();
     revalidate();
   }
@@ -135,62 +171,197 @@ public class SignalPanel extends JComponent implements Constants
     return zoom;
   }
 
-  private void paintGridLine(final Graphics2D g, final double x,
-                             final double height)
+  static void paintGridLine(final Graphics2D g, final double x,
+                            final double height)
   {
     g.setColor(Color.LIGHT_GRAY);
     g.setStroke(DOTTED_STROKE);
     g.draw(new Line2D.Double(x, TOP_MARGIN, x, height - BOTTOM_MARGIN));
   }
 
-  private void paintSignalsCycle(final Graphics2D g,
-                                 final double xStart, final int cycle,
-                                 final boolean firstCycle,
-                                 final boolean lastCycle)
-  {
-    g.setColor(Color.BLACK);
-    g.setStroke(PLAIN_STROKE);
-    double y = TOP_MARGIN;
-    for (final Signal signal : model) {
-      if (signal.getVisible()) {
-        final double height = signal.getDisplayHeight();
-        signal.paintCycle(g, zoom, xStart, y += height, cycle,
-                          firstCycle, lastCycle);
-      }
-    }
-  }
-
   public int x2cycle(final double x)
   {
     return (int)((x - LEFT_MARGIN) / zoom);
   }
 
   public double cycle2x(final double cycle)
+  {
+    return cycle2x(cycle, zoom);
+  }
+
+  private static double cycle2x(final double cycle, final double zoom)
   {
     return cycle * zoom + LEFT_MARGIN;
   }
 
+  static int getColumnCycles(final double zoom)
+  {
+    return
+      zoom < SUMMARY_ZOOM_THRESHOLD ?
+      (int)Math.max(1, Math.ceil(SUMMARY_COLUMN_WIDTH / zoom)) : 0;
+  }
+
+  static int getTileCycles(final double zoom, final int columnCycles)
+  {
+    final int unitCycles = Math.max(1, columnCycles);
+    return unitCycles * (int)Math.max(1, Math.round(TILE_WIDTH /
+                                                    (unitCycles * zoom)));
+  }
+
+  static int getMarginCycles(final double zoom, final int columnCycles)
+  {
+    return
+      columnCycles > 0 ? 0 : (int)Math.ceil(TILE_MARGIN_WIDTH / zoom) + 1;
+  }
+
+  /**
+   * Paints the columns of the specified range of cycles of the
+   * specified signal, with each column summarizing consecutive
+   * cycles.  Columns are aligned to absolute cycle numbers, such that
+   * dropping the oldest cycles from the capture window does not
+   * change the appearance of the remaining cycles.  The effort is
+   * proportional to the number of columns rather than to the number
+   * of cycles.
+   */
+  static void paintSummary(final Graphics2D g, final Signal signal,
+                           final double zoom, final double yBottom,
+                           final int columnCycles,
+                           final int fromCycle, final int toCycle,
+                           final long droppedCycles, final int size)
+  {
+    int cycle = Math.max(fromCycle, 0);
+    final int stopCycle = Math.min(toCycle, size);
+    while (cycle < stopCycle) {
+      final int nextCycle =
+        cycle + columnCycles - (int)((cycle + droppedCycles) % columnCycles);
+      signal.paintSummary(g, zoom, (cycle - fromCycle) * zoom, yBottom,
+                          cycle, Math.min(nextCycle, size));
+      cycle = nextCycle;
+    }
+  }
+
+  static void paintCycles(final Graphics2D g, final Signal signal,
+                          final double zoom, final double yBottom,
+                          final int marginCycles,
+                          final int fromCycle, final int toCycle,
+                          final int size)
+  {
+    final int startCycle = Math.max(fromCycle - marginCycles, 0);
+    final int stopCycle = Math.min(toCycle + marginCycles, size);
+    for (int cycle = startCycle; cycle < stopCycle; cycle++) {
+      final boolean firstCycle = cycle == 0;
+      final boolean lastCycle = cycle == size - 1;
+      signal.paintCycle(g, zoom, (cycle - fromCycle) * zoom, yBottom, cycle,
+                        firstCycle, lastCycle);
+    }
+  }
+
+  /**
+   * Renders the specified tile.  Called by worker threads of the tile
+   * cache.  The model is not locked while rendering, such that the
+   * recorder may append cycles in the meantime.  If the recorded
+   * cycles have been shifted in the meantime, the rendered image is
+   * discarded, and the tile remains invalid for being rendered again
+   * upon the next paint.
+   */
+  private void renderTile(final SignalTileCache.Tile tile)
+  {
+    final int stamp = model.tryOptimisticRead();
+    final Signal signal = tile.getSignal();
+    final double zoom = tile.getZoom();
+    final long droppedCycles = model.getDroppedCycles();
+    final int size = model.getSignalSize();
+    final int fromCycle = (int)(tile.getFromCycle() - droppedCycles);
+    final int toCycle = fromCycle + tile.getTileCycles();
+    final double x = cycle2x(fromCycle, zoom);
+    final int width = (int)Math.ceil(tile.getTileCycles() * zoom) + 2;
+    final double height = signal.getDisplayHeight();
+    final BufferedImage image =
+      new BufferedImage(width, (int)Math.ceil(height),
+                        BufferedImage.TYPE_INT_ARGB);
+    final Graphics2D g = image.createGraphics();
+    try {
+      g.translate(x - Math.floor(x), 0.0);
+      g.setColor(Color.BLACK);
+      g.setStroke(PLAIN_STROKE);
+      if (tile.getColumnCycles() > 0) {
+        paintSummary(g, signal, zoom, height, tile.getColumnCycles(),
+                     fromCycle, toCycle, droppedCycles, size);
+      } else {
+        paintCycles(g, signal, zoom, height, tile.getMarginCycles(),
+                    fromCycle, toCycle, size);
+      }
+    } finally {
+      g.dispose();
+    }
+    if (model.validate(stamp)) {
+      tile.setImage(image, droppedCycles + size, droppedCycles);
+    }
+  }
+
+  /**
+   * Draws the cached tiles of all visible signals that intersect the
+   * specified range of cycles.  Missing or outdated tiles are
+   * scheduled for being rendered off the event dispatch thread, and
+   * outdated tiles are drawn until being replaced.  The tiles next to
+   * the left and right of the range are prefetched for smooth
+   * scrolling.
+   */
+  private void paintTiles(final Graphics2D g,
+                          final int leftMostCycle, final int rightMostCycle)
+  {
+    final int columnCycles = getColumnCycles(zoom);
+    final int tileCycles = getTileCycles(zoom, columnCycles);
+    final int marginCycles = getMarginCycles(zoom, columnCycles);
+    tileCache.setSettings(zoom, tileCycles, columnCycles, marginCycles,
+                          model.getVersion());
+    if (leftMostCycle >= rightMostCycle) return;
+    final long droppedCycles = model.getDroppedCycles();
+    final long absoluteSize = droppedCycles + model.getSignalSize();
+    final long firstTile = (leftMostCycle + droppedCycles) / tileCycles;
+    final long lastTile = (rightMostCycle - 1 + droppedCycles) / tileCycles;
+    double y = TOP_MARGIN;
+    for (final Signal signal : model) {
+      if (signal.getVisible()) {
+        for (long index = Math.max(firstTile - 1, 0);
+             index <= lastTile + 1; index++) {
+          if (index * tileCycles >= absoluteSize) break;
+          final SignalTileCache.Tile tile = tileCache.getTile(signal, index);
+          if (!tile.isValid(absoluteSize, droppedCycles)) {
+            tileCache.requestRendering(tile);
+          }
+          if ((index < firstTile) || (index > lastTile)) continue;
+          final BufferedImage image = tile.getImage();
+          if (image != null) {
+            final double x =
+              cycle2x(index * tileCycles - droppedCycles, zoom);
+            g.drawImage(image, (int)Math.floor(x), (int)y, null);
+          }
+        }
+        y += signal.getDisplayHeight();
+      }
+    }
+  }
+
   private void paintDiagram(final Graphics2D g,
                             final int width, final int height)
     throws IOException
   {
     g.setStroke(PLAIN_STROKE);
     g.getClipBounds(clipBounds);
-    final int cycles = model.getSignalSize();
     final int leftMostCycle =
       Math.min(model.getSignalSize(),
                x2cycle(clipBounds.x));
     final int rightMostCycle =
       Math.min(model.getSignalSize(),
                x2cycle(clipBounds.x + clipBounds.width - 1) + 1);
-    for (int cycle = leftMostCycle; cycle < rightMostCycle; cycle++) {
-      final double x = LEFT_MARGIN + cycle * zoom;
-      final boolean firstCycle = cycle == 0;
-      final boolean lastCycle = cycle == cycles - 1;
-      paintGridLine(g, x, height);
-      paintSignalsCycle(g, x, cycle, firstCycle, lastCycle);
+    if (zoom >= SUMMARY_ZOOM_THRESHOLD) {
+      for (int cycle = leftMostCycle; cycle < rightMostCycle; cycle++) {
+        paintGridLine(g, LEFT_MARGIN + cycle * zoom, height);
+      }
+      paintGridLine(g, LEFT_MARGIN + rightMostCycle * zoom, height);
     }
-    paintGridLine(g, LEFT_MARGIN + rightMostCycle * zoom, height);
+    paintTiles(g, leftMostCycle, rightMostCycle);
   }
 
   private void paintError(final Graphics2D g,
@@ -228,9 +399,32 @@ public class SignalPanel extends JComponent implements Constants
     }
   }
 
+  /**
+   * Rebuilds the tool tips for the specified view, unless neither
+   * the view nor the model has changed since the most recent
+   * rebuild.
+   */
   public void rebuildToolTips(final Rectangle clipBounds)
   {
+    final int stamp = model.tryOptimisticRead();
+    final int version = model.getVersion();
+    final long droppedCycles = model.getDroppedCycles();
+    final long absoluteSize = droppedCycles + model.getSignalSize();
+    if (clipBounds.equals(toolTipsBounds) && (zoom == toolTipsZoom) &&
+        (version == toolTipsVersion) &&
+        (absoluteSize == toolTipsAbsoluteSize) &&
+        (droppedCycles == toolTipsDroppedCycles))
+      return;
+    toolTipsBounds.setBounds(clipBounds);
+    toolTipsZoom = zoom;
+    toolTipsVersion = version;
+    toolTipsAbsoluteSize = absoluteSize;
+    toolTipsDroppedCycles = droppedCycles;
     toolTips.clear();
+    if (zoom < SUMMARY_ZOOM_THRESHOLD) {
+      // no per-cycle tool tips when summarizing cycles
+      return;
+    }
     final int cycles = model.getSignalSize();
     final int leftMostCycle =
       Math.min(model.getSignalSize(),
@@ -244,6 +438,10 @@ public class SignalPanel extends JComponent implements Constants
       final boolean lastCycle = cycle == cycles - 1;
       createToolTips(cycle, firstCycle, lastCycle, x);
     }
+    if (!model.validate(stamp)) {
+      // cycles shifted while rebuilding => rebuild again next time
+      toolTipsAbsoluteSize = -1;
+    }
   }
 }
 
@@ -0,0 +1,265 @@
+/*
+ * @(#)SignalQuery.java 1.00 26/10/19
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio.observer.diagram;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Search query over recorded signals that matches all cycles for
+ * which each of its terms holds.  Each term consists of a signal and
+ * a condition on that signal's values.  Searching leapfrogs over the
+ * terms: Each term in turn advances the candidate cycle to its own
+ * next matching cycle, until all terms agree on the same cycle.
+ * Thereby, the cost of a search is proportional to the number of
+ * leaps, each of which is logarithmic in the number of changes of
+ * the respective signal, rather than to the number of cycles
+ * searched.
+ *
+ * Textual queries consist of terms separated by "&amp;&amp;", with
+ * each term being of the form "LABEL == VALUE", "LABEL != VALUE",
+ * "LABEL rises", "LABEL falls" or "LABEL changes", e.g. "GPIO3 rises
+ * &amp;&amp; SM0_PC == 0x0c".
+ */
+public class SignalQuery
+{
+  private static final Pattern VALUE_TERM =
+    Pattern.compile("(.*?)\\s*(==|!=)\\s*(\\S+)");
+  private static final Pattern EDGE_TERM =
+    Pattern.compile("(.*?)\\s+(rises|falls|changes)");
+
+  public static class Term
+  {
+    private final Signal signal;
+    private final SignalCondition condition;
+
+    private Term()
+    {
+      throw new UnsupportedOperationException("unsupported empty constructor");
+    }
+
+    public Term(final Signal signal, final SignalCondition condition)
+    {
+      if (signal == null) {
+        throw new NullPointerException("signal");
+      }
+      if (condition == null) {
+        throw new NullPointerException("condition");
+      }
+      this.signal = signal;
+      this.condition = condition;
+    }
+
+    public Signal getSignal()
+    {
+      return signal;
+    }
+
+    public SignalCondition getCondition()
+    {
+      return condition;
+    }
+
+    @Override
+    public String toString()
+    {
+      return String.format("%s %s", signal.getLabel(), condition);
+    }
+  }
+
+  private final List<Term> terms;
+
+  private SignalQuery()
+  {
+    throw new UnsupportedOperationException("unsupported empty constructor");
+  }
+
+  public SignalQuery(final List<Term> terms)
+  {
+    if (terms == null) {
+      throw new NullPointerException("terms");
+    }
+    if (terms.isEmpty()) {
+      throw new IllegalArgumentException("query without terms");
+    }
+    for (final Term term : terms) {
+      if (term == null) {
+        throw new NullPointerException("term");
+      }
+    }
+    this.terms = Collections.unmodifiableList(new ArrayList<Term>(terms));
+  }
+
+  public List<Term> getTerms()
+  {
+    return terms;
+  }
+
+  private static Signal findSignal(final String label,
+                                   final Iterable<Signal> signals)
+  {
+    for (final Signal signal : signals) {
+      if (label.equals(signal.getLabel())) {
+        if (!signal.getVisible()) {
+          throw new IllegalArgumentException("signal not recorded: " + label);
+        }
+        return signal;
+      }
+    }
+    throw new IllegalArgumentException("unknown signal: " + label);
+  }
+
+  private static long parseValue(final String value)
+  {
+    try {
+      final long number = Long.decode(value);
+      if ((number >= Integer.MIN_VALUE) && (number <= 0xffffffffL)) {
+        return SignalHistory.encode((int)number);
+      }
+    } catch (final NumberFormatException e) {
+      // fall through
+    }
+    throw new IllegalArgumentException("invalid value in query: " + value);
+  }
+
+  private static Term parseTerm(final String text,
+                                final Iterable<Signal> signals)
+  {
+    final Matcher valueTerm = VALUE_TERM.matcher(text);
+    if (valueTerm.matches()) {
+      final SignalCondition.Kind kind =
+        "==".equals(valueTerm.group(2)) ?
+        SignalCondition.Kind.EQUALS : SignalCondition.Kind.NOT_EQUALS;
+      return new Term(findSignal(valueTerm.group(1), signals),
+                      new SignalCondition(kind,
+                                          parseValue(valueTerm.group(3))));
+    }
+    final Matcher edgeTerm = EDGE_TERM.matcher(text);
+    if (edgeTerm.matches()) {
+      final SignalCondition.Kind kind =
+        SignalCondition.Kind.valueOf(edgeTerm.group(2).toUpperCase());
+      return new Term(findSignal(edgeTerm.group(1), signals),
+                      new SignalCondition(kind));
+    }
+    throw new IllegalArgumentException("invalid term in query: " + text);
+  }
+
+  /**
+   * Parses a textual query, resolving signal labels against the
+   * specified signals.  Only signals that are recorded, i.e. that
+   * are visible, may be referred to.
+   *
+   * @throws IllegalArgumentException If the text is not a valid
+   * query.
+   */
+  public static SignalQuery parse(final String text,
+                                  final Iterable<Signal> signals)
+  {
+    if (text == null) {
+      throw new NullPointerException("text");
+    }
+    if (signals == null) {
+      throw new NullPointerException("signals");
+    }
+    final List<Term> terms = new ArrayList<Term>();
+    for (final String term : text.split("&&")) {
+      final String trimmed = term.trim();
+      if (trimmed.isEmpty()) {
+        throw new IllegalArgumentException("empty term in query: " + text);
+      }
+      terms.add(parseTerm(trimmed, signals));
+    }
+    return new SignalQuery(terms);
+  }
+
+  /**
+   * Returns the smallest cycle greater than or equal to the specified
+   * cycle for which all terms hold, or -1, if there is no such cycle.
+   */
+  public int findNext(final int cycle)
+  {
+    int candidate = cycle;
+    int agreeing = 0;
+    int index = 0;
+    while (agreeing < terms.size()) {
+      final Term term = terms.get(index);
+      final int match = term.signal.findNext(candidate, term.condition);
+      if (match < 0) return -1;
+      if (match == candidate) {
+        agreeing++;
+      } else {
+        candidate = match;
+        agreeing = 1;
+      }
+      index = (index + 1) % terms.size();
+    }
+    return candidate;
+  }
+
+  /**
+   * Returns the greatest cycle less than or equal to the specified
+   * cycle for which all terms hold, or -1, if there is no such cycle.
+   */
+  public int findPrevious(final int cycle)
+  {
+    int candidate = cycle;
+    int agreeing = 0;
+    int index = 0;
+    while (agreeing < terms.size()) {
+      final Term term = terms.get(index);
+      final int match = term.signal.findPrevious(candidate, term.condition);
+      if (match < 0) return -1;
+      if (match == candidate) {
+        agreeing++;
+      } else {
+        candidate = match;
+        agreeing = 1;
+      }
+      index = (index + 1) % terms.size();
+    }
+    return candidate;
+  }
+
+  @Override
+  public String toString()
+  {
+    final StringBuilder s = new StringBuilder();
+    for (final Term term : terms) {
+      if (s.length() > 0) s.append(" && ");
+      s.append(term);
+    }
+    return s.toString();
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
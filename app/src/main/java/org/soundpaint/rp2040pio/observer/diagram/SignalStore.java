@@ -0,0 +1,112 @@
+/*
+ * @(#)SignalStore.java 1.00 26/10/19
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio.observer.diagram;
+
+/**
+ * Read access to the recorded values of a signal, as needed for
+ * painting and searching it.  Cycle indices are relative to the
+ * oldest cycle that has not been dropped.  Values are encoded as
+ * described for class <code>SignalHistory</code>, which is the
+ * implementation for signals that are recorded in memory.  A signal
+ * may instead be backed by a column of a capture file.
+ *
+ * @see SignalHistory
+ * @see CaptureFile
+ */
+public interface SignalStore
+{
+  /**
+   * Makes all cycles that have been recorded or dropped so far
+   * visible to readers.
+   */
+  void publish();
+
+  /**
+   * Returns the number of published cycles that have not been
+   * dropped.
+   */
+  int size();
+
+  /**
+   * Drops the specified number of oldest cycles.
+   */
+  void drop(final int cycles);
+
+  /**
+   * Returns the number of oldest cycles that have been dropped,
+   * i.e. the absolute number of the cycle with relative index 0, as
+   * published.
+   */
+  long getDroppedCycles();
+
+  /**
+   * Returns the approximate number of bytes of heap memory allocated
+   * for the values.
+   */
+  long getMemoryUsage();
+
+  /**
+   * Returns the encoded value of the specified published cycle, or
+   * <code>SignalHistory.NULL_VALUE</code>, if the value is undefined
+   * or the cycle is out of range.
+   */
+  long getValue(final int cycle);
+
+  /**
+   * Returns the number of cycles that have passed since the most
+   * recent change of the value up to and including the specified
+   * published cycle, or 0, if the cycle is out of range.
+   */
+  long getNotChangedSince(final int cycle);
+
+  /**
+   * Summarizes the values of the specified range of published cycles,
+   * from fromCycle inclusive to toCycle exclusive, into the specified
+   * span.
+   */
+  void summarize(final int fromCycle, final int toCycle,
+                 final SignalSummary.Span span);
+
+  /**
+   * Returns the smallest cycle greater than or equal to the specified
+   * cycle for which the specified condition holds, or -1, if there
+   * is no such cycle.
+   */
+  int findNext(final int cycle, final SignalCondition condition);
+
+  /**
+   * Returns the greatest cycle less than or equal to the specified
+   * cycle for which the specified condition holds, or -1, if there
+   * is no such cycle.
+   */
+  int findPrevious(final int cycle, final SignalCondition condition);
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
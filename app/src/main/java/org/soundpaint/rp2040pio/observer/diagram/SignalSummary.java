@@ -0,0 +1,429 @@
+/*
+ * @(#)SignalSummary.java 1.00 26/10/19
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio.observer.diagram;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Multi-resolution summary of a signal history for displaying many
+ * cycles per pixel.  The summary is organized as a pyramid of
+ * levels.  Each bucket of the lowest level summarizes a fixed number
+ * of consecutive cycles, and each bucket of any higher level
+ * summarizes a fixed number of consecutive buckets of the level
+ * below.  A bucket holds the minimum and maximum of all defined
+ * values, whether there are any defined or undefined values, and
+ * whether any change occurs within its cycles.  The pyramid is
+ * updated incrementally whenever a cycle is recorded, and buckets
+ * are created only when complete, such that summarizing an
+ * arbitrary range of cycles needs to look only at a bounded number
+ * of buckets per level plus a few cycles of the underlying history
+ * at the very edges of the range.
+ *
+ * Buckets are only ever appended, and the bucket arrays are replaced
+ * rather than compacted in place, such that an immutable state of
+ * the summary as created by method <code>publish()</code> can be
+ * read by other threads while the summary is being updated further.
+ */
+public class SignalSummary
+{
+  private static final int BASE_CYCLES = 16;
+  private static final int FACTOR = 4;
+  private static final int BUCKET_BYTES = 2 * Integer.BYTES + 1;
+  private static final int INITIAL_CAPACITY = 16;
+
+  private static final byte FLAG_DEFINED = 0x1;
+  private static final byte FLAG_UNDEFINED = 0x2;
+  private static final byte FLAG_CHANGED = 0x4;
+
+  /**
+   * Summary of a range of cycles.
+   */
+  public static class Span
+  {
+    private long min;
+    private long max;
+    private byte flags;
+
+    public Span()
+    {
+      clear();
+    }
+
+    public void clear()
+    {
+      min = Long.MAX_VALUE;
+      max = Long.MIN_VALUE;
+      flags = 0x0;
+    }
+
+    private void add(final long min, final long max, final byte flags)
+    {
+      if ((flags & FLAG_DEFINED) != 0x0) {
+        if (min < this.min) this.min = min;
+        if (max > this.max) this.max = max;
+      }
+      this.flags |= flags;
+    }
+
+    void addValue(final long value)
+    {
+      if (SignalHistory.isNull(value)) {
+        flags |= FLAG_UNDEFINED;
+      } else {
+        add(value, value, FLAG_DEFINED);
+      }
+    }
+
+    void addChange()
+    {
+      flags |= FLAG_CHANGED;
+    }
+
+    /**
+     * True, if at least one cycle of the range has a defined value.
+     */
+    public boolean hasDefinedValues()
+    {
+      return (flags & FLAG_DEFINED) != 0x0;
+    }
+
+    /**
+     * True, if at least one cycle of the range has an undefined
+     * value.
+     */
+    public boolean hasUndefinedValues()
+    {
+      return (flags & FLAG_UNDEFINED) != 0x0;
+    }
+
+    /**
+     * True, if the value changes (or a change has been enforced) in
+     * at least one cycle of the range, including its first cycle.
+     */
+    public boolean isChanged()
+    {
+      return (flags & FLAG_CHANGED) != 0x0;
+    }
+
+    /**
+     * Encoded minimum of all defined values.  Undefined, if there
+     * are no defined values.
+     */
+    public long getMin()
+    {
+      return min;
+    }
+
+    /**
+     * Encoded maximum of all defined values.  Undefined, if there
+     * are no defined values.
+     */
+    public long getMax()
+    {
+      return max;
+    }
+  }
+
+  private static class Level
+  {
+    private final long bucketCycles;
+    private final int partsPerBucket;
+    private int[] mins;
+    private int[] maxs;
+    private byte[] flags;
+    private int head;
+    private long firstBucket;
+    private int count;
+    private final Span pending;
+    private int pendingParts;
+
+    private Level()
+    {
+      throw new UnsupportedOperationException("unsupported empty constructor");
+    }
+
+    private Level(final long bucketCycles, final int partsPerBucket)
+    {
+      this.bucketCycles = bucketCycles;
+      this.partsPerBucket = partsPerBucket;
+      mins = new int[INITIAL_CAPACITY];
+      maxs = new int[INITIAL_CAPACITY];
+      flags = new byte[INITIAL_CAPACITY];
+      head = 0;
+      firstBucket = 0;
+      count = 0;
+      pending = new Span();
+      pendingParts = 0;
+    }
+
+    private void ensureCapacity()
+    {
+      if (head + count < mins.length) return;
+      final int capacity =
+        count < mins.length / 2 ? mins.length : 2 * mins.length;
+      final int[] newMins = new int[capacity];
+      final int[] newMaxs = new int[capacity];
+      final byte[] newFlags = new byte[capacity];
+      System.arraycopy(mins, head, newMins, 0, count);
+      System.arraycopy(maxs, head, newMaxs, 0, count);
+      System.arraycopy(flags, head, newFlags, 0, count);
+      mins = newMins;
+      maxs = newMaxs;
+      flags = newFlags;
+      head = 0;
+    }
+
+    /**
+     * Adds a part to the pending bucket.
+     *
+     * @return The completed bucket, or null, if the pending bucket
+     * is not yet complete.
+     */
+    private Span accumulate(final long min, final long max, final byte flags)
+    {
+      pending.add(min, max, flags);
+      if (++pendingParts < partsPerBucket) {
+        return null;
+      }
+      ensureCapacity();
+      final int index = head + count;
+      mins[index] = (int)pending.min;
+      maxs[index] = (int)pending.max;
+      this.flags[index] = pending.flags;
+      count++;
+      pendingParts = 0;
+      return pending;
+    }
+
+    private void drop(final long droppedCycles)
+    {
+      final long firstKept =
+        (droppedCycles + bucketCycles - 1) / bucketCycles;
+      final int dropCount = (int)Math.min(count, firstKept - firstBucket);
+      if (dropCount > 0) {
+        head += dropCount;
+        firstBucket += dropCount;
+        count -= dropCount;
+      }
+    }
+
+    private LevelState publish()
+    {
+      return new LevelState(this);
+    }
+
+    private long getMemoryUsage()
+    {
+      return (long)mins.length * BUCKET_BYTES;
+    }
+  }
+
+  /**
+   * Immutable view of the completed buckets of a level.
+   */
+  private static class LevelState
+  {
+    private final long bucketCycles;
+    private final int[] mins;
+    private final int[] maxs;
+    private final byte[] flags;
+    private final int head;
+    private final long firstBucket;
+    private final int count;
+
+    private LevelState()
+    {
+      throw new UnsupportedOperationException("unsupported empty constructor");
+    }
+
+    private LevelState(final Level level)
+    {
+      bucketCycles = level.bucketCycles;
+      mins = level.mins;
+      maxs = level.maxs;
+      flags = level.flags;
+      head = level.head;
+      firstBucket = level.firstBucket;
+      count = level.count;
+    }
+
+    private void addTo(final Span span, final long fromBucket,
+                       final long toBucket)
+    {
+      for (long bucket = fromBucket; bucket < toBucket; bucket++) {
+        final int index = head + (int)(bucket - firstBucket);
+        span.add(SignalHistory.encode(mins[index]),
+                 SignalHistory.encode(maxs[index]), flags[index]);
+      }
+    }
+  }
+
+  /**
+   * Immutable view of the summary at the time of its publication.
+   * Summarizing the cycles at the very edges of a range is delegated
+   * to the corresponding state of the history.
+   */
+  static class State
+  {
+    private final LevelState[] levels;
+
+    private State()
+    {
+      throw new UnsupportedOperationException("unsupported empty constructor");
+    }
+
+    private State(final LevelState[] levels)
+    {
+      this.levels = levels;
+    }
+
+    private void summarize(final int levelIndex,
+                           final long fromCycle, final long toCycle,
+                           final Span span,
+                           final SignalHistory.State history)
+    {
+      if (fromCycle >= toCycle) return;
+      if (levelIndex < 0) {
+        history.summarizeRuns(fromCycle, toCycle, span);
+        return;
+      }
+      final LevelState level = levels[levelIndex];
+      final long bucketCycles = level.bucketCycles;
+      final long firstUsable =
+        Math.max(level.firstBucket,
+                 (history.getDroppedCycles() + bucketCycles - 1) /
+                 bucketCycles);
+      final long fromBucket =
+        Math.max((fromCycle + bucketCycles - 1) / bucketCycles, firstUsable);
+      final long toBucket =
+        Math.min(toCycle / bucketCycles, level.firstBucket + level.count);
+      if (fromBucket >= toBucket) {
+        summarize(levelIndex - 1, fromCycle, toCycle, span, history);
+        return;
+      }
+      summarize(levelIndex - 1, fromCycle, fromBucket * bucketCycles, span,
+                history);
+      level.addTo(span, fromBucket, toBucket);
+      summarize(levelIndex - 1, toBucket * bucketCycles, toCycle, span,
+                history);
+    }
+
+    /**
+     * Summarizes the specified range of absolute cycles into the
+     * specified span, which is cleared before.
+     */
+    void summarize(final long fromCycle, final long toCycle,
+                   final Span span, final SignalHistory.State history)
+    {
+      span.clear();
+      summarize(levels.length - 1, fromCycle, toCycle, span, history);
+    }
+  }
+
+  private final List<Level> levels;
+
+  public SignalSummary()
+  {
+    levels = new ArrayList<Level>();
+    clear();
+  }
+
+  public void clear()
+  {
+    levels.clear();
+    levels.add(new Level(BASE_CYCLES, BASE_CYCLES));
+  }
+
+  /**
+   * Summarizes the next cycle.
+   *
+   * @param value The encoded value, or NULL_VALUE, if undefined.
+   * @param changed True, if a new run starts with this cycle.
+   */
+  public void record(final long value, final boolean changed)
+  {
+    final boolean isNull = SignalHistory.isNull(value);
+    final byte flags =
+      (byte)((isNull ? FLAG_UNDEFINED : FLAG_DEFINED) |
+             (changed ? FLAG_CHANGED : 0x0));
+    Span completed = levels.get(0).accumulate(value, value, flags);
+    for (int level = 1; completed != null; level++) {
+      if (level == levels.size()) {
+        final Level below = levels.get(level - 1);
+        levels.add(new Level(below.bucketCycles * FACTOR, FACTOR));
+      }
+      final Level current = levels.get(level);
+      final Span parts = completed;
+      completed = current.accumulate(parts.min, parts.max, parts.flags);
+      parts.clear();
+    }
+  }
+
+  /**
+   * Releases all buckets that cover any cycle before the specified
+   * absolute cycle.
+   */
+  public void drop(final long droppedCycles)
+  {
+    for (final Level level : levels) {
+      level.drop(droppedCycles);
+    }
+  }
+
+  /**
+   * Returns the approximate number of bytes allocated for storing
+   * the buckets.
+   */
+  public long getMemoryUsage()
+  {
+    long memoryUsage = 0;
+    for (final Level level : levels) {
+      memoryUsage += level.getMemoryUsage();
+    }
+    return memoryUsage;
+  }
+
+  /**
+   * Returns an immutable view of the current state of the summary.
+   * Buckets that are completed or dropped later on do not affect the
+   * returned view.
+   */
+  State publish()
+  {
+    final LevelState[] levelStates = new LevelState[levels.size()];
+    for (int index = 0; index < levelStates.length; index++) {
+      levelStates[index] = levels.get(index).publish();
+    }
+    return new State(levelStates);
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
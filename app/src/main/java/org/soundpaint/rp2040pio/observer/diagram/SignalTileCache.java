@@ -0,0 +1,294 @@
+/*
+ * @(#)SignalTileCache.java 1.00 26/10/19
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio.observer.diagram;
+
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Cache of off-screen images of the signals, each image covering a
+ * single signal over a fixed range of cycles.  Tiles are identified
+ * by signal and absolute tile index, such that dropping the oldest
+ * cycles from the capture window keeps tiles of the remaining cycles
+ * valid.  Tiles are rendered asynchronously by a pool of worker
+ * threads.  Whenever a tile has been rendered, a callback is
+ * notified, e.g. for repainting the panel that displays the tiles.
+ */
+public class SignalTileCache
+{
+  private static final int MAX_TILES = 2048;
+
+  private static final ExecutorService WORKERS =
+    Executors.
+    newFixedThreadPool(Math.max(1, Runtime.getRuntime().
+                                availableProcessors() - 1),
+                       (runnable) -> {
+                         final Thread thread =
+                           new Thread(runnable, "diagram tile renderer");
+                         thread.setDaemon(true);
+                         return thread;
+                       });
+
+  public static class Tile
+  {
+    private final Signal signal;
+    private final long index;
+    private final int generation;
+    private final double zoom;
+    private final int tileCycles;
+    private final int columnCycles;
+    private final int marginCycles;
+    private BufferedImage image;
+    private long renderedAbsoluteSize;
+    private long renderedDroppedCycles;
+    private boolean rendering;
+
+    private Tile()
+    {
+      throw new UnsupportedOperationException("unsupported empty constructor");
+    }
+
+    private Tile(final Signal signal, final long index, final int generation,
+                 final double zoom, final int tileCycles,
+                 final int columnCycles, final int marginCycles)
+    {
+      this.signal = signal;
+      this.index = index;
+      this.generation = generation;
+      this.zoom = zoom;
+      this.tileCycles = tileCycles;
+      this.columnCycles = columnCycles;
+      this.marginCycles = marginCycles;
+      image = null;
+      rendering = false;
+    }
+
+    public Signal getSignal() { return signal; }
+
+    /**
+     * Absolute number of the first cycle covered by this tile.
+     */
+    public long getFromCycle() { return index * tileCycles; }
+
+    public double getZoom() { return zoom; }
+
+    public int getTileCycles() { return tileCycles; }
+
+    /**
+     * Number of cycles summarized per column, or 0, if cycles are
+     * painted one by one.
+     */
+    public int getColumnCycles() { return columnCycles; }
+
+    /**
+     * Number of cycles before and after the tile's range of cycles
+     * that may affect the tile's contents.
+     */
+    public int getMarginCycles() { return marginCycles; }
+
+    public synchronized BufferedImage getImage() { return image; }
+
+    /**
+     * Stores the rendered image and the state of the model that it
+     * reflects.
+     */
+    public synchronized void setImage(final BufferedImage image,
+                                      final long absoluteSize,
+                                      final long droppedCycles)
+    {
+      this.image = image;
+      renderedAbsoluteSize = absoluteSize;
+      renderedDroppedCycles = droppedCycles;
+    }
+
+    /**
+     * A tile needs to be rendered again only if it reaches close to
+     * either end of the recorded cycles, and that end has moved
+     * since the tile has been rendered.
+     */
+    public synchronized boolean isValid(final long absoluteSize,
+                                        final long droppedCycles)
+    {
+      if (image == null) return false;
+      final long fromCycle = index * tileCycles - marginCycles;
+      final long toCycle = (index + 1) * tileCycles + marginCycles;
+      if ((toCycle >= renderedAbsoluteSize - 1) &&
+          (absoluteSize != renderedAbsoluteSize))
+        return false;
+      if ((fromCycle <= Math.max(droppedCycles, renderedDroppedCycles)) &&
+          (droppedCycles != renderedDroppedCycles))
+        return false;
+      return true;
+    }
+  }
+
+  private static class TileKey
+  {
+    private final Signal signal;
+    private final long index;
+
+    private TileKey(final Signal signal, final long index)
+    {
+      this.signal = signal;
+      this.index = index;
+    }
+
+    @Override
+    public boolean equals(final Object obj)
+    {
+      if (!(obj instanceof TileKey)) return false;
+      final TileKey other = (TileKey)obj;
+      return (signal == other.signal) && (index == other.index);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return 31 * System.identityHashCode(signal) + Long.hashCode(index);
+    }
+  }
+
+  private final Map<TileKey, Tile> tiles;
+  private final Consumer<Tile> renderer;
+  private final Runnable renderedListener;
+  private int generation;
+  private double zoom;
+  private int tileCycles;
+  private int columnCycles;
+  private int marginCycles;
+  private int modelVersion;
+
+  private SignalTileCache()
+  {
+    throw new UnsupportedOperationException("unsupported empty constructor");
+  }
+
+  /**
+   * @param renderer Renders the specified tile by calling the tile's
+   * setImage() method.  Called by worker threads.
+   * @param renderedListener Called by worker threads whenever a tile
+   * has been rendered.
+   */
+  public SignalTileCache(final Consumer<Tile> renderer,
+                         final Runnable renderedListener)
+  {
+    Objects.requireNonNull(renderer);
+    Objects.requireNonNull(renderedListener);
+    this.renderer = renderer;
+    this.renderedListener = renderedListener;
+    tiles = new LinkedHashMap<TileKey, Tile>(16, 0.75f, true) {
+      private static final long serialVersionUID = -2710946413823409513L;
+
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<TileKey, Tile> e)
+      {
+        return size() > MAX_TILES;
+      }
+    };
+    generation = 0;
+    modelVersion = -1;
+  }
+
+  /**
+   * Discards all tiles, if any of the rendering settings or the
+   * version of the model has changed.
+   */
+  public synchronized void setSettings(final double zoom,
+                                       final int tileCycles,
+                                       final int columnCycles,
+                                       final int marginCycles,
+                                       final int modelVersion)
+  {
+    if ((zoom == this.zoom) && (tileCycles == this.tileCycles) &&
+        (columnCycles == this.columnCycles) &&
+        (marginCycles == this.marginCycles) &&
+        (modelVersion == this.modelVersion))
+      return;
+    tiles.clear();
+    generation++;
+    this.zoom = zoom;
+    this.tileCycles = tileCycles;
+    this.columnCycles = columnCycles;
+    this.marginCycles = marginCycles;
+    this.modelVersion = modelVersion;
+  }
+
+  public synchronized Tile getTile(final Signal signal, final long index)
+  {
+    final TileKey key = new TileKey(signal, index);
+    final Tile cachedTile = tiles.get(key);
+    if (cachedTile != null) {
+      return cachedTile;
+    }
+    final Tile tile = new Tile(signal, index, generation, zoom, tileCycles,
+                               columnCycles, marginCycles);
+    tiles.put(key, tile);
+    return tile;
+  }
+
+  private synchronized boolean isCurrent(final Tile tile)
+  {
+    return tile.generation == generation;
+  }
+
+  private void render(final Tile tile)
+  {
+    try {
+      if (isCurrent(tile)) {
+        renderer.accept(tile);
+      }
+    } finally {
+      synchronized(tile) {
+        tile.rendering = false;
+      }
+    }
+    renderedListener.run();
+  }
+
+  /**
+   * Schedules rendering of the specified tile, unless it is already
+   * scheduled.
+   */
+  public void requestRendering(final Tile tile)
+  {
+    synchronized(tile) {
+      if (tile.rendering) return;
+      tile.rendering = true;
+    }
+    WORKERS.execute(() -> render(tile));
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
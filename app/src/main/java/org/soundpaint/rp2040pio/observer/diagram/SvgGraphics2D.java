@@ -0,0 +1,959 @@
+/*
+ * @(#)SvgGraphics2D.java 1.00 26/10/19
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio.observer.diagram;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Paint;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.TexturePaint;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Arc2D;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.awt.geom.RoundRectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.awt.image.ImageObserver;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderableImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.text.AttributedCharacterIterator;
+import java.util.Base64;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import javax.imageio.ImageIO;
+
+/**
+ * Graphics context that streams everything painted onto it as SVG
+ * elements to a writer, such that signals can be exported as vector
+ * graphics by the very same code that paints them on screen.  Shapes
+ * are written as paths, strings as text elements, and texture paints
+ * as patterns that embed the texture image, anchored in device
+ * space.  Each element carries its own absolute coordinates, such
+ * that elements can be written as soon as they are painted.  Drawing
+ * images is not supported.  Since the methods of a graphics context
+ * can not throw I/O exceptions, errors must be checked via method
+ * checkError().
+ */
+public class SvgGraphics2D extends Graphics2D
+{
+  /**
+   * State shared by all graphics contexts that write to the same
+   * document.
+   */
+  private static class Document
+  {
+    private final PrintWriter out;
+    private final Graphics2D metrics;
+    private final IdentityHashMap<TexturePaint, String> texture2patternId;
+    private int nextId;
+    private boolean error;
+
+    private Document(final PrintWriter out)
+    {
+      this.out = out;
+      metrics =
+        new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+      texture2patternId = new IdentityHashMap<TexturePaint, String>();
+      nextId = 0;
+      error = false;
+    }
+
+    private String createId(final String prefix)
+    {
+      return prefix + nextId++;
+    }
+  }
+
+  private final Document document;
+  private AffineTransform transform;
+  private Color color;
+  private Paint paint;
+  private Stroke stroke;
+  private Font font;
+  private Color background;
+  private Composite composite;
+  private RenderingHints hints;
+  private Shape clip;
+  private String clipId;
+
+  private SvgGraphics2D()
+  {
+    throw new UnsupportedOperationException("unsupported empty constructor");
+  }
+
+  /**
+   * Writes the start of an SVG document with the specified size and
+   * creates a graphics context for painting into the document.
+   */
+  public SvgGraphics2D(final PrintWriter out,
+                       final double width, final double height)
+  {
+    if (out == null) {
+      throw new NullPointerException("out");
+    }
+    document = new Document(out);
+    transform = new AffineTransform();
+    color = Color.BLACK;
+    paint = color;
+    stroke = new BasicStroke();
+    font = document.metrics.getFont();
+    background = Color.WHITE;
+    composite = AlphaComposite.SrcOver;
+    hints = new RenderingHints(null);
+    clip = null;
+    clipId = null;
+    out.printf("<?xml version=\"1.0\" encoding=\"UTF-8\"?>%n");
+    out.printf("<svg xmlns=\"http://www.w3.org/2000/svg\" " +
+               "xmlns:xlink=\"http://www.w3.org/1999/xlink\" " +
+               "version=\"1.1\" width=\"%s\" height=\"%s\" " +
+               "viewBox=\"0 0 %s %s\">%n",
+               formatNumber(width), formatNumber(height),
+               formatNumber(width), formatNumber(height));
+  }
+
+  private SvgGraphics2D(final SvgGraphics2D g)
+  {
+    document = g.document;
+    transform = new AffineTransform(g.transform);
+    color = g.color;
+    paint = g.paint;
+    stroke = g.stroke;
+    font = g.font;
+    background = g.background;
+    composite = g.composite;
+    hints = (RenderingHints)g.hints.clone();
+    clip = g.clip;
+    clipId = g.clipId;
+  }
+
+  /**
+   * Writes the end of the SVG document and flushes the writer.  No
+   * more painting must be done on this or any related graphics
+   * context afterwards.
+   */
+  public void finish()
+  {
+    document.out.printf("</svg>%n");
+    document.out.flush();
+  }
+
+  /**
+   * Returns true if writing to the underlying writer or encoding
+   * embedded images has failed.
+   */
+  public boolean checkError()
+  {
+    return document.out.checkError() || document.error;
+  }
+
+  private static String formatNumber(final double value)
+  {
+    return
+      BigDecimal.valueOf(Math.round(value * 100.0) / 100.0).
+      stripTrailingZeros().toPlainString();
+  }
+
+  private static String escape(final String text)
+  {
+    final StringBuilder s = new StringBuilder();
+    for (final char ch : text.toCharArray()) {
+      switch (ch) {
+      case '&':
+        s.append("&amp;");
+        break;
+      case '<':
+        s.append("&lt;");
+        break;
+      case '>':
+        s.append("&gt;");
+        break;
+      case '"':
+        s.append("&quot;");
+        break;
+      default:
+        s.append(ch);
+        break;
+      }
+    }
+    return s.toString();
+  }
+
+  private String toPathData(final Shape shape)
+  {
+    final StringBuilder s = new StringBuilder();
+    final PathIterator iterator = shape.getPathIterator(transform);
+    final double[] coords = new double[6];
+    while (!iterator.isDone()) {
+      final int points;
+      switch (iterator.currentSegment(coords)) {
+      case PathIterator.SEG_MOVETO:
+        s.append('M');
+        points = 1;
+        break;
+      case PathIterator.SEG_LINETO:
+        s.append('L');
+        points = 1;
+        break;
+      case PathIterator.SEG_QUADTO:
+        s.append('Q');
+        points = 2;
+        break;
+      case PathIterator.SEG_CUBICTO:
+        s.append('C');
+        points = 3;
+        break;
+      case PathIterator.SEG_CLOSE:
+        s.append('Z');
+        points = 0;
+        break;
+      default:
+        throw new InternalError("unexpected case fall-through");
+      }
+      for (int index = 0; index < 2 * points; index++) {
+        if (index > 0) s.append(' ');
+        s.append(formatNumber(coords[index]));
+      }
+      iterator.next();
+    }
+    return s.toString();
+  }
+
+  private static String getColorAttributes(final String attribute,
+                                           final Color color)
+  {
+    final String rgb =
+      String.format("%s=\"#%06x\"", attribute, color.getRGB() & 0xffffff);
+    final int alpha = color.getAlpha();
+    return
+      alpha == 0xff ? rgb :
+      String.format("%s %s-opacity=\"%s\"", rgb, attribute,
+                    formatNumber(alpha / 255.0));
+  }
+
+  private String getPatternId(final TexturePaint texture)
+  {
+    final String knownId = document.texture2patternId.get(texture);
+    if (knownId != null) return knownId;
+    final String id = document.createId("pattern");
+    final ByteArrayOutputStream png = new ByteArrayOutputStream();
+    try {
+      ImageIO.write(texture.getImage(), "png", png);
+    } catch (final IOException e) {
+      document.error = true;
+    }
+    final Rectangle2D anchor = texture.getAnchorRect();
+    final String x = formatNumber(anchor.getX());
+    final String y = formatNumber(anchor.getY());
+    final String width = formatNumber(anchor.getWidth());
+    final String height = formatNumber(anchor.getHeight());
+    document.out.printf("<defs><pattern id=\"%s\" " +
+                        "patternUnits=\"userSpaceOnUse\" " +
+                        "x=\"%s\" y=\"%s\" width=\"%s\" height=\"%s\">" +
+                        "<image width=\"%s\" height=\"%s\" " +
+                        "xlink:href=\"data:image/png;base64,%s\"/>" +
+                        "</pattern></defs>%n",
+                        id, x, y, width, height, width, height,
+                        Base64.getEncoder().encodeToString(png.toByteArray()));
+    document.texture2patternId.put(texture, id);
+    return id;
+  }
+
+  private String getPaintAttributes(final String attribute)
+  {
+    if (paint instanceof TexturePaint) {
+      return String.format("%s=\"url(#%s)\"", attribute,
+                           getPatternId((TexturePaint)paint));
+    }
+    return getColorAttributes(attribute, color);
+  }
+
+  private String getClipAttribute()
+  {
+    if (clip == null) return "";
+    if (clipId == null) {
+      clipId = document.createId("clip");
+      final AffineTransform userTransform = transform;
+      transform = new AffineTransform();
+      document.out.printf("<defs><clipPath id=\"%s\"><path d=\"%s\"/>" +
+                          "</clipPath></defs>%n", clipId, toPathData(clip));
+      transform = userTransform;
+    }
+    return String.format(" clip-path=\"url(#%s)\"", clipId);
+  }
+
+  private static String getCapName(final int cap)
+  {
+    switch (cap) {
+    case BasicStroke.CAP_ROUND:
+      return "round";
+    case BasicStroke.CAP_SQUARE:
+      return "square";
+    default:
+      return "butt";
+    }
+  }
+
+  private static String getJoinName(final int join)
+  {
+    switch (join) {
+    case BasicStroke.JOIN_ROUND:
+      return "round";
+    case BasicStroke.JOIN_BEVEL:
+      return "bevel";
+    default:
+      return "miter";
+    }
+  }
+
+  private static String getStrokeAttributes(final BasicStroke stroke)
+  {
+    final StringBuilder s = new StringBuilder();
+    s.append(String.format(" stroke-width=\"%s\" stroke-linecap=\"%s\" " +
+                           "stroke-linejoin=\"%s\"",
+                           formatNumber(stroke.getLineWidth()),
+                           getCapName(stroke.getEndCap()),
+                           getJoinName(stroke.getLineJoin())));
+    final float[] dashArray = stroke.getDashArray();
+    if (dashArray != null) {
+      s.append(" stroke-dasharray=\"");
+      for (int index = 0; index < dashArray.length; index++) {
+        if (index > 0) s.append(' ');
+        s.append(formatNumber(dashArray[index]));
+      }
+      s.append(String.format("\" stroke-dashoffset=\"%s\"",
+                             formatNumber(stroke.getDashPhase())));
+    }
+    return s.toString();
+  }
+
+  @Override
+  public void draw(final Shape shape)
+  {
+    if (!(stroke instanceof BasicStroke)) {
+      fill(stroke.createStrokedShape(shape));
+      return;
+    }
+    document.out.printf("<path d=\"%s\" fill=\"none\" %s%s%s/>%n",
+                        toPathData(shape), getPaintAttributes("stroke"),
+                        getStrokeAttributes((BasicStroke)stroke),
+                        getClipAttribute());
+  }
+
+  @Override
+  public void fill(final Shape shape)
+  {
+    final String fillRule =
+      shape.getPathIterator(null).getWindingRule() ==
+      PathIterator.WIND_EVEN_ODD ? " fill-rule=\"evenodd\"" : "";
+    document.out.printf("<path d=\"%s\" %s%s%s/>%n",
+                        toPathData(shape), getPaintAttributes("fill"),
+                        fillRule, getClipAttribute());
+  }
+
+  private static String getGenericFamily(final String family)
+  {
+    switch (family) {
+    case Font.DIALOG:
+    case Font.SANS_SERIF:
+      return "sans-serif";
+    case Font.SERIF:
+      return "serif";
+    case Font.DIALOG_INPUT:
+    case Font.MONOSPACED:
+      return "monospace";
+    default:
+      return family;
+    }
+  }
+
+  @Override
+  public void drawString(final String str, final float x, final float y)
+  {
+    final String position;
+    if ((transform.getType() & ~AffineTransform.TYPE_TRANSLATION) == 0) {
+      position =
+        String.format("x=\"%s\" y=\"%s\"",
+                      formatNumber(x + transform.getTranslateX()),
+                      formatNumber(y + transform.getTranslateY()));
+    } else {
+      final double[] matrix = new double[6];
+      transform.getMatrix(matrix);
+      position =
+        String.format("x=\"%s\" y=\"%s\" " +
+                      "transform=\"matrix(%s %s %s %s %s %s)\"",
+                      formatNumber(x), formatNumber(y),
+                      formatNumber(matrix[0]), formatNumber(matrix[1]),
+                      formatNumber(matrix[2]), formatNumber(matrix[3]),
+                      formatNumber(matrix[4]), formatNumber(matrix[5]));
+    }
+    document.out.printf("<text %s font-family=\"%s\" font-size=\"%s\"%s%s " +
+                        "%s%s xml:space=\"preserve\">%s</text>%n",
+                        position, escape(getGenericFamily(font.getFamily())),
+                        formatNumber(font.getSize2D()),
+                        font.isBold() ? " font-weight=\"bold\"" : "",
+                        font.isItalic() ? " font-style=\"italic\"" : "",
+                        getPaintAttributes("fill"), getClipAttribute(),
+                        escape(str));
+  }
+
+  @Override
+  public void drawString(final String str, final int x, final int y)
+  {
+    drawString(str, (float)x, (float)y);
+  }
+
+  @Override
+  public void drawString(final AttributedCharacterIterator iterator,
+                         final float x, final float y)
+  {
+    final StringBuilder s = new StringBuilder();
+    for (char ch = iterator.first(); ch != AttributedCharacterIterator.DONE;
+         ch = iterator.next()) {
+      s.append(ch);
+    }
+    drawString(s.toString(), x, y);
+  }
+
+  @Override
+  public void drawString(final AttributedCharacterIterator iterator,
+                         final int x, final int y)
+  {
+    drawString(iterator, (float)x, (float)y);
+  }
+
+  @Override
+  public void drawGlyphVector(final GlyphVector glyphVector,
+                              final float x, final float y)
+  {
+    fill(glyphVector.getOutline(x, y));
+  }
+
+  @Override
+  public boolean hit(final Rectangle rect, final Shape shape,
+                     final boolean onStroke)
+  {
+    final Shape outline =
+      onStroke ? stroke.createStrokedShape(shape) : shape;
+    return transform.createTransformedShape(outline).intersects(rect);
+  }
+
+  @Override
+  public GraphicsConfiguration getDeviceConfiguration()
+  {
+    return document.metrics.getDeviceConfiguration();
+  }
+
+  @Override
+  public void setComposite(final Composite composite)
+  {
+    if (composite == null) {
+      throw new IllegalArgumentException("composite is null");
+    }
+    this.composite = composite;
+  }
+
+  @Override
+  public Composite getComposite()
+  {
+    return composite;
+  }
+
+  @Override
+  public void setPaint(final Paint paint)
+  {
+    if (paint == null) return;
+    this.paint = paint;
+    if (paint instanceof Color) {
+      color = (Color)paint;
+    }
+  }
+
+  @Override
+  public Paint getPaint()
+  {
+    return paint;
+  }
+
+  @Override
+  public void setStroke(final Stroke stroke)
+  {
+    if (stroke == null) {
+      throw new IllegalArgumentException("stroke is null");
+    }
+    this.stroke = stroke;
+  }
+
+  @Override
+  public Stroke getStroke()
+  {
+    return stroke;
+  }
+
+  @Override
+  public void setRenderingHint(final RenderingHints.Key hintKey,
+                               final Object hintValue)
+  {
+    hints.put(hintKey, hintValue);
+  }
+
+  @Override
+  public Object getRenderingHint(final RenderingHints.Key hintKey)
+  {
+    return hints.get(hintKey);
+  }
+
+  @Override
+  public void setRenderingHints(final Map<?, ?> hints)
+  {
+    this.hints.clear();
+    this.hints.putAll(hints);
+  }
+
+  @Override
+  public void addRenderingHints(final Map<?, ?> hints)
+  {
+    this.hints.putAll(hints);
+  }
+
+  @Override
+  public RenderingHints getRenderingHints()
+  {
+    return (RenderingHints)hints.clone();
+  }
+
+  @Override
+  public void translate(final int x, final int y)
+  {
+    transform.translate(x, y);
+  }
+
+  @Override
+  public void translate(final double tx, final double ty)
+  {
+    transform.translate(tx, ty);
+  }
+
+  @Override
+  public void rotate(final double theta)
+  {
+    transform.rotate(theta);
+  }
+
+  @Override
+  public void rotate(final double theta, final double x, final double y)
+  {
+    transform.rotate(theta, x, y);
+  }
+
+  @Override
+  public void scale(final double sx, final double sy)
+  {
+    transform.scale(sx, sy);
+  }
+
+  @Override
+  public void shear(final double shx, final double shy)
+  {
+    transform.shear(shx, shy);
+  }
+
+  @Override
+  public void transform(final AffineTransform tx)
+  {
+    transform.concatenate(tx);
+  }
+
+  @Override
+  public void setTransform(final AffineTransform tx)
+  {
+    transform = new AffineTransform(tx);
+  }
+
+  @Override
+  public AffineTransform getTransform()
+  {
+    return new AffineTransform(transform);
+  }
+
+  @Override
+  public void setBackground(final Color color)
+  {
+    background = color;
+  }
+
+  @Override
+  public Color getBackground()
+  {
+    return background;
+  }
+
+  @Override
+  public void clip(final Shape shape)
+  {
+    if (shape == null) {
+      setClip(null);
+      return;
+    }
+    final Shape deviceShape = transform.createTransformedShape(shape);
+    if (clip == null) {
+      clip = deviceShape;
+    } else {
+      final Area area = new Area(clip);
+      area.intersect(new Area(deviceShape));
+      clip = area;
+    }
+    clipId = null;
+  }
+
+  @Override
+  public FontRenderContext getFontRenderContext()
+  {
+    return document.metrics.getFontRenderContext();
+  }
+
+  @Override
+  public Graphics create()
+  {
+    return new SvgGraphics2D(this);
+  }
+
+  @Override
+  public Color getColor()
+  {
+    return color;
+  }
+
+  @Override
+  public void setColor(final Color color)
+  {
+    if (color == null) return;
+    this.color = color;
+    paint = color;
+  }
+
+  @Override
+  public void setPaintMode()
+  {
+    // always in paint mode
+  }
+
+  @Override
+  public void setXORMode(final Color color)
+  {
+    // XOR mode has no counterpart in SVG => ignore
+  }
+
+  @Override
+  public Font getFont()
+  {
+    return font;
+  }
+
+  @Override
+  public void setFont(final Font font)
+  {
+    if (font == null) return;
+    this.font = font;
+  }
+
+  @Override
+  public FontMetrics getFontMetrics(final Font font)
+  {
+    return document.metrics.getFontMetrics(font);
+  }
+
+  @Override
+  public Rectangle getClipBounds()
+  {
+    final Shape userClip = getClip();
+    return userClip != null ? userClip.getBounds() : null;
+  }
+
+  @Override
+  public void clipRect(final int x, final int y,
+                       final int width, final int height)
+  {
+    clip(new Rectangle(x, y, width, height));
+  }
+
+  @Override
+  public void setClip(final int x, final int y,
+                      final int width, final int height)
+  {
+    setClip(new Rectangle(x, y, width, height));
+  }
+
+  @Override
+  public Shape getClip()
+  {
+    if (clip == null) return null;
+    try {
+      return transform.createInverse().createTransformedShape(clip);
+    } catch (final NoninvertibleTransformException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public void setClip(final Shape clip)
+  {
+    this.clip =
+      clip != null ? transform.createTransformedShape(clip) : null;
+    clipId = null;
+  }
+
+  @Override
+  public void copyArea(final int x, final int y,
+                       final int width, final int height,
+                       final int dx, final int dy)
+  {
+    throw new UnsupportedOperationException("copying areas not supported");
+  }
+
+  @Override
+  public void drawLine(final int x1, final int y1,
+                       final int x2, final int y2)
+  {
+    draw(new Line2D.Double(x1, y1, x2, y2));
+  }
+
+  @Override
+  public void fillRect(final int x, final int y,
+                       final int width, final int height)
+  {
+    fill(new Rectangle(x, y, width, height));
+  }
+
+  @Override
+  public void clearRect(final int x, final int y,
+                        final int width, final int height)
+  {
+    final Paint savedPaint = paint;
+    final Color savedColor = color;
+    setColor(background);
+    fillRect(x, y, width, height);
+    paint = savedPaint;
+    color = savedColor;
+  }
+
+  @Override
+  public void drawRoundRect(final int x, final int y,
+                            final int width, final int height,
+                            final int arcWidth, final int arcHeight)
+  {
+    draw(new RoundRectangle2D.Double(x, y, width, height,
+                                     arcWidth, arcHeight));
+  }
+
+  @Override
+  public void fillRoundRect(final int x, final int y,
+                            final int width, final int height,
+                            final int arcWidth, final int arcHeight)
+  {
+    fill(new RoundRectangle2D.Double(x, y, width, height,
+                                     arcWidth, arcHeight));
+  }
+
+  @Override
+  public void drawOval(final int x, final int y,
+                       final int width, final int height)
+  {
+    draw(new Ellipse2D.Double(x, y, width, height));
+  }
+
+  @Override
+  public void fillOval(final int x, final int y,
+                       final int width, final int height)
+  {
+    fill(new Ellipse2D.Double(x, y, width, height));
+  }
+
+  @Override
+  public void drawArc(final int x, final int y,
+                      final int width, final int height,
+                      final int startAngle, final int arcAngle)
+  {
+    draw(new Arc2D.Double(x, y, width, height, startAngle, arcAngle,
+                          Arc2D.OPEN));
+  }
+
+  @Override
+  public void fillArc(final int x, final int y,
+                      final int width, final int height,
+                      final int startAngle, final int arcAngle)
+  {
+    fill(new Arc2D.Double(x, y, width, height, startAngle, arcAngle,
+                          Arc2D.PIE));
+  }
+
+  @Override
+  public void drawPolyline(final int[] xPoints, final int[] yPoints,
+                           final int nPoints)
+  {
+    if (nPoints < 1) return;
+    final Path2D.Double path = new Path2D.Double();
+    path.moveTo(xPoints[0], yPoints[0]);
+    for (int index = 1; index < nPoints; index++) {
+      path.lineTo(xPoints[index], yPoints[index]);
+    }
+    draw(path);
+  }
+
+  @Override
+  public void drawPolygon(final int[] xPoints, final int[] yPoints,
+                          final int nPoints)
+  {
+    draw(new Polygon(xPoints, yPoints, nPoints));
+  }
+
+  @Override
+  public void fillPolygon(final int[] xPoints, final int[] yPoints,
+                          final int nPoints)
+  {
+    fill(new Polygon(xPoints, yPoints, nPoints));
+  }
+
+  private static boolean unsupportedImage()
+  {
+    throw new UnsupportedOperationException("drawing images not supported");
+  }
+
+  @Override
+  public boolean drawImage(final Image img, final AffineTransform xform,
+                           final ImageObserver observer)
+  {
+    return unsupportedImage();
+  }
+
+  @Override
+  public void drawImage(final BufferedImage img, final BufferedImageOp op,
+                        final int x, final int y)
+  {
+    unsupportedImage();
+  }
+
+  @Override
+  public void drawRenderedImage(final RenderedImage img,
+                                final AffineTransform xform)
+  {
+    unsupportedImage();
+  }
+
+  @Override
+  public void drawRenderableImage(final RenderableImage img,
+                                  final AffineTransform xform)
+  {
+    unsupportedImage();
+  }
+
+  @Override
+  public boolean drawImage(final Image img, final int x, final int y,
+                           final ImageObserver observer)
+  {
+    return unsupportedImage();
+  }
+
+  @Override
+  public boolean drawImage(final Image img, final int x, final int y,
+                           final int width, final int height,
+                           final ImageObserver observer)
+  {
+    return unsupportedImage();
+  }
+
+  @Override
+  public boolean drawImage(final Image img, final int x, final int y,
+                           final Color bgcolor, final ImageObserver observer)
+  {
+    return unsupportedImage();
+  }
+
+  @Override
+  public boolean drawImage(final Image img, final int x, final int y,
+                           final int width, final int height,
+                           final Color bgcolor, final ImageObserver observer)
+  {
+    return unsupportedImage();
+  }
+
+  @Override
+  public boolean drawImage(final Image img,
+                           final int dx1, final int dy1,
+                           final int dx2, final int dy2,
+                           final int sx1, final int sy1,
+                           final int sx2, final int sy2,
+                           final ImageObserver observer)
+  {
+    return unsupportedImage();
+  }
+
+  @Override
+  public boolean drawImage(final Image img,
+                           final int dx1, final int dy1,
+                           final int dx2, final int dy2,
+                           final int sx1, final int sy1,
+                           final int sx2, final int sy2,
+                           final Color bgcolor, final ImageObserver observer)
+  {
+    return unsupportedImage();
+  }
+
+  @Override
+  public void dispose()
+  {
+    // nothing to release; the document is completed via finish()
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
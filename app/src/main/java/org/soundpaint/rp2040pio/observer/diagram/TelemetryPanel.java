@@ -30,6 +30,7 @@ import javax.swing.Box;
 import javax.swing.BoxLayout;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import org.soundpaint.rp2040pio.SampleSubscription;
 import org.soundpaint.rp2040pio.SwingUtils;
 
 public class TelemetryPanel extends JPanel
@@ -40,6 +41,7 @@ public class TelemetryPanel extends JPanel
   private final DoubleSupplier leftMostVisibleCycleGetter;
   private final JLabel lbCycles;
   private final JLabel lbPosition;
+  private final JLabel lbFollowing;
 
   private TelemetryPanel()
   {
@@ -64,15 +66,33 @@ public class TelemetryPanel extends JPanel
     lbPosition = new JLabel();
     add(lbPosition);
     add(Box.createHorizontalGlue());
+    lbFollowing = new JLabel();
+    add(lbFollowing);
     SwingUtils.setPreferredHeightAsMaximum(this);
   }
 
   public void modelChanged()
   {
-    lbCycles.setText(String.format("%d", model.getSignalSize()));
+    final long droppedCycles = model.getDroppedCycles();
+    lbCycles.setText(String.format("%d%s%s", model.getSignalSize(),
+                                   droppedCycles > 0 ?
+                                   String.format(" (%d dropped)",
+                                                 droppedCycles) : "",
+                                   model.isFrozen() ? " (frozen)" : ""));
     final double leftMostVisibleCycle =
       leftMostVisibleCycleGetter.getAsDouble();
-    lbPosition.setText(String.format("%d", (int)leftMostVisibleCycle));
+    lbPosition.setText(String.format("%d",
+                                     (long)leftMostVisibleCycle +
+                                     droppedCycles));
+    final SampleSubscription.Statistics statistics =
+      model.getFollowStatistics();
+    lbFollowing.setText(statistics != null ?
+                        String.format("Buffered: %d/%d, Stalls: %d (%d ms)",
+                                      statistics.getBufferedCycles(),
+                                      statistics.getCapacityCycles(),
+                                      statistics.getStalls(),
+                                      statistics.getStallMillis()) :
+                        "");
   }
 }
 
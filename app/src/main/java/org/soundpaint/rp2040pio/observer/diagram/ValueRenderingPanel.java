@@ -119,7 +119,7 @@ public class ValueRenderingPanel extends JPanel
     }
     try {
       final Signal signal =
-        selectedRendering.createSignal(diagram, sdk, label, address,
+        selectedRendering.createSignal(diagram.getModel(), sdk, label, address,
                                        msb, lsb, displayFilters, pioNum, smNum);
       signal.setVisible(visible);
       return signal;
@@ -31,7 +31,9 @@ import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 import java.util.function.Supplier;
+import org.soundpaint.rp2040pio.Probe;
 import org.soundpaint.rp2040pio.sdk.SDK;
 
 public abstract class ValuedSignal<T> extends AbstractSignal<T>
@@ -52,6 +54,8 @@ public abstract class ValuedSignal<T> extends AbstractSignal<T>
 
   private final SignalRendering valueRendering;
   private final Supplier<Boolean> changeInfoGetter;
+  private final Probe valueProbe;
+  private final Probe filterProbe;
 
   /**
    * @param changeInfoGetter If set to &lt;code&gt;null&lt;/code&gt;,
@@ -63,10 +67,42 @@ public abstract class ValuedSignal<T> extends AbstractSignal<T>
   {
     super(signalParams);
     Objects.requireNonNull(signalParams);
-    Objects.requireNonNull(signalParams.getDiagram());
+    Objects.requireNonNull(signalParams.getModel());
     Objects.requireNonNull(signalParams.getSDK());
     this.valueRendering = valueRendering;
     this.changeInfoGetter = changeInfoGetter;
+    valueProbe = new Probe(signalParams.getAddress(),
+                           signalParams.getMsb(), signalParams.getLsb());
+    filterProbe = createFilterProbe(signalParams);
+  }
+
+  /**
+   * Combines all display filters into a single probe, such that the
+   * filters are evaluated where the values are sampled, and only the
+   * final decision needs to be delivered per cycle.
+   */
+  private static Probe
+    createFilterProbe(final SignalRendering.SignalParams signalParams)
+  {
+    final List<SignalFilter> displayFilters = signalParams.getDisplayFilters();
+    if ((displayFilters == null) || displayFilters.isEmpty()) {
+      return null;
+    }
+    final int pioNum = signalParams.getPioNum();
+    final int smNum = signalParams.getSmNum();
+    final Probe[] probes = new Probe[displayFilters.size()];
+    for (int index = 0; index < probes.length; index++) {
+      probes[index] = displayFilters.get(index).getProbe(pioNum, smNum);
+    }
+    return probes.length == 1 ? probes[0] : Probe.conjunction(probes);
+  }
+
+  /**
+   * Returns the probe that this signal samples its value from.
+   */
+  protected Probe getValueProbe()
+  {
+    return valueProbe;
   }
 
   public SignalRendering getValueRendering()
@@ -77,36 +113,46 @@ public abstract class ValuedSignal<T> extends AbstractSignal<T>
   @Override
   protected double getSignalHeight() { return SIGNAL_HEIGHT; }
 
-  abstract protected T sampleValue() throws IOException;
+  protected static void fillUndefined(final Graphics2D g,
+                                      final double xStart, final double xStop,
+                                      final double yBottom)
+  {
+    final Graphics2D fillG = (Graphics2D)g.create();
+    final double yTop = yBottom - SIGNAL_HEIGHT;
+    final Rectangle2D.Double rectangle =
+      new Rectangle2D.Double(xStart, yTop + 1,
+                             xStop - xStart + 1, yBottom - yTop - 1);
+    fillG.setPaint(FILL_PAINT);
+    fillG.fill(rectangle);
+  }
+
+  abstract protected T sampleValue(final SampleSource source)
+    throws IOException;
 
-  private boolean passesAllFilters(final List<SignalFilter> displayFilters)
-    throws IOException
+  @Override
+  public void collectProbes(final Set<Probe> probes)
   {
-    final SignalRendering.SignalParams signalParams = getSignalParams();
-    final SDK sdk = signalParams.getSDK();
-    final int pioNum = signalParams.getPioNum();
-    final int smNum = signalParams.getSmNum();
-    for (final SignalFilter displayFilter : displayFilters) {
-      if (!displayFilter.acceptCurrentSignalValue(sdk, pioNum, smNum))
-        return false;
+    probes.add(valueProbe);
+    if (filterProbe != null) {
+      probes.add(filterProbe);
     }
-    return true;
   }
 
   @Override
   public void record() throws IOException
+  {
+    final SDK sdk = getSignalParams().getSDK();
+    record(sdk::readAddress);
+  }
+
+  @Override
+  public void record(final SampleSource source) throws IOException
   {
     final boolean enforceChanged =
       changeInfoGetter != null ? changeInfoGetter.get() : false;
-    final SignalRendering.SignalParams signalParams = getSignalParams();
-    final List<SignalFilter> displayFilters = signalParams.getDisplayFilters();
-    final boolean passes;
-    if (displayFilters != null) {
-      passes = passesAllFilters(displayFilters);
-    } else {
-      passes = true;
-    }
-    record(passes ? sampleValue() : null, enforceChanged);
+    final boolean passes =
+      (filterProbe == null) || (source.readProbe(filterProbe) != 0);
+    record(passes ? sampleValue(source) : null, enforceChanged);
   }
 }
 
@@ -99,8 +99,6 @@ public class FSWatcher implements AutoCloseable {
 				  }
 				  if (triggering)
 				  {
-					  // TODO: delay better
-					  Thread.sleep(100);
 					  lastStats = stat(file);
 					  try
 					  {
@@ -0,0 +1,477 @@
+/*
+ * @(#)IncrementalReload.java 1.00 26/10/19
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio.observer.multigui;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.soundpaint.rp2040pio.Constants;
+import org.soundpaint.rp2040pio.Emulator;
+import org.soundpaint.rp2040pio.GPIOIOBank0Registers;
+import org.soundpaint.rp2040pio.IOUtils;
+import org.soundpaint.rp2040pio.LocalAddressSpace;
+import org.soundpaint.rp2040pio.PIOEmuRegisters;
+import org.soundpaint.rp2040pio.PIORegisters;
+import org.soundpaint.rp2040pio.WriteBatch;
+import org.soundpaint.rp2040pio.monitor.CommandRegistry;
+import org.soundpaint.rp2040pio.monitor.Monitor;
+import org.soundpaint.rp2040pio.sdk.Panic;
+import org.soundpaint.rp2040pio.sdk.SDK;
+
+/**
+ * Applies a monitor script incrementally.  Rather than executing
+ * the script on the live emulator, which typically means a full
+ * reset, reloading all programs and reconfiguring all state
+ * machines, the script is executed on a private, in-process shadow
+ * emulator.  Afterwards, only those instruction memory words and
+ * configuration registers of the live emulator that differ from the
+ * shadow's are written.  State machines whose program or
+ * configuration is unaffected keep running undisturbed.
+ *
+ * Optionally, the state (scratch and shift registers, PC and FIFO
+ * contents) of affected state machines is preserved; otherwise, it
+ * is taken over from the shadow emulator, such that the result is
+ * the same as after a full reload.
+ */
+public class IncrementalReload implements Constants
+{
+  private static final PIORegisters.Regs[] SM_CONFIG_REGS = {
+    PIORegisters.Regs.SM0_CLKDIV,
+    PIORegisters.Regs.SM0_EXECCTRL,
+    PIORegisters.Regs.SM0_SHIFTCTRL,
+    PIORegisters.Regs.SM0_PINCTRL
+  };
+
+  // hit count and break reason are runtime status, not configuration
+  private static final PIOEmuRegisters.Regs[] SM_DEBUG_REGS = {
+    PIOEmuRegisters.Regs.SM0_BREAKPOINTS,
+    PIOEmuRegisters.Regs.SM0_TRACEPOINTS,
+    PIOEmuRegisters.Regs.SM0_BREAK_CONDITION,
+    PIOEmuRegisters.Regs.SM0_BREAK_MASK,
+    PIOEmuRegisters.Regs.SM0_BREAK_VALUE,
+    PIOEmuRegisters.Regs.SM0_BREAK_HIT_TARGET,
+    PIOEmuRegisters.Regs.SM0_WATCH_CONDITION,
+    PIOEmuRegisters.Regs.SM0_WATCH_MASK
+  };
+
+  private static final PIOEmuRegisters.Regs[] SM_STATE_REGS = {
+    PIOEmuRegisters.Regs.SM0_REGX,
+    PIOEmuRegisters.Regs.SM0_REGY,
+    PIOEmuRegisters.Regs.SM0_ISR,
+    PIOEmuRegisters.Regs.SM0_ISR_SHIFT_COUNT,
+    PIOEmuRegisters.Regs.SM0_OSR,
+    PIOEmuRegisters.Regs.SM0_OSR_SHIFT_COUNT,
+    PIOEmuRegisters.Regs.SM0_PC
+  };
+
+  private static final ScheduledExecutorService watchdogs =
+    Executors.newSingleThreadScheduledExecutor((runnable) -> {
+        final Thread thread = new Thread(runnable, "reload watchdog");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  private final PrintStream console;
+  private final SDK sdk;
+
+  private IncrementalReload()
+  {
+    throw new UnsupportedOperationException("unsupported empty constructor");
+  }
+
+  /**
+   * @param sdk The SDK of the live emulator.
+   */
+  public IncrementalReload(final PrintStream console, final SDK sdk)
+  {
+    if (console == null) {
+      throw new NullPointerException("console");
+    }
+    if (sdk == null) {
+      throw new NullPointerException("sdk");
+    }
+    this.console = console;
+    this.sdk = sdk;
+  }
+
+  /**
+   * Interrupts the thread that runs the script on the shadow
+   * emulator when time is up.
+   */
+  private static class Watchdog
+  {
+    private final Thread worker;
+    private boolean done;
+    private boolean timedOut;
+
+    private Watchdog(final Thread worker)
+    {
+      this.worker = worker;
+      done = false;
+      timedOut = false;
+    }
+
+    private synchronized void alarm()
+    {
+      if (!done) {
+        timedOut = true;
+        worker.interrupt();
+      }
+    }
+
+    private synchronized void done()
+    {
+      done = true;
+      Thread.interrupted();
+    }
+
+    private synchronized boolean isTimedOut()
+    {
+      return timedOut;
+    }
+  }
+
+  private boolean executeScript(final SDK shadow, final String scriptPath,
+                                final int timeoutMillis)
+    throws IOException
+  {
+    final BufferedReader noInput = new BufferedReader(new StringReader(""));
+    final CommandRegistry commands = Monitor.getMiniMonitor(noInput, shadow);
+    final Watchdog watchdog = new Watchdog(Thread.currentThread());
+    final ScheduledFuture<?> alarm =
+      watchdogs.schedule(() -> watchdog.alarm(),
+                         timeoutMillis, TimeUnit.MILLISECONDS);
+    try (final LineNumberReader in =
+         IOUtils.getReaderForResourcePath(scriptPath)) {
+      while (!Thread.currentThread().isInterrupted()) {
+        final String line = in.readLine();
+        if (line == null) return true;
+        try {
+          if (commands.parseAndExecute(line, false)) return true;
+        } catch (final Panic | IOException e) {
+          console.printf("%s, line %d: %s%n",
+                         scriptPath, in.getLineNumber(), e.getMessage());
+          return false;
+        }
+      }
+      return false;
+    } finally {
+      alarm.cancel(false);
+      watchdog.done();
+      if (watchdog.isTimedOut()) {
+        console.printf("%s: timed out after %d ms on shadow emulator%n",
+                       scriptPath, timeoutMillis);
+      }
+    }
+  }
+
+  /**
+   * Values of the registers that are compared between the live and
+   * the shadow emulator.  The live emulator's values are read as a
+   * whole, i.e. with a single call of method
+   * <code>readAddresses()</code>.
+   */
+  private static class Registers
+  {
+    private final Map<Integer, Integer> liveValues;
+    private final Map<Integer, Integer> shadowValues;
+
+    private Registers()
+    {
+      throw new UnsupportedOperationException("unsupported empty constructor");
+    }
+
+    private Registers(final SDK sdk, final SDK shadow,
+                      final List<Integer> addresses)
+      throws IOException
+    {
+      final int[] addressArray =
+        addresses.stream().mapToInt(Integer::intValue).toArray();
+      final int[] live = sdk.readAddresses(addressArray);
+      final int[] shadowed = shadow.readAddresses(addressArray);
+      liveValues = new HashMap<Integer, Integer>();
+      shadowValues = new HashMap<Integer, Integer>();
+      for (int index = 0; index < addressArray.length; index++) {
+        liveValues.put(addressArray[index], live[index]);
+        shadowValues.put(addressArray[index], shadowed[index]);
+      }
+    }
+
+    private int getLive(final int address)
+    {
+      return liveValues.get(address);
+    }
+
+    private int getShadow(final int address)
+    {
+      return shadowValues.get(address);
+    }
+
+    private void diff(final int address, final Map<Integer, Integer> changes)
+    {
+      final int value = getShadow(address);
+      if (value != getLive(address)) {
+        changes.put(address, value);
+      }
+    }
+  }
+
+  /**
+   * Appends the addresses of all registers of the specified PIO that
+   * are transferred from the shadow emulator, if different, except
+   * for the CTRL register.
+   */
+  private static void addPIOAddresses(final int pioNum,
+                                      final boolean preserveState,
+                                      final List<Integer> addresses)
+  {
+    for (int address = 0; address < MEMORY_SIZE; address++) {
+      addresses.add(PIOEmuRegisters.getMemoryAddress(pioNum, address));
+    }
+    for (int smNum = 0; smNum < SM_COUNT; smNum++) {
+      for (final PIORegisters.Regs register : SM_CONFIG_REGS) {
+        addresses.add(PIORegisters.getSMAddress(pioNum, smNum, register));
+      }
+      for (final PIOEmuRegisters.Regs register : SM_DEBUG_REGS) {
+        addresses.add(PIOEmuRegisters.getSMAddress(pioNum, smNum, register));
+      }
+    }
+    addresses.add(PIORegisters.getAddress(pioNum,
+                                          PIORegisters.Regs.INPUT_SYNC_BYPASS));
+    if (!preserveState) {
+      addresses.add(PIOEmuRegisters.getAddress(pioNum,
+                                               PIOEmuRegisters.Regs.GPIO_PINS));
+      addresses.add(PIOEmuRegisters.
+                    getAddress(pioNum, PIOEmuRegisters.Regs.GPIO_PINDIRS));
+    }
+  }
+
+  private static void addGPIOAddresses(final List<Integer> addresses)
+  {
+    for (int gpioNum = 0; gpioNum < GPIO_NUM; gpioNum++) {
+      addresses.add(GPIOIOBank0Registers.
+                    getGPIOAddress(gpioNum,
+                                   GPIOIOBank0Registers.Regs.GPIO0_CTRL));
+    }
+  }
+
+  /**
+   * Takes over scratch and shift registers, PC and FIFO contents of
+   * the specified state machine from the shadow emulator.
+   */
+  private int copyState(final SDK shadow, final int pioNum, final int smNum,
+                        final WriteBatch batch)
+    throws IOException
+  {
+    int writes = 0;
+    final int flevel =
+      shadow.readAddress(PIORegisters.getAddress(pioNum,
+                                                 PIORegisters.Regs.FLEVEL));
+    final int txLevel = (flevel >>> (8 * smNum)) & 0xf;
+    final int rxLevel = (flevel >>> (8 * smNum + 4)) & 0xf;
+    // toggle RX join bit twice to force clearance of both FIFOs
+    final int shiftCtrlAddress =
+      PIORegisters.getSMAddress(pioNum, smNum,
+                                PIORegisters.Regs.SM0_SHIFTCTRL);
+    batch.add(shiftCtrlAddress, SM0_SHIFTCTRL_FJOIN_RX_BITS,
+              SM0_SHIFTCTRL_FJOIN_RX_BITS, true);
+    batch.add(shiftCtrlAddress, SM0_SHIFTCTRL_FJOIN_RX_BITS,
+              SM0_SHIFTCTRL_FJOIN_RX_BITS, true);
+    for (int index = 0; index < txLevel; index++) {
+      // popping the shadow's FIFO is fine, since it is discarded
+      final int value =
+        shadow.readAddress(PIOEmuRegisters.getTXFAddress(pioNum, smNum));
+      batch.add(PIORegisters.getTXFAddress(pioNum, smNum), value, ~0x0, false);
+      writes++;
+    }
+    for (int index = 0; index < rxLevel; index++) {
+      final int value =
+        shadow.readAddress(PIORegisters.getRXFAddress(pioNum, smNum));
+      batch.add(PIOEmuRegisters.getRXFAddress(pioNum, smNum), value,
+                ~0x0, false);
+      writes++;
+    }
+    for (final PIOEmuRegisters.Regs register : SM_STATE_REGS) {
+      final int address =
+        PIOEmuRegisters.getSMAddress(pioNum, smNum, register);
+      batch.add(address, shadow.readAddress(address), ~0x0, false);
+      writes++;
+    }
+    return writes;
+  }
+
+  private int applyPIO(final SDK shadow, final Registers registers,
+                       final int pioNum, final boolean preserveState,
+                       final WriteBatch batch)
+    throws IOException
+  {
+    final List<Integer> addresses = new ArrayList<Integer>();
+    addPIOAddresses(pioNum, preserveState, addresses);
+    final Map<Integer, Integer> changes = new LinkedHashMap<Integer, Integer>();
+    for (final int address : addresses) {
+      registers.diff(address, changes);
+    }
+    int affectedSms = 0x0;
+    for (int address = 0; address < MEMORY_SIZE; address++) {
+      if (changes.containsKey(PIOEmuRegisters.getMemoryAddress(pioNum,
+                                                               address))) {
+        affectedSms = (0x1 << SM_COUNT) - 1;
+        break;
+      }
+    }
+    for (int smNum = 0; smNum < SM_COUNT; smNum++) {
+      for (final PIORegisters.Regs register : SM_CONFIG_REGS) {
+        if (changes.containsKey(PIORegisters.getSMAddress(pioNum, smNum,
+                                                          register))) {
+          affectedSms |= 0x1 << smNum;
+        }
+      }
+    }
+    final int ctrlAddress =
+      PIORegisters.getAddress(pioNum, PIORegisters.Regs.CTRL);
+    final int shadowEnabled =
+      registers.getShadow(ctrlAddress) & CTRL_SM_ENABLE_BITS;
+    final int liveEnabled =
+      registers.getLive(ctrlAddress) & CTRL_SM_ENABLE_BITS;
+    if (changes.isEmpty() && (shadowEnabled == liveEnabled)) return 0;
+
+    // stop affected state machines while they are being updated
+    batch.add(ctrlAddress, 0x0, affectedSms & liveEnabled, false);
+    final boolean restart = !preserveState && (affectedSms != 0x0);
+    if (restart) {
+      // restart before writing CLKDIV, since the emulator's clock
+      // divider restart also resets the divider value
+      final int restartBits =
+        (affectedSms << CTRL_SM_RESTART_LSB) |
+        (affectedSms << CTRL_CLKDIV_RESTART_LSB);
+      batch.add(ctrlAddress, restartBits, restartBits, false);
+    }
+    for (final Map.Entry<Integer, Integer> change : changes.entrySet()) {
+      batch.add(change.getKey(), change.getValue(), ~0x0, false);
+    }
+    int writes = changes.size();
+    if (restart) {
+      for (int smNum = 0; smNum < SM_COUNT; smNum++) {
+        if ((affectedSms & (0x1 << smNum)) != 0x0) {
+          writes += copyState(shadow, pioNum, smNum, batch);
+        }
+      }
+    }
+    batch.add(ctrlAddress, shadowEnabled, CTRL_SM_ENABLE_BITS, false);
+    console.printf("(pio%d:sm*) incremental reload: %d word(s) written, " +
+                   "SM mask 0x%x affected%n", pioNum, writes, affectedSms);
+    return writes + 1;
+  }
+
+  private int applyGPIO(final Registers registers, final WriteBatch batch)
+  {
+    final List<Integer> addresses = new ArrayList<Integer>();
+    addGPIOAddresses(addresses);
+    final Map<Integer, Integer> changes = new LinkedHashMap<Integer, Integer>();
+    for (final int address : addresses) {
+      registers.diff(address, changes);
+    }
+    for (final Map.Entry<Integer, Integer> change : changes.entrySet()) {
+      batch.add(change.getKey(), change.getValue(), ~0x0, false);
+    }
+    return changes.size();
+  }
+
+  /**
+   * Executes the script on a shadow emulator and transfers the
+   * differences to the live emulator.
+   *
+   * @param preserveState If true, scratch and shift registers, PC,
+   * FIFO contents and PIO pin values of the live emulator are left
+   * untouched.
+   * @param timeoutMillis Maximum time for executing the script on the
+   * shadow emulator.
+   * @return The number of words written to the live emulator, or -1,
+   * if executing the script on the shadow emulator failed or timed
+   * out, in which case the live emulator has not been touched.
+   */
+  public int apply(final String scriptPath, final boolean preserveState,
+                   final int timeoutMillis)
+    throws IOException
+  {
+    if (scriptPath == null) {
+      throw new NullPointerException("scriptPath");
+    }
+    if (timeoutMillis <= 0) {
+      throw new IllegalArgumentException("timeoutMillis <= 0: " +
+                                         timeoutMillis);
+    }
+    final Emulator emulator = new Emulator(console, 0); // no state trace
+    try {
+      final SDK shadow = new SDK(console, new LocalAddressSpace(emulator));
+      if (!executeScript(shadow, scriptPath, timeoutMillis)) {
+        return -1;
+      }
+      final List<Integer> addresses = new ArrayList<Integer>();
+      for (int pioNum = 0; pioNum < PIO_NUM; pioNum++) {
+        addPIOAddresses(pioNum, preserveState, addresses);
+        addresses.add(PIORegisters.getAddress(pioNum,
+                                              PIORegisters.Regs.CTRL));
+      }
+      addGPIOAddresses(addresses);
+      final Registers registers = new Registers(sdk, shadow, addresses);
+      final WriteBatch batch = new WriteBatch();
+      int writes = 0;
+      for (int pioNum = 0; pioNum < PIO_NUM; pioNum++) {
+        writes += applyPIO(shadow, registers, pioNum, preserveState, batch);
+      }
+      writes += applyGPIO(registers, batch);
+      sdk.beginTransaction();
+      try {
+        sdk.writeAddressesMasked(batch);
+      } catch (final IOException | RuntimeException e) {
+        sdk.abortTransaction();
+        throw e;
+      }
+      sdk.commitTransaction();
+      return writes;
+    } finally {
+      emulator.terminate();
+    }
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
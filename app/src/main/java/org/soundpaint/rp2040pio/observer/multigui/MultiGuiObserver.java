@@ -42,11 +42,13 @@ import javax.swing.border.EmptyBorder;
 
 import org.soundpaint.rp2040pio.Constants;
 import org.soundpaint.rp2040pio.observer.GUIObserver;
+import org.soundpaint.rp2040pio.observer.ObserverDataHub;
 import org.soundpaint.rp2040pio.observer.code.CodeObserver;
 import org.soundpaint.rp2040pio.observer.code.CodeViewPanel;
 import org.soundpaint.rp2040pio.observer.fifo.FifoObserver;
 import org.soundpaint.rp2040pio.observer.fifo.FifoViewPanel;
 import org.soundpaint.rp2040pio.observer.gpio.GPIOViewPanel;
+import org.soundpaint.rp2040pio.sdk.SDK;
 
 /**
  * Emulation Code Status Observation
@@ -58,6 +60,7 @@ public class MultiGuiObserver extends GUIObserver
   private static final String APP_FULL_NAME =
     "Muti-GUI Observer Version 0.1";
 
+  private final ObserverDataHub dataHub;
   private CodeViewPanel codeViewPanel;
 private GPIOViewPanel gpioViewPanel;
 private FifoViewPanel fifoViewPanel;
@@ -67,20 +70,30 @@ private ScriptLoadController scriptLoad;
     throws IOException
   {
     super(APP_TITLE, APP_FULL_NAME, console, argv);
+    dataHub = new ObserverDataHub(getAddressSpace());
     add(makeLayout(console));
     pack();
     setVisible(true);
     startUpdating();
   }
   
+  /**
+   * Creates an SDK for a single panel that reads registers from the
+   * snapshots of the shared data hub.
+   */
+  private SDK createPanelSDK(final PrintStream console)
+  {
+    return new SDK(console, dataHub.createClient());
+  }
+
   private Component makeLayout(final PrintStream console) throws IOException
   {
 	  var contentPane = new JPanel();
 		contentPane.setLayout(new GridLayout(0, 2, 6, 6));
 		
-		fifoViewPanel = new FifoViewPanel(console, getSDK(), FifoObserver.APP_TITLE);
+		fifoViewPanel = new FifoViewPanel(console, createPanelSDK(console), FifoObserver.APP_TITLE);
 		
-		gpioViewPanel = new GPIOViewPanel(console, getSDK());
+		gpioViewPanel = new GPIOViewPanel(console, createPanelSDK(console));
 
 		var panel = new JSplitPane(JSplitPane.VERTICAL_SPLIT, fifoViewPanel, gpioViewPanel);
 		
@@ -88,7 +101,7 @@ private ScriptLoadController scriptLoad;
 		
 		var leftpan = new JSplitPane(JSplitPane.VERTICAL_SPLIT, panel, scriptLoad.getView());
 		
-		codeViewPanel = new CodeViewPanel(console, getSDK(), CodeObserver.APP_TITLE);
+		codeViewPanel = new CodeViewPanel(console, createPanelSDK(console), CodeObserver.APP_TITLE);
 		var panel2 = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, leftpan, codeViewPanel);
 		
 		return panel2;
@@ -97,6 +110,13 @@ private ScriptLoadController scriptLoad;
   @Override
   protected void updateView()
   {
+    try {
+      dataHub.refresh();
+    } catch (final IOException e) {
+      getConsole().printf("refreshing observer data failed: %s%n",
+                          e.getMessage());
+      return;
+    }
 	    codeViewPanel.updateView();
 	    gpioViewPanel.updateView();
 	    fifoViewPanel.updateView();
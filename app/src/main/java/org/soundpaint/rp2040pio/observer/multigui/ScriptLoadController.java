@@ -18,10 +18,15 @@
  */
 package org.soundpaint.rp2040pio.observer.multigui;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.LineNumberReader;
 import java.io.PrintStream;
 import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import javax.swing.Box;
 import javax.swing.BoxLayout;
 import javax.swing.ImageIcon;
@@ -43,6 +48,18 @@ public class ScriptLoadController
   private final PrintStream console;
   private final SDK sdk;
   private final ScriptLoadPanel view;
+  private final IncrementalReload incrementalReload;
+
+  private static final int DEBOUNCE_MILLIS = 300;
+  private static final int SHADOW_TIMEOUT_MILLIS = 5000;
+
+  private final ScheduledExecutorService reloader =
+		  Executors.newSingleThreadScheduledExecutor(r -> {
+			  var t = new Thread(r, "script reloader");
+			  t.setDaemon(true);
+			  return t;
+		  });
+  private ScheduledFuture<?> pendingReload = null;
 
 
   public ScriptLoadController(final PrintStream console, final SDK sdk)
@@ -52,14 +69,36 @@ public class ScriptLoadController
     Objects.requireNonNull(sdk);
     this.console = console;
     this.sdk = sdk;
+    incrementalReload = new IncrementalReload(console, sdk);
     view = new ScriptLoadPanel();
-    view.setReload(f -> {
+    view.setReload((f, fromWatcher) -> {
     	// threads: any
-    	this.console.println("Reloading monitor file " + f.toString());
-    	
+    	// editors typically produce several file events per save
+    	// (truncate, write, rename, attribute change); collapse them
+    	// into a single reload once things have settled
+    	synchronized (this) {
+    		if (pendingReload != null)
+    			pendingReload.cancel(false);
+    		pendingReload = reloader.schedule(() -> reload(f),
+    				fromWatcher ? DEBOUNCE_MILLIS : 0, TimeUnit.MILLISECONDS);
+    	}
+    });
+  }
+
+  private void reload(final File f)
+  {
+    	// threads: reloader
     	var optFileValue = f.getAbsolutePath();
 
     	try {
+    		if (view.isIncremental())
+    		{
+    			this.console.println("Incrementally reloading monitor file " + f.toString());
+    			if (incrementalReload.apply(optFileValue, view.isKeepState(), SHADOW_TIMEOUT_MILLIS) >= 0)
+    				return;
+    			this.console.println("Incremental reload failed, falling back to full reload");
+    		}
+    		this.console.println("Reloading monitor file " + f.toString());
     		final LineNumberReader reader =          IOUtils.getReaderForResourcePath(optFileValue);
     	
     		var script = new Script(this.console, Monitor.getMiniMonitor(null, this.sdk));
@@ -76,7 +115,6 @@ public class ScriptLoadController
 				JOptionPane.showMessageDialog(null, "Script loading failed, see console for details.\n" + e.getMessage());
 			});
 		}
-    });
   }
 
   public ScriptLoadPanel getView() {
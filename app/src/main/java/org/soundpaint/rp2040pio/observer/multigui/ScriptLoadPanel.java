@@ -32,7 +32,7 @@ import java.awt.event.ActionListener;
 import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
-import java.util.function.Consumer;
+import java.util.function.BiConsumer;
 import java.util.prefs.BackingStoreException;
 import java.util.prefs.Preferences;
 import java.awt.event.ActionEvent;
@@ -49,7 +49,7 @@ public class ScriptLoadPanel extends JPanel {
 	public ScriptLoadPanel() {
 		setBorder(new TitledBorder(null, "Script Loader", TitledBorder.LEADING, TitledBorder.TOP, null, null));
 		GridBagLayout gridBagLayout = new GridBagLayout();
-		gridBagLayout.columnWeights = new double[]{1.0, 0.0, 0.0, 0.0};
+		gridBagLayout.columnWeights = new double[]{1.0, 0.0, 0.0, 0.0, 0.0, 0.0};
 		gridBagLayout.rowWeights = new double[]{0.0};
 		setLayout(gridBagLayout);
 		
@@ -93,7 +93,7 @@ public class ScriptLoadPanel extends JPanel {
 		JButton btnReload = new JButton("Reload");
 		btnReload.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
-				triggerReload();
+				triggerReload(false);
 			}
 		});
 		btnReload.setToolTipText("Load or re-load the selected monitor script");
@@ -116,6 +116,57 @@ public class ScriptLoadPanel extends JPanel {
 		gbc_chckbxAutoreload.gridy = 0;
 		add(chckbxAutoreload, gbc_chckbxAutoreload);
 
+		chckbxIncremental = new JCheckBox("Incremental");
+		chckbxIncremental.setToolTipText("Only write instruction memory words and registers that differ from the script's result");
+		GridBagConstraints gbc_chckbxIncremental = new GridBagConstraints();
+		gbc_chckbxIncremental.anchor = GridBagConstraints.WEST;
+		gbc_chckbxIncremental.gridx = 4;
+		gbc_chckbxIncremental.gridy = 0;
+		add(chckbxIncremental, gbc_chckbxIncremental);
+
+		chckbxKeepState = new JCheckBox("Keep state");
+		chckbxKeepState.setToolTipText("On incremental reload, preserve FIFO contents and SM registers");
+		chckbxKeepState.setEnabled(false);
+		chckbxIncremental.addChangeListener(new ChangeListener() {
+			public void stateChanged(ChangeEvent e) {
+				chckbxKeepState.setEnabled(chckbxIncremental.isSelected());
+				updateReloadOptions();
+			}
+		});
+		chckbxKeepState.addChangeListener(new ChangeListener() {
+			public void stateChanged(ChangeEvent e) {
+				updateReloadOptions();
+			}
+		});
+		GridBagConstraints gbc_chckbxKeepState = new GridBagConstraints();
+		gbc_chckbxKeepState.anchor = GridBagConstraints.WEST;
+		gbc_chckbxKeepState.insets = new Insets(0, 0, 0, 6);
+		gbc_chckbxKeepState.gridx = 5;
+		gbc_chckbxKeepState.gridy = 0;
+		add(chckbxKeepState, gbc_chckbxKeepState);
+	}
+
+	private JCheckBox chckbxIncremental;
+	private JCheckBox chckbxKeepState;
+
+	// copies of the check boxes' state, since reloads run off the EDT
+	private volatile boolean incremental = false;
+	private volatile boolean keepState = false;
+
+	private void updateReloadOptions() {
+		// threads: EDT
+		incremental = chckbxIncremental.isSelected();
+		keepState = incremental && chckbxKeepState.isSelected();
+	}
+
+	public boolean isIncremental() {
+		// threads: any
+		return incremental;
+	}
+
+	public boolean isKeepState() {
+		// threads: any
+		return keepState;
 	}
 
 	protected void addSetCombo(String string) {
@@ -190,7 +241,8 @@ public class ScriptLoadPanel extends JPanel {
 			inotify.close();
 		if (install)
 				inotify = new FSWatcher(getFileString(), ()->{
-					triggerReload();
+					// file events come in bursts; let the receiver debounce
+					triggerReload(true);
 				});
 			} catch (Exception e) {
 				e.printStackTrace();
@@ -198,16 +250,21 @@ public class ScriptLoadPanel extends JPanel {
 		
 	}
 	
-	Consumer<File> reload;
+	BiConsumer<File, Boolean> reload;
 	
 
-	public void setReload(Consumer<File> reload) {
+	/**
+	 * @param reload Receives the file to reload and whether the
+	 * request originates from a file system event (and thus may be
+	 * debounced) rather than from the user.
+	 */
+	public void setReload(BiConsumer<File, Boolean> reload) {
 		this.reload = reload;
 	}
 
-	protected void triggerReload() {
+	protected void triggerReload(boolean fromWatcher) {
 		if (reload != null)
-			reload.accept(getFileString());
+			reload.accept(getFileString(), fromWatcher);
 	}
 
 
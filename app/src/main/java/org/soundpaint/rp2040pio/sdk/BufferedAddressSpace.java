@@ -0,0 +1,364 @@
+/*
+ * @(#)BufferedAddressSpace.java 1.00 26/10/19
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio.sdk;
+
+import java.io.IOException;
+import java.util.Arrays;
+import org.soundpaint.rp2040pio.AddressSpace;
+import org.soundpaint.rp2040pio.ExecTrace;
+import org.soundpaint.rp2040pio.Probe;
+import org.soundpaint.rp2040pio.SampleSubscription;
+import org.soundpaint.rp2040pio.StateTrace;
+import org.soundpaint.rp2040pio.WriteBatch;
+
+/**
+ * Address space decorator that supports write transactions.  While
+ * a thread has a transaction open, all of its writes are queued
+ * rather than forwarded one by one to the underlying address space.
+ * When the transaction is committed, the queued writes are forwarded
+ * as a single batch, such that the underlying address space can
+ * apply them at once, without any clock phase being executed in
+ * between, and, for a remote address space, with a single round
+ * trip.
+ *
+ * Any read access (including waiting for a value) first commits all
+ * pending writes of the reading thread, such that a thread always
+ * reads back what it has written before.  Writes of other threads
+ * are not affected by a thread's transaction; they are forwarded
+ * immediately, unless they have an open transaction of their own.
+ *
+ * Transactions may be nested.  A nested transaction joins the
+ * enclosing one, i.e. its writes remain queued until the outermost
+ * transaction is committed.  Each transaction level starts with a
+ * savepoint, such that aborting a nested transaction discards only
+ * the writes queued since the level was opened, while the writes of
+ * enclosing levels are kept.
+ */
+public class BufferedAddressSpace extends AddressSpace
+{
+  private static class Transaction
+  {
+    private final WriteBatch pendingWrites;
+
+    /**
+     * For each open transaction level, the number of pending writes
+     * when the level was opened.
+     */
+    private int[] savepoints;
+    private int depth;
+
+    private Transaction()
+    {
+      pendingWrites = new WriteBatch();
+      savepoints = new int[4];
+      depth = 0;
+    }
+  }
+
+  private final AddressSpace memory;
+  private final ThreadLocal<Transaction> transaction;
+
+  private BufferedAddressSpace()
+  {
+    throw new UnsupportedOperationException("unsupported empty constructor");
+  }
+
+  public BufferedAddressSpace(final AddressSpace memory)
+  {
+    if (memory == null) {
+      throw new NullPointerException("memory");
+    }
+    this.memory = memory;
+    transaction = ThreadLocal.withInitial(() -> new Transaction());
+  }
+
+  /**
+   * Returns the specified address space, if it already is a buffered
+   * address space, or otherwise a buffered address space that
+   * decorates it.
+   */
+  public static BufferedAddressSpace of(final AddressSpace memory)
+  {
+    if (memory instanceof BufferedAddressSpace) {
+      return (BufferedAddressSpace)memory;
+    }
+    return new BufferedAddressSpace(memory);
+  }
+
+  public AddressSpace getUnbufferedAddressSpace() { return memory; }
+
+  public void beginTransaction()
+  {
+    final Transaction transaction = this.transaction.get();
+    if (transaction.depth == transaction.savepoints.length) {
+      transaction.savepoints =
+        Arrays.copyOf(transaction.savepoints, 2 * transaction.depth);
+    }
+    transaction.savepoints[transaction.depth++] =
+      transaction.pendingWrites.size();
+  }
+
+  /**
+   * Closes the current transaction level.  If this is the outermost
+   * transaction, all pending writes are committed as a single batch.
+   */
+  public void commitTransaction() throws IOException
+  {
+    final Transaction transaction = this.transaction.get();
+    if (transaction.depth == 0) {
+      throw new IllegalStateException("no transaction open");
+    }
+    transaction.depth--;
+    if (transaction.depth == 0) {
+      flush(transaction);
+    }
+  }
+
+  /**
+   * Rolls back to the savepoint of the current transaction level,
+   * i.e. discards all pending writes that were queued since this
+   * level was opened, and closes the level.  Pending writes of
+   * enclosing levels are kept, such that a caught failure of a
+   * nested transaction does not affect the enclosing ones.  Writes
+   * that have already been committed by a read are not undone.
+   */
+  public void abortTransaction()
+  {
+    final Transaction transaction = this.transaction.get();
+    if (transaction.depth == 0) {
+      throw new IllegalStateException("no transaction open");
+    }
+    transaction.depth--;
+    transaction.pendingWrites.truncate(transaction.
+                                       savepoints[transaction.depth]);
+  }
+
+  public boolean isTransactionOpen()
+  {
+    return transaction.get().depth > 0;
+  }
+
+  /**
+   * Commits all pending writes of the current thread, if any,
+   * without closing the current transaction.
+   */
+  public void flush() throws IOException
+  {
+    flush(transaction.get());
+  }
+
+  private void flush(final Transaction transaction) throws IOException
+  {
+    final WriteBatch pendingWrites = transaction.pendingWrites;
+    if (pendingWrites.isEmpty()) return;
+    try {
+      memory.writeAddressesMasked(pendingWrites);
+    } finally {
+      pendingWrites.clear();
+      // all savepoints now refer to the empty queue
+      Arrays.fill(transaction.savepoints, 0, transaction.depth, 0);
+    }
+  }
+
+  @Override
+  public String getEmulatorInfo() throws IOException
+  {
+    return memory.getEmulatorInfo();
+  }
+
+  @Override
+  public boolean providesAddress(final int address) throws IOException
+  {
+    return memory.providesAddress(address);
+  }
+
+  @Override
+  public String getRegisterSetId(final int address) throws IOException
+  {
+    return memory.getRegisterSetId(address);
+  }
+
+  @Override
+  public String getAddressLabel(final int address) throws IOException
+  {
+    return memory.getAddressLabel(address);
+  }
+
+  @Override
+  public int readAddress(final int address) throws IOException
+  {
+    flush();
+    return memory.readAddress(address);
+  }
+
+  @Override
+  public int[] readAddresses(final int[] addresses) throws IOException
+  {
+    flush();
+    return memory.readAddresses(addresses);
+  }
+
+  @Override
+  public void writeAddressMasked(final int address, final int bits,
+                                 final int mask, final boolean xor)
+    throws IOException
+  {
+    final Transaction transaction = this.transaction.get();
+    if (transaction.depth == 0) {
+      memory.writeAddressMasked(address, bits, mask, xor);
+      return;
+    }
+    if ((address & 0x3000) != 0x0000) {
+      final String message =
+        String.format("writeAddressMasked(): " +
+                      "address not in base address range: 0x%8x", address);
+      throw new IOException(message);
+    }
+    checkAddressAligned(address);
+    transaction.pendingWrites.add(address, bits, mask, xor);
+  }
+
+  @Override
+  public void writeAddressesMasked(final WriteBatch batch) throws IOException
+  {
+    if (batch == null) {
+      throw new NullPointerException("batch");
+    }
+    final Transaction transaction = this.transaction.get();
+    if (transaction.depth == 0) {
+      memory.writeAddressesMasked(batch);
+      return;
+    }
+    transaction.pendingWrites.addAll(batch);
+  }
+
+  /**
+   * Instruction memory writes are already performed as a whole by
+   * the underlying address space.  Therefore, pending writes are
+   * committed first, and the instructions are then forwarded
+   * immediately, thus preserving the order of writes.
+   */
+  @Override
+  public void writeInstructionMemory(final int pioNum, final int offset,
+                                     final short[] instructions)
+    throws IOException
+  {
+    flush();
+    memory.writeInstructionMemory(pioNum, offset, instructions);
+  }
+
+  @Override
+  public int waitAddress(final int address, final int expectedValue,
+                         final int mask,
+                         final long cyclesTimeout,
+                         final long millisTimeout)
+    throws IOException
+  {
+    flush();
+    return memory.waitAddress(address, expectedValue, mask,
+                              cyclesTimeout, millisTimeout);
+  }
+
+  @Override
+  public int[] runCycles(final Probe[] probes, final int cycles)
+    throws IOException
+  {
+    flush();
+    return memory.runCycles(probes, cycles);
+  }
+
+  @Override
+  public void runCycles(final Probe[] probes, final int cycles,
+                        final int chunkCycles, final SampleConsumer consumer)
+    throws IOException
+  {
+    flush();
+    memory.runCycles(probes, cycles, chunkCycles, consumer);
+  }
+
+  @Override
+  public int subscribe(final Probe[] probes, final int capacityCycles,
+                       final boolean lossless)
+    throws IOException
+  {
+    flush();
+    return memory.subscribe(probes, capacityCycles, lossless);
+  }
+
+  @Override
+  public int fetchSamples(final int subscriptionId, final int[] samples,
+                          final int maxCycles, final long millisTimeout)
+    throws IOException
+  {
+    flush();
+    return memory.fetchSamples(subscriptionId, samples, maxCycles,
+                               millisTimeout);
+  }
+
+  @Override
+  public SampleSubscription.Statistics
+    getSubscriptionStatistics(final int subscriptionId)
+    throws IOException
+  {
+    return memory.getSubscriptionStatistics(subscriptionId);
+  }
+
+  @Override
+  public void unsubscribe(final int subscriptionId) throws IOException
+  {
+    memory.unsubscribe(subscriptionId);
+  }
+
+  @Override
+  public StateTrace.Snapshot fetchStateTrace(final long maxCycles)
+    throws IOException
+  {
+    flush();
+    return memory.fetchStateTrace(maxCycles);
+  }
+
+  @Override
+  public void startExecTrace(final int pioNum, final int smNum)
+    throws IOException
+  {
+    flush();
+    memory.startExecTrace(pioNum, smNum);
+  }
+
+  @Override
+  public ExecTrace.Recording stopExecTrace(final int pioNum, final int smNum)
+    throws IOException
+  {
+    flush();
+    return memory.stopExecTrace(pioNum, smNum);
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -102,8 +102,8 @@ public class GPIOSDK implements Constants
     return Bit.fromValue(gpioOut);
   }
 
-  private static Bit getInputLevelFromStatus(final int statusValue,
-                                             final Override override)
+  public static Bit getInputLevelFromStatus(final int statusValue,
+                                            final Override override)
   {
     if (override == null) {
       throw new NullPointerException("override");
@@ -127,6 +127,27 @@ public class GPIOSDK implements Constants
     return getInputLevelFromStatus(gpioStatusValue, override);
   }
 
+  /**
+   * Derives a pin's state from the value of its GPIOx_STATUS
+   * register, e.g. when that value has been sampled on the emulation
+   * thread.
+   */
+  public static PinState getPinStateFromStatus(final int statusValue,
+                                               final Override override)
+  {
+    final int gpioOeFromPeri =
+      (statusValue & Constants.IO_BANK0_GPIO0_STATUS_OEFROMPERI_BITS) >>>
+      Constants.IO_BANK0_GPIO0_STATUS_OEFROMPERI_LSB;
+    final Direction direction = Direction.fromValue(gpioOeFromPeri);
+    final Bit level;
+    if (direction == Direction.OUT) {
+      level = getOutputLevelFromStatus(statusValue, override);
+    } else {
+      level = getInputLevelFromStatus(statusValue, override);
+    }
+    return PinState.fromValues(direction, level);
+  }
+
   public PinState[] getPinStates(final Override override) throws IOException
   {
     final PinState[] pinStates = new PinState[Constants.GPIO_NUM];
@@ -135,17 +156,7 @@ public class GPIOSDK implements Constants
         GPIOIOBank0Registers.
         getGPIOAddress(gpioNum, GPIOIOBank0Registers.Regs.GPIO0_STATUS);
       final int gpioStatusValue = memory.readAddress(gpioStatusAddress);
-      final int gpioOeFromPeri =
-        (gpioStatusValue & Constants.IO_BANK0_GPIO0_STATUS_OEFROMPERI_BITS) >>>
-        Constants.IO_BANK0_GPIO0_STATUS_OEFROMPERI_LSB;
-      final Direction direction = Direction.fromValue(gpioOeFromPeri);
-      final Bit level;
-      if (direction == Direction.OUT) {
-        level = getOutputLevelFromStatus(gpioStatusValue, override);
-      } else {
-        level = getInputLevelFromStatus(gpioStatusValue, override);
-      }
-      pinStates[gpioNum] = PinState.fromValues(direction, level);
+      pinStates[gpioNum] = getPinStateFromStatus(gpioStatusValue, override);
     }
     return pinStates;
   }
@@ -26,6 +26,8 @@ package org.soundpaint.rp2040pio.sdk;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.soundpaint.rp2040pio.AddressSpace;
 import org.soundpaint.rp2040pio.Bit;
 import org.soundpaint.rp2040pio.Constants;
@@ -44,9 +46,52 @@ public class PIOSDK implements Constants
 {
   private static final Decoder decoder = new Decoder();
 
+  /**
+   * Maximum number of entries of the disassembly cache.  With only
+   * a few distinct programs being loaded in practice, this limit is
+   * rarely ever reached.  If it is, the cache is simply cleared.
+   */
+  private static final int DISASSEMBLY_CACHE_SIZE = 8192;
+
+  /**
+   * Disassembly of an op-code for a specific side-set configuration
+   * and format, independent of where the instruction is located.
+   */
+  private static class Disassembly
+  {
+    private final String mnemonic;
+    private final String statement;
+
+    private Disassembly(final String mnemonic, final String statement)
+    {
+      this.mnemonic = mnemonic;
+      this.statement = statement;
+    }
+  }
+
+  private static final Map<Integer, Disassembly> disassemblyCache =
+    new ConcurrentHashMap<Integer, Disassembly>();
+
+  /**
+   * Memoized disassembly of all of instruction memory for a specific
+   * state machine and display options, valid as long as neither the
+   * instruction memory version nor the state machine's side-set
+   * configuration changes.
+   */
+  private static class MemoryListing
+  {
+    private int memoryVersion;
+    private int sideSetConfig;
+    private InstructionInfo[] instructions;
+  }
+
   private final int pioNum;
-  private final AddressSpace memory;
+  private final BufferedAddressSpace memory;
   private final GPIOSDK gpioSdk;
+  private final MemoryListing[] memoryListings;
+  private final short[] memorySnapshot;
+  private int memorySnapshotVersion;
+  private boolean haveMemorySnapshot;
 
   private PIOSDK()
   {
@@ -64,8 +109,11 @@ public class PIOSDK implements Constants
       throw new NullPointerException("gpio sdk");
     }
     this.pioNum = pioNum;
-    this.memory = memory;
+    this.memory = BufferedAddressSpace.of(memory);
     this.gpioSdk = gpioSdk;
+    memoryListings = new MemoryListing[SM_COUNT * 4];
+    memorySnapshot = new short[MEMORY_SIZE];
+    haveMemorySnapshot = false;
   }
 
   /**
@@ -168,6 +216,20 @@ public class PIOSDK implements Constants
       throws IOException
   {
     Constants.checkSmNum(smNum);
+    final int sideSetConfig = getSideSetConfig(smNum);
+    return getInstructionFromOpCode(getSideSetCount(sideSetConfig),
+                                    getSideEn(sideSetConfig),
+                                    origin, addressLabel, opCode,
+                                    format, isDelayCycle, delay);
+  }
+
+  /**
+   * Returns the side-set count and side enable configuration of the
+   * specified state machine, packed into a single value as
+   * understood by methods getSideSetCount() and getSideEn().
+   */
+  private int getSideSetConfig(final int smNum) throws IOException
+  {
     final int smPinCtrlSidesetCountAddress =
       PIORegisters.getSMAddress(pioNum, smNum, PIORegisters.Regs.SM0_PINCTRL);
     final int pinCtrlSidesetCount =
@@ -179,9 +241,17 @@ public class PIOSDK implements Constants
     final boolean execCtrlSideEn =
       (memory.readAddress(smExecCtrlSideEnAddress) &
        SM0_EXECCTRL_SIDE_EN_BITS) != 0x0;
-    return getInstructionFromOpCode(pinCtrlSidesetCount, execCtrlSideEn,
-                                    origin, addressLabel, opCode,
-                                    format, isDelayCycle, delay);
+    return (pinCtrlSidesetCount << 1) | (execCtrlSideEn ? 0x1 : 0x0);
+  }
+
+  private static int getSideSetCount(final int sideSetConfig)
+  {
+    return sideSetConfig >>> 1;
+  }
+
+  private static boolean getSideEn(final int sideSetConfig)
+  {
+    return (sideSetConfig & 0x1) != 0x0;
   }
 
   /**
@@ -190,13 +260,9 @@ public class PIOSDK implements Constants
    * instruction.  Therefore, use of this decoder and access to
    * instances of Instruction objects must be serialized.
    */
-  public static synchronized InstructionInfo
-    getInstructionFromOpCode(final int pinCtrlSidesetCount,
-                             final boolean execCtrlSideEn,
-                             final int origin,
-                             final String addressLabel, final int opCode,
-                             final boolean format,
-                             final boolean isDelayCycle, final int delay)
+  private static synchronized Disassembly
+    disassemble(final int pinCtrlSidesetCount, final boolean execCtrlSideEn,
+                final int opCode, final boolean format)
   {
     /*final*/ Instruction instruction;
     try {
@@ -206,18 +272,59 @@ public class PIOSDK implements Constants
       instruction = null;
     }
     final String mnemonic;
-    final String fullStatement;
+    final String statement;
     if (instruction != null) {
       mnemonic = instruction.getMnemonic();
-      fullStatement = addressLabel + instruction.toString();
+      statement = instruction.toString();
     } else {
       mnemonic = "???";
-      fullStatement = addressLabel + "???";
+      statement = "???";
+    }
+    final String formattedStatement =
+      format ? statement : statement.replaceAll("\\s{2,}", " ");
+    return new Disassembly(mnemonic, formattedStatement);
+  }
+
+  /**
+   * Returns the disassembly of the specified op-code from the
+   * disassembly cache, or disassembles the op-code and adds the
+   * result to the cache, if not yet cached.  The cache is keyed on
+   * the op-code, the side-set count, the side enable flag, and the
+   * format flag, since the disassembly does not depend on anything
+   * else.
+   */
+  private static Disassembly
+    getDisassembly(final int pinCtrlSidesetCount, final boolean execCtrlSideEn,
+                   final int opCode, final boolean format)
+  {
+    final int key =
+      (opCode & 0xffff) | ((pinCtrlSidesetCount & 0x7) << 16) |
+      (execCtrlSideEn ? 0x1 << 19 : 0x0) | (format ? 0x1 << 20 : 0x0);
+    final Disassembly cached = disassemblyCache.get(key);
+    if (cached != null) {
+      return cached;
+    }
+    final Disassembly disassembly =
+      disassemble(pinCtrlSidesetCount, execCtrlSideEn, opCode, format);
+    if (disassemblyCache.size() >= DISASSEMBLY_CACHE_SIZE) {
+      disassemblyCache.clear();
     }
-    final String formattedFullStatement =
-      format ? fullStatement : fullStatement.replaceAll("\\s{2,}", " ");
+    disassemblyCache.put(key, disassembly);
+    return disassembly;
+  }
 
-    return new InstructionInfo(origin, mnemonic, formattedFullStatement,
+  public static InstructionInfo
+    getInstructionFromOpCode(final int pinCtrlSidesetCount,
+                             final boolean execCtrlSideEn,
+                             final int origin,
+                             final String addressLabel, final int opCode,
+                             final boolean format,
+                             final boolean isDelayCycle, final int delay)
+  {
+    final Disassembly disassembly =
+      getDisassembly(pinCtrlSidesetCount, execCtrlSideEn, opCode, format);
+    return new InstructionInfo(origin, disassembly.mnemonic,
+                               addressLabel + disassembly.statement,
                                isDelayCycle, delay);
   }
 
@@ -296,18 +403,86 @@ public class PIOSDK implements Constants
                                               final boolean format)
     throws IOException
   {
-    Constants.checkSmNum(smNum);
     Constants.checkSmMemAddr(address, "memory address");
-    final int instrAddress = PIOEmuRegisters.getMemoryAddress(pioNum, address);
-    final int opCode = memory.readAddress(instrAddress) & 0xffff;
-    final String formattedOpCode = String.format("%04x ", opCode);
-    final String addressLabel =
-      (showAddress ? String.format("%02x: ", address) : "") + formattedOpCode;
-    final boolean isDelayCycle = false;
-    final int delay = 0;
-    return
-      getInstructionFromOpCode(smNum, address, addressLabel, opCode, format,
-                               isDelayCycle, delay);
+    return getMemoryInstructions(smNum, showAddress, format)[address];
+  }
+
+  /**
+   * Fetches all of instruction memory in a single batch, unless the
+   * instruction memory version reported by the emulator is unchanged
+   * since the most recent fetch.
+   *
+   * @return The instruction memory version of the fetched contents.
+   */
+  private int fetchMemory() throws IOException
+  {
+    final int versionAddress =
+      PIOEmuRegisters.getAddress(pioNum,
+                                 PIOEmuRegisters.Regs.INSTR_MEM_VERSION);
+    final int version = memory.readAddress(versionAddress);
+    if (!haveMemorySnapshot || (version != memorySnapshotVersion)) {
+      final int[] instrAddresses = new int[MEMORY_SIZE];
+      for (int address = 0; address < MEMORY_SIZE; address++) {
+        instrAddresses[address] =
+          PIOEmuRegisters.getMemoryAddress(pioNum, address);
+      }
+      final int[] instructions = memory.readAddresses(instrAddresses);
+      for (int address = 0; address < MEMORY_SIZE; address++) {
+        memorySnapshot[address] = (short)instructions[address];
+      }
+      memorySnapshotVersion = version;
+      haveMemorySnapshot = true;
+    }
+    return version;
+  }
+
+  /**
+   * Returns the disassembly of all of instruction memory as seen by
+   * the specified state machine.  The result is memoized and returned
+   * again without fetching or decoding any instruction, as long as
+   * neither the instruction memory nor the state machine's side-set
+   * configuration has changed.  The returned array must not be
+   * modified.
+   *
+   * @see #getMemoryInstruction
+   */
+  public synchronized InstructionInfo[]
+    getMemoryInstructions(final int smNum, final boolean showAddress,
+                          final boolean format)
+    throws IOException
+  {
+    Constants.checkSmNum(smNum);
+    final int memoryVersion = fetchMemory();
+    final int sideSetConfig = getSideSetConfig(smNum);
+    final int listingIndex =
+      (smNum << 2) | (showAddress ? 0x2 : 0x0) | (format ? 0x1 : 0x0);
+    final MemoryListing cached = memoryListings[listingIndex];
+    if ((cached != null) &&
+        (cached.memoryVersion == memoryVersion) &&
+        (cached.sideSetConfig == sideSetConfig)) {
+      return cached.instructions;
+    }
+    final InstructionInfo[] instructions = new InstructionInfo[MEMORY_SIZE];
+    for (int address = 0; address < MEMORY_SIZE; address++) {
+      final int opCode = memorySnapshot[address] & 0xffff;
+      final String formattedOpCode = String.format("%04x ", opCode);
+      final String addressLabel =
+        (showAddress ? String.format("%02x: ", address) : "") +
+        formattedOpCode;
+      final boolean isDelayCycle = false;
+      final int delay = 0;
+      instructions[address] =
+        getInstructionFromOpCode(getSideSetCount(sideSetConfig),
+                                 getSideEn(sideSetConfig),
+                                 address, addressLabel, opCode, format,
+                                 isDelayCycle, delay);
+    }
+    final MemoryListing listing = new MemoryListing();
+    listing.memoryVersion = memoryVersion;
+    listing.sideSetConfig = sideSetConfig;
+    listing.instructions = instructions;
+    memoryListings[listingIndex] = listing;
+    return instructions;
   }
 
   // ---- Functions for compatibility with the Pico SDK, SM Config Group ----
@@ -404,22 +579,31 @@ public class PIOSDK implements Constants
     if (smConfig == null) {
       throw new NullPointerException("smConfig");
     }
-    synchronized(memory) {
-      final int smClkDivAddr =
-        PIORegisters.getSMAddress(pioNum, smNum, PIORegisters.Regs.SM0_CLKDIV);
-      memory.writeAddress(smClkDivAddr, smConfig.getClkDiv());
-      final int smExecCtrlAddr =
-        PIORegisters.getSMAddress(pioNum, smNum,
-                                  PIORegisters.Regs.SM0_EXECCTRL);
-      memory.writeAddress(smExecCtrlAddr, smConfig.getExecCtrl());
-      final int smShiftCtrlAddr =
-        PIORegisters.getSMAddress(pioNum, smNum,
-                                  PIORegisters.Regs.SM0_SHIFTCTRL);
-      memory.writeAddress(smShiftCtrlAddr, smConfig.getShiftCtrl());
-      final int smPinCtrlAddr =
-        PIORegisters.getSMAddress(pioNum, smNum, PIORegisters.Regs.SM0_PINCTRL);
-      memory.writeAddress(smPinCtrlAddr, smConfig.getPinCtrl());
+    memory.beginTransaction();
+    try {
+      synchronized(memory) {
+        final int smClkDivAddr =
+          PIORegisters.getSMAddress(pioNum, smNum,
+                                    PIORegisters.Regs.SM0_CLKDIV);
+        memory.writeAddress(smClkDivAddr, smConfig.getClkDiv());
+        final int smExecCtrlAddr =
+          PIORegisters.getSMAddress(pioNum, smNum,
+                                    PIORegisters.Regs.SM0_EXECCTRL);
+        memory.writeAddress(smExecCtrlAddr, smConfig.getExecCtrl());
+        final int smShiftCtrlAddr =
+          PIORegisters.getSMAddress(pioNum, smNum,
+                                    PIORegisters.Regs.SM0_SHIFTCTRL);
+        memory.writeAddress(smShiftCtrlAddr, smConfig.getShiftCtrl());
+        final int smPinCtrlAddr =
+          PIORegisters.getSMAddress(pioNum, smNum,
+                                    PIORegisters.Regs.SM0_PINCTRL);
+        memory.writeAddress(smPinCtrlAddr, smConfig.getPinCtrl());
+      }
+    } catch (final IOException | RuntimeException e) {
+      memory.abortTransaction();
+      throw e;
     }
+    memory.commitTransaction();
   }
 
   public int getIndex()
@@ -528,18 +712,14 @@ public class PIOSDK implements Constants
     }
     Constants.checkSmMemAddr(addressOffset, "address offset");
     final int length = program.getLength();
-    synchronized(memory) {
-      for (int index = 0; index < length; index++) {
-        final short instruction = program.getInstruction(index);
-        final int memoryAddress = (addressOffset + index) & 0x1f;
-        // TODO: FIXME: Code relocation: When (addressOffset != 0),
-        // JMP commands need their absolute target address to be
-        // adjusted according to the offset.
-        memory.writeAddress(PIORegisters.
-                            getMemoryAddress(pioNum, memoryAddress),
-                            instruction);
-      }
+    final short[] instructions = new short[length];
+    for (int index = 0; index < length; index++) {
+      // TODO: FIXME: Code relocation: When (addressOffset != 0),
+      // JMP commands need their absolute target address to be
+      // adjusted according to the offset.
+      instructions[index] = program.getInstruction(index);
     }
+    memory.writeInstructionMemory(pioNum, addressOffset, instructions);
   }
 
   public int addProgram(final String resourceId, final BufferedReader reader)
@@ -637,14 +817,8 @@ public class PIOSDK implements Constants
         throw new Panic(message);
       }
       memoryAllocation &= ~allocationMaskForOffset;
-      synchronized(memory) {
-        for (int index = 0; index < program.getLength(); index++) {
-          final int memoryAddress = (loadedOffset + index) & 0x1f;
-          memory.writeAddress(PIORegisters.getMemoryAddress(pioNum,
-                                                            memoryAddress),
-                              0);
-        }
-      }
+      memory.writeInstructionMemory(pioNum, loadedOffset,
+                                    new short[program.getLength()]);
     }
   }
 
@@ -652,14 +826,7 @@ public class PIOSDK implements Constants
   {
     synchronized(memoryAllocation) {
       memoryAllocation = 0;
-      synchronized(memory) {
-        for (int memoryAddress = 0; memoryAddress < MEMORY_SIZE;
-             memoryAddress++) {
-          memory.writeAddress(PIORegisters.getMemoryAddress(pioNum,
-                                                            memoryAddress),
-                              0);
-        }
-      }
+      memory.writeInstructionMemory(pioNum, 0, new short[MEMORY_SIZE]);
     }
   }
 
@@ -668,22 +835,29 @@ public class PIOSDK implements Constants
     throws IOException
   {
     Constants.checkSmNum(smNum);
-    smSetEnabled(smNum, false);
-    smSetConfig(smNum, config != null ? config : getDefaultSmConfig());
-    smClearFIFOs(smNum);
-    final int fDebug =
-      ((0x1 << FDEBUG_TXSTALL_LSB) |
-       (0x1 << FDEBUG_TXOVER_LSB) |
-       (0x1 << FDEBUG_RXUNDER_LSB) |
-       (0x1 << FDEBUG_RXSTALL_LSB)) << smNum;
-    memory.writeAddress(PIORegisters.getAddress(pioNum,
-                                                PIORegisters.Regs.FDEBUG),
-                        fDebug);
-    smRestart(smNum);
-    smClkDivRestart(smNum);
-    final int jmpInstruction =
-      initialPC & 0x001f; // no sideset/delay => all other bits are 0
-    smExec(smNum, (short)jmpInstruction);
+    memory.beginTransaction();
+    try {
+      smSetEnabled(smNum, false);
+      smSetConfig(smNum, config != null ? config : getDefaultSmConfig());
+      smClearFIFOs(smNum);
+      final int fDebug =
+        ((0x1 << FDEBUG_TXSTALL_LSB) |
+         (0x1 << FDEBUG_TXOVER_LSB) |
+         (0x1 << FDEBUG_RXUNDER_LSB) |
+         (0x1 << FDEBUG_RXSTALL_LSB)) << smNum;
+      memory.writeAddress(PIORegisters.getAddress(pioNum,
+                                                  PIORegisters.Regs.FDEBUG),
+                          fDebug);
+      smRestart(smNum);
+      smClkDivRestart(smNum);
+      final int jmpInstruction =
+        initialPC & 0x001f; // no sideset/delay => all other bits are 0
+      smExec(smNum, (short)jmpInstruction);
+    } catch (final IOException | RuntimeException e) {
+      memory.abortTransaction();
+      throw e;
+    }
+    memory.commitTransaction();
   }
 
   public boolean smGetEnabled(final int smNum)
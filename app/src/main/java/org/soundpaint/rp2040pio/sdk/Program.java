@@ -179,6 +179,35 @@ public class Program implements Constants
     return allocationMask;
   }
 
+  public int getWrap()
+  {
+    return wrap;
+  }
+
+  public int getWrapTarget()
+  {
+    return wrapTarget;
+  }
+
+  /**
+   * @return The number of side-set bits available for pin values,
+   * i.e. not counting the enable bit, if side-set is optional.
+   */
+  public int getSideSetCount()
+  {
+    return sideSetCount;
+  }
+
+  public boolean getSideSetOpt()
+  {
+    return sideSetOpt;
+  }
+
+  public boolean getSideSetPinDirs()
+  {
+    return sideSetPinDirs;
+  }
+
   public SMConfig getDefaultConfig(final int offset)
   {
     final SMConfig smConfig = SMConfig.getDefault();
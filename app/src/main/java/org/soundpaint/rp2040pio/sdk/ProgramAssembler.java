@@ -0,0 +1,1048 @@
+/*
+ * @(#)ProgramAssembler.java 1.00 26/10/19
+ *
+ * Copyright (C) 2021 Jürgen Reuter
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ * For updates and more info or contacting the author, visit:
+ * <https://github.com/soundpaint/rp2040pio>
+ *
+ * Author's web site: www.juergen-reuter.de
+ */
+package org.soundpaint.rp2040pio.sdk;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.soundpaint.rp2040pio.Constants;
+import org.soundpaint.rp2040pio.ParseException;
+
+/**
+ * Assembler for PIO source code in the syntax of the Raspberry Pi
+ * Pico SDK's pioasm tool.  It produces Program objects directly,
+ * such that no external tool is needed.  Supported are directives
+ * .program, .origin, .side_set, .wrap_target, .wrap, .word, .define
+ * and .lang_opt (ignored), labels (optionally declared public),
+ * %&nbsp;…&nbsp;%} code blocks (skipped), all instructions of the
+ * RP2040 PIO including side-set and delay, and integer expressions
+ * with symbols.
+ *
+ * Since assembling is a pure function of the source text, results
+ * are cached by a hash of the source, such that unchanged sources
+ * (e.g. on each hot reload of a script) are never assembled again.
+ */
+public class ProgramAssembler implements Constants
+{
+  private static final int CACHE_SIZE = 64;
+  private static final int MAX_SYMBOL_DEPTH = 16;
+
+  private static final String DIRECTIVE_PROGRAM = ".program";
+  private static final String DIRECTIVE_ORIGIN = ".origin";
+  private static final String DIRECTIVE_SIDE_SET = ".side_set";
+  private static final String DIRECTIVE_WRAP_TARGET = ".wrap_target";
+  private static final String DIRECTIVE_WRAP = ".wrap";
+  private static final String DIRECTIVE_WORD = ".word";
+  private static final String DIRECTIVE_DEFINE = ".define";
+  private static final String DIRECTIVE_LANG_OPT = ".lang_opt";
+  private static final String ARG_OPT = "opt";
+  private static final String ARG_PINDIRS = "pindirs";
+  private static final String ARG_PUBLIC = "public";
+
+  private static final String[] JMP_CONDITIONS = {
+    "", "!x", "x--", "!y", "y--", "x!=y", "pin", "!osre"
+  };
+  private static final String[] WAIT_SOURCES = { "gpio", "pin", "irq" };
+  private static final String[] IN_SOURCES = {
+    "pins", "x", "y", "null", null, null, "isr", "osr"
+  };
+  private static final String[] OUT_DESTINATIONS = {
+    "pins", "x", "y", "null", "pindirs", "pc", "isr", "exec"
+  };
+  private static final String[] MOV_DESTINATIONS = {
+    "pins", "x", "y", null, "exec", "pc", "isr", "osr"
+  };
+  private static final String[] MOV_SOURCES = {
+    "pins", "x", "y", "null", null, "status", "isr", "osr"
+  };
+  private static final String[] SET_DESTINATIONS = {
+    "pins", "x", "y", null, "pindirs"
+  };
+
+  private static final Map<String, List<Program>> cache =
+    new LinkedHashMap<String, List<Program>>(CACHE_SIZE, 0.75f, true)
+    {
+      private static final long serialVersionUID = -4262349876101093384L;
+
+      @Override
+      protected boolean
+        removeEldestEntry(final Map.Entry<String, List<Program>> eldest)
+      {
+        return size() > CACHE_SIZE;
+      }
+    };
+  private static long cacheHits;
+  private static long cacheMisses;
+
+  /**
+   * A single instruction or .word directive, kept with its line
+   * number for error messages until all labels are known.
+   */
+  private static class Statement
+  {
+    private final int lineIndex;
+    private final String text;
+    private final boolean isWord;
+
+    private Statement(final int lineIndex, final String text,
+                      final boolean isWord)
+    {
+      this.lineIndex = lineIndex;
+      this.text = text;
+      this.isWord = isWord;
+    }
+  }
+
+  /**
+   * Everything collected for a single .program during the first
+   * pass.
+   */
+  private static class ProgramSource
+  {
+    private final String id;
+    private final List<Statement> statements;
+    private final Map<String, Integer> labels;
+    private final Map<String, String> defines;
+    private int origin;
+    private boolean originParsed;
+    private int sideSetCount;
+    private boolean sideSetOpt;
+    private boolean sideSetPinDirs;
+    private boolean sideSetParsed;
+    private int wrapTarget;
+    private boolean wrapTargetParsed;
+    private int wrap;
+    private boolean wrapParsed;
+
+    private ProgramSource(final String id)
+    {
+      this.id = id;
+      statements = new ArrayList<Statement>();
+      labels = new HashMap<String, Integer>();
+      defines = new HashMap<String, String>();
+      origin = -1;
+    }
+  }
+
+  private final String resourceId;
+  private final Map<String, String> globalDefines;
+  private final List<ProgramSource> sources;
+  private ProgramSource current;
+  private int lineIndex;
+
+  private ProgramAssembler()
+  {
+    throw new UnsupportedOperationException("unsupported empty constructor");
+  }
+
+  private ProgramAssembler(final String resourceId)
+  {
+    if (resourceId == null) {
+      throw new NullPointerException("resourceId");
+    }
+    this.resourceId = resourceId;
+    globalDefines = new HashMap<String, String>();
+    sources = new ArrayList<ProgramSource>();
+    current = null;
+    lineIndex = 0;
+  }
+
+  private ParseException parseException(final String message)
+  {
+    return parseException(message, null);
+  }
+
+  private ParseException parseException(final String message,
+                                        final Throwable cause)
+  {
+    return ParseException.create(message, resourceId, lineIndex, cause);
+  }
+
+  private static boolean isIdentifier(final String id)
+  {
+    return id.matches("[_A-Za-z][_A-Za-z0-9]*");
+  }
+
+  private String stripComments(final String line, final boolean[] inComment)
+  {
+    final StringBuilder s = new StringBuilder();
+    int pos = 0;
+    while (pos < line.length()) {
+      if (inComment[0]) {
+        final int end = line.indexOf("*/", pos);
+        if (end < 0) return s.toString();
+        inComment[0] = false;
+        pos = end + 2;
+      } else if (line.startsWith("/*", pos)) {
+        inComment[0] = true;
+        pos += 2;
+      } else if (line.startsWith("//", pos) || (line.charAt(pos) == ';')) {
+        return s.toString();
+      } else {
+        s.append(line.charAt(pos++));
+      }
+    }
+    return s.toString();
+  }
+
+  private ProgramSource requireProgram(final String what)
+    throws ParseException
+  {
+    if (current == null) {
+      throw parseException(what + " outside of any .program");
+    }
+    return current;
+  }
+
+  private void parseProgramDrct(final String unparsed) throws ParseException
+  {
+    final String id = unparsed.trim();
+    if (!isIdentifier(id)) {
+      throw parseException(DIRECTIVE_PROGRAM + ": invalid id: " + id);
+    }
+    for (final ProgramSource source : sources) {
+      if (source.id.equals(id)) {
+        throw parseException(DIRECTIVE_PROGRAM + ": duplicate id: " + id);
+      }
+    }
+    current = new ProgramSource(id);
+    sources.add(current);
+  }
+
+  private void parseDefineDrct(final String unparsed) throws ParseException
+  {
+    String[] tokens = unparsed.trim().split("\\p{javaWhitespace}+", 2);
+    if (ARG_PUBLIC.equalsIgnoreCase(tokens[0]) && (tokens.length == 2)) {
+      tokens = tokens[1].trim().split("\\p{javaWhitespace}+", 2);
+    }
+    if ((tokens.length != 2) || !isIdentifier(tokens[0])) {
+      throw parseException(DIRECTIVE_DEFINE + ": <symbol> <value> expected");
+    }
+    final Map<String, String> defines =
+      current != null ? current.defines : globalDefines;
+    if (defines.containsKey(tokens[0])) {
+      throw parseException(DIRECTIVE_DEFINE + ": symbol already defined: " +
+                           tokens[0]);
+    }
+    defines.put(tokens[0], tokens[1].trim());
+  }
+
+  private void parseSideSetDrct(final String unparsed) throws ParseException
+  {
+    final ProgramSource source = requireProgram(DIRECTIVE_SIDE_SET);
+    if (source.sideSetParsed) {
+      throw parseException(DIRECTIVE_SIDE_SET + " already declared");
+    }
+    if (!source.statements.isEmpty()) {
+      throw parseException(DIRECTIVE_SIDE_SET + ": " +
+                           "this directive is only valid before the " +
+                           "first instruction");
+    }
+    final String[] tokens = unparsed.trim().split("\\p{javaWhitespace}+");
+    if (tokens[0].isEmpty()) {
+      throw parseException(DIRECTIVE_SIDE_SET + ": <count> expected");
+    }
+    final int count = evaluate(source, tokens[0], 0);
+    for (int index = 1; index < tokens.length; index++) {
+      if (ARG_OPT.equals(tokens[index]) && !source.sideSetOpt) {
+        source.sideSetOpt = true;
+      } else if (ARG_PINDIRS.equals(tokens[index]) && !source.sideSetPinDirs) {
+        source.sideSetPinDirs = true;
+      } else {
+        throw parseException(DIRECTIVE_SIDE_SET + ": " +
+                             "unexpected argument: " + tokens[index]);
+      }
+    }
+    if ((count < 0) || (count > 5)) {
+      throw parseException(DIRECTIVE_SIDE_SET + ": " +
+                           "side_set count out of range 0…5: " + count);
+    }
+    if (source.sideSetOpt && (count > 4)) {
+      throw parseException("max. side-set count is 4, if opt is set");
+    }
+    source.sideSetCount = count;
+    source.sideSetParsed = true;
+  }
+
+  private void parseDirective(final String directive) throws ParseException
+  {
+    final String[] tokens = directive.split("\\p{javaWhitespace}+", 2);
+    final String name = tokens[0].toLowerCase();
+    final String args = tokens.length > 1 ? tokens[1].trim() : "";
+    if (DIRECTIVE_PROGRAM.equals(name)) {
+      parseProgramDrct(args);
+    } else if (DIRECTIVE_DEFINE.equals(name)) {
+      parseDefineDrct(args);
+    } else if (DIRECTIVE_LANG_OPT.equals(name)) {
+      // options for generated language bindings are irrelevant here
+    } else if (DIRECTIVE_ORIGIN.equals(name)) {
+      final ProgramSource source = requireProgram(DIRECTIVE_ORIGIN);
+      if (source.originParsed) {
+        throw parseException(DIRECTIVE_ORIGIN + " already declared");
+      }
+      source.origin = evaluate(source, args, 0);
+      if ((source.origin < 0) || (source.origin > MEMORY_SIZE - 1)) {
+        throw parseException(DIRECTIVE_ORIGIN + ": origin out of range " +
+                             "0…" + (MEMORY_SIZE - 1) + ": " + source.origin);
+      }
+      source.originParsed = true;
+    } else if (DIRECTIVE_SIDE_SET.equals(name)) {
+      parseSideSetDrct(args);
+    } else if (DIRECTIVE_WRAP_TARGET.equals(name)) {
+      final ProgramSource source = requireProgram(DIRECTIVE_WRAP_TARGET);
+      if (source.wrapTargetParsed) {
+        throw parseException(DIRECTIVE_WRAP_TARGET + " already declared");
+      }
+      source.wrapTarget = source.statements.size();
+      source.wrapTargetParsed = true;
+    } else if (DIRECTIVE_WRAP.equals(name)) {
+      final ProgramSource source = requireProgram(DIRECTIVE_WRAP);
+      if (source.wrapParsed) {
+        throw parseException(DIRECTIVE_WRAP + " already declared");
+      }
+      if (source.statements.isEmpty()) {
+        throw parseException(DIRECTIVE_WRAP + " before first instruction");
+      }
+      source.wrap = source.statements.size() - 1;
+      source.wrapParsed = true;
+    } else if (DIRECTIVE_WORD.equals(name)) {
+      addStatement(args, true);
+    } else {
+      throw parseException("unsupported directive: " + tokens[0]);
+    }
+  }
+
+  private void addStatement(final String text, final boolean isWord)
+    throws ParseException
+  {
+    final ProgramSource source = requireProgram("instruction");
+    if (source.statements.size() >= MEMORY_SIZE) {
+      throw parseException("program too large: " +
+                           "get more than " + MEMORY_SIZE + " words");
+    }
+    source.statements.add(new Statement(lineIndex, text, isWord));
+  }
+
+  private String parseLabel(final String line) throws ParseException
+  {
+    final int colonPos = line.indexOf(':');
+    if ((colonPos < 0) || line.startsWith("::", colonPos)) return line;
+    String label = line.substring(0, colonPos).trim();
+    final String[] tokens = label.split("\\p{javaWhitespace}+");
+    if ((tokens.length == 2) && ARG_PUBLIC.equalsIgnoreCase(tokens[0])) {
+      label = tokens[1];
+    } else if (tokens.length != 1) {
+      return line;
+    }
+    if (!isIdentifier(label)) return line;
+    final ProgramSource source = requireProgram("label");
+    if (source.labels.containsKey(label)) {
+      throw parseException("label already defined: " + label);
+    }
+    source.labels.put(label, source.statements.size());
+    return line.substring(colonPos + 1).trim();
+  }
+
+  private void parseLines(final BufferedReader reader) throws IOException
+  {
+    final boolean[] inComment = new boolean[1];
+    boolean inCodeBlock = false;
+    String line;
+    while ((line = reader.readLine()) != null) {
+      lineIndex++;
+      if (inCodeBlock) {
+        if (line.trim().startsWith("%}")) inCodeBlock = false;
+        continue;
+      }
+      final String trimmed = stripComments(line, inComment).trim();
+      if (trimmed.startsWith("%")) {
+        if (!trimmed.endsWith("{")) {
+          throw parseException("invalid code block start: " + trimmed);
+        }
+        inCodeBlock = true;
+        continue;
+      }
+      final String statement = parseLabel(trimmed);
+      if (statement.isEmpty()) {
+        // ignore empty lines
+      } else if (statement.startsWith(".")) {
+        parseDirective(statement);
+      } else {
+        addStatement(statement, false);
+      }
+    }
+    if (inCodeBlock) {
+      throw parseException("unterminated code block");
+    }
+    if (sources.isEmpty()) {
+      throw parseException("source does not contain any .program");
+    }
+  }
+
+  /**
+   * Minimal recursive descent evaluator for pioasm integer
+   * expressions.
+   */
+  private class Expression
+  {
+    private final ProgramSource source;
+    private final String text;
+    private final int depth;
+    private int pos;
+
+    private Expression(final ProgramSource source, final String text,
+                       final int depth)
+    {
+      this.source = source;
+      this.text = text;
+      this.depth = depth;
+      pos = 0;
+    }
+
+    private void skipWhitespace()
+    {
+      while ((pos < text.length()) &&
+             Character.isWhitespace(text.charAt(pos))) pos++;
+    }
+
+    private boolean accept(final String token)
+    {
+      skipWhitespace();
+      if (text.startsWith(token, pos)) {
+        pos += token.length();
+        return true;
+      }
+      return false;
+    }
+
+    private int parse() throws ParseException
+    {
+      final int value = parseOr();
+      skipWhitespace();
+      if (pos < text.length()) {
+        throw parseException("unexpected trailing characters in " +
+                             "expression: " + text);
+      }
+      return value;
+    }
+
+    private int parseOr() throws ParseException
+    {
+      int value = parseXor();
+      while (accept("|")) value |= parseXor();
+      return value;
+    }
+
+    private int parseXor() throws ParseException
+    {
+      int value = parseAnd();
+      while (accept("^")) value ^= parseAnd();
+      return value;
+    }
+
+    private int parseAnd() throws ParseException
+    {
+      int value = parseShift();
+      while (accept("&")) value &= parseShift();
+      return value;
+    }
+
+    private int parseShift() throws ParseException
+    {
+      int value = parseSum();
+      while (true) {
+        if (accept("<<")) {
+          value <<= parseSum();
+        } else if (accept(">>")) {
+          value >>= parseSum();
+        } else {
+          return value;
+        }
+      }
+    }
+
+    private int parseSum() throws ParseException
+    {
+      int value = parseProduct();
+      while (true) {
+        if (accept("+")) {
+          value += parseProduct();
+        } else if (accept("-")) {
+          value -= parseProduct();
+        } else {
+          return value;
+        }
+      }
+    }
+
+    private int parseProduct() throws ParseException
+    {
+      int value = parseUnary();
+      while (true) {
+        if (accept("*")) {
+          value *= parseUnary();
+        } else if (accept("/")) {
+          final int divisor = parseUnary();
+          if (divisor == 0) {
+            throw parseException("division by zero: " + text);
+          }
+          value /= divisor;
+        } else {
+          return value;
+        }
+      }
+    }
+
+    private int parseUnary() throws ParseException
+    {
+      if (accept("-")) return -parseUnary();
+      if (accept("~")) return ~parseUnary();
+      if (accept("::")) return Integer.reverse(parseUnary());
+      return parsePrimary();
+    }
+
+    private int parsePrimary() throws ParseException
+    {
+      if (accept("(")) {
+        final int value = parseOr();
+        if (!accept(")")) {
+          throw parseException("missing ')' in expression: " + text);
+        }
+        return value;
+      }
+      skipWhitespace();
+      final int start = pos;
+      while ((pos < text.length()) &&
+             (Character.isLetterOrDigit(text.charAt(pos)) ||
+              (text.charAt(pos) == '_'))) pos++;
+      final String token = text.substring(start, pos);
+      if (token.isEmpty()) {
+        throw parseException("value expected in expression: " + text);
+      }
+      if (Character.isDigit(token.charAt(0))) {
+        return parseNumber(token);
+      }
+      return resolveSymbol(source, token, depth);
+    }
+  }
+
+  private int parseNumber(final String token) throws ParseException
+  {
+    try {
+      final String lower = token.toLowerCase();
+      final long value;
+      if (lower.startsWith("0x")) {
+        value = Long.parseLong(lower.substring(2), 16);
+      } else if (lower.startsWith("0b")) {
+        value = Long.parseLong(lower.substring(2), 2);
+      } else {
+        value = Long.parseLong(lower);
+      }
+      if (value > 0xffffffffL) {
+        throw parseException("number out of 32 bit range: " + token);
+      }
+      return (int)value;
+    } catch (final NumberFormatException e) {
+      throw parseException("invalid number: " + token, e);
+    }
+  }
+
+  private int resolveSymbol(final ProgramSource source, final String symbol,
+                            final int depth)
+    throws ParseException
+  {
+    if (depth > MAX_SYMBOL_DEPTH) {
+      throw parseException("symbol definitions nested too deeply or " +
+                           "recursive: " + symbol);
+    }
+    if (source != null) {
+      final Integer label = source.labels.get(symbol);
+      if (label != null) return label;
+      final String define = source.defines.get(symbol);
+      if (define != null) return evaluate(source, define, depth + 1);
+    }
+    final String define = globalDefines.get(symbol);
+    if (define != null) return evaluate(null, define, depth + 1);
+    throw parseException("undefined symbol: " + symbol);
+  }
+
+  private int evaluate(final ProgramSource source, final String text,
+                       final int depth)
+    throws ParseException
+  {
+    if (text.trim().isEmpty()) {
+      throw parseException("value expected");
+    }
+    return new Expression(source, text, depth).parse();
+  }
+
+  private int evaluateRange(final ProgramSource source, final String text,
+                            final int min, final int max, final String what)
+    throws ParseException
+  {
+    final int value = evaluate(source, text, 0);
+    if ((value < min) || (value > max)) {
+      throw parseException(String.format("%s out of range %d…%d: %d",
+                                         what, min, max, value));
+    }
+    return value;
+  }
+
+  private int lookup(final String[] keywords, final String keyword,
+                     final String what)
+    throws ParseException
+  {
+    final String lower = keyword.trim().toLowerCase();
+    for (int code = 0; code < keywords.length; code++) {
+      if (lower.equals(keywords[code])) return code;
+    }
+    final String expected =
+      List.of(keywords).stream().
+      filter((s) -> (s != null) && !s.isEmpty()).
+      collect(Collectors.joining(", "));
+    throw parseException(String.format("invalid %s \"%s\", expected one " +
+                                       "of %s", what, keyword, expected));
+  }
+
+  private String[] splitArgs(final String args, final int expected,
+                             final String mnemonic)
+    throws ParseException
+  {
+    final String[] tokens = args.split(",", -1);
+    if (tokens.length != expected) {
+      throw parseException(String.format("%s: %d comma-separated " +
+                                         "arguments expected: %s",
+                                         mnemonic, expected, args));
+    }
+    return tokens;
+  }
+
+  private int parseIrqIndex(final ProgramSource source, final String unparsed)
+    throws ParseException
+  {
+    String index = unparsed.trim();
+    boolean rel = false;
+    if (index.toLowerCase().endsWith(" rel")) {
+      index = index.substring(0, index.length() - 4);
+      rel = true;
+    }
+    return evaluateRange(source, index, 0, 7, "irq index") | (rel ? 0x10 : 0);
+  }
+
+  private int encodeJmp(final ProgramSource source, final String args)
+    throws ParseException
+  {
+    final String[] tokens = args.replace(',', ' ').trim().
+      split("\\p{javaWhitespace}+", 2);
+    final int condition;
+    final String target;
+    if (tokens.length == 2) {
+      condition = lookup(JMP_CONDITIONS, tokens[0].replace('~', '!'),
+                         "jmp condition");
+      target = tokens[1];
+    } else {
+      condition = 0;
+      target = tokens[0];
+    }
+    final int address =
+      evaluateRange(source, target, 0, MEMORY_SIZE - 1, "jmp target");
+    return 0x0000 | (condition << 5) | address;
+  }
+
+  private int encodeWait(final ProgramSource source, final String args)
+    throws ParseException
+  {
+    final String[] tokens = args.replace(',', ' ').trim().
+      split("\\p{javaWhitespace}+", 3);
+    if (tokens.length != 3) {
+      throw parseException("wait: <polarity> <source> <index> expected");
+    }
+    final int polarity = evaluateRange(source, tokens[0], 0, 1, "polarity");
+    final int waitSource = lookup(WAIT_SOURCES, tokens[1], "wait source");
+    final int index =
+      waitSource == 2 ?
+      parseIrqIndex(source, tokens[2]) :
+      evaluateRange(source, tokens[2], 0, 31, "wait index");
+    return 0x2000 | (polarity << 7) | (waitSource << 5) | index;
+  }
+
+  private int encodeBitCount(final ProgramSource source, final String unparsed)
+    throws ParseException
+  {
+    return evaluateRange(source, unparsed, 1, 32, "bit count") & 0x1f;
+  }
+
+  private int encodeIn(final ProgramSource source, final String args)
+    throws ParseException
+  {
+    final String[] tokens = splitArgs(args, 2, "in");
+    final int src = lookup(IN_SOURCES, tokens[0], "in source");
+    return 0x4000 | (src << 5) | encodeBitCount(source, tokens[1]);
+  }
+
+  private int encodeOut(final ProgramSource source, final String args)
+    throws ParseException
+  {
+    final String[] tokens = splitArgs(args, 2, "out");
+    final int dst = lookup(OUT_DESTINATIONS, tokens[0], "out destination");
+    return 0x6000 | (dst << 5) | encodeBitCount(source, tokens[1]);
+  }
+
+  private int encodePushPull(final boolean isPull, final String args)
+    throws ParseException
+  {
+    final String ifKeyword = isPull ? "ifempty" : "iffull";
+    boolean ifFlag = false;
+    boolean block = true;
+    boolean blockParsed = false;
+    for (final String token : args.trim().split("\\p{javaWhitespace}+")) {
+      final String lower = token.toLowerCase();
+      if (lower.isEmpty()) {
+        // no arguments
+      } else if (ifKeyword.equals(lower) && !ifFlag) {
+        ifFlag = true;
+      } else if (("block".equals(lower) || "noblock".equals(lower)) &&
+                 !blockParsed) {
+        block = "block".equals(lower);
+        blockParsed = true;
+      } else {
+        throw parseException(String.format("%s: unexpected argument: %s",
+                                           isPull ? "pull" : "push", token));
+      }
+    }
+    return
+      0x8000 | (isPull ? 0x0080 : 0x0000) |
+      (ifFlag ? 0x0040 : 0x0000) | (block ? 0x0020 : 0x0000);
+  }
+
+  private int encodeMov(final String args) throws ParseException
+  {
+    final String[] tokens = splitArgs(args, 2, "mov");
+    final int dst = lookup(MOV_DESTINATIONS, tokens[0], "mov destination");
+    String src = tokens[1].trim();
+    final int op;
+    if (src.startsWith("!") || src.startsWith("~")) {
+      op = 0x1;
+      src = src.substring(1);
+    } else if (src.startsWith("::")) {
+      op = 0x2;
+      src = src.substring(2);
+    } else {
+      op = 0x0;
+    }
+    return
+      0xa000 | (dst << 5) | (op << 3) |
+      lookup(MOV_SOURCES, src, "mov source");
+  }
+
+  private int encodeIrq(final ProgramSource source, final String args)
+    throws ParseException
+  {
+    final String[] tokens = args.trim().split("\\p{javaWhitespace}+", 2);
+    final String mode = tokens[0].toLowerCase();
+    final int clear;
+    final int wait;
+    final String index;
+    if ("set".equals(mode) || "nowait".equals(mode)) {
+      clear = 0; wait = 0;
+    } else if ("wait".equals(mode)) {
+      clear = 0; wait = 1;
+    } else if ("clear".equals(mode)) {
+      clear = 1; wait = 0;
+    } else {
+      return 0xc000 | parseIrqIndex(source, args);
+    }
+    if (tokens.length != 2) {
+      throw parseException("irq: index expected");
+    }
+    return
+      0xc000 | (clear << 6) | (wait << 5) | parseIrqIndex(source, tokens[1]);
+  }
+
+  private int encodeSet(final ProgramSource source, final String args)
+    throws ParseException
+  {
+    final String[] tokens = splitArgs(args, 2, "set");
+    final int dst = lookup(SET_DESTINATIONS, tokens[0], "set destination");
+    return
+      0xe000 | (dst << 5) | evaluateRange(source, tokens[1], 0, 31, "value");
+  }
+
+  /**
+   * Removes a trailing "[delay]" and "side value" (in either order)
+   * from the statement and encodes them into bits 8…12.
+   */
+  private int encodeDelayAndSideSet(final ProgramSource source,
+                                    final StringBuilder statement)
+    throws ParseException
+  {
+    String delay = null;
+    final int openPos = statement.lastIndexOf("[");
+    if (openPos >= 0) {
+      final int closePos = statement.indexOf("]", openPos);
+      if (closePos < 0) {
+        throw parseException("missing ']' of delay");
+      }
+      delay = statement.substring(openPos + 1, closePos);
+      statement.delete(openPos, closePos + 1);
+    }
+    String sideSet = null;
+    final String lower = statement.toString().toLowerCase();
+    for (final String keyword : new String[] { " sideset ", " side " }) {
+      final int sidePos = (lower + " ").indexOf(keyword);
+      if (sidePos >= 0) {
+        sideSet = statement.substring(sidePos + keyword.length() - 1);
+        statement.setLength(sidePos);
+        break;
+      }
+    }
+    final int sideSetBits =
+      source.sideSetCount + (source.sideSetOpt ? 1 : 0);
+    final int delayBits = 5 - sideSetBits;
+    int bits = 0;
+    if (delay != null) {
+      bits |= evaluateRange(source, delay, 0, (0x1 << delayBits) - 1,
+                            "delay");
+    }
+    if (sideSet != null) {
+      if (source.sideSetCount == 0) {
+        throw parseException("side-set specified, but no .side_set " +
+                             "declared for program " + source.id);
+      }
+      final int value =
+        evaluateRange(source, sideSet, 0, (0x1 << source.sideSetCount) - 1,
+                      "side-set value");
+      bits |= (source.sideSetOpt ? 0x10 : 0x00) | (value << delayBits);
+    } else if ((source.sideSetCount > 0) && !source.sideSetOpt) {
+      throw parseException("side-set value required, since .side_set " +
+                           "of program " + source.id + " is not opt");
+    }
+    return (bits & 0x1f) << 8;
+  }
+
+  private int encode(final ProgramSource source, final Statement statement)
+    throws ParseException
+  {
+    lineIndex = statement.lineIndex;
+    if (statement.isWord) {
+      return evaluateRange(source, statement.text, 0, 0xffff, ".word value");
+    }
+    final StringBuilder text = new StringBuilder(statement.text);
+    final int delayAndSideSet = encodeDelayAndSideSet(source, text);
+    final String[] tokens =
+      text.toString().trim().split("\\p{javaWhitespace}+", 2);
+    final String mnemonic = tokens[0].toLowerCase();
+    final String args = tokens.length > 1 ? tokens[1] : "";
+    final int opCode;
+    switch (mnemonic) {
+    case "jmp": opCode = encodeJmp(source, args); break;
+    case "wait": opCode = encodeWait(source, args); break;
+    case "in": opCode = encodeIn(source, args); break;
+    case "out": opCode = encodeOut(source, args); break;
+    case "push": opCode = encodePushPull(false, args); break;
+    case "pull": opCode = encodePushPull(true, args); break;
+    case "mov": opCode = encodeMov(args); break;
+    case "irq": opCode = encodeIrq(source, args); break;
+    case "set": opCode = encodeSet(source, args); break;
+    case "nop":
+      if (!args.trim().isEmpty()) {
+        throw parseException("nop: unexpected argument: " + args);
+      }
+      opCode = 0xa042; // mov y, y
+      break;
+    default:
+      throw parseException("unknown instruction: " + tokens[0]);
+    }
+    return opCode | delayAndSideSet;
+  }
+
+  private Program assemble(final ProgramSource source) throws ParseException
+  {
+    final int length = source.statements.size();
+    if (length == 0) {
+      throw parseException("program does not contain any instruction: " +
+                           source.id);
+    }
+    final short[] instructions = new short[length];
+    for (int address = 0; address < length; address++) {
+      instructions[address] =
+        (short)encode(source, source.statements.get(address));
+    }
+    /*
+     * Like pioasm, wrap and wrap target are relative to the program
+     * start, unless the program has a fixed origin, in which case
+     * they are absolute (just like with ProgramParser).
+     */
+    final int offset = source.origin >= 0 ? source.origin : 0;
+    final int wrap =
+      (offset + (source.wrapParsed ? source.wrap : length - 1)) %
+      MEMORY_SIZE;
+    final int wrapTarget = (offset + source.wrapTarget) % MEMORY_SIZE;
+    return new Program(source.id, source.origin, wrap, wrapTarget,
+                       source.sideSetCount, source.sideSetOpt,
+                       source.sideSetPinDirs, instructions);
+  }
+
+  private List<Program> assemble(final BufferedReader reader)
+    throws IOException
+  {
+    parseLines(reader);
+    final List<Program> programs = new ArrayList<Program>();
+    for (final ProgramSource source : sources) {
+      programs.add(assemble(source));
+    }
+    return Collections.unmodifiableList(programs);
+  }
+
+  private static String hash(final String text)
+  {
+    try {
+      final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      final byte[] hash = digest.digest(text.getBytes(StandardCharsets.UTF_8));
+      final StringBuilder s = new StringBuilder();
+      for (final byte b : hash) {
+        s.append(String.format("%02x", b & 0xff));
+      }
+      return s.toString();
+    } catch (final NoSuchAlgorithmException e) {
+      throw new InternalError("SHA-256 not supported by JRE", e);
+    }
+  }
+
+  /**
+   * Assembles all programs of the given source.  If exactly the same
+   * source text has already been assembled before, the cached
+   * result is returned.
+   *
+   * @param resourceId Name of the source for error messages.
+   * @return Unmodifiable list of all programs of the source, in the
+   * order of their declaration.
+   */
+  public static List<Program> assemble(final String resourceId,
+                                       final String source)
+    throws IOException
+  {
+    if (source == null) {
+      throw new NullPointerException("source");
+    }
+    final String key = hash(source);
+    synchronized(cache) {
+      final List<Program> programs = cache.get(key);
+      if (programs != null) {
+        cacheHits++;
+        return programs;
+      }
+      cacheMisses++;
+    }
+    final List<Program> programs =
+      new ProgramAssembler(resourceId).
+      assemble(new BufferedReader(new StringReader(source)));
+    synchronized(cache) {
+      cache.put(key, programs);
+    }
+    return programs;
+  }
+
+  public static List<Program> assemble(final String resourceId,
+                                       final BufferedReader reader)
+    throws IOException
+  {
+    if (reader == null) {
+      throw new NullPointerException("reader");
+    }
+    final String source;
+    try {
+      source =
+        reader.lines().collect(Collectors.joining(String.format("%n")));
+    } finally {
+      reader.close();
+    }
+    return assemble(resourceId, source);
+  }
+
+  /**
+   * Assembles the source and returns the program with the specified
+   * id, or the only program of the source, if id is null.
+   */
+  public static Program assemble(final String resourceId,
+                                 final BufferedReader reader,
+                                 final String programId)
+    throws IOException
+  {
+    final List<Program> programs = assemble(resourceId, reader);
+    if (programId == null) {
+      if (programs.size() != 1) {
+        throw new ParseException(String.format("%s: source contains %d " +
+                                               "programs; program name " +
+                                               "required",
+                                               resourceId, programs.size()));
+      }
+      return programs.get(0);
+    }
+    for (final Program program : programs) {
+      if (programId.equals(program.getId())) return program;
+    }
+    throw new ParseException(String.format("%s: program not found: %s",
+                                           resourceId, programId));
+  }
+
+  public static long getCacheHits()
+  {
+    synchronized(cache) {
+      return cacheHits;
+    }
+  }
+
+  public static long getCacheMisses()
+  {
+    synchronized(cache) {
+      return cacheMisses;
+    }
+  }
+
+  public static void clearCache()
+  {
+    synchronized(cache) {
+      cache.clear();
+    }
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -104,7 +104,7 @@ public class ProgramParser implements Constants
   private int parseDecimalInt(final String decInt) throws ParseException
   {
     try {
-      return Integer.parseInt(decInt);
+      return Integer.parseInt(decInt.trim());
     } catch (final NumberFormatException e) {
       throw parseException("expected decimal integer: " + decInt, e);
     }
@@ -242,7 +242,7 @@ public class ProgramParser implements Constants
                            "this directive is only valid before the " +
                            "first instruction");
     }
-    final String[] tokens = unparsed.split("[\\p{javaWhitespace}]*");
+    final String[] tokens = unparsed.trim().split("[\\p{javaWhitespace}]+");
     if (tokens.length == 0) {
       throw parseException(DIRECTIVE_SIDE_SET + ": <count> expected");
     }
@@ -278,10 +278,11 @@ public class ProgramParser implements Constants
       parseProgramDrct(directive.substring(DIRECTIVE_PROGRAM.length()));
     } else if (directive.startsWith(DIRECTIVE_ORIGIN)) {
       parseOriginDrct(directive.substring(DIRECTIVE_ORIGIN.length()));
-    } else if (directive.startsWith(DIRECTIVE_WRAP)) {
-      parseWrapDrct(directive.substring(DIRECTIVE_WRAP.length()));
     } else if (directive.startsWith(DIRECTIVE_WRAP_TARGET)) {
+      // check before DIRECTIVE_WRAP, since the latter is a prefix
       parseWrapTargetDrct(directive.substring(DIRECTIVE_WRAP_TARGET.length()));
+    } else if (directive.startsWith(DIRECTIVE_WRAP)) {
+      parseWrapDrct(directive.substring(DIRECTIVE_WRAP.length()));
     } else if (directive.startsWith(DIRECTIVE_SIDE_SET)) {
       parseSideSetDrct(directive.substring(DIRECTIVE_SIDE_SET.length()));
     } else if (directive.startsWith(DIRECTIVE_WORD)) {
@@ -325,7 +326,7 @@ public class ProgramParser implements Constants
       wrapTarget = origin >= 0 ? origin : 0;
     }
     if (!wrapParsed) {
-      wrapTarget =
+      wrap =
         origin >= 0 ? ((origin + address - 1) % MEMORY_SIZE) : address - 1;
     }
     final short[] trimmedInstructions = new short[address];
@@ -29,12 +29,17 @@ import java.io.PrintStream;
 import org.soundpaint.rp2040pio.AddressSpace;
 import org.soundpaint.rp2040pio.Constants;
 import org.soundpaint.rp2040pio.Emulator;
+import org.soundpaint.rp2040pio.ExecTrace;
 import org.soundpaint.rp2040pio.PicoEmuRegisters;
+import org.soundpaint.rp2040pio.Probe;
+import org.soundpaint.rp2040pio.SampleSubscription;
+import org.soundpaint.rp2040pio.StateTrace;
+import org.soundpaint.rp2040pio.WriteBatch;
 
 public class SDK implements Constants
 {
   private final PrintStream console;
-  private final AddressSpace memory;
+  private final BufferedAddressSpace memory;
 
   /*
    * TODO: There is only a single GPIO, but each of the two PIOs has
@@ -61,10 +66,10 @@ public class SDK implements Constants
     if (memory == null) {
       throw new NullPointerException("memory");
     }
-    this.memory = memory;
-    gpioSdk = new GPIOSDK(memory);
-    pio0Sdk = new PIOSDK(0, memory, gpioSdk);
-    pio1Sdk = new PIOSDK(1, memory, gpioSdk);
+    this.memory = BufferedAddressSpace.of(memory);
+    gpioSdk = new GPIOSDK(this.memory);
+    pio0Sdk = new PIOSDK(0, this.memory, gpioSdk);
+    pio1Sdk = new PIOSDK(1, this.memory, gpioSdk);
   }
 
   public PrintStream getConsole() { return console; }
@@ -72,11 +77,51 @@ public class SDK implements Constants
   public PIOSDK getPIO0SDK() { return pio0Sdk; }
   public PIOSDK getPIO1SDK() { return pio1Sdk; }
 
+  /**
+   * Opens a write transaction for the current thread.  Until the
+   * transaction is committed, all writes of the current thread that
+   * go through this SDK (including those of its GPIO and PIO SDKs)
+   * are queued and then sent to the emulator as a single batch that
+   * is applied between two clock phases.  Reads and waits commit
+   * pending writes before being performed.  Transactions may be
+   * nested, with nested transactions joining the enclosing one, such
+   * that pending writes are sent only when the outermost transaction
+   * is committed.  If a transaction can not be completed, it should
+   * be aborted, thereby discarding the pending writes of that
+   * transaction level, but not those of enclosing levels.
+   *
+   * @see BufferedAddressSpace
+   */
+  public void beginTransaction()
+  {
+    memory.beginTransaction();
+  }
+
+  public void commitTransaction() throws IOException
+  {
+    memory.commitTransaction();
+  }
+
+  public void abortTransaction()
+  {
+    memory.abortTransaction();
+  }
+
+  public boolean isTransactionOpen()
+  {
+    return memory.isTransactionOpen();
+  }
+
   public int readAddress(final int address) throws IOException
   {
     return memory.readAddress(address);
   }
 
+  public int[] readAddresses(final int[] addresses) throws IOException
+  {
+    return memory.readAddresses(addresses);
+  }
+
   public int readAddress(final int address, final int msb, final int lsb)
     throws IOException
   {
@@ -101,6 +146,11 @@ public class SDK implements Constants
     memory.writeAddressMasked(address, bits, mask, xor);
   }
 
+  public void writeAddressesMasked(final WriteBatch batch) throws IOException
+  {
+    memory.writeAddressesMasked(batch);
+  }
+
   public int wait(final int address, final int expectedValue)
     throws IOException
   {
@@ -129,6 +179,95 @@ public class SDK implements Constants
                          cyclesTimeout, millisTimeout);
   }
 
+  /**
+   * Runs the specified number of cycles, sampling the specified
+   * probes once per cycle.  Requires the master clock to be in
+   * single step mode.
+   *
+   * @see AddressSpace#runCycles(Probe[], int)
+   */
+  public int[] runCycles(final Probe[] probes, final int cycles)
+    throws IOException
+  {
+    return memory.runCycles(probes, cycles);
+  }
+
+  /**
+   * Streaming variant of method runCycles().
+   *
+   * @see AddressSpace#runCycles(Probe[], int, int,
+   * AddressSpace.SampleConsumer)
+   */
+  public void runCycles(final Probe[] probes, final int cycles,
+                        final int chunkCycles,
+                        final AddressSpace.SampleConsumer consumer)
+    throws IOException
+  {
+    memory.runCycles(probes, cycles, chunkCycles, consumer);
+  }
+
+  /**
+   * Subscribes for sampling the specified probes in every cycle.
+   *
+   * @see AddressSpace#subscribe
+   */
+  public int subscribe(final Probe[] probes, final int capacityCycles,
+                       final boolean lossless)
+    throws IOException
+  {
+    return memory.subscribe(probes, capacityCycles, lossless);
+  }
+
+  /**
+   * @see AddressSpace#fetchSamples
+   */
+  public int fetchSamples(final int subscriptionId, final int[] samples,
+                          final int maxCycles, final long millisTimeout)
+    throws IOException
+  {
+    return memory.fetchSamples(subscriptionId, samples, maxCycles,
+                               millisTimeout);
+  }
+
+  public SampleSubscription.Statistics
+    getSubscriptionStatistics(final int subscriptionId)
+    throws IOException
+  {
+    return memory.getSubscriptionStatistics(subscriptionId);
+  }
+
+  public void unsubscribe(final int subscriptionId) throws IOException
+  {
+    memory.unsubscribe(subscriptionId);
+  }
+
+  /**
+   * @see AddressSpace#fetchStateTrace
+   */
+  public StateTrace.Snapshot fetchStateTrace(final long maxCycles)
+    throws IOException
+  {
+    return memory.fetchStateTrace(maxCycles);
+  }
+
+  /**
+   * @see AddressSpace#startExecTrace
+   */
+  public void startExecTrace(final int pioNum, final int smNum)
+    throws IOException
+  {
+    memory.startExecTrace(pioNum, smNum);
+  }
+
+  /**
+   * @see AddressSpace#stopExecTrace
+   */
+  public ExecTrace.Recording stopExecTrace(final int pioNum, final int smNum)
+    throws IOException
+  {
+    return memory.stopExecTrace(pioNum, smNum);
+  }
+
   public void awaitNextCycle() throws IOException
   {
     memory.waitAddress(EMULATOR_BASE, 0xffffffff, 0x0, 1, 0);